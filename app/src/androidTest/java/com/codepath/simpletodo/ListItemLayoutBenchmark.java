@@ -0,0 +1,124 @@
+package com.codepath.simpletodo;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of the cost of a row of the todoitem list: inflating it, then measuring and
+ * laying it out, for the flat list_item layout and for the former nested one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ListItemLayoutBenchmark {
+
+    private static final String LOG_TAG = ListItemLayoutBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 2000;
+    private static final int WARMUP_ROWS = 200;
+    private static final int WIDTH_PX = 1080;
+
+    /** Time per row, in nanoseconds, of each phase */
+    private static class RowCost {
+        long inflateNanos;
+        long measureNanos;
+        long layoutNanos;
+
+        long total() {
+            return inflateNanos + measureNanos + layoutNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "inflate " + inflateNanos / 1000 + " us, measure " + measureNanos / 1000
+                    + " us, layout " + layoutNanos / 1000 + " us";
+        }
+    }
+
+    @Test
+    public void flatRow_isCheaperThanNestedRow() throws Exception {
+        final Context context = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+        final Resources testResources = InstrumentationRegistry.getContext().getResources();
+        final RowCost[] costs = new RowCost[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Both layouts are inflated with the same themed inflater; the nested one, and
+                // its ids, come from the test package
+                LayoutInflater inflater = LayoutInflater.from(context);
+                FrameLayout parent = new FrameLayout(context);
+                Rows flat = new Rows(inflater, parent, context.getResources(), R.layout.list_item,
+                        R.id.name, R.id.notes, R.id.status, R.id.priority);
+                Rows nested = new Rows(inflater, parent, testResources,
+                        com.codepath.simpletodo.test.R.layout.list_item_nested,
+                        com.codepath.simpletodo.test.R.id.name, com.codepath.simpletodo.test.R.id.notes,
+                        com.codepath.simpletodo.test.R.id.status, com.codepath.simpletodo.test.R.id.priority);
+
+                flat.measure(WARMUP_ROWS);
+                nested.measure(WARMUP_ROWS);
+                costs[0] = flat.measure(ROWS);
+                costs[1] = nested.measure(ROWS);
+            }
+        });
+        Log.i(LOG_TAG, "Flat row: " + costs[0] + "; nested row: " + costs[1]);
+
+        assertTrue("Flat row took " + costs[0].total() + " ns, nested row " + costs[1].total() + " ns",
+                costs[0].total() < costs[1].total());
+    }
+
+    /**
+     * Rows of one of the layouts, inflated, bound, measured and laid out like the list does.
+     */
+    private static class Rows {
+        private final LayoutInflater mInflater;
+        private final FrameLayout mParent;
+        private final Resources mResources;
+        private final int mLayout;
+        private final int[] mTextIds;
+
+        Rows(LayoutInflater inflater, FrameLayout parent, Resources resources, int layout, int... textIds) {
+            mInflater = inflater;
+            mParent = parent;
+            mResources = resources;
+            mLayout = layout;
+            mTextIds = textIds;
+        }
+
+        // Time each phase, per row
+        RowCost measure(int rows) {
+            int widthSpec = View.MeasureSpec.makeMeasureSpec(WIDTH_PX, View.MeasureSpec.EXACTLY);
+            int heightSpec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+            RowCost cost = new RowCost();
+            for (int i = 0; i < rows; i++) {
+                long start = System.nanoTime();
+                View row = mInflater.inflate(mResources.getLayout(mLayout), mParent, false);
+                cost.inflateNanos += System.nanoTime() - start;
+
+                for (int id : mTextIds) {
+                    ((TextView) row.findViewById(id)).setText("Field " + id % 7 + " of item " + i);
+                }
+                start = System.nanoTime();
+                row.measure(widthSpec, heightSpec);
+                long measured = System.nanoTime();
+                row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+                cost.measureNanos += measured - start;
+                cost.layoutNanos += System.nanoTime() - measured;
+            }
+            cost.inflateNanos /= rows;
+            cost.measureNanos /= rows;
+            cost.layoutNanos /= rows;
+            return cost;
+        }
+    }
+}
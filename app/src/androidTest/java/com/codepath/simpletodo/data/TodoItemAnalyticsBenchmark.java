@@ -0,0 +1,242 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.AnalyticsEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.StatusHistoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests and benchmark of the status history and of
+ * {@link AnalyticsEntry#CONTENT_URI}, on an in-memory database: every write path records its
+ * status changes, and with 1M changes the percentiles stay within a few percent of the exact
+ * ones while the analytics query costs the same as with a few.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemAnalyticsBenchmark {
+
+    private static final String LOG_TAG = TodoItemAnalyticsBenchmark.class.getSimpleName();
+
+    private static final int TRANSITIONS = 1000000;
+
+    // Status changes made through the provider, to time the triggers on real updates
+    private static final int ITEMS = 2000;
+    private static final int ROUNDS = 5;
+
+    private static final int QUERY_RUNS = 20;
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(mContext, null);
+        mDb = mDbHelper.getWritableDatabase();
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    private long[] readMetric(int metric) {
+        Cursor cursor = mProvider.query(AnalyticsEntry.CONTENT_URI, new String[] {
+                AnalyticsEntry.COLUMN_METRIC, AnalyticsEntry.COLUMN_COUNT, AnalyticsEntry.COLUMN_MIN_MILLIS,
+                AnalyticsEntry.COLUMN_P50_MILLIS, AnalyticsEntry.COLUMN_P90_MILLIS,
+                AnalyticsEntry.COLUMN_P99_MILLIS, AnalyticsEntry.COLUMN_MAX_MILLIS }, null, null, null);
+        try {
+            assertEquals(AnalyticsEntry.METRIC_COUNT, cursor.getCount());
+            assertTrue(cursor.moveToPosition(metric));
+            assertEquals(metric, cursor.getInt(0));
+            return new long[] { cursor.getLong(1), cursor.getLong(2), cursor.getLong(3), cursor.getLong(4),
+                    cursor.getLong(5), cursor.getLong(6) };
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long historyCount(long itemId) {
+        return DatabaseUtils.queryNumEntries(mDb, StatusHistoryEntry.TABLE_NAME,
+                StatusHistoryEntry.COLUMN_ITEM_ID + " = ?", new String[] { String.valueOf(itemId) });
+    }
+
+    private Uri insertItem(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        return mProvider.insert(ItemEntry.CONTENT_URI, values);
+    }
+
+    private ContentValues status(int status) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_STATUS, status);
+        return values;
+    }
+
+    @Test
+    public void everyWritePath_recordsStatusChanges() throws Exception {
+        Uri uri = insertItem("Water plants");
+        long id = ContentUris.parseId(uri);
+        Uri other = insertItem("Pay rent");
+        assertEquals(1, historyCount(id));
+
+        // Single item update, then the fast path, then a multi-row update
+        assertEquals(1, mProvider.update(uri, status(ItemEntry.STATUS_INPROGRESS), null, null));
+        assertNotNull(mProvider.call(TodoItemContract.METHOD_CYCLE_STATUS, String.valueOf(id), null));
+        assertEquals(2, mProvider.update(ItemEntry.CONTENT_URI, status(ItemEntry.STATUS_DONE), null, null));
+        // Only one row changed status, and updates of other columns record nothing
+        ContentValues priority = new ContentValues();
+        priority.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_HIGH);
+        mProvider.update(uri, priority, null, null);
+
+        assertEquals(3, historyCount(id));
+        assertEquals(2, historyCount(ContentUris.parseId(other)));
+        assertEquals(2, readMetric(AnalyticsEntry.METRIC_TIME_IN_TODO)[0]);
+        assertEquals(1, readMetric(AnalyticsEntry.METRIC_TIME_IN_PROGRESS)[0]);
+        assertEquals(0, readMetric(AnalyticsEntry.METRIC_TIME_IN_DONE)[0]);
+        assertEquals(2, readMetric(AnalyticsEntry.METRIC_CYCLE_TIME)[0]);
+
+        // Reopening measures the time spent DONE; the new cycle still starts at creation
+        mProvider.call(TodoItemContract.METHOD_TOGGLE_STATUS, String.valueOf(id), null);
+        mProvider.call(TodoItemContract.METHOD_TOGGLE_STATUS, String.valueOf(id), null);
+        assertEquals(1, readMetric(AnalyticsEntry.METRIC_TIME_IN_DONE)[0]);
+        assertEquals(3, readMetric(AnalyticsEntry.METRIC_CYCLE_TIME)[0]);
+
+        // Deleting items keeps their history and the aggregates
+        mProvider.delete(ItemEntry.CONTENT_URI, null, null);
+        assertEquals(5, historyCount(id));
+        assertEquals(3, readMetric(AnalyticsEntry.METRIC_CYCLE_TIME)[0]);
+    }
+
+    @Test
+    public void providerTransitions_costOfTheTriggers() throws Exception {
+        ContentValues[] values = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            values[i] = new ContentValues();
+            values[i].put(ItemEntry.COLUMN_ITEM_NAME, "Item " + i);
+            values[i].put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(ItemEntry.CONTENT_URI, values));
+        long firstId = DatabaseUtils.longForQuery(mDb, "SELECT MIN(" + ItemEntry._ID + ") FROM "
+                + ItemEntry.TABLE_NAME, null);
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < ITEMS; i++) {
+                mProvider.call(TodoItemContract.METHOD_CYCLE_STATUS, String.valueOf(firstId + i), null);
+            }
+        }
+        long elapsedNanos = SystemClock.elapsedRealtimeNanos() - start;
+        int transitions = ITEMS * ROUNDS;
+        Log.i(LOG_TAG, "Provider: " + transitions + " status changes in " + elapsedNanos / 1000000 + " ms, "
+                + elapsedNanos / 1000 / transitions + " us each");
+
+        // Each cycle goes TODO, IN PROGRESS, DONE, TODO
+        long[] done = readMetric(AnalyticsEntry.METRIC_TIME_IN_DONE);
+        long[] cycle = readMetric(AnalyticsEntry.METRIC_CYCLE_TIME);
+        assertEquals(ITEMS * (ROUNDS / 3), done[0]);
+        assertEquals(ITEMS * ((ROUNDS + 1) / 3), cycle[0]);
+        assertEquals(ITEMS * (1 + ROUNDS), DatabaseUtils.queryNumEntries(mDb, StatusHistoryEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void millionTransitions_keepAccuratePercentilesAndFlatQueries() throws Exception {
+        long smallQueryNanos = timeQuery();
+
+        // Durations from minutes to weeks, written as history rows so that the aggregate
+        // triggers run exactly as they do for real changes
+        Random random = new Random(41L);
+        long[] durations = new long[TRANSITIONS];
+        SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + StatusHistoryEntry.TABLE_NAME + " ("
+                + StatusHistoryEntry.COLUMN_ITEM_ID + ", " + StatusHistoryEntry.COLUMN_FROM_STATUS + ", "
+                + StatusHistoryEntry.COLUMN_TO_STATUS + ", " + StatusHistoryEntry.COLUMN_CHANGED_AT + ", "
+                + StatusHistoryEntry.COLUMN_TIME_IN_STATE + ") VALUES (?, ?, ?, ?, ?)");
+        long start = SystemClock.elapsedRealtimeNanos();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < TRANSITIONS; i++) {
+                durations[i] = (long) Math.exp(Math.log(6 * 3600 * 1000L) + 1.5 * random.nextGaussian());
+                insert.bindLong(1, i % 10000);
+                insert.bindLong(2, ItemEntry.STATUS_TODO);
+                insert.bindLong(3, ItemEntry.STATUS_INPROGRESS);
+                insert.bindLong(4, i);
+                insert.bindLong(5, durations[i]);
+                insert.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insert.close();
+        }
+        long elapsedNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.i(LOG_TAG, "History: " + TRANSITIONS + " transitions in " + elapsedNanos / 1000000 + " ms, "
+                + elapsedNanos / TRANSITIONS + " ns each, aggregates included");
+
+        Arrays.sort(durations);
+        long[] metric = readMetric(AnalyticsEntry.METRIC_TIME_IN_TODO);
+        assertEquals(TRANSITIONS, metric[0]);
+        assertEquals(durations[0], metric[1]);
+        assertEquals(durations[TRANSITIONS - 1], metric[5]);
+        double[] quantiles = { 0.5, 0.9, 0.99 };
+        for (int i = 0; i < quantiles.length; i++) {
+            long exact = durations[(int) Math.ceil(quantiles[i] * TRANSITIONS) - 1];
+            double error = Math.abs(metric[2 + i] - exact) / (double) exact;
+            Log.i(LOG_TAG, "p" + (int) (quantiles[i] * 100) + ": " + metric[2 + i] + " ms, exact " + exact
+                    + " ms, error " + String.format("%.2f%%", error * 100));
+            assertTrue("p" + (int) (quantiles[i] * 100) + " off by " + error, error < 0.05);
+        }
+
+        // The query reads the aggregates, not the 1M rows
+        long largeQueryNanos = timeQuery();
+        Log.i(LOG_TAG, "Analytics query: " + smallQueryNanos / 1000 + " us empty, "
+                + largeQueryNanos / 1000 + " us after " + TRANSITIONS + " transitions");
+        assertTrue("Query went from " + smallQueryNanos + " to " + largeQueryNanos + " ns",
+                largeQueryNanos < smallQueryNanos * 3 + 2000000);
+    }
+
+    // Median time of the analytics query, each run after dropping the cached result
+    private long timeQuery() {
+        TodoItemQueryCache cache = mProvider.getQueryCache();
+        long[] nanos = new long[QUERY_RUNS];
+        for (int i = 0; i < QUERY_RUNS; i++) {
+            cache.onWriteStarted();
+            cache.onWriteFinished();
+            long start = SystemClock.elapsedRealtimeNanos();
+            Cursor cursor = mProvider.query(AnalyticsEntry.CONTENT_URI, null, null, null, null);
+            try {
+                assertEquals(AnalyticsEntry.METRIC_COUNT, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos[QUERY_RUNS / 2];
+    }
+}
@@ -0,0 +1,187 @@
+package com.codepath.simpletodo.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ArchiveEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of archiving on a 500k item history, a year of use: reports the size of the hot
+ * table and the latency of the list queries before and after old DONE items are archived.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemArchiveBenchmark {
+
+    private static final String LOG_TAG = TodoItemArchiveBenchmark.class.getSimpleName();
+
+    private static final int HISTORY = 500000;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int RUNS = 5;
+
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemProvider mProvider;
+    private long mNow;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(context, null);
+        mDb = mDbHelper.getWritableDatabase();
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(context, null);
+        mNow = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    // Items created over the last year, nine in ten of them DONE at some point since
+    private int insertHistory() {
+        Random random = new Random(17L);
+        int done = 0;
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME + " ("
+                    + ItemEntry.COLUMN_ITEM_NAME + ", " + ItemEntry.COLUMN_ITEM_PRIORITY + ", "
+                    + ItemEntry.COLUMN_ITEM_STATUS + ", " + ItemEntry.COLUMN_ITEM_RANK + ", "
+                    + ItemEntry.COLUMN_ITEM_DONE_AT + ") VALUES (?, ?, ?, ?, ?)");
+            for (int i = 0; i < HISTORY; i++) {
+                insert.bindString(1, "Item " + i);
+                insert.bindLong(2, random.nextInt(3));
+                insert.bindLong(4, (i + 1) * TodoItemRanks.GAP);
+                if (random.nextInt(10) != 0) {
+                    insert.bindLong(3, ItemEntry.STATUS_DONE);
+                    // Older items were finished longer ago
+                    insert.bindLong(5, mNow - (long) (HISTORY - i) * 365 * DAY_MILLIS / HISTORY);
+                    done++;
+                } else {
+                    insert.bindLong(3, random.nextInt(2));
+                    insert.bindNull(5);
+                }
+                insert.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return done;
+    }
+
+    private long count(String table) {
+        return DatabaseUtils.queryNumEntries(mDb, table);
+    }
+
+    // Time to read the catalog list, the way CatalogActivity does, and a status filter
+    private long timeListQueries() {
+        Uri windowed = ItemEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_WINDOWED, "true").build();
+        String[] projection = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_STATUS };
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(windowed, projection, null, null, ItemEntry.COLUMN_ITEM_RANK);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+            // Bypass the query cache, which would answer the repeated runs
+            cursor = mDb.query(ItemEntry.TABLE_NAME, projection, ItemEntry.COLUMN_ITEM_STATUS + " = ?",
+                    new String[] { String.valueOf(ItemEntry.STATUS_INPROGRESS) }, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    @Test
+    public void archiving_shrinksTheHotTableAndSpeedsUpTheList() throws Exception {
+        int done = insertHistory();
+        long hotBefore = count(ItemEntry.TABLE_NAME);
+        long nanosBefore = timeListQueries();
+
+        long start = System.nanoTime();
+        Bundle result = mProvider.call(TodoItemContract.METHOD_ARCHIVE_DONE,
+                String.valueOf(TodoItemContract.DEFAULT_ARCHIVE_AGE_MILLIS), null);
+        long archiveNanos = System.nanoTime() - start;
+        int archived = result.getInt(TodoItemContract.EXTRA_ARCHIVED_COUNT);
+
+        long hotAfter = count(ItemEntry.TABLE_NAME);
+        long nanosAfter = timeListQueries();
+        Log.i(LOG_TAG, "Hot table: " + hotBefore + " items, list in " + nanosBefore / 1000000 + " ms before; "
+                + hotAfter + " items, list in " + nanosAfter / 1000000 + " ms after archiving "
+                + archived + " items in " + archiveNanos / 1000000 + " ms");
+
+        // About eleven of the twelve months of DONE items are old enough to archive
+        assertTrue(archived > done * 10 / 12);
+        assertEquals(HISTORY, hotAfter + archived);
+        assertEquals(archived, count(ArchiveEntry.TABLE_NAME));
+        assertEquals(HISTORY, count(ArchiveEntry.VIEW_ALL_NAME));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + ItemEntry.TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_ITEM_STATUS + " = " + ItemEntry.STATUS_DONE + " AND "
+                + ItemEntry.COLUMN_ITEM_DONE_AT + " < ?",
+                new String[] { String.valueOf(mNow - TodoItemContract.DEFAULT_ARCHIVE_AGE_MILLIS) }));
+        assertTrue("List took " + nanosAfter + " ns after archiving, " + nanosBefore + " ns before",
+                nanosAfter * 2 < nanosBefore);
+
+        // Nothing is left to archive, and archived items can still be found by name
+        result = mProvider.call(TodoItemContract.METHOD_ARCHIVE_DONE,
+                String.valueOf(TodoItemContract.DEFAULT_ARCHIVE_AGE_MILLIS), null);
+        assertEquals(0, result.getInt(TodoItemContract.EXTRA_ARCHIVED_COUNT));
+        Cursor cursor = mProvider.query(ItemEntry.buildSearchUri("item 12345").buildUpon()
+                        .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_ARCHIVED, "true").build(),
+                new String[] { ItemEntry._ID, ItemEntry.COLUMN_ITEM_ARCHIVED }, null, null, null);
+        try {
+            int archivedMatches = 0;
+            while (cursor.moveToNext()) {
+                archivedMatches += cursor.getInt(1);
+            }
+            assertTrue(archivedMatches > 0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void archivingInSmallBatches_movesEveryOldItem() throws Exception {
+        insertHistory();
+        Bundle extras = new Bundle();
+        extras.putInt(TodoItemContract.EXTRA_BATCH_SIZE, 7);
+        long maxAge = 300 * DAY_MILLIS;
+        long expected = DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + ItemEntry.TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_ITEM_STATUS + " = " + ItemEntry.STATUS_DONE + " AND "
+                + ItemEntry.COLUMN_ITEM_DONE_AT + " < ?", new String[] { String.valueOf(mNow - maxAge) });
+        Bundle result = mProvider.call(TodoItemContract.METHOD_ARCHIVE_DONE, String.valueOf(maxAge), extras);
+        assertTrue(result.getInt(TodoItemContract.EXTRA_ARCHIVED_COUNT) >= expected);
+        assertEquals(HISTORY, count(ArchiveEntry.VIEW_ALL_NAME));
+    }
+}
@@ -0,0 +1,152 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ItemTagEntry;
+import com.codepath.simpletodo.data.TodoItemContract.TagEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks tag, status and priority filters answered by {@link TodoItemBitmapIndex}
+ * against the equivalent SQL, over 1M items and 1k tags. Timings are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemBitmapIndexBenchmark {
+
+    private static final String LOG_TAG = TodoItemBitmapIndexBenchmark.class.getSimpleName();
+
+    private static final int ITEMS = 1000000;
+    private static final int TAGS = 1000;
+    private static final int MAX_TAGS_PER_ITEM = 4;
+    private static final int RUNS = 20;
+
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemBitmapIndex mIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        mDbHelper = new TodoItemDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        mDb = mDbHelper.getWritableDatabase();
+        Random random = new Random(17L);
+
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement insertTag = mDb.compileStatement("INSERT INTO " + TagEntry.TABLE_NAME
+                    + " (" + TagEntry.COLUMN_TAG_NAME + ") VALUES (?)");
+            for (int t = 0; t < TAGS; t++) {
+                insertTag.bindString(1, "tag" + t);
+                insertTag.executeInsert();
+            }
+
+            SQLiteStatement insertItem = mDb.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME
+                    + " (" + ItemEntry.COLUMN_ITEM_NAME + ", " + ItemEntry.COLUMN_ITEM_STATUS + ", "
+                    + ItemEntry.COLUMN_ITEM_PRIORITY + ") VALUES (?, ?, ?)");
+            SQLiteStatement insertItemTag = mDb.compileStatement("INSERT OR IGNORE INTO " + ItemTagEntry.TABLE_NAME
+                    + " (" + ItemTagEntry.COLUMN_ITEM_ID + ", " + ItemTagEntry.COLUMN_TAG_ID + ") VALUES (?, ?)");
+            TodoItemGenerator generator = new TodoItemGenerator(17L);
+            for (int i = 0; i < ITEMS; i++) {
+                insertItem.bindString(1, "Item " + i);
+                insertItem.bindLong(2, generator.nextStatus());
+                insertItem.bindLong(3, generator.nextPriority());
+                long id = insertItem.executeInsert();
+                int tagCount = random.nextInt(MAX_TAGS_PER_ITEM + 1);
+                for (int t = 0; t < tagCount; t++) {
+                    // Skewed towards the first tags, like real tag usage
+                    double r = random.nextDouble();
+                    insertItemTag.bindLong(1, id);
+                    insertItemTag.bindLong(2, 1 + (int) (TAGS * r * r * r));
+                    insertItemTag.executeInsert();
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        mIndex = new TodoItemBitmapIndex();
+        long start = System.nanoTime();
+        mIndex.ensureLoaded(mDb);
+        Log.i(LOG_TAG, "Index loaded in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    private int[] querySql(String sql, String[] args) {
+        Cursor cursor = mDb.rawQuery(sql, args);
+        try {
+            int[] ids = new int[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i++] = cursor.getInt(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void andFilter_twoTagsAndStatus() throws Exception {
+        String sql = "SELECT " + ItemEntry._ID + " FROM " + ItemEntry.TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_ITEM_STATUS + "=?"
+                + " AND " + ItemEntry._ID + " IN (SELECT " + ItemTagEntry.COLUMN_ITEM_ID + " FROM "
+                + ItemTagEntry.TABLE_NAME + " WHERE " + ItemTagEntry.COLUMN_TAG_ID + "=?)"
+                + " AND " + ItemEntry._ID + " IN (SELECT " + ItemTagEntry.COLUMN_ITEM_ID + " FROM "
+                + ItemTagEntry.TABLE_NAME + " WHERE " + ItemTagEntry.COLUMN_TAG_ID + "=?)"
+                + " ORDER BY " + ItemEntry._ID;
+        String[] tags = { "tag1", "tag5" };
+        String[] args = { String.valueOf(ItemEntry.STATUS_TODO), "2", "6" };
+        compare("AND", sql, args, tags, true, ItemEntry.STATUS_TODO, null);
+    }
+
+    @Test
+    public void orFilter_threeTagsAndPriority() throws Exception {
+        String sql = "SELECT " + ItemEntry._ID + " FROM " + ItemEntry.TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_ITEM_PRIORITY + "=?"
+                + " AND " + ItemEntry._ID + " IN (SELECT " + ItemTagEntry.COLUMN_ITEM_ID + " FROM "
+                + ItemTagEntry.TABLE_NAME + " WHERE " + ItemTagEntry.COLUMN_TAG_ID + " IN (?, ?, ?))"
+                + " ORDER BY " + ItemEntry._ID;
+        String[] tags = { "tag10", "tag200", "tag900" };
+        String[] args = { String.valueOf(ItemEntry.PRIORITY_HIGH), "11", "201", "901" };
+        compare("OR", sql, args, tags, false, null, ItemEntry.PRIORITY_HIGH);
+    }
+
+    private void compare(String name, String sql, String[] args, String[] tags, boolean matchAll,
+                         Integer status, Integer priority) {
+        int[] expected = querySql(sql, args);
+        assertArrayEquals(expected, mIndex.query(tags, matchAll, status, priority));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            querySql(sql, args);
+        }
+        long sqlNanos = (System.nanoTime() - start) / RUNS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            mIndex.query(tags, matchAll, status, priority);
+        }
+        long bitmapNanos = (System.nanoTime() - start) / RUNS;
+
+        Log.i(LOG_TAG, name + " filter, " + expected.length + " matches: SQL " + sqlNanos / 1000
+                + " us, bitmaps " + bitmapNanos / 1000 + " us");
+    }
+}
@@ -0,0 +1,150 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepath.simpletodo.data.TodoItemContract.DraftEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for the drafts of {@link TodoItemProvider}, on an in-memory database:
+ * an item has one draft, and writing drafts neither notifies observers nor drops cached results.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemDraftTest {
+
+    private static final int DRAFT_WRITES = 2000;
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private TodoItemProvider mProvider;
+    private HandlerThread mObserverThread;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(mContext, null);
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        mObserverThread = new HandlerThread("observer");
+        mObserverThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mObserverThread.quit();
+        mDbHelper.close();
+    }
+
+    private long insertItem(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        return ContentUris.parseId(mProvider.insert(ItemEntry.CONTENT_URI, values));
+    }
+
+    private void writeDraft(long itemId, String name) {
+        ContentValues values = new ContentValues();
+        values.put(DraftEntry.COLUMN_DRAFT_ITEM_ID, itemId);
+        values.put(DraftEntry.COLUMN_DRAFT_NAME, name);
+        values.put(DraftEntry.COLUMN_DRAFT_PRIORITY, ItemEntry.PRIORITY_HIGH);
+        assertEquals(DraftEntry.buildDraftUri(itemId), mProvider.insert(DraftEntry.CONTENT_URI, values));
+    }
+
+    private String readDraftName(long itemId) {
+        Cursor cursor = mProvider.query(DraftEntry.buildDraftUri(itemId),
+                new String[] { DraftEntry.COLUMN_DRAFT_NAME }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[] { ItemEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void draft_isReplacedAndDeletedWithItsItem() throws Exception {
+        long id = insertItem("Pay rent");
+        assertNull(readDraftName(id));
+
+        writeDraft(id, "Pay ren");
+        writeDraft(id, "Pay rent before the 5th");
+        writeDraft(DraftEntry.NEW_ITEM_ID, "Water the plants");
+        assertEquals("Pay rent before the 5th", readDraftName(id));
+        assertEquals("Water the plants", readDraftName(DraftEntry.NEW_ITEM_ID));
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), DraftEntry.TABLE_NAME));
+
+        // Saving the item promotes the draft: the editor then deletes it
+        assertEquals(1, mProvider.delete(DraftEntry.buildDraftUri(DraftEntry.NEW_ITEM_ID), null, null));
+        assertNull(readDraftName(DraftEntry.NEW_ITEM_ID));
+
+        // Deleting the item deletes its draft
+        mProvider.delete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), null, null);
+        assertNull(readDraftName(id));
+    }
+
+    @Test
+    public void draftWrites_neitherNotifyNorDropTheCache() throws Exception {
+        final long id = insertItem("Plan the trip");
+        final AtomicInteger changes = new AtomicInteger();
+        final CountDownLatch itemChanged = new CountDownLatch(1);
+        ContentObserver observer = new ContentObserver(new Handler(mObserverThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                changes.incrementAndGet();
+                itemChanged.countDown();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(TodoItemContract.BASE_CONTENT_URI, true, observer);
+        try {
+            assertEquals(1, count(ItemEntry.CONTENT_URI));
+            long hits = mProvider.getQueryCache().getHitCount();
+
+            // An editing session saving a draft at every keystroke, the worst case
+            StringBuilder name = new StringBuilder("Plan the trip");
+            for (int i = 0; i < DRAFT_WRITES; i++) {
+                name.append((char) ('a' + i % 26));
+                writeDraft(id, name.toString());
+            }
+            assertEquals(1, count(ItemEntry.CONTENT_URI));
+            assertEquals(hits + 1, mProvider.getQueryCache().getHitCount());
+
+            // A real write is notified, after anything the drafts would have notified
+            ContentValues values = new ContentValues();
+            values.put(ItemEntry.COLUMN_ITEM_NAME, name.toString());
+            mProvider.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), values, null, null);
+            assertTrue(itemChanged.await(5, TimeUnit.SECONDS));
+            assertEquals(1, changes.get());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+}
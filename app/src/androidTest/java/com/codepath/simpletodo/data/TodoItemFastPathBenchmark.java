@@ -0,0 +1,177 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the call() fast paths of {@link TodoItemProvider}, and benchmarks cycling the status
+ * of items through them against the update + query path. Timings are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemFastPathBenchmark {
+
+    private static final String LOG_TAG = TodoItemFastPathBenchmark.class.getSimpleName();
+
+    private static final int ITEMS = 10000;
+    private static final int OPERATIONS = 5000;
+    private static final String[] PROJECTION = {
+            ItemEntry._ID, ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.COLUMN_ITEM_PRIORITY };
+
+    private TodoItemDbHelper mDbHelper;
+    private TodoItemProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(context, null);
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(context, null);
+        TodoItemGenerator generator = new TodoItemGenerator(23L);
+        ContentValues[] values = new ContentValues[ITEMS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = generator.nextValues();
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(ItemEntry.CONTENT_URI, values));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    private Bundle call(String method, long id, Bundle extras) {
+        return mProvider.call(method, String.valueOf(id), extras);
+    }
+
+    // Status and priority of an item, read through the provider, as status * 10 + priority
+    private int readState(long id) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                PROJECTION, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(1) * 10 + cursor.getInt(2);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int state(Bundle result) {
+        return result.getInt(ItemEntry.COLUMN_ITEM_STATUS) * 10 + result.getInt(ItemEntry.COLUMN_ITEM_PRIORITY);
+    }
+
+    @Test
+    public void fastPaths_returnTheNewState() throws Exception {
+        long id = 1;
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.STATUS_TODO);
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        mProvider.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), values, null, null);
+
+        Bundle result = call(TodoItemContract.METHOD_CYCLE_STATUS, id, null);
+        assertEquals(id, result.getLong(ItemEntry._ID));
+        assertEquals(ItemEntry.STATUS_INPROGRESS, result.getInt(ItemEntry.COLUMN_ITEM_STATUS));
+        assertEquals(ItemEntry.STATUS_DONE,
+                call(TodoItemContract.METHOD_CYCLE_STATUS, id, null).getInt(ItemEntry.COLUMN_ITEM_STATUS));
+        assertEquals(ItemEntry.STATUS_TODO,
+                call(TodoItemContract.METHOD_CYCLE_STATUS, id, null).getInt(ItemEntry.COLUMN_ITEM_STATUS));
+
+        assertEquals(ItemEntry.STATUS_DONE,
+                call(TodoItemContract.METHOD_TOGGLE_STATUS, id, null).getInt(ItemEntry.COLUMN_ITEM_STATUS));
+        assertEquals(ItemEntry.STATUS_TODO,
+                call(TodoItemContract.METHOD_TOGGLE_STATUS, id, null).getInt(ItemEntry.COLUMN_ITEM_STATUS));
+
+        Bundle extras = new Bundle();
+        extras.putInt(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_HIGH);
+        result = call(TodoItemContract.METHOD_SET_PRIORITY, id, extras);
+        assertEquals(ItemEntry.PRIORITY_HIGH, result.getInt(ItemEntry.COLUMN_ITEM_PRIORITY));
+        assertEquals(ItemEntry.STATUS_TODO, result.getInt(ItemEntry.COLUMN_ITEM_STATUS));
+
+        // The provider's cache and indexes see the change
+        assertEquals(state(result), readState(id));
+        mProvider.insert(ItemEntry.buildItemTagUri(id, "fast"), null);
+        Uri filterUri = ItemEntry.buildTagFilterUri("fast").buildUpon()
+                .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_PRIORITY,
+                        String.valueOf(ItemEntry.PRIORITY_HIGH))
+                .build();
+        Cursor cursor = mProvider.query(filterUri, PROJECTION, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void fastPaths_missingItemOrInvalidArguments() throws Exception {
+        assertNull(call(TodoItemContract.METHOD_TOGGLE_STATUS, ITEMS + 1, null));
+        try {
+            call(TodoItemContract.METHOD_SET_PRIORITY, 1, new Bundle());
+            fail("Expected an invalid priority to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            mProvider.call(TodoItemContract.METHOD_CYCLE_STATUS, "one", null);
+            fail("Expected an invalid id to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void cycleStatus_fasterThanUpdateAndQuery() throws Exception {
+        // Warm up both paths
+        for (int i = 1; i <= 100; i++) {
+            cycleWithUpdate(i);
+            call(TodoItemContract.METHOD_CYCLE_STATUS, i, null);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            cycleWithUpdate(1 + i % ITEMS);
+        }
+        long updateNanos = (System.nanoTime() - start) / OPERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            call(TodoItemContract.METHOD_CYCLE_STATUS, 1 + i % ITEMS, null);
+        }
+        long callNanos = (System.nanoTime() - start) / OPERATIONS;
+
+        // Both paths see the same state, one status further after each cycle
+        for (int id = 1; id <= 100; id++) {
+            int before = readState(id);
+            Bundle result = call(TodoItemContract.METHOD_CYCLE_STATUS, id, null);
+            assertEquals((before / 10 + 1) % 3, result.getInt(ItemEntry.COLUMN_ITEM_STATUS));
+            assertEquals(state(result), readState(id));
+        }
+
+        Log.i(LOG_TAG, "Cycle status: update + query " + updateNanos / 1000 + " us, call "
+                + callNanos / 1000 + " us");
+        assertTrue("call() took " + callNanos + " ns, update + query " + updateNanos + " ns",
+                callNanos < updateNanos);
+    }
+
+    // The slow path: read the status, update it with ContentValues, then query the new state
+    private int cycleWithUpdate(long id) {
+        Uri uri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id);
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_STATUS, (readState(id) / 10 + 1) % 3);
+        mProvider.update(uri, values, null, null);
+        return readState(id);
+    }
+}
@@ -0,0 +1,138 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for {@link TodoItemIdCursor}, on an in-memory database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemIdCursorTest {
+
+    private static final int ROWS = 3000;
+    private static final int CHUNK_SIZE = 100;
+
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() throws Exception {
+        mDbHelper = new TodoItemDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        mDb = mDbHelper.getWritableDatabase();
+        TodoItemGenerator generator = new TodoItemGenerator(5L);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                mDb.insert(ItemEntry.TABLE_NAME, null, generator.nextValues());
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    // Every other id, from the last one down
+    private static long[] oddIdsDescending() {
+        long[] ids = new long[ROWS / 2];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ROWS - 1 - 2 * i;
+        }
+        return ids;
+    }
+
+    @Test
+    public void rowsFollowTheOrderOfTheIds() throws Exception {
+        long[] ids = oddIdsDescending();
+        String[] projection = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME };
+        Cursor cursor = new TodoItemIdCursor(mDb, ItemEntry.TABLE_NAME, projection, ids.clone(), CHUNK_SIZE);
+        try {
+            assertEquals(ids.length, cursor.getCount());
+            for (long id : ids) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(id, cursor.getLong(0));
+            }
+            assertFalse(cursor.moveToNext());
+
+            // Random access, in both directions
+            assertTrue(cursor.moveToPosition(ids.length - 1));
+            assertEquals(ids[ids.length - 1], cursor.getLong(0));
+            assertTrue(cursor.moveToPosition(345));
+            assertEquals(ids[345], cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void projectionWithoutId_returnsOnlyItsColumns() throws Exception {
+        String[] projection = { ItemEntry.COLUMN_ITEM_NAME };
+        Cursor cursor = new TodoItemIdCursor(mDb, ItemEntry.TABLE_NAME, projection, new long[] { 7, 3 },
+                CHUNK_SIZE);
+        try {
+            assertArrayEquals(projection, cursor.getColumnNames());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(readName(7), cursor.getString(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals(readName(3), cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String readName(long id) {
+        Cursor cursor = mDb.query(ItemEntry.TABLE_NAME, new String[] { ItemEntry.COLUMN_ITEM_NAME },
+                ItemEntry._ID + "=?", new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void deletedRows_areDroppedAndTheCountCorrected() throws Exception {
+        long[] ids = oddIdsDescending();
+        Cursor cursor = new TodoItemIdCursor(mDb, ItemEntry.TABLE_NAME, new String[] { ItemEntry._ID },
+                ids.clone(), CHUNK_SIZE);
+        final int[] changes = new int[1];
+        cursor.registerDataSetObserver(new DataSetObserver() {
+            @Override
+            public void onChanged() {
+                changes[0]++;
+            }
+        });
+        try {
+            // Every id of the last chunk but its first one
+            mDb.delete(ItemEntry.TABLE_NAME, ItemEntry._ID + "<?",
+                    new String[] { String.valueOf(ids[ids.length - CHUNK_SIZE]) });
+            assertTrue(cursor.moveToPosition(ids.length - CHUNK_SIZE));
+            assertEquals(ids[ids.length - CHUNK_SIZE], cursor.getLong(0));
+            assertEquals(ids.length - CHUNK_SIZE + 1, cursor.getCount());
+            assertFalse(cursor.moveToNext());
+            assertEquals(1, changes[0]);
+
+            assertTrue(cursor.moveToFirst());
+            assertEquals(ids[0], cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests and benchmark of {@link TodoItemContract#METHOD_IMPORT}, on an
+ * in-memory database: a 500k line file is imported at a measured rate, with a heap that does
+ * not grow with the file, and importing it again adds nothing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemImportBenchmark {
+
+    private static final String LOG_TAG = TodoItemImportBenchmark.class.getSimpleName();
+
+    private static final int LINES = 500000;
+
+    // Heap the import may add: the hash map of the new items, about 16 MB, and the batches.
+    // Holding the parsed file would take several times more.
+    private static final long MAX_HEAP_GROWTH = 48L * 1024 * 1024;
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemProvider mProvider;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(mContext, null);
+        mDb = mDbHelper.getWritableDatabase();
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        mFile = new File(mContext.getCacheDir(), LOG_TAG + ".csv");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+        mFile.delete();
+    }
+
+    private void writeFile(String text) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8");
+        try {
+            writer.write(text);
+        } finally {
+            writer.close();
+        }
+    }
+
+    // A CSV file of generated items, every name made unique by its line number
+    private void writeGeneratedFile(int lines) throws IOException {
+        TodoItemGenerator generator = new TodoItemGenerator(23L);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8"));
+        try {
+            writer.write("name,notes,priority,status\n");
+            for (int i = 0; i < lines; i++) {
+                writer.write(generator.nextName());
+                writer.write(' ');
+                writer.write(String.valueOf(i));
+                writer.write(",\"");
+                writer.write(generator.nextNotes().replace("\"", "\"\""));
+                writer.write("\",");
+                writer.write(String.valueOf(generator.nextPriority()));
+                writer.write(',');
+                writer.write(String.valueOf(generator.nextStatus()));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private Bundle importFile(String format, String policy) {
+        Bundle extras = new Bundle();
+        extras.putString(TodoItemContract.EXTRA_IMPORT_FORMAT, format);
+        extras.putString(TodoItemContract.EXTRA_IMPORT_POLICY, policy);
+        return mProvider.call(TodoItemContract.METHOD_IMPORT, Uri.fromFile(mFile).toString(), extras);
+    }
+
+    private long count() {
+        return DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void duplicates_areSkippedOrMerged() throws Exception {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Buy milk");
+        values.put(ItemEntry.COLUMN_ITEM_NOTES, "Skimmed");
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        long id = ContentUris.parseId(mProvider.insert(ItemEntry.CONTENT_URI, values));
+
+        // The existing item differs only by case and spacing, and the file repeats a line
+        writeFile("buy  MILK,skimmed,high,done\nWater plants\nwater plants\n,no name\n");
+        Bundle result = importFile(TodoItemContract.FORMAT_CSV, TodoItemContract.POLICY_SKIP);
+        assertEquals(1, result.getLong(TodoItemContract.EXTRA_INSERTED_COUNT));
+        assertEquals(2, result.getLong(TodoItemContract.EXTRA_SKIPPED_COUNT));
+        assertEquals(1, result.getLong(TodoItemContract.EXTRA_MALFORMED_COUNT));
+        assertEquals(4, result.getLong(TodoItemContract.EXTRA_LINE_COUNT));
+        assertEquals(2, count());
+
+        result = importFile(TodoItemContract.FORMAT_CSV, TodoItemContract.POLICY_MERGE);
+        assertEquals(0, result.getLong(TodoItemContract.EXTRA_INSERTED_COUNT));
+        assertEquals(1, result.getLong(TodoItemContract.EXTRA_MERGED_COUNT));
+        assertEquals(2, count());
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                new String[] { ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.COLUMN_ITEM_STATUS },
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Buy milk", cursor.getString(0));
+            assertEquals(ItemEntry.PRIORITY_HIGH, cursor.getInt(1));
+            assertEquals(ItemEntry.STATUS_DONE, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void updates_keepTheContentHash() throws Exception {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Call mom");
+        values.put(ItemEntry.COLUMN_ITEM_NOTES, "Sunday");
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        Uri uri = mProvider.insert(ItemEntry.CONTENT_URI, values);
+        assertEquals(TodoItemContentHash.of("Call mom", "Sunday"), readHash(uri));
+
+        // Only the name changes: the notes are read back from the row
+        ContentValues update = new ContentValues();
+        update.put(ItemEntry.COLUMN_ITEM_NAME, "Call dad");
+        assertEquals(1, mProvider.update(uri, update, null, null));
+        assertEquals(TodoItemContentHash.of("Call dad", "Sunday"), readHash(uri));
+
+        // Many rows, selected by the field that changes
+        update = new ContentValues();
+        update.put(ItemEntry.COLUMN_ITEM_NOTES, "Monday");
+        assertEquals(1, mProvider.update(ItemEntry.CONTENT_URI, update,
+                ItemEntry.COLUMN_ITEM_NOTES + "=?", new String[] { "Sunday" }));
+        assertEquals(TodoItemContentHash.of("Call dad", "Monday"), readHash(uri));
+
+        // So a file with the new text finds the item
+        writeFile("(A) call DAD\n");
+        assertEquals(1, importFile(TodoItemContract.FORMAT_TODO_TXT, TodoItemContract.POLICY_SKIP)
+                .getLong(TodoItemContract.EXTRA_INSERTED_COUNT));
+        writeFile("Call dad,Monday\n");
+        assertEquals(1, importFile(TodoItemContract.FORMAT_CSV, TodoItemContract.POLICY_SKIP)
+                .getLong(TodoItemContract.EXTRA_SKIPPED_COUNT));
+    }
+
+    private long readHash(Uri uri) {
+        return DatabaseUtils.longForQuery(mDb, "SELECT " + ItemEntry.COLUMN_ITEM_CONTENT_HASH + " FROM "
+                + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry._ID + " = ?",
+                new String[] { String.valueOf(ContentUris.parseId(uri)) });
+    }
+
+    @Test
+    public void largeFile_importsWithFlatHeap() throws Exception {
+        writeGeneratedFile(LINES);
+        Log.i(LOG_TAG, "File of " + LINES + " lines: " + mFile.length() / 1024 + " kB");
+
+        // Sample the heap while the import runs
+        final long heapBefore = usedHeap();
+        final long[] peak = { heapBefore };
+        final boolean[] done = { false };
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Runtime runtime = Runtime.getRuntime();
+                while (true) {
+                    synchronized (done) {
+                        if (done[0]) {
+                            return;
+                        }
+                    }
+                    peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        sampler.start();
+        Bundle result;
+        try {
+            result = importFile(TodoItemContract.FORMAT_CSV, TodoItemContract.POLICY_SKIP);
+        } finally {
+            synchronized (done) {
+                done[0] = true;
+            }
+            sampler.join();
+        }
+
+        long elapsedMillis = result.getLong(TodoItemContract.EXTRA_ELAPSED_MILLIS);
+        long heapGrowth = peak[0] - heapBefore;
+        Log.i(LOG_TAG, "Import: " + LINES + " lines in " + elapsedMillis + " ms, "
+                + LINES * 1000L / Math.max(1, elapsedMillis) + " rows/s, peak heap growth "
+                + heapGrowth / 1024 + " kB");
+        assertEquals(LINES, result.getLong(TodoItemContract.EXTRA_INSERTED_COUNT));
+        assertEquals(LINES, count());
+        assertTrue("Heap grew by " + heapGrowth + " bytes", heapGrowth < MAX_HEAP_GROWTH);
+
+        // Importing the file again finds every item through the hashes
+        result = importFile(TodoItemContract.FORMAT_CSV, TodoItemContract.POLICY_SKIP);
+        elapsedMillis = result.getLong(TodoItemContract.EXTRA_ELAPSED_MILLIS);
+        Log.i(LOG_TAG, "Re-import: " + LINES + " lines in " + elapsedMillis + " ms, "
+                + LINES * 1000L / Math.max(1, elapsedMillis) + " rows/s");
+        assertEquals(0, result.getLong(TodoItemContract.EXTRA_INSERTED_COUNT));
+        assertEquals(LINES, result.getLong(TodoItemContract.EXTRA_SKIPPED_COUNT));
+        assertEquals(LINES, count());
+    }
+}
@@ -0,0 +1,258 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests and benchmark of the lists, on an in-memory database: the counts of
+ * every list follow each write, and opening a list of 1k items costs the same whether the
+ * other lists are empty or hold 1M items.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemListBenchmark {
+
+    private static final String LOG_TAG = TodoItemListBenchmark.class.getSimpleName();
+
+    private static final int LIST_ITEMS = 1000;
+
+    private static final int OTHER_ITEMS = 1000000;
+
+    private static final int OPEN_RUNS = 20;
+
+    private static final String[] PROJECTION = {
+            ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.COLUMN_ITEM_RANK };
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(mContext, null);
+        mDb = mDbHelper.getWritableDatabase();
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    private long insertList(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ListEntry.COLUMN_LIST_NAME, name);
+        return ContentUris.parseId(mProvider.insert(ListEntry.CONTENT_URI, values));
+    }
+
+    private ContentValues item(String name, int status) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        values.put(ItemEntry.COLUMN_ITEM_STATUS, status);
+        return values;
+    }
+
+    // Item count and done count of the list, as the provider reports them
+    private int[] readCounts(long listId) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ListEntry.CONTENT_URI, listId),
+                new String[] { ListEntry.COLUMN_LIST_ITEM_COUNT, ListEntry.COLUMN_LIST_DONE_COUNT }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return new int[] { cursor.getInt(0), cursor.getInt(1) };
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri windowedUri(long listId, String groupBy) {
+        Uri.Builder uri = ListEntry.buildItemsUri(listId).buildUpon()
+                .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_WINDOWED, "true");
+        if (groupBy != null) {
+            uri.appendQueryParameter(TodoItemContract.QUERY_PARAMETER_GROUP_BY, groupBy);
+        }
+        return uri.build();
+    }
+
+    @Test
+    public void counts_followEveryWrite() throws Exception {
+        long work = insertList("Work");
+        Uri first = mProvider.insert(ListEntry.buildItemsUri(work), item("Write report", ItemEntry.STATUS_TODO));
+        mProvider.insert(ListEntry.buildItemsUri(work), item("Send invoice", ItemEntry.STATUS_DONE));
+        mProvider.insert(ItemEntry.CONTENT_URI, item("Buy milk", ItemEntry.STATUS_TODO));
+        assertArrayEquals(new int[] { 2, 1 }, readCounts(work));
+        assertArrayEquals(new int[] { 1, 0 }, readCounts(ListEntry.DEFAULT_LIST_ID));
+
+        // Status changes, through an update and through the fast path
+        ContentValues done = new ContentValues();
+        done.put(ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.STATUS_DONE);
+        mProvider.update(first, done, null, null);
+        assertArrayEquals(new int[] { 2, 2 }, readCounts(work));
+        mProvider.call(TodoItemContract.METHOD_TOGGLE_STATUS, String.valueOf(ContentUris.parseId(first)), null);
+        assertArrayEquals(new int[] { 2, 1 }, readCounts(work));
+
+        // Moving an item to another list moves its counts
+        ContentValues move = new ContentValues();
+        move.put(ItemEntry.COLUMN_ITEM_LIST_ID, ListEntry.DEFAULT_LIST_ID);
+        mProvider.update(first, move, null, null);
+        assertArrayEquals(new int[] { 1, 1 }, readCounts(work));
+        assertArrayEquals(new int[] { 2, 0 }, readCounts(ListEntry.DEFAULT_LIST_ID));
+
+        // Deleting the items of a list leaves the others alone
+        assertEquals(1, mProvider.delete(ListEntry.buildItemsUri(work), null, null));
+        assertArrayEquals(new int[] { 0, 0 }, readCounts(work));
+        assertArrayEquals(new int[] { 2, 0 }, readCounts(ListEntry.DEFAULT_LIST_ID));
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void listWrites_areChecked() throws Exception {
+        long work = insertList("Work");
+        try {
+            mProvider.insert(ListEntry.buildItemsUri(work + 1), item("Nowhere", ItemEntry.STATUS_TODO));
+            fail("Inserted into a missing list");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            mProvider.delete(ContentUris.withAppendedId(ListEntry.CONTENT_URI, ListEntry.DEFAULT_LIST_ID), null, null);
+            fail("Deleted the default list");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            ContentValues counts = new ContentValues();
+            counts.put(ListEntry.COLUMN_LIST_ITEM_COUNT, 5);
+            mProvider.update(ContentUris.withAppendedId(ListEntry.CONTENT_URI, work), counts, null, null);
+            fail("Wrote the count of a list");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // Deleting a list deletes its items, and only its items
+        mProvider.insert(ListEntry.buildItemsUri(work), item("Write report", ItemEntry.STATUS_TODO));
+        mProvider.insert(ItemEntry.CONTENT_URI, item("Buy milk", ItemEntry.STATUS_TODO));
+        assertEquals(1, mProvider.delete(ContentUris.withAppendedId(ListEntry.CONTENT_URI, work), null, null));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDb, ListEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void listQueries_seekThroughTheListIndexes() throws Exception {
+        String plan = explain("SELECT " + ItemEntry._ID + " FROM " + ItemEntry.TABLE_NAME + " WHERE "
+                + ItemEntry.COLUMN_ITEM_LIST_ID + " = 2 AND " + ItemEntry.COLUMN_ITEM_RANK + " > 0 ORDER BY "
+                + ItemEntry.COLUMN_ITEM_RANK + ", " + ItemEntry._ID + " LIMIT 50");
+        assertTrue(plan, plan.contains("todo_list_rank_index"));
+        plan = explain("SELECT " + ItemEntry.COLUMN_ITEM_STATUS + ", COUNT(*) FROM " + ItemEntry.TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_ITEM_LIST_ID + " = 2 GROUP BY " + ItemEntry.COLUMN_ITEM_STATUS);
+        assertTrue(plan, plan.contains("todo_list_status_rank_index"));
+    }
+
+    private String explain(String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnIndex("detail"))).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    @Test
+    public void openingAList_ignoresTheOtherLists() throws Exception {
+        long listId = insertList("Groceries");
+        ContentValues[] values = new ContentValues[LIST_ITEMS];
+        for (int i = 0; i < LIST_ITEMS; i++) {
+            values[i] = item("Item " + i, i % 3);
+        }
+        assertEquals(LIST_ITEMS, mProvider.bulkInsert(ListEntry.buildItemsUri(listId), values));
+
+        long smallNanos = timeOpen(listId, null);
+        long smallGroupedNanos = timeOpen(listId, ItemEntry.COLUMN_ITEM_STATUS);
+
+        // 1M items in the default list, written directly so that the triggers still count them
+        SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_NAME + ", " + ItemEntry.COLUMN_ITEM_STATUS + ", "
+                + ItemEntry.COLUMN_ITEM_RANK + ", " + ItemEntry.COLUMN_ITEM_LIST_ID + ") VALUES (?, ?, ?, ?)");
+        long start = SystemClock.elapsedRealtimeNanos();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < OTHER_ITEMS; i++) {
+                insert.bindString(1, "Other " + i);
+                insert.bindLong(2, i % 3);
+                insert.bindLong(3, (LIST_ITEMS + i + 1) * TodoItemRanks.GAP);
+                insert.bindLong(4, ListEntry.DEFAULT_LIST_ID);
+                insert.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insert.close();
+        }
+        Log.i(LOG_TAG, OTHER_ITEMS + " items inserted in " + (SystemClock.elapsedRealtimeNanos() - start) / 1000000
+                + " ms");
+        assertEquals(OTHER_ITEMS, readCounts(ListEntry.DEFAULT_LIST_ID)[0]);
+        assertEquals(LIST_ITEMS, readCounts(listId)[0]);
+
+        long largeNanos = timeOpen(listId, null);
+        long largeGroupedNanos = timeOpen(listId, ItemEntry.COLUMN_ITEM_STATUS);
+        Log.i(LOG_TAG, "Open " + LIST_ITEMS + " items: " + smallNanos / 1000 + " us alone, " + largeNanos / 1000
+                + " us next to " + OTHER_ITEMS + "; grouped " + smallGroupedNanos / 1000 + " us and "
+                + largeGroupedNanos / 1000 + " us");
+        assertTrue("Open went from " + smallNanos + " to " + largeNanos + " ns",
+                largeNanos < smallNanos * 3 + 2000000);
+        assertTrue("Grouped open went from " + smallGroupedNanos + " to " + largeGroupedNanos + " ns",
+                largeGroupedNanos < smallGroupedNanos * 3 + 2000000);
+    }
+
+    // Median time to open the list and read every row, each run after dropping the cached result
+    private long timeOpen(long listId, String groupBy) {
+        TodoItemQueryCache cache = mProvider.getQueryCache();
+        Uri uri = windowedUri(listId, groupBy);
+        long[] nanos = new long[OPEN_RUNS];
+        for (int i = 0; i < OPEN_RUNS; i++) {
+            cache.onWriteStarted();
+            cache.onWriteFinished();
+            long start = SystemClock.elapsedRealtimeNanos();
+            Cursor cursor = mProvider.query(uri, PROJECTION, null, null, ItemEntry.COLUMN_ITEM_RANK);
+            try {
+                // The count is exact from the start, and every row is in the list
+                assertEquals(LIST_ITEMS, cursor.getCount());
+                int rows = 0;
+                while (cursor.moveToNext()) {
+                    rows++;
+                }
+                assertEquals(LIST_ITEMS, rows);
+            } finally {
+                cursor.close();
+            }
+            nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos[OPEN_RUNS / 2];
+    }
+}
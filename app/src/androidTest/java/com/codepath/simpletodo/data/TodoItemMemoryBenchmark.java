@@ -0,0 +1,161 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDebug;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation benchmark of {@link TodoItemMemoryGovernor}, on a database file of 20k
+ * todoitems: after the caches, the indexes and SQLite's page cache are filled by queries,
+ * trimming drops them, and the queries still give the same results. The Java heap, the native
+ * heap and SQLite's memory before and after the trim are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemMemoryBenchmark {
+
+    private static final String LOG_TAG = TodoItemMemoryBenchmark.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "memory_benchmark.db";
+
+    private static final int ITEMS = 20000;
+
+    private static final int CACHE_SIZE_KIB = 8000;
+
+    private static final String[] SEARCHES = { "rev", "fix", "call", "plan", "write", "buy" };
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new TodoItemDbHelper(mContext, DATABASE_NAME);
+        mDbHelper.setMemoryTuning(CACHE_SIZE_KIB, TodoItemDbHelper.DEFAULT_MMAP_SIZE);
+        mDb = mDbHelper.getWritableDatabase();
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+
+        SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_NAME + ", " + ItemEntry.COLUMN_ITEM_NOTES + ", "
+                + ItemEntry.COLUMN_ITEM_STATUS + ", " + ItemEntry.COLUMN_ITEM_PRIORITY + ") VALUES (?, ?, ?, ?)");
+        TodoItemGenerator generator = new TodoItemGenerator(45L);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < ITEMS; i++) {
+                insert.bindString(1, generator.nextName());
+                insert.bindString(2, generator.nextNotes());
+                insert.bindLong(3, generator.nextStatus());
+                insert.bindLong(4, generator.nextPriority());
+                insert.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insert.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void memoryTuning_isApplied() throws Exception {
+        assertEquals(-CACHE_SIZE_KIB, DatabaseUtils.longForQuery(mDb, "PRAGMA cache_size", null));
+        try {
+            mDbHelper.setMemoryTuning(0, 0);
+            fail("Accepted an empty page cache");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void trim_releasesCachesAndSqliteMemory() throws Exception {
+        int[] counts = runQueries();
+        assertTrue(mProvider.getQueryCache().size() > 0);
+
+        long[] before = measure();
+        mProvider.getMemoryGovernor().trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        long[] after = measure();
+        Log.v(LOG_TAG, "Before and after trim, on " + ITEMS + " items: Java heap " + before[0] / 1024 + " / "
+                + after[0] / 1024 + " KiB, native heap " + before[1] / 1024 + " / " + after[1] / 1024
+                + " KiB, SQLite " + before[2] / 1024 + " / " + after[2] / 1024 + " KiB");
+
+        assertEquals(0, mProvider.getQueryCache().size());
+        assertTrue("SQLite kept " + after[2] + " bytes of " + before[2], after[2] < before[2]);
+
+        // Everything dropped is rebuilt on the next queries, with the same results
+        assertArrayEquals(counts, runQueries());
+    }
+
+    @Test
+    public void lightTrim_keepsTheIndexes() throws Exception {
+        runQueries();
+        TodoItemPrefixIndex prefixIndex = mProvider.getPrefixIndex();
+        int terms = prefixIndex.termCount();
+        assertTrue(terms > 0);
+
+        mProvider.getMemoryGovernor().trim(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, mProvider.getQueryCache().size());
+        assertEquals(terms, prefixIndex.termCount());
+
+        mProvider.getMemoryGovernor().trim(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertEquals(0, prefixIndex.termCount());
+    }
+
+    // Searches, which load the prefix index, and scans of the whole table, which fill the page
+    // cache; run twice so that the second round is served from the query cache
+    private int[] runQueries() {
+        int[] counts = new int[SEARCHES.length + 1];
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < SEARCHES.length; i++) {
+                counts[i] = count(mProvider.query(ItemEntry.buildSearchUri(SEARCHES[i]),
+                        new String[] { ItemEntry._ID }, null, null, null));
+            }
+            counts[SEARCHES.length] = count(mProvider.query(ItemEntry.CONTENT_URI,
+                    new String[] { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NOTES },
+                    ItemEntry.COLUMN_ITEM_NOTES + " LIKE ?", new String[] { "%a%" }, null));
+        }
+        return counts;
+    }
+
+    private static int count(Cursor cursor) {
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Java heap in use, native heap allocated, and memory SQLite has allocated, in bytes
+    private static long[] measure() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        return new long[] { runtime.totalMemory() - runtime.freeMemory(), Debug.getNativeHeapAllocatedSize(),
+                SQLiteDebug.getDatabaseInfo().memoryUsed };
+    }
+}
@@ -0,0 +1,278 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test of {@link TodoItemProvider}: many threads read and write concurrently with a
+ * random mix of operations, on a database file, for 1 to 32 threads. Afterwards it checks:
+ * <ul>
+ * <li>no exception, in particular no SQLiteDatabaseLockedException, reached a caller;</li>
+ * <li>no lost updates: every item holds the last value its owner wrote;</li>
+ * <li>reads are monotonic: no thread sees an item go back to an older value;</li>
+ * <li>the row count matches the inserts and deletes that were made.</li>
+ * </ul>
+ * Throughput per thread count is written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemProviderStressTest {
+
+    private static final String LOG_TAG = TodoItemProviderStressTest.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "stress_test.db";
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32 };
+    private static final int OPERATIONS_PER_THREAD = 400;
+    private static final int INITIAL_ITEMS_PER_THREAD = 20;
+
+    // Throughput with 32 threads may not fall below this share of the single thread throughput
+    private static final double MIN_SCALING = 0.25;
+
+    private static final String[] PROJECTION = {
+            ItemEntry._ID, ItemEntry.COLUMN_ITEM_NOTES, ItemEntry.COLUMN_ITEM_PRIORITY };
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private TodoItemProvider mProvider;
+
+    // Version last written to each live item, by the thread owning it
+    private final ConcurrentHashMap<Long, Integer> mSharedItems = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new TodoItemDbHelper(mContext, DATABASE_NAME);
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * One thread of the test. It owns the items it inserts, and is the only one to update or
+     * delete them; the notes of an item hold the version its owner last wrote.
+     */
+    private class Worker implements Runnable {
+        private final Random mRandom;
+        private final CountDownLatch mStart;
+        private final CountDownLatch mDone;
+        private final AtomicReference<Throwable> mFailure;
+        private final TodoItemGenerator mGenerator;
+
+        // Items owned by this thread and the version last written to each
+        final HashMap<Long, Integer> mOwnItems = new HashMap<>();
+        final ArrayList<Long> mOwnIds = new ArrayList<>();
+
+        // Highest version seen for each item, to check that reads never go back in time
+        private final HashMap<Long, Integer> mSeenVersions = new HashMap<>();
+
+        int mInserts;
+        int mDeletes;
+
+        Worker(long seed, CountDownLatch start, CountDownLatch done, AtomicReference<Throwable> failure) {
+            mRandom = new Random(seed);
+            mGenerator = new TodoItemGenerator(seed);
+            mStart = start;
+            mDone = done;
+            mFailure = failure;
+        }
+
+        void insertItem() {
+            ContentValues values = mGenerator.nextValues();
+            values.put(ItemEntry.COLUMN_ITEM_NOTES, "0");
+            Uri uri = mProvider.insert(ItemEntry.CONTENT_URI, values);
+            assertNotNull(uri);
+            long id = ContentUris.parseId(uri);
+            mOwnItems.put(id, 0);
+            mOwnIds.add(id);
+            mSharedItems.put(id, 0);
+            mInserts++;
+        }
+
+        private void updateItem() {
+            long id = mOwnIds.get(mRandom.nextInt(mOwnIds.size()));
+            int version = mOwnItems.get(id) + 1;
+            ContentValues values = new ContentValues();
+            values.put(ItemEntry.COLUMN_ITEM_NOTES, String.valueOf(version));
+            assertEquals(1, mProvider.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                    values, null, null));
+            mOwnItems.put(id, version);
+            mSharedItems.put(id, version);
+        }
+
+        private void deleteItem() {
+            long id = mOwnIds.remove(mRandom.nextInt(mOwnIds.size()));
+            mOwnItems.remove(id);
+            mSharedItems.remove(id);
+            assertEquals(1, mProvider.delete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), null, null));
+            mDeletes++;
+        }
+
+        private void readItem(long id) {
+            Cursor cursor = mProvider.query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id),
+                    PROJECTION, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    checkVersion(id, cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private void readList() {
+            int priority = mRandom.nextInt(3);
+            Cursor cursor = mProvider.query(ItemEntry.CONTENT_URI, PROJECTION,
+                    ItemEntry.COLUMN_ITEM_PRIORITY + "=?", new String[] { String.valueOf(priority) },
+                    ItemEntry._ID);
+            try {
+                while (cursor.moveToNext()) {
+                    assertEquals(priority, cursor.getInt(2));
+                    checkVersion(cursor.getLong(0), cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private void checkVersion(long id, String notes) {
+            int version = Integer.parseInt(notes);
+            Integer seen = mSeenVersions.get(id);
+            if (seen != null && version < seen) {
+                fail("Item " + id + " went back from version " + seen + " to " + version);
+            }
+            mSeenVersions.put(id, version);
+        }
+
+        @Override
+        public void run() {
+            try {
+                mStart.await();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    int operation = mRandom.nextInt(100);
+                    if (operation < 35) {
+                        readList();
+                    } else if (operation < 60) {
+                        // Read an item of any thread
+                        Object[] ids = mSharedItems.keySet().toArray();
+                        if (ids.length > 0) {
+                            readItem((Long) ids[mRandom.nextInt(ids.length)]);
+                        }
+                    } else if (operation < 85 && !mOwnIds.isEmpty()) {
+                        updateItem();
+                    } else if (operation < 93 || mOwnIds.isEmpty()) {
+                        insertItem();
+                    } else {
+                        deleteItem();
+                    }
+                }
+            } catch (Throwable t) {
+                mFailure.compareAndSet(null, t);
+            } finally {
+                mDone.countDown();
+            }
+        }
+    }
+
+    private int countRows() {
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + ItemEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Runs one round with the given number of threads, and returns the operations per second
+    private double runRound(int threadCount) throws Exception {
+        int rowsBefore = countRows();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threadCount);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Worker[] workers = new Worker[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            workers[t] = new Worker(threadCount * 100 + t, start, done, failure);
+            for (int i = 0; i < INITIAL_ITEMS_PER_THREAD; i++) {
+                workers[t].insertItem();
+            }
+            new Thread(workers[t], "stress-" + t).start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        Throwable throwable = failure.get();
+        if (throwable != null) {
+            throw new AssertionError(threadCount + " threads: " + throwable, throwable);
+        }
+
+        // No lost updates: the database holds the last version each owner wrote
+        int expectedRows = rowsBefore;
+        for (Worker worker : workers) {
+            expectedRows += worker.mInserts - worker.mDeletes;
+            for (Map.Entry<Long, Integer> item : worker.mOwnItems.entrySet()) {
+                Cursor cursor = mDbHelper.getReadableDatabase().query(ItemEntry.TABLE_NAME,
+                        new String[] { ItemEntry.COLUMN_ITEM_NOTES }, ItemEntry._ID + "=?",
+                        new String[] { String.valueOf(item.getKey()) }, null, null, null);
+                try {
+                    assertTrue(cursor.moveToFirst());
+                    assertEquals(String.valueOf(item.getValue()), cursor.getString(0));
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+        assertEquals(expectedRows, countRows());
+
+        double operationsPerSecond = threadCount * OPERATIONS_PER_THREAD * 1e9 / elapsedNanos;
+        TodoItemQueryCache cache = mProvider.getQueryCache();
+        Log.i(LOG_TAG, threadCount + " threads: " + Math.round(operationsPerSecond) + " ops/s, cache "
+                + cache.getHitCount() + " hits / " + cache.getMissCount() + " misses");
+        return operationsPerSecond;
+    }
+
+    @Test
+    public void concurrentReadersAndWriters_keepInvariants() throws Exception {
+        double singleThread = 0;
+        double throughput = 0;
+        for (int threadCount : THREAD_COUNTS) {
+            throughput = runRound(threadCount);
+            if (threadCount == 1) {
+                singleThread = throughput;
+            }
+        }
+        assertTrue("Throughput collapsed to " + Math.round(throughput) + " ops/s from "
+                + Math.round(singleThread) + " ops/s", throughput >= singleThread * MIN_SCALING);
+    }
+}
@@ -0,0 +1,165 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for the query cache of {@link TodoItemProvider}, on an in-memory
+ * database: cached results must never survive a write.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemQueryCacheTest {
+
+    private static final String[] PROJECTION = {
+            ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_STATUS };
+    private static final String SORT_ORDER = ItemEntry._ID;
+
+    private TodoItemDbHelper mDbHelper;
+    private TodoItemProvider mProvider;
+    private TodoItemGenerator mGenerator;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(context, null);
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(context, null);
+        mGenerator = new TodoItemGenerator(5L);
+        ContentValues[] values = new ContentValues[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = mGenerator.nextValues();
+        }
+        mProvider.bulkInsert(ItemEntry.CONTENT_URI, values);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    // Rows of a cursor as "id|name|status" strings, closing the cursor
+    private static ArrayList<String> rows(Cursor cursor) {
+        ArrayList<String> rows = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(cursor.getLong(0) + "|" + cursor.getString(1) + "|" + cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private ArrayList<String> queryProvider(Uri uri) {
+        return rows(mProvider.query(uri, PROJECTION, null, null, SORT_ORDER));
+    }
+
+    // The same rows read straight from the database, bypassing the cache
+    private ArrayList<String> queryDatabase(Uri uri) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String selection = null;
+        String[] selectionArgs = null;
+        if (!uri.equals(ItemEntry.CONTENT_URI)) {
+            selection = ItemEntry._ID + "=?";
+            selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+        }
+        return rows(db.query(ItemEntry.TABLE_NAME, PROJECTION, selection, selectionArgs, null, null, SORT_ORDER));
+    }
+
+    @Test
+    public void repeatedQuery_isServedFromCache() throws Exception {
+        TodoItemQueryCache cache = mProvider.getQueryCache();
+        ArrayList<String> first = queryProvider(ItemEntry.CONTENT_URI);
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+
+        // Formatting differences in the sort order do not matter
+        ArrayList<String> second = rows(mProvider.query(ItemEntry.CONTENT_URI, PROJECTION, null, null,
+                "  " + SORT_ORDER + " "));
+        assertEquals(first, second);
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(misses, cache.getMissCount());
+    }
+
+    @Test
+    public void everyWrite_invalidatesCachedResults() throws Exception {
+        Uri listUri = ItemEntry.CONTENT_URI;
+        Uri itemUri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 10);
+        queryProvider(listUri);
+        queryProvider(itemUri);
+
+        Uri newUri = mProvider.insert(ItemEntry.CONTENT_URI, mGenerator.nextValues());
+        assertEquals(queryDatabase(listUri), queryProvider(listUri));
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Renamed");
+        mProvider.update(itemUri, values, null, null);
+        assertEquals(queryDatabase(itemUri), queryProvider(itemUri));
+        assertEquals(queryDatabase(listUri), queryProvider(listUri));
+
+        values.clear();
+        values.put(ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.STATUS_DONE);
+        mProvider.update(listUri, values, ItemEntry._ID + "<?", new String[] { "20" });
+        assertEquals(queryDatabase(itemUri), queryProvider(itemUri));
+
+        mProvider.delete(newUri, null, null);
+        assertEquals(queryDatabase(listUri), queryProvider(listUri));
+
+        mProvider.bulkInsert(ItemEntry.CONTENT_URI, new ContentValues[] { mGenerator.nextValues() });
+        assertEquals(queryDatabase(listUri), queryProvider(listUri));
+    }
+
+    @Test
+    public void randomWrites_neverServeStaleRows() throws Exception {
+        Random random = new Random(9L);
+        ArrayList<Uri> uris = new ArrayList<>();
+        uris.add(ItemEntry.CONTENT_URI);
+        for (int id = 1; id <= 5; id++) {
+            uris.add(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id));
+        }
+
+        for (int step = 0; step < 500; step++) {
+            Uri itemUri = uris.get(1 + random.nextInt(uris.size() - 1));
+            switch (random.nextInt(4)) {
+                case 0:
+                    mProvider.insert(ItemEntry.CONTENT_URI, mGenerator.nextValues());
+                    break;
+                case 1:
+                    ContentValues values = new ContentValues();
+                    values.put(ItemEntry.COLUMN_ITEM_NAME, mGenerator.nextName());
+                    values.put(ItemEntry.COLUMN_ITEM_STATUS, mGenerator.nextStatus());
+                    mProvider.update(itemUri, values, null, null);
+                    break;
+                case 2:
+                    mProvider.delete(itemUri, null, null);
+                    break;
+                default:
+                    // No write: the next queries may be cache hits
+                    break;
+            }
+            for (int i = 0; i < 3; i++) {
+                Uri uri = uris.get(random.nextInt(uris.size()));
+                assertEquals("Step " + step, queryDatabase(uri), queryProvider(uri));
+            }
+        }
+        assertTrue(mProvider.getQueryCache().getHitCount() > 0);
+    }
+}
@@ -0,0 +1,234 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests and benchmark for {@link TodoItemRanks}, on an in-memory database:
+ * moves must keep the same order as a plain list, rewrite a single row while gaps last, and
+ * take the same time on a 100k list as on a small one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemRanksTest {
+
+    private static final String LOG_TAG = TodoItemRanksTest.class.getSimpleName();
+
+    private static final int LARGE_LIST = 100000;
+    private static final int SMALL_LIST = 1000;
+    private static final int MOVES = 2000;
+
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemRanks mRanks;
+
+    @Before
+    public void setUp() throws Exception {
+        mDbHelper = new TodoItemDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        mDb = mDbHelper.getWritableDatabase();
+        mRanks = new TodoItemRanks(mDb);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    // Append items 1..count, GAP apart, like the provider does
+    private List<Long> insertItems(int count) {
+        List<Long> ids = new ArrayList<>(count);
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME
+                    + " (" + ItemEntry.COLUMN_ITEM_NAME + ", " + ItemEntry.COLUMN_ITEM_RANK + ") VALUES (?, ?)");
+            long rank = TodoItemRanks.nextRank(mDb);
+            for (int i = 0; i < count; i++) {
+                insert.bindString(1, "Item " + i);
+                insert.bindLong(2, rank);
+                ids.add(insert.executeInsert());
+                rank += TodoItemRanks.GAP;
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return ids;
+    }
+
+    private List<Long> readOrder() {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = mDb.query(ItemEntry.TABLE_NAME, new String[] { ItemEntry._ID }, null, null,
+                null, null, ItemEntry.COLUMN_ITEM_RANK + ", " + ItemEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private long totalChanges() {
+        return DatabaseUtils.longForQuery(mDb, "SELECT total_changes()", null);
+    }
+
+    // Move the item at position "from" so that it ends up at position "to", in the list and the table
+    private long move(List<Long> order, int from, int to) {
+        long id = order.remove(from);
+        order.add(to, id);
+        long afterId = to == 0 ? TodoItemRanks.NO_ITEM : order.get(to - 1);
+        return mRanks.move(id, afterId);
+    }
+
+    @Test
+    public void randomMoves_keepTheOrderOfAList() throws Exception {
+        List<Long> order = insertItems(SMALL_LIST);
+        Random random = new Random(11L);
+        for (int i = 0; i < MOVES; i++) {
+            int from = random.nextInt(order.size());
+            // Half of the moves hammer the same spot, to run gaps out
+            int to = i % 2 == 0 ? 10 : random.nextInt(order.size());
+            assertTrue(move(order, from, to) >= 1);
+            if (i % 500 == 0) {
+                mRanks.rebalance(order.get(to));
+            }
+        }
+        assertEquals(order, readOrder());
+    }
+
+    @Test
+    public void crowdedGap_isSpreadOut() throws Exception {
+        List<Long> order = insertItems(SMALL_LIST);
+
+        // Each move to position 1 halves the gap after the first item: 12 moves leave 16
+        for (int i = 0; i < 12; i++) {
+            move(order, order.size() - 1, 1);
+        }
+        assertEquals(order, readOrder());
+
+        // A rebalance spreads the crowded region, and leaves a sparse one alone
+        long crowded = order.get(1);
+        assertTrue(mRanks.rebalance(crowded) > 0);
+        assertEquals(0, mRanks.rebalance(crowded));
+        assertEquals(order, readOrder());
+
+        // Running the gap out entirely spreads it during the move
+        for (int i = 0; i < 40; i++) {
+            assertTrue(move(order, order.size() - 1, 1) >= 1);
+        }
+        assertEquals(order, readOrder());
+    }
+
+    @Test
+    public void rowsWithEqualRanks_keepTheirOrder() throws Exception {
+        // Rows written without a rank all have rank 0, and are ordered by _id
+        List<Long> order = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ItemEntry.COLUMN_ITEM_NAME, "Item " + i);
+            order.add(mDb.insert(ItemEntry.TABLE_NAME, null, values));
+        }
+        move(order, 80, 40);
+        move(order, 3, 0);
+        move(order, 10, 99);
+        assertEquals(order, readOrder());
+    }
+
+    @Test
+    public void moveInLargeList_rewritesOneRowInConstantTime() throws Exception {
+        List<Long> small = insertItems(SMALL_LIST);
+        long smallNanos = timeMoves(small);
+        mDb.delete(ItemEntry.TABLE_NAME, null, null);
+
+        List<Long> large = insertItems(LARGE_LIST);
+        long before = totalChanges();
+        move(large, LARGE_LIST - 1, LARGE_LIST / 2);
+        assertEquals(1, totalChanges() - before);
+
+        long largeNanos = timeMoves(large);
+        Log.i(LOG_TAG, "Move: " + smallNanos / 1000 + " us in " + SMALL_LIST + " items, "
+                + largeNanos / 1000 + " us in " + LARGE_LIST + " items");
+        assertEquals(large, readOrder());
+
+        // Index lookups are logarithmic; renumbering would be linear, i.e. 100 times slower
+        assertTrue("Moves took " + largeNanos + " ns in the large list, " + smallNanos + " ns in the small one",
+                largeNanos < smallNanos * 5);
+    }
+
+    // Average time of random moves in the table, leaving out the updates of the reference list
+    private long timeMoves(List<Long> order) {
+        Random random = new Random(13L);
+        long nanos = 0;
+        for (int i = 0; i < MOVES; i++) {
+            int to = random.nextInt(order.size());
+            long id = order.remove(random.nextInt(order.size()));
+            order.add(to, id);
+            long afterId = to == 0 ? TodoItemRanks.NO_ITEM : order.get(to - 1);
+            long start = System.nanoTime();
+            mRanks.move(id, afterId);
+            nanos += System.nanoTime() - start;
+        }
+        return nanos / MOVES;
+    }
+
+    @Test
+    public void moveThroughProvider_reordersTheWindowedList() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        TodoItemProvider provider = new TodoItemProvider(mDbHelper);
+        provider.attachInfo(context, null);
+        TodoItemGenerator generator = new TodoItemGenerator(7L);
+        ContentValues[] values = new ContentValues[SMALL_LIST];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = generator.nextValues();
+        }
+        provider.bulkInsert(ItemEntry.CONTENT_URI, values);
+        List<Long> order = readOrder();
+
+        // Last item to the top, then the first item after the tenth
+        long last = order.remove(order.size() - 1);
+        order.add(0, last);
+        assertNotNull(provider.call(TodoItemContract.METHOD_MOVE_ITEM, String.valueOf(last), null));
+        long first = order.remove(1);
+        order.add(10, first);
+        Bundle extras = new Bundle();
+        extras.putLong(TodoItemContract.EXTRA_AFTER_ID, order.get(9));
+        Bundle result = provider.call(TodoItemContract.METHOD_MOVE_ITEM, String.valueOf(first), extras);
+        assertEquals(first, result.getLong(ItemEntry._ID));
+        assertNull(provider.call(TodoItemContract.METHOD_MOVE_ITEM, String.valueOf(SMALL_LIST + 1), null));
+
+        Cursor cursor = provider.query(ItemEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_WINDOWED, "true").build(),
+                new String[] { ItemEntry._ID }, null, null, ItemEntry.COLUMN_ITEM_RANK);
+        try {
+            assertTrue(cursor instanceof TodoItemWindowedCursor);
+            List<Long> listed = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                listed.add(cursor.getLong(0));
+            }
+            assertEquals(order, listed);
+        } finally {
+            cursor.close();
+        }
+    }
+}
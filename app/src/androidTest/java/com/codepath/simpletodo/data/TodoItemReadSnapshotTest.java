@@ -0,0 +1,206 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests of {@link TodoItemProvider#querySnapshot}, on a database file, where
+ * write-ahead logging applies: while a writer keeps moving items between lists and statuses, the
+ * rows of a list, the counts of the lists and the done items read in one snapshot always agree.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemReadSnapshotTest {
+
+    private static final String LOG_TAG = TodoItemReadSnapshotTest.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "read_snapshot_test.db";
+
+    private static final int ITEMS = 200;
+
+    private static final int SNAPSHOTS = 300;
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private TodoItemProvider mProvider;
+    private long mWork;
+    private long mHome;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new TodoItemDbHelper(mContext, DATABASE_NAME);
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+
+        mWork = insertList("Work");
+        mHome = insertList("Home");
+        for (int i = 0; i < ITEMS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ItemEntry.COLUMN_ITEM_NAME, "Item " + i);
+            values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+            values.put(ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.STATUS_TODO);
+            mProvider.insert(ListEntry.buildItemsUri(mWork), values);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    private long insertList(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ListEntry.COLUMN_LIST_NAME, name);
+        return ContentUris.parseId(mProvider.insert(ListEntry.CONTENT_URI, values));
+    }
+
+    // The items of the Work list, the counts of every list, and the done items of all lists
+    private TodoItemQuery[] queries() {
+        return new TodoItemQuery[] {
+                new TodoItemQuery(ListEntry.buildItemsUri(mWork),
+                        new String[] { ItemEntry._ID, ItemEntry.COLUMN_ITEM_STATUS }),
+                new TodoItemQuery(ListEntry.CONTENT_URI, new String[] {
+                        ListEntry._ID, ListEntry.COLUMN_LIST_ITEM_COUNT, ListEntry.COLUMN_LIST_DONE_COUNT }),
+                new TodoItemQuery(ItemEntry.CONTENT_URI, new String[] { ItemEntry._ID },
+                        ItemEntry.COLUMN_ITEM_STATUS + "=?", new String[] { String.valueOf(ItemEntry.STATUS_DONE) },
+                        null)
+        };
+    }
+
+    @Test
+    public void database_usesWriteAheadLogging() throws Exception {
+        assertEquals("wal", DatabaseUtils.stringForQuery(mDbHelper.getReadableDatabase(),
+                "PRAGMA journal_mode", null).toLowerCase());
+    }
+
+    @Test
+    public void snapshot_staysConsistentWhileWritesLand() throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(47L);
+                try {
+                    while (!stop.get()) {
+                        // Move an item to the other list, and flip its status, in one update
+                        long id = 1 + random.nextInt(ITEMS);
+                        ContentValues values = new ContentValues();
+                        values.put(ItemEntry.COLUMN_ITEM_LIST_ID, random.nextBoolean() ? mWork : mHome);
+                        values.put(ItemEntry.COLUMN_ITEM_STATUS,
+                                random.nextBoolean() ? ItemEntry.STATUS_DONE : ItemEntry.STATUS_TODO);
+                        mProvider.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), values, null, null);
+                        writes.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "writer");
+        writer.start();
+
+        int separateMismatches = 0;
+        int conflicts = 0;
+        try {
+            for (int i = 0; i < SNAPSHOTS; i++) {
+                // A snapshot that writes kept landing on is given up, never read half-way
+                Cursor[] snapshot = mProvider.querySnapshot(null, queries());
+                if (snapshot == null) {
+                    conflicts++;
+                } else {
+                    assertTrue(isConsistent(snapshot));
+                }
+
+                // The same queries run one after the other can disagree
+                TodoItemQuery[] queries = queries();
+                Cursor[] separate = new Cursor[queries.length];
+                for (int q = 0; q < queries.length; q++) {
+                    separate[q] = queries[q].run(mProvider, null);
+                }
+                if (!isConsistent(separate)) {
+                    separateMismatches++;
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        assertNull(failure.get());
+        Log.v(LOG_TAG, SNAPSHOTS + " snapshots beside " + writes.get() + " writes; " + conflicts
+                + " given up, and " + separateMismatches + " of the separate reads disagreed");
+        assertTrue(writes.get() > 0);
+        assertTrue(conflicts < SNAPSHOTS);
+    }
+
+    @Test
+    public void windowedQuery_isRejected() throws Exception {
+        Uri windowed = ListEntry.buildItemsUri(mWork).buildUpon()
+                .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_WINDOWED, "true").build();
+        try {
+            mProvider.querySnapshot(null, new TodoItemQuery(windowed, new String[] { ItemEntry._ID }));
+            fail("Accepted a windowed query");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // Whether the rows of the Work list match its counts, and the done items the counts of all
+    // lists; closes the cursors
+    private boolean isConsistent(Cursor[] cursors) {
+        try {
+            Cursor workItems = cursors[0];
+            int workDone = 0;
+            int status = workItems.getColumnIndexOrThrow(ItemEntry.COLUMN_ITEM_STATUS);
+            while (workItems.moveToNext()) {
+                if (workItems.getInt(status) == ItemEntry.STATUS_DONE) {
+                    workDone++;
+                }
+            }
+
+            Cursor lists = cursors[1];
+            int id = lists.getColumnIndexOrThrow(ListEntry._ID);
+            int itemCount = lists.getColumnIndexOrThrow(ListEntry.COLUMN_LIST_ITEM_COUNT);
+            int doneCount = lists.getColumnIndexOrThrow(ListEntry.COLUMN_LIST_DONE_COUNT);
+            int totalItems = 0;
+            int totalDone = 0;
+            boolean workMatches = false;
+            while (lists.moveToNext()) {
+                totalItems += lists.getInt(itemCount);
+                totalDone += lists.getInt(doneCount);
+                if (lists.getLong(id) == mWork) {
+                    workMatches = lists.getInt(itemCount) == workItems.getCount()
+                            && lists.getInt(doneCount) == workDone;
+                }
+            }
+            return workMatches && totalItems == ITEMS && totalDone == cursors[2].getCount();
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+import com.codepath.simpletodo.data.TodoItemContract.RecurrenceEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests and benchmark of the recurring todoitems, on an in-memory database:
+ * a DONE instance is followed by the next one, deleted instances stay deleted, and the
+ * instances of 10k rules due today are created once, with the rules already considered not
+ * read again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemRecurrenceBenchmark {
+
+    private static final String LOG_TAG = TodoItemRecurrenceBenchmark.class.getSimpleName();
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private static final int RULES = 10000;
+
+    private static final String[] RULE_TEXTS = {
+            RecurrenceEntry.RULE_DAILY,
+            RecurrenceEntry.RULE_WEEKLY,
+            RecurrenceEntry.RULE_MONTHLY,
+            "FREQ=DAILY;INTERVAL=2",
+            "FREQ=WEEKLY;BYDAY=MO,WE,FR",
+            "FREQ=MONTHLY;BYMONTHDAY=1,15;COUNT=20" };
+
+    private static final String SQL_INSERT_RULE = "INSERT INTO " + RecurrenceEntry.TABLE_NAME + " ("
+            + RecurrenceEntry.COLUMN_RECURRENCE_NAME + ", "
+            + RecurrenceEntry.COLUMN_RECURRENCE_PRIORITY + ", "
+            + RecurrenceEntry.COLUMN_RECURRENCE_LIST_ID + ", "
+            + RecurrenceEntry.COLUMN_RECURRENCE_RULE + ", "
+            + RecurrenceEntry.COLUMN_RECURRENCE_START_AT + ", "
+            + RecurrenceEntry.COLUMN_RECURRENCE_TIME_ZONE + ", "
+            + RecurrenceEntry.COLUMN_RECURRENCE_MATERIALIZED_UNTIL + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(mContext, null);
+        mDb = mDbHelper.getWritableDatabase();
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    private Uri insertRecurrence(String name, String rule, long startAt) {
+        ContentValues values = new ContentValues();
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_NAME, name);
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_PRIORITY, ItemEntry.PRIORITY_MEDIUM);
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_RULE, rule);
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_START_AT, startAt);
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_TIME_ZONE, "UTC");
+        return mProvider.insert(RecurrenceEntry.CONTENT_URI, values);
+    }
+
+    private int materialize(long windowStart, long windowEnd) {
+        Bundle extras = new Bundle();
+        extras.putLong(TodoItemContract.EXTRA_WINDOW_START, windowStart);
+        Bundle result = mProvider.call(TodoItemContract.METHOD_MATERIALIZE, String.valueOf(windowEnd), extras);
+        return result.getInt(TodoItemContract.EXTRA_MATERIALIZED_COUNT);
+    }
+
+    // Due dates of the instances of the rule with the status, in order
+    private long[] readInstances(Uri recurrenceUri, int status) {
+        Cursor cursor = mDb.query(ItemEntry.TABLE_NAME, new String[] { ItemEntry.COLUMN_ITEM_DUE_AT },
+                ItemEntry.COLUMN_ITEM_RECURRENCE_ID + "=? AND " + ItemEntry.COLUMN_ITEM_STATUS + "=?",
+                new String[] { String.valueOf(ContentUris.parseId(recurrenceUri)), String.valueOf(status) },
+                null, null, ItemEntry.COLUMN_ITEM_DUE_AT);
+        try {
+            long[] dueAts = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                dueAts[i] = cursor.getLong(0);
+            }
+            return dueAts;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long findInstance(Uri recurrenceUri, int status) {
+        return DatabaseUtils.longForQuery(mDb, "SELECT " + ItemEntry._ID + " FROM " + ItemEntry.TABLE_NAME
+                + " WHERE " + ItemEntry.COLUMN_ITEM_RECURRENCE_ID + "=? AND " + ItemEntry.COLUMN_ITEM_STATUS + "=?",
+                new String[] { String.valueOf(ContentUris.parseId(recurrenceUri)), String.valueOf(status) });
+    }
+
+    private static long startOfToday() {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void doneInstance_isFollowedByTheNextOne() throws Exception {
+        long startAt = System.currentTimeMillis() - 3 * DAY;
+        Uri recurrence = insertRecurrence("Water the plants", RecurrenceEntry.RULE_DAILY, startAt);
+        assertArrayEquals(new long[] { startAt }, readInstances(recurrence, ItemEntry.STATUS_TODO));
+
+        // Finished late, the next instance is the next occurrence still to come
+        long before = System.currentTimeMillis();
+        ContentValues done = new ContentValues();
+        done.put(ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.STATUS_DONE);
+        long first = findInstance(recurrence, ItemEntry.STATUS_TODO);
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, first), done, null, null));
+        long[] open = readInstances(recurrence, ItemEntry.STATUS_TODO);
+        assertEquals(1, open.length);
+        assertTrue(open[0] >= before - DAY && open[0] > startAt + 2 * DAY);
+        assertEquals(0, (open[0] - startAt) % DAY);
+
+        // Through the fast path too, and reopening the instance does not create another one
+        long second = findInstance(recurrence, ItemEntry.STATUS_TODO);
+        mProvider.call(TodoItemContract.METHOD_TOGGLE_STATUS, String.valueOf(second), null);
+        long[] next = readInstances(recurrence, ItemEntry.STATUS_TODO);
+        assertArrayEquals(new long[] { open[0] + DAY }, next);
+        mProvider.call(TodoItemContract.METHOD_TOGGLE_STATUS, String.valueOf(second), null);
+        assertEquals(2, readInstances(recurrence, ItemEntry.STATUS_TODO).length);
+        mProvider.call(TodoItemContract.METHOD_TOGGLE_STATUS, String.valueOf(second), null);
+        assertEquals(1, readInstances(recurrence, ItemEntry.STATUS_TODO).length);
+        assertEquals(3, DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void deletedInstances_areNotCreatedAgain() throws Exception {
+        long today = startOfToday();
+        Uri recurrence = insertRecurrence("Stand-up", RecurrenceEntry.RULE_DAILY, today + 9 * 60 * 60 * 1000);
+        assertEquals(6, materialize(today, today + 7 * DAY));
+        long[] instances = readInstances(recurrence, ItemEntry.STATUS_TODO);
+        assertEquals(7, instances.length);
+
+        long deleted = findInstance(recurrence, ItemEntry.STATUS_TODO);
+        assertEquals(1, mProvider.delete(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, deleted), null, null));
+        assertEquals(0, materialize(today, today + 7 * DAY));
+        assertEquals(6, readInstances(recurrence, ItemEntry.STATUS_TODO).length);
+
+        // A later window only creates the days after the last one
+        assertEquals(3, materialize(today, today + 10 * DAY));
+        assertEquals(9, readInstances(recurrence, ItemEntry.STATUS_TODO).length);
+    }
+
+    @Test
+    public void deletedRule_keepsItsDoneInstances() throws Exception {
+        long today = startOfToday();
+        Uri recurrence = insertRecurrence("Gym", RecurrenceEntry.RULE_WEEKLY, today);
+        materialize(today, today + 21 * DAY);
+        long done = findInstance(recurrence, ItemEntry.STATUS_TODO);
+        mProvider.call(TodoItemContract.METHOD_TOGGLE_STATUS, String.valueOf(done), null);
+        assertEquals(ItemEntry.STATUS_DONE, DatabaseUtils.longForQuery(mDb, "SELECT " + ItemEntry.COLUMN_ITEM_STATUS
+                + " FROM " + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry._ID + "=" + done, null));
+
+        assertEquals(1, mProvider.delete(recurrence, null, null));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME));
+        assertTrue(DatabaseUtils.longForQuery(mDb, "SELECT " + ItemEntry.COLUMN_ITEM_RECURRENCE_ID + " IS NULL FROM "
+                + ItemEntry.TABLE_NAME, null) == 1);
+        assertEquals(0, materialize(today, today + 60 * DAY));
+    }
+
+    @Test
+    public void tenThousandRules_materializeToday() throws Exception {
+        Random random = new Random(43L);
+        long today = startOfToday();
+        long tomorrow = today + DAY;
+        String zoneId = "UTC";
+        TimeZone zone = TimeZone.getTimeZone(zoneId);
+
+        // Rules started during the last year, none of their occurrences considered yet
+        long expected = 0;
+        SQLiteStatement insert = mDb.compileStatement(SQL_INSERT_RULE);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < RULES; i++) {
+                String rule = RULE_TEXTS[random.nextInt(RULE_TEXTS.length)];
+                long startAt = today - (long) (random.nextDouble() * 365 * DAY);
+                insert.bindString(1, "Rule " + i);
+                insert.bindLong(2, ItemEntry.PRIORITY_LOW);
+                insert.bindLong(3, ListEntry.DEFAULT_LIST_ID);
+                insert.bindString(4, rule);
+                insert.bindLong(5, startAt);
+                insert.bindString(6, zoneId);
+                insert.bindLong(7, startAt);
+                insert.executeInsert();
+                expected += RecurrenceRule.parse(rule).expand(startAt, zone, today, tomorrow, Integer.MAX_VALUE).length;
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insert.close();
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        int created = materialize(today, tomorrow);
+        long firstMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(expected, created);
+        assertEquals(expected, DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME));
+
+        // Every rule is now considered up to tomorrow, so the next start reads none
+        start = SystemClock.elapsedRealtime();
+        assertEquals(0, materialize(today, tomorrow));
+        long againMillis = SystemClock.elapsedRealtime() - start;
+        Log.v(LOG_TAG, RULES + " rules: " + created + " instances for today in " + firstMillis
+                + " ms, again in " + againMillis + " ms");
+        assertTrue("Took " + againMillis + " ms", againMillis <= Math.max(50, firstMillis / 10));
+    }
+}
@@ -0,0 +1,124 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of search as the user types, on 100k items: each keystroke runs the query the
+ * catalog runs, from the prefix index lookup to reading every row SQLite returns, and the
+ * slowest and median keystrokes are reported. Short prefixes match thousands of items, which
+ * are read a chunk of ids at a time.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemSearchBenchmark {
+
+    private static final String LOG_TAG = TodoItemSearchBenchmark.class.getSimpleName();
+
+    private static final int ITEMS = 100000;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String[] PROJECTION = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_RANK };
+
+    private TodoItemDbHelper mDbHelper;
+    private TodoItemProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(context, null);
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(context, null);
+
+        TodoItemGenerator generator = new TodoItemGenerator(11L);
+        ContentValues[] values = new ContentValues[BATCH_SIZE];
+        for (int inserted = 0; inserted < ITEMS; inserted += BATCH_SIZE) {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                values[i] = generator.nextValues();
+            }
+            mProvider.bulkInsert(ItemEntry.CONTENT_URI, values);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    // Run the search of the catalog, and check every row it returns
+    private int search(String typed) {
+        Cursor cursor = mProvider.query(ItemEntry.buildSearchUri(typed), PROJECTION,
+                ItemEntry.COLUMN_ITEM_LIST_ID + "=?", new String[] { String.valueOf(ListEntry.DEFAULT_LIST_ID) },
+                ItemEntry.COLUMN_ITEM_RANK);
+        try {
+            String[] prefixes = TodoItemPrefixIndex.tokenize(typed);
+            long lastRank = Long.MIN_VALUE;
+            while (cursor.moveToNext()) {
+                String[] tokens = TodoItemPrefixIndex.tokenize(cursor.getString(1));
+                for (String prefix : prefixes) {
+                    assertTrue(typed + " in " + cursor.getString(1), hasPrefix(tokens, prefix));
+                }
+                assertTrue(cursor.getLong(2) >= lastRank);
+                lastRank = cursor.getLong(2);
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean hasPrefix(String[] tokens, String prefix) {
+        for (String token : tokens) {
+            if (token.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void typingKeystrokes() throws Exception {
+        TodoItemGenerator generator = new TodoItemGenerator(11L);
+        // Warm up on other names, as each keystroke is a new query that the cache cannot answer
+        for (int i = 0; i < 3; i++) {
+            search(generator.nextName());
+        }
+
+        String[] queries = { generator.nextName(), generator.nextName(), "re bu" };
+        long[] nanos = new long[64];
+        int keystrokes = 0;
+        int mostRows = 0;
+        for (String query : queries) {
+            for (int length = 1; length <= query.length(); length++) {
+                long start = System.nanoTime();
+                int rows = search(query.substring(0, length));
+                if (keystrokes == nanos.length) {
+                    nanos = Arrays.copyOf(nanos, keystrokes * 2);
+                }
+                nanos[keystrokes++] = System.nanoTime() - start;
+                mostRows = Math.max(mostRows, rows);
+            }
+        }
+        long[] sorted = Arrays.copyOf(nanos, keystrokes);
+        Arrays.sort(sorted);
+        Log.i(LOG_TAG, keystrokes + " keystrokes on " + ITEMS + " items: median "
+                + sorted[keystrokes / 2] / 1000 + " us, slowest " + sorted[keystrokes - 1] / 1000
+                + " us, up to " + mostRows + " rows");
+        assertTrue(mostRows > 0);
+    }
+}
@@ -0,0 +1,166 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for the lists grouped by status or priority, on a 100k item in-memory
+ * database: the sections in the extras must match the rows, and jumping to a section must not
+ * depend on the number of rows before it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemSectionedCursorTest {
+
+    private static final String LOG_TAG = TodoItemSectionedCursorTest.class.getSimpleName();
+
+    private static final int ITEMS = 100000;
+
+    private static final String[] PROJECTION = {
+            ItemEntry._ID, ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.COLUMN_ITEM_RANK
+    };
+
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(context, null);
+        mDb = mDbHelper.getWritableDatabase();
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(context, null);
+
+        TodoItemGenerator generator = new TodoItemGenerator(5L);
+        ContentValues[] values = new ContentValues[ITEMS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = generator.nextValues();
+        }
+        mProvider.bulkInsert(ItemEntry.CONTENT_URI, values);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    private Cursor queryGrouped(String groupBy) {
+        Uri uri = ItemEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_WINDOWED, "true")
+                .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_GROUP_BY, groupBy)
+                .build();
+        return mProvider.query(uri, PROJECTION, null, null, ItemEntry.COLUMN_ITEM_RANK);
+    }
+
+    @Test
+    public void sections_describeTheGroupedRows() throws Exception {
+        for (String groupBy : new String[] { ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.COLUMN_ITEM_PRIORITY }) {
+            Cursor cursor = queryGrouped(groupBy);
+            try {
+                Bundle extras = cursor.getExtras();
+                int[] values = extras.getIntArray(TodoItemContract.EXTRA_SECTION_VALUES);
+                int[] counts = extras.getIntArray(TodoItemContract.EXTRA_SECTION_COUNTS);
+                assertNotNull(values);
+                assertEquals(ITEMS, cursor.getCount());
+
+                int column = cursor.getColumnIndex(groupBy);
+                int start = 0;
+                for (int s = 0; s < values.length; s++) {
+                    assertTrue(s == 0 || values[s] > values[s - 1]);
+                    // First and last rows of the section, and the rows on both sides of it
+                    assertTrue(cursor.moveToPosition(start));
+                    assertEquals(values[s], cursor.getInt(column));
+                    assertTrue(cursor.moveToPosition(start + counts[s] - 1));
+                    assertEquals(values[s], cursor.getInt(column));
+                    if (s > 0) {
+                        assertTrue(cursor.moveToPosition(start - 1));
+                        assertEquals(values[s - 1], cursor.getInt(column));
+                    }
+                    start += counts[s];
+                }
+                assertEquals(ITEMS, start);
+                assertFalse(cursor.moveToPosition(ITEMS));
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Test
+    public void rowsOfASection_areInRankOrder() throws Exception {
+        Cursor cursor = queryGrouped(ItemEntry.COLUMN_ITEM_STATUS);
+        Cursor expected = mDb.query(ItemEntry.TABLE_NAME, new String[] { ItemEntry._ID },
+                ItemEntry.COLUMN_ITEM_STATUS + " = ?", new String[] { String.valueOf(ItemEntry.STATUS_DONE) },
+                null, null, ItemEntry.COLUMN_ITEM_RANK + ", " + ItemEntry._ID);
+        try {
+            int[] values = cursor.getExtras().getIntArray(TodoItemContract.EXTRA_SECTION_VALUES);
+            int[] counts = cursor.getExtras().getIntArray(TodoItemContract.EXTRA_SECTION_COUNTS);
+            int start = 0;
+            for (int s = 0; values[s] != ItemEntry.STATUS_DONE; s++) {
+                start += counts[s];
+            }
+            assertTrue(cursor.moveToPosition(start - 1));
+            while (expected.moveToNext()) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(expected.getLong(0), cursor.getLong(0));
+            }
+            assertTrue(cursor.isLast());
+        } finally {
+            cursor.close();
+            expected.close();
+        }
+    }
+
+    @Test
+    public void jumpToLastSection_doesNotReadTheRowsBeforeIt() throws Exception {
+        // A plain cursor in the same order has to step through every row before the position
+        long start = System.nanoTime();
+        Cursor plain = mDb.query(ItemEntry.TABLE_NAME, PROJECTION, null, null, null, null,
+                ItemEntry.COLUMN_ITEM_STATUS + ", " + ItemEntry.COLUMN_ITEM_RANK + ", " + ItemEntry._ID);
+        int position;
+        try {
+            plain.moveToLast();
+            position = plain.getCount() - 1;
+            plain.moveToPosition(position);
+        } finally {
+            plain.close();
+        }
+        long plainNanos = System.nanoTime() - start;
+
+        // The GROUP BY is paid once per query; the jump itself reads one chunk of the section
+        start = System.nanoTime();
+        Cursor grouped = queryGrouped(ItemEntry.COLUMN_ITEM_STATUS);
+        long queryNanos = System.nanoTime() - start;
+        long groupedNanos;
+        try {
+            int[] counts = grouped.getExtras().getIntArray(TodoItemContract.EXTRA_SECTION_COUNTS);
+            start = System.nanoTime();
+            assertTrue(grouped.moveToPosition(ITEMS - counts[counts.length - 1]));
+            groupedNanos = System.nanoTime() - start;
+        } finally {
+            grouped.close();
+        }
+
+        Log.i(LOG_TAG, "Jump to the last section: " + groupedNanos / 1000 + " us grouped, after a "
+                + queryNanos / 1000 + " us GROUP BY; " + plainNanos / 1000 + " us with a plain cursor to row "
+                + position);
+        assertTrue("Grouped jump took " + groupedNanos + " ns, plain " + plainNanos + " ns",
+                groupedNanos * 5 < plainNanos);
+    }
+}
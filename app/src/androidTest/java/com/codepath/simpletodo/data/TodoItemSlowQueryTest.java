@@ -0,0 +1,137 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepath.simpletodo.BuildConfig;
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Instrumentation tests for the slow query log of {@link TodoItemProvider}, on an in-memory
+ * database: slow queries are logged with their plan through the slowlog method, and strict mode
+ * rejects the queries that scan the todo table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemSlowQueryTest {
+
+    private static final int ITEMS = 200;
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private TodoItemProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(mContext, null);
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+
+        ContentValues[] values = new ContentValues[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            values[i] = new ContentValues();
+            values[i].put(ItemEntry.COLUMN_ITEM_NAME, "Item " + i);
+            values[i].put(ItemEntry.COLUMN_ITEM_NOTES, i % 2 == 0 ? "even" : "odd");
+            values[i].put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        }
+        assertEquals(ITEMS, mProvider.bulkInsert(ItemEntry.CONTENT_URI, values));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    private Bundle slowLog(String arg, Bundle extras) {
+        return mProvider.call(TodoItemContract.METHOD_SLOW_LOG, arg, extras);
+    }
+
+    private Bundle setThresholdMillis(long millis) {
+        Bundle extras = new Bundle();
+        extras.putLong(TodoItemContract.EXTRA_SLOW_THRESHOLD_MILLIS, millis);
+        return slowLog(TodoItemContract.SLOW_LOG_CLEAR, extras);
+    }
+
+    private int count(Uri uri, String selection, String[] selectionArgs) {
+        Cursor cursor = mProvider.query(uri, new String[] { ItemEntry._ID }, selection, selectionArgs, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void slowQuery_isLoggedWithItsPlan() throws Exception {
+        setThresholdMillis(0);
+        assertEquals(ITEMS / 2, count(ItemEntry.CONTENT_URI, ItemEntry.COLUMN_ITEM_NOTES + "=?",
+                new String[] { "even" }));
+
+        Bundle result = slowLog(null, null);
+        assertEquals(0, result.getLong(TodoItemContract.EXTRA_SLOW_THRESHOLD_MILLIS));
+        String[] sql = result.getStringArray(TodoItemContract.EXTRA_SLOW_SQL);
+        int last = sql.length - 1;
+        assertTrue(last >= 0);
+        assertTrue(sql[last], sql[last].contains(ItemEntry.COLUMN_ITEM_NOTES + "=?"));
+        assertEquals("text(4)", result.getStringArray(TodoItemContract.EXTRA_SLOW_ARG_SHAPES)[last]);
+        assertEquals(ITEMS / 2, result.getIntArray(TodoItemContract.EXTRA_SLOW_ROW_COUNTS)[last]);
+        assertTrue(result.getDoubleArray(TodoItemContract.EXTRA_SLOW_MILLIS)[last] >= 0);
+        assertEquals(sql.length, result.getLongArray(TodoItemContract.EXTRA_SLOW_TIMES).length);
+        String plan = result.getStringArray(TodoItemContract.EXTRA_SLOW_PLANS)[last];
+        assertTrue(plan, plan.startsWith("SCAN"));
+    }
+
+    @Test
+    public void fastQuery_isNotLogged() throws Exception {
+        setThresholdMillis(60000);
+        assertEquals(1, count(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 1), null, null));
+        assertEquals(0, slowLog(null, null).getStringArray(TodoItemContract.EXTRA_SLOW_SQL).length);
+    }
+
+    @Test
+    public void clear_emptiesTheLogAfterReadingIt() throws Exception {
+        setThresholdMillis(0);
+        count(ItemEntry.CONTENT_URI, null, null);
+        assertTrue(slowLog(TodoItemContract.SLOW_LOG_CLEAR, null).getStringArray(TodoItemContract.EXTRA_SLOW_SQL).length > 0);
+        assertEquals(0, slowLog(null, null).getStringArray(TodoItemContract.EXTRA_SLOW_SQL).length);
+    }
+
+    @Test
+    public void strictMode_rejectsScansOfTodo() throws Exception {
+        assumeTrue(BuildConfig.DEBUG);
+        Bundle extras = new Bundle();
+        extras.putBoolean(TodoItemContract.EXTRA_SLOW_STRICT, true);
+        assertTrue(slowLog(null, extras).getBoolean(TodoItemContract.EXTRA_SLOW_STRICT));
+        try {
+            // Looked up through the primary key
+            assertEquals(1, count(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 1), null, null));
+            try {
+                count(ItemEntry.CONTENT_URI, ItemEntry.COLUMN_ITEM_NOTES + "=?", new String[] { "odd" });
+                fail("Scan of the todo table");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            extras.putBoolean(TodoItemContract.EXTRA_SLOW_STRICT, false);
+            slowLog(null, extras);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeThreshold_isRejected() throws Exception {
+        setThresholdMillis(-1);
+    }
+}
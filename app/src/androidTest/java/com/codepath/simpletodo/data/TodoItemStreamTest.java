@@ -0,0 +1,184 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for {@link TodoItemStream}: conflation of change notifications,
+ * dropping of superseded results, and delivery on the main thread. The queries are faked,
+ * and block on a gate until the test opens it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemStreamTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private static final TodoItemQuery QUERY_A = new TodoItemQuery(ItemEntry.buildSearchUri("a"), null);
+    private static final TodoItemQuery QUERY_B = new TodoItemQuery(ItemEntry.buildSearchUri("b"), null);
+
+    private CountDownLatch mGate;
+    private final AtomicBoolean mSawCancellation = new AtomicBoolean();
+    private final List<String> mResults = new ArrayList<>();
+    private CountDownLatch mDelivered;
+    private final AtomicBoolean mDeliveredOffMainThread = new AtomicBoolean();
+
+    // Stream whose query returns "<last path segment>:<load number>" once the gate is open
+    private class GatedStream extends TodoItemStream<String> {
+        private final AtomicInteger mLoads = new AtomicInteger();
+        final CountDownLatch mFirstLoadStarted = new CountDownLatch(1);
+
+        GatedStream(TodoItemQuery query) {
+            super(InstrumentationRegistry.getTargetContext(), query, new Listener<String>() {
+                @Override
+                public void onQueryResult(String result) {
+                    if (Looper.myLooper() != Looper.getMainLooper()) {
+                        mDeliveredOffMainThread.set(true);
+                    }
+                    mResults.add(result);
+                    mDelivered.countDown();
+                }
+            });
+        }
+
+        @Override
+        protected String load(ContentResolver resolver, TodoItemQuery query, CancellationSignal signal) {
+            int load = mLoads.incrementAndGet();
+            mFirstLoadStarted.countDown();
+            try {
+                assertTrue(mGate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            // Finish even if cancelled, so that the stream has to drop the result itself
+            if (signal.isCanceled()) {
+                mSawCancellation.set(true);
+            }
+            return query.getUri().getLastPathSegment() + ":" + load;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mGate = new CountDownLatch(1);
+    }
+
+    private static void onMainThread(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    @Test
+    public void burstOfChanges_conflatesIntoOneRequery() throws Exception {
+        mDelivered = new CountDownLatch(2);
+        final GatedStream stream = new GatedStream(QUERY_A);
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                stream.start();
+                for (int i = 0; i < 100; i++) {
+                    stream.onDataChanged();
+                }
+            }
+        });
+        mGate.countDown();
+        assertTrue(mDelivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                assertFalse(stream.isLoading());
+                assertEquals(2, stream.getLoadCount());
+                stream.close();
+            }
+        });
+        assertEquals("a:1", mResults.get(0));
+        assertEquals("a:2", mResults.get(1));
+        assertNull(mResults.get(2));
+        assertFalse(mDeliveredOffMainThread.get());
+    }
+
+    @Test
+    public void replacedQuery_isCancelledAndDropped() throws Exception {
+        mDelivered = new CountDownLatch(1);
+        final GatedStream stream = new GatedStream(QUERY_A);
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                stream.start();
+            }
+        });
+
+        // Replace the query while the first one is running
+        assertTrue(stream.mFirstLoadStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                stream.setQuery(QUERY_B);
+            }
+        });
+        mGate.countDown();
+        assertTrue(mDelivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                assertFalse(stream.isLoading());
+                assertEquals(1, stream.getDroppedCount());
+                stream.stop();
+            }
+        });
+        assertTrue(mSawCancellation.get());
+        assertEquals(1, mResults.size());
+        assertEquals("b:2", mResults.get(0));
+    }
+
+    @Test
+    public void stoppedStream_ignoresChanges() throws Exception {
+        mDelivered = new CountDownLatch(1);
+        mGate.countDown();
+        final GatedStream stream = new GatedStream(QUERY_A);
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                stream.start();
+            }
+        });
+        assertTrue(mDelivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                stream.stop();
+                stream.onDataChanged();
+                assertFalse(stream.isLoading());
+                assertEquals(1, stream.getLoadCount());
+            }
+        });
+    }
+
+    @Test
+    public void observedUri_coversFilteredLists() throws Exception {
+        Uri itemUri = Uri.withAppendedPath(ItemEntry.CONTENT_URI, "7");
+        assertEquals(itemUri, new TodoItemQuery(itemUri, null).getObservedUri());
+        assertEquals(ItemEntry.CONTENT_URI, QUERY_A.getObservedUri());
+        assertEquals(ItemEntry.CONTENT_URI, new TodoItemQuery(ItemEntry.CONTENT_URI, null).getObservedUri());
+    }
+}
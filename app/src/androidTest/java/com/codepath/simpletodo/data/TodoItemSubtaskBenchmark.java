@@ -0,0 +1,270 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Instrumentation tests and benchmark of the subtasks, on an in-memory database: the closure
+ * table follows inserts, moves and deletes, completions and deletes cascade to the subtree,
+ * and on a tree of 100k items 10 levels deep the subtree queries of the closure table are
+ * compared with recursive queries on parent_id.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemSubtaskBenchmark {
+
+    private static final String LOG_TAG = TodoItemSubtaskBenchmark.class.getSimpleName();
+
+    private static final int TREE_ITEMS = 100000;
+
+    private static final int TREE_LEVELS = 10;
+
+    private static final int QUERY_ROOTS = 200;
+
+    private static final String SQL_INSERT_ITEM = "INSERT INTO " + ItemEntry.TABLE_NAME + " ("
+            + ItemEntry.COLUMN_ITEM_NAME + ", " + ItemEntry.COLUMN_ITEM_STATUS + ", "
+            + ItemEntry.COLUMN_ITEM_PARENT_ID + ") VALUES (?, ?, ?)";
+
+    private static final String SQL_CLOSURE_PROGRESS = "SELECT count(*), total(t." + ItemEntry.COLUMN_ITEM_STATUS
+            + " = " + ItemEntry.STATUS_DONE + ") FROM " + TodoItemSubtasks.CLOSURE_TABLE + " c JOIN "
+            + ItemEntry.TABLE_NAME + " t ON t." + ItemEntry._ID + " = c." + TodoItemSubtasks.COLUMN_DESCENDANT_ID
+            + " WHERE c." + TodoItemSubtasks.COLUMN_ANCESTOR_ID + " = ? AND c." + TodoItemSubtasks.COLUMN_DEPTH + " > 0";
+
+    private static final String SQL_RECURSIVE_PROGRESS = "WITH RECURSIVE subtree(id) AS (SELECT "
+            + ItemEntry._ID + " FROM " + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry.COLUMN_ITEM_PARENT_ID + " = ?"
+            + " UNION ALL SELECT t." + ItemEntry._ID + " FROM " + ItemEntry.TABLE_NAME + " t JOIN subtree ON t."
+            + ItemEntry.COLUMN_ITEM_PARENT_ID + " = subtree.id) SELECT count(*), total(t." + ItemEntry.COLUMN_ITEM_STATUS
+            + " = " + ItemEntry.STATUS_DONE + ") FROM subtree JOIN " + ItemEntry.TABLE_NAME + " t ON t."
+            + ItemEntry._ID + " = subtree.id";
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private TodoItemProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(mContext, null);
+        mDb = mDbHelper.getWritableDatabase();
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    private long insertItem(String name, Long parentId) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        if (parentId != null) {
+            values.put(ItemEntry.COLUMN_ITEM_PARENT_ID, parentId);
+        }
+        return ContentUris.parseId(mProvider.insert(ItemEntry.CONTENT_URI, values));
+    }
+
+    private Uri itemUri(long id) {
+        return ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id);
+    }
+
+    // Names and depths of the subtree, in the provider's default order
+    private String readSubtree(long id) {
+        Cursor cursor = mProvider.query(ItemEntry.buildSubtreeUri(id),
+                new String[] { ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_DEPTH }, null, null, null);
+        try {
+            StringBuilder sb = new StringBuilder();
+            while (cursor.moveToNext()) {
+                sb.append(cursor.getString(0)).append(':').append(cursor.getInt(1)).append(' ');
+            }
+            return sb.toString().trim();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long[] readProgress(long id) {
+        Bundle result = mProvider.call(TodoItemContract.METHOD_SUBTREE_PROGRESS, String.valueOf(id), null);
+        return new long[] { result.getLong(TodoItemContract.EXTRA_SUBTASK_COUNT),
+                result.getLong(TodoItemContract.EXTRA_SUBTASK_DONE_COUNT) };
+    }
+
+    @Test
+    public void subtree_followsMoves() throws Exception {
+        long trip = insertItem("Trip", null);
+        long pack = insertItem("Pack", trip);
+        insertItem("Clothes", pack);
+        insertItem("Charger", pack);
+        long book = insertItem("Book hotel", trip);
+        assertEquals("Trip:0 Pack:1 Book hotel:1 Clothes:2 Charger:2", readSubtree(trip));
+
+        // Moving Pack below Book hotel moves its subtasks one level down
+        ContentValues move = new ContentValues();
+        move.put(ItemEntry.COLUMN_ITEM_PARENT_ID, book);
+        assertEquals(1, mProvider.update(itemUri(pack), move, null, null));
+        assertEquals("Trip:0 Book hotel:1 Pack:2 Clothes:3 Charger:3", readSubtree(trip));
+        assertEquals("Pack:0 Clothes:1 Charger:1", readSubtree(pack));
+
+        // An item cannot go below its own subtasks
+        move.put(ItemEntry.COLUMN_ITEM_PARENT_ID, pack);
+        try {
+            mProvider.update(itemUri(trip), move, null, null);
+            fail("Made a cycle");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // Back to the top level
+        move.putNull(ItemEntry.COLUMN_ITEM_PARENT_ID);
+        mProvider.update(itemUri(pack), move, null, null);
+        assertEquals("Trip:0 Book hotel:1", readSubtree(trip));
+        assertArrayEquals(new long[] { 2, 0 }, readProgress(pack));
+        assertNull(mProvider.call(TodoItemContract.METHOD_SUBTREE_PROGRESS, "12345", null));
+    }
+
+    @Test
+    public void completionAndDelete_cascadeToTheSubtree() throws Exception {
+        long release = insertItem("Release", null);
+        long build = insertItem("Build", release);
+        insertItem("Sign", build);
+        insertItem("Notes", release);
+        long other = insertItem("Other", null);
+        assertArrayEquals(new long[] { 3, 0 }, readProgress(release));
+
+        // Through the fast path, the subtasks at every depth are finished too
+        mProvider.call(TodoItemContract.METHOD_TOGGLE_STATUS, String.valueOf(build), null);
+        assertArrayEquals(new long[] { 3, 2 }, readProgress(release));
+        ContentValues done = new ContentValues();
+        done.put(ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.STATUS_DONE);
+        mProvider.update(itemUri(release), done, null, null);
+        assertArrayEquals(new long[] { 3, 3 }, readProgress(release));
+
+        // Moving the parent to another list moves the subtree, and keeps the counts right
+        ContentValues listValues = new ContentValues();
+        listValues.put(ListEntry.COLUMN_LIST_NAME, "Work");
+        long work = ContentUris.parseId(mProvider.insert(ListEntry.CONTENT_URI, listValues));
+        ContentValues move = new ContentValues();
+        move.put(ItemEntry.COLUMN_ITEM_LIST_ID, work);
+        mProvider.update(itemUri(release), move, null, null);
+        assertEquals(4, DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME,
+                ItemEntry.COLUMN_ITEM_LIST_ID + "=" + work));
+        assertEquals(4, DatabaseUtils.longForQuery(mDb, "SELECT " + ListEntry.COLUMN_LIST_ITEM_COUNT + " FROM "
+                + ListEntry.TABLE_NAME + " WHERE " + ListEntry._ID + "=" + work, null));
+
+        // Deleting the parent deletes the whole subtree, and nothing else
+        assertEquals(1, mProvider.delete(itemUri(release), null, null));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDb, TodoItemSubtasks.CLOSURE_TABLE));
+        assertArrayEquals(new long[] { 0, 0 }, readProgress(other));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT " + ListEntry.COLUMN_LIST_ITEM_COUNT + " FROM "
+                + ListEntry.TABLE_NAME + " WHERE " + ListEntry._ID + "=" + work, null));
+    }
+
+    @Test
+    public void hundredThousandItems_closureVersusRecursiveQueries() throws Exception {
+        // Recursive common table expressions need SQLite 3.8.3, from API 21
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+
+        // Levels twice as wide as the one above, each item under a random item of the level above
+        Random random = new Random(44L);
+        int[] levelSizes = new int[TREE_LEVELS];
+        int total = 0;
+        for (int level = 0; level < TREE_LEVELS; level++) {
+            levelSizes[level] = (int) (TREE_ITEMS * ((1L << level) / (double) ((1L << TREE_LEVELS) - 1)));
+            total += levelSizes[level];
+        }
+        levelSizes[TREE_LEVELS - 1] += TREE_ITEMS - total;
+
+        long[][] levels = new long[TREE_LEVELS][];
+        long start = SystemClock.elapsedRealtime();
+        SQLiteStatement insert = mDb.compileStatement(SQL_INSERT_ITEM);
+        mDb.beginTransaction();
+        try {
+            for (int level = 0; level < TREE_LEVELS; level++) {
+                levels[level] = new long[Math.max(1, levelSizes[level])];
+                for (int i = 0; i < levels[level].length; i++) {
+                    insert.bindString(1, "Item " + level + "." + i);
+                    insert.bindLong(2, random.nextInt(3));
+                    if (level == 0) {
+                        insert.bindNull(3);
+                    } else {
+                        long[] above = levels[level - 1];
+                        insert.bindLong(3, above[random.nextInt(above.length)]);
+                    }
+                    levels[level][i] = insert.executeInsert();
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insert.close();
+        }
+        long insertMillis = SystemClock.elapsedRealtime() - start;
+
+        // Subtrees of every size, from the top levels down
+        long[] roots = new long[QUERY_ROOTS];
+        for (int i = 0; i < QUERY_ROOTS; i++) {
+            long[] level = levels[i % 5];
+            roots[i] = level[random.nextInt(level.length)];
+        }
+        long[][] closure = new long[QUERY_ROOTS][];
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < QUERY_ROOTS; i++) {
+            closure[i] = progress(SQL_CLOSURE_PROGRESS, roots[i]);
+        }
+        long closureMillis = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < QUERY_ROOTS; i++) {
+            assertArrayEquals(closure[i], progress(SQL_RECURSIVE_PROGRESS, roots[i]));
+        }
+        long recursiveMillis = SystemClock.elapsedRealtime() - start;
+
+        // Deleting a top-level item deletes its subtree in one statement
+        long deleted = closure[0][0] + 1;
+        start = SystemClock.elapsedRealtime();
+        mProvider.delete(itemUri(roots[0]), null, null);
+        long deleteMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(TREE_ITEMS - deleted, DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME));
+
+        Log.v(LOG_TAG, TREE_ITEMS + " items in " + TREE_LEVELS + " levels inserted in " + insertMillis + " ms, "
+                + DatabaseUtils.queryNumEntries(mDb, TodoItemSubtasks.CLOSURE_TABLE) + " closure rows; "
+                + QUERY_ROOTS + " subtree counts in " + closureMillis + " ms with the closure table, "
+                + recursiveMillis + " ms recursive; " + deleted + " items deleted in " + deleteMillis + " ms");
+        assertTrue("Took " + closureMillis + " ms", closureMillis <= Math.max(100, 2 * recursiveMillis));
+    }
+
+    private long[] progress(String sql, long id) {
+        Cursor cursor = mDb.rawQuery(sql, new String[] { String.valueOf(id) });
+        try {
+            cursor.moveToFirst();
+            return new long[] { cursor.getLong(0), cursor.getLong(1) };
+        } finally {
+            cursor.close();
+        }
+    }
+}
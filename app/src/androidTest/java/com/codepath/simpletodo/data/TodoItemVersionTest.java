@@ -0,0 +1,275 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for item versions and compare-and-set updates. Races between an
+ * editor and other writers are driven step by step with latches, so every run interleaves
+ * the writes the same way.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemVersionTest {
+
+    private static final int WRITERS = 8;
+
+    private TodoItemDbHelper mDbHelper;
+    private TodoItemProvider mProvider;
+    private ExecutorService mExecutor;
+    private Uri mItemUri;
+    private long mItemId;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(context, null);
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(context, null);
+        mExecutor = Executors.newFixedThreadPool(WRITERS);
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Pay rent");
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        mItemUri = mProvider.insert(ItemEntry.CONTENT_URI, values);
+        mItemId = ContentUris.parseId(mItemUri);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        mDbHelper.close();
+    }
+
+    private long readVersion() {
+        return readLong(ItemEntry.COLUMN_ITEM_VERSION);
+    }
+
+    private long readLong(String column) {
+        Cursor cursor = mProvider.query(mItemUri, new String[] { column }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String readName() {
+        Cursor cursor = mProvider.query(mItemUri, new String[] { ItemEntry.COLUMN_ITEM_NAME }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int compareAndSetName(String name, long expectedVersion) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        return mProvider.update(ItemEntry.buildVersionedItemUri(mItemUri, expectedVersion), values, null, null);
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void everyUpdate_bumpsTheVersion() throws Exception {
+        assertEquals(0, readVersion());
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NOTES, "Before the 5th");
+        assertEquals(1, mProvider.update(mItemUri, values, null, null));
+        assertEquals(1, readVersion());
+
+        // The fast paths bump it too, in their single statement
+        mProvider.call(TodoItemContract.METHOD_TOGGLE_STATUS, String.valueOf(mItemId), null);
+        Bundle extras = new Bundle();
+        extras.putInt(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_HIGH);
+        mProvider.call(TodoItemContract.METHOD_SET_PRIORITY, String.valueOf(mItemId), extras);
+        assertEquals(3, readVersion());
+
+        // Updates of many rows bump each of them
+        values.put(ItemEntry.COLUMN_ITEM_NOTES, "Before the 1st");
+        assertEquals(1, mProvider.update(ItemEntry.CONTENT_URI, values, null, null));
+        assertEquals(4, readVersion());
+    }
+
+    @Test
+    public void updateOfManyRows_rehashesEachOfThem() throws Exception {
+        // More rows than one chunk of ids, matched by the field the update changes
+        int items = 1000;
+        ContentValues[] rows = new ContentValues[items];
+        for (int i = 0; i < items; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(ItemEntry.COLUMN_ITEM_NAME, "Item " + i);
+            rows[i].put(ItemEntry.COLUMN_ITEM_NOTES, "old");
+            rows[i].put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        }
+        assertEquals(items, mProvider.bulkInsert(ItemEntry.CONTENT_URI, rows));
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NOTES, "new");
+        assertEquals(items, mProvider.update(ItemEntry.CONTENT_URI, values, ItemEntry.COLUMN_ITEM_NOTES + "=?",
+                new String[] { "old" }));
+
+        Cursor cursor = mProvider.query(ItemEntry.CONTENT_URI, new String[] { ItemEntry.COLUMN_ITEM_NAME,
+                ItemEntry.COLUMN_ITEM_CONTENT_HASH, ItemEntry.COLUMN_ITEM_VERSION }, ItemEntry.COLUMN_ITEM_NOTES + "=?",
+                new String[] { "new" }, null);
+        try {
+            assertEquals(items, cursor.getCount());
+            while (cursor.moveToNext()) {
+                assertEquals(TodoItemContentHash.of(cursor.getString(0), "new"), cursor.getLong(1));
+                assertEquals(1, cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void failureInALaterChunk_rollsBackTheEarlierChunks() throws Exception {
+        int items = 1000;
+        ContentValues[] rows = new ContentValues[items];
+        for (int i = 0; i < items; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(ItemEntry.COLUMN_ITEM_NAME, "Item " + i);
+            rows[i].put(ItemEntry.COLUMN_ITEM_NOTES, "old");
+            rows[i].put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        }
+        assertEquals(items, mProvider.bulkInsert(ItemEntry.CONTENT_URI, rows));
+
+        // The last id is in the last chunk, written after every other one
+        mDbHelper.getWritableDatabase().execSQL("CREATE TRIGGER fail_last_item BEFORE UPDATE ON "
+                + ItemEntry.TABLE_NAME + " WHEN OLD." + ItemEntry._ID + " = (SELECT MAX(" + ItemEntry._ID
+                + ") FROM " + ItemEntry.TABLE_NAME + ") BEGIN SELECT RAISE(ABORT, 'last item'); END");
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NOTES, "new");
+        try {
+            mProvider.update(ItemEntry.CONTENT_URI, values, ItemEntry.COLUMN_ITEM_NOTES + "=?",
+                    new String[] { "old" });
+            fail("The update of the last item should fail");
+        } catch (SQLException expected) {
+        }
+
+        Cursor cursor = mProvider.query(ItemEntry.CONTENT_URI, new String[] { ItemEntry._ID },
+                ItemEntry.COLUMN_ITEM_NOTES + "=? OR " + ItemEntry.COLUMN_ITEM_VERSION + "!=0",
+                new String[] { "new" }, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void staleVersion_failsWithoutWriting() throws Exception {
+        long version = readVersion();
+        assertEquals(1, compareAndSetName("Pay the rent", version));
+        assertEquals(0, compareAndSetName("Rent", version));
+        assertEquals("Pay the rent", readName());
+        assertEquals(version + 1, readVersion());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writingTheVersion_isRejected() throws Exception {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_VERSION, 42);
+        mProvider.update(mItemUri, values, null, null);
+    }
+
+    @Test
+    public void editorAndBackgroundWriter_keepBothChanges() throws Exception {
+        final CountDownLatch editorRead = new CountDownLatch(1);
+        final CountDownLatch writerDone = new CountDownLatch(1);
+
+        // 1. The editor loads the item; 2. a background write cycles its status;
+        // 3. the editor saves against the version it loaded, fails, merges, and saves again
+        Future<Integer> writer = mExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                await(editorRead);
+                Bundle result = mProvider.call(TodoItemContract.METHOD_CYCLE_STATUS, String.valueOf(mItemId), null);
+                writerDone.countDown();
+                return result.getInt(ItemEntry.COLUMN_ITEM_STATUS);
+            }
+        });
+        Future<Boolean> editor = mExecutor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                long loadedVersion = readVersion();
+                editorRead.countDown();
+                await(writerDone);
+
+                assertEquals(0, compareAndSetName("Pay the rent", loadedVersion));
+                long currentVersion = readVersion();
+                assertEquals(loadedVersion + 1, currentVersion);
+                // The name is the editor's only change, so it merges without a conflict
+                return compareAndSetName("Pay the rent", currentVersion) == 1;
+            }
+        });
+
+        assertEquals(ItemEntry.STATUS_INPROGRESS, (int) writer.get(10, TimeUnit.SECONDS));
+        assertTrue(editor.get(10, TimeUnit.SECONDS));
+        assertEquals("Pay the rent", readName());
+        assertEquals(ItemEntry.STATUS_INPROGRESS, readLong(ItemEntry.COLUMN_ITEM_STATUS));
+        assertEquals(2, readVersion());
+    }
+
+    @Test
+    public void concurrentCompareAndSets_haveExactlyOneWinner() throws Exception {
+        final long version = readVersion();
+        final CyclicBarrier start = new CyclicBarrier(WRITERS);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < WRITERS; i++) {
+            final String name = "Writer " + i;
+            results.add(mExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    // Every writer read the same version, and they all write at once
+                    start.await(10, TimeUnit.SECONDS);
+                    return compareAndSetName(name, version);
+                }
+            }));
+        }
+
+        int winners = 0;
+        String winner = null;
+        for (int i = 0; i < WRITERS; i++) {
+            if (results.get(i).get(10, TimeUnit.SECONDS) == 1) {
+                winners++;
+                winner = "Writer " + i;
+            }
+        }
+        assertEquals(1, winners);
+        assertEquals(winner, readName());
+        assertEquals(version + 1, readVersion());
+    }
+}
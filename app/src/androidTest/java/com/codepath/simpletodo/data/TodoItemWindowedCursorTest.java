@@ -0,0 +1,127 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for {@link TodoItemWindowedCursor}, on an in-memory database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoItemWindowedCursorTest {
+
+    private static final int ROWS = 10000;
+    private static final int CHUNK_SIZE = 100;
+
+    private TodoItemDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() throws Exception {
+        mDbHelper = new TodoItemDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        mDb = mDbHelper.getWritableDatabase();
+        TodoItemGenerator generator = new TodoItemGenerator(3L);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                mDb.insert(ItemEntry.TABLE_NAME, null, generator.nextValues());
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void matchesRegularQuery() throws Exception {
+        String[] projection = { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME };
+        Cursor expected = mDb.query(ItemEntry.TABLE_NAME, projection, null, null, null, null, ItemEntry._ID);
+        Cursor windowed = new TodoItemWindowedCursor(mDb, projection, null, null, CHUNK_SIZE);
+        try {
+            assertEquals(expected.getCount(), windowed.getCount());
+            while (expected.moveToNext()) {
+                assertTrue(windowed.moveToNext());
+                assertEquals(expected.getLong(0), windowed.getLong(0));
+                assertEquals(expected.getString(1), windowed.getString(1));
+            }
+            assertFalse(windowed.moveToNext());
+
+            // Random access, in both directions
+            assertTrue(windowed.moveToPosition(ROWS - 1));
+            assertTrue(expected.moveToPosition(ROWS - 1));
+            assertEquals(expected.getLong(0), windowed.getLong(0));
+            assertTrue(windowed.moveToPosition(1234));
+            assertTrue(expected.moveToPosition(1234));
+            assertEquals(expected.getLong(0), windowed.getLong(0));
+        } finally {
+            expected.close();
+            windowed.close();
+        }
+    }
+
+    @Test
+    public void countIsExactAfterDeletes() throws Exception {
+        mDb.delete(ItemEntry.TABLE_NAME, ItemEntry._ID + " % 10 = 0", null);
+        String[] projection = { ItemEntry._ID };
+        TodoItemWindowedCursor windowed = new TodoItemWindowedCursor(mDb, projection, null, null, CHUNK_SIZE);
+        try {
+            // Not the _id range, which still covers the deleted rows
+            assertEquals(ROWS - ROWS / 10, windowed.getCount());
+            assertTrue(windowed.moveToLast());
+            assertEquals(ROWS - 1, windowed.getLong(0));
+        } finally {
+            windowed.close();
+        }
+    }
+
+    @Test
+    public void countIsCorrectedAfterLaterDeletes() throws Exception {
+        String[] projection = { ItemEntry._ID };
+        TodoItemWindowedCursor windowed = new TodoItemWindowedCursor(mDb, projection, null, null, CHUNK_SIZE);
+        try {
+            assertEquals(ROWS, windowed.getCount());
+            mDb.delete(ItemEntry.TABLE_NAME, ItemEntry._ID + " % 10 = 0", null);
+            assertFalse(windowed.moveToPosition(ROWS - 2));
+            assertEquals(ROWS - ROWS / 10, windowed.getCount());
+        } finally {
+            windowed.close();
+        }
+    }
+
+    @Test
+    public void countOfSelection_isExactFromTheStart() throws Exception {
+        String selection = ItemEntry.COLUMN_ITEM_STATUS + "=?";
+        String[] selectionArgs = { String.valueOf(ItemEntry.STATUS_DONE) };
+        String[] projection = { ItemEntry._ID };
+        Cursor expected = mDb.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs, null, null,
+                ItemEntry._ID);
+        TodoItemWindowedCursor windowed = new TodoItemWindowedCursor(mDb, projection, selection, selectionArgs,
+                CHUNK_SIZE);
+        try {
+            // Not the _id range of the whole table
+            assertEquals(expected.getCount(), windowed.getCount());
+            assertTrue(windowed.getCount() < ROWS);
+            assertTrue(windowed.moveToLast());
+            assertTrue(expected.moveToLast());
+            assertEquals(expected.getLong(0), windowed.getLong(0));
+        } finally {
+            expected.close();
+            windowed.close();
+        }
+    }
+}
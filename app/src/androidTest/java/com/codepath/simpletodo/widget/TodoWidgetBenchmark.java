@@ -0,0 +1,216 @@
+package com.codepath.simpletodo.widget;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemDbHelper;
+import com.codepath.simpletodo.data.TodoItemGenerator;
+import com.codepath.simpletodo.data.TodoItemProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation benchmark of the widget's refreshes, on an in-memory database of 10k
+ * todoitems: a burst of 1k writes is followed by the provider's notifications, throttled and
+ * applied to the top items as the widget does, and the cost is compared with querying all the
+ * pending items again on every notification.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TodoWidgetBenchmark {
+
+    private static final String LOG_TAG = TodoWidgetBenchmark.class.getSimpleName();
+
+    private static final int ITEMS = 10000;
+
+    private static final int WRITES = 1000;
+
+    private Context mContext;
+    private TodoItemDbHelper mDbHelper;
+    private TodoItemProvider mProvider;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private TopItemsSource mSource;
+    private RefreshThrottle mThrottle;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDbHelper = new TodoItemDbHelper(mContext, null);
+        mProvider = new TodoItemProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        mThread = new HandlerThread("widget");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mSource = new TopItemsSource() {
+            @Override
+            protected Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                   String sortOrder) {
+                return mProvider.query(uri, projection, selection, selectionArgs, sortOrder);
+            }
+        };
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + ItemEntry.TABLE_NAME + " ("
+                + ItemEntry.COLUMN_ITEM_NAME + ", " + ItemEntry.COLUMN_ITEM_STATUS + ", "
+                + ItemEntry.COLUMN_ITEM_PRIORITY + ", " + ItemEntry.COLUMN_ITEM_RANK + ") VALUES (?, ?, ?, ?)");
+        TodoItemGenerator generator = new TodoItemGenerator(48L);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ITEMS; i++) {
+                insert.bindString(1, generator.nextName());
+                insert.bindLong(2, generator.nextStatus());
+                insert.bindLong(3, generator.nextPriority());
+                insert.bindLong(4, i);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mThread.quit();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void burstOfWrites_costsAFewRefreshes() throws Exception {
+        final TopItemsFeed feed = new TopItemsFeed(TodoWidgetFactory.TOP_ITEMS, mSource);
+        feed.refresh();
+
+        // The widget's refresh runs on the widget host's thread; here, on the notification thread
+        final AtomicLong refreshNanos = new AtomicLong();
+        mThrottle = new RefreshThrottle(new RefreshThrottle.Clock() {
+            @Override
+            public long now() {
+                return SystemClock.uptimeMillis();
+            }
+        }, new RefreshThrottle.Timer() {
+            @Override
+            public void arm(long atMillis) {
+                mHandler.postAtTime(new Runnable() {
+                    @Override
+                    public void run() {
+                        mThrottle.onTimer();
+                    }
+                }, atMillis);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                feed.refresh();
+                refreshNanos.addAndGet(System.nanoTime() - start);
+            }
+        });
+
+        final AtomicInteger notifications = new AtomicInteger();
+        ContentObserver observer = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                notifications.incrementAndGet();
+                long id = TodoWidgetFactory.parseItemId(uri);
+                if (id != -1) {
+                    feed.onRowChanged(id);
+                } else {
+                    feed.onTableChanged();
+                }
+                mThrottle.onChanged();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(ItemEntry.CONTENT_URI, true, observer);
+        long burstMillis;
+        try {
+            // Priority changes, status changes and new items, as fast as the provider takes them
+            Random random = new Random(48L);
+            long start = SystemClock.uptimeMillis();
+            for (int i = 0; i < WRITES; i++) {
+                ContentValues values = new ContentValues();
+                if (i % 10 == 0) {
+                    values.put(ItemEntry.COLUMN_ITEM_NAME, "New item " + i);
+                    values.put(ItemEntry.COLUMN_ITEM_PRIORITY, random.nextInt(3));
+                    mProvider.insert(ItemEntry.CONTENT_URI, values);
+                } else {
+                    Uri uri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, 1 + random.nextInt(ITEMS));
+                    if (i % 2 == 0) {
+                        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, random.nextInt(3));
+                    } else {
+                        values.put(ItemEntry.COLUMN_ITEM_STATUS, random.nextInt(3));
+                    }
+                    mProvider.update(uri, values, null, null);
+                }
+            }
+            burstMillis = SystemClock.uptimeMillis() - start;
+
+            // Let the notifications arrive and the coalesced refresh run
+            SystemClock.sleep(2 * RefreshThrottle.MIN_INTERVAL_MILLIS);
+            final CountDownLatch settled = new CountDownLatch(1);
+            mHandler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    settled.countDown();
+                }
+            }, SystemClock.uptimeMillis() + RefreshThrottle.MIN_INTERVAL_MILLIS);
+            assertTrue(settled.await(10, TimeUnit.SECONDS));
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+
+        List<TopItems.Item> expected = mSource.queryTop(TodoWidgetFactory.TOP_ITEMS);
+        assertEquals(expected, feed.refresh());
+
+        // Without the feed and the throttle, every notification queried all the pending items
+        long start = System.nanoTime();
+        Cursor cursor = mProvider.query(ItemEntry.CONTENT_URI, new String[] {
+                        ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_PRIORITY },
+                ItemEntry.COLUMN_ITEM_STATUS + "!=?", new String[] { String.valueOf(ItemEntry.STATUS_DONE) },
+                ItemEntry.COLUMN_ITEM_PRIORITY + " DESC, " + ItemEntry.COLUMN_ITEM_RANK);
+        cursor.getCount();
+        cursor.close();
+        long fullQueryNanos = System.nanoTime() - start;
+
+        int refreshes = mThrottle.getRefreshCount();
+        Log.v(LOG_TAG, WRITES + " writes in " + burstMillis + " ms, " + notifications.get() + " notifications: "
+                + refreshes + " refreshes in " + refreshNanos.get() / 1000000 + " ms, with "
+                + feed.getTopQueryCount() + " queries of the top and " + feed.getItemQueryCount()
+                + " of single items; a full query per notification would take about "
+                + notifications.get() * fullQueryNanos / 1000000 + " ms");
+
+        // At most one refresh per interval, from the first write until the notifications settled
+        long settledMillis = burstMillis + 3 * RefreshThrottle.MIN_INTERVAL_MILLIS;
+        assertTrue(refreshes + " refreshes", refreshes <= settledMillis / RefreshThrottle.MIN_INTERVAL_MILLIS + 1);
+    }
+}
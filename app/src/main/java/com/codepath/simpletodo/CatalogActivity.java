@@ -1,38 +1,118 @@
 package com.codepath.simpletodo;
 
-import android.app.LoaderManager;
+import android.app.AlertDialog;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
+import android.widget.AbsListView;
+import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
 
+import com.codepath.simpletodo.archive.TodoArchiver;
+import com.codepath.simpletodo.data.TodoItemContract;
 import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+import com.codepath.simpletodo.data.TodoItemGenerator;
+import com.codepath.simpletodo.data.TodoItemQuery;
+import com.codepath.simpletodo.data.TodoItemSnapshot;
+import com.codepath.simpletodo.data.TodoItemStream;
+import com.codepath.simpletodo.perf.PerfOverlay;
+import com.codepath.simpletodo.perf.PerfTrace;
 
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+import java.util.Calendar;
+import java.util.Locale;
 
+public class CatalogActivity extends AppCompatActivity implements TodoItemStream.Listener<Cursor[]> {
 
-    /** Identifier for the todo-item data loader */
-    private static final int TODOITEM_LOADER = 0;
+    /** Columns shown in the list */
+    private static final String[] PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_NOTES,
+            ItemEntry.COLUMN_ITEM_PRIORITY,
+            ItemEntry.COLUMN_ITEM_STATUS,
+            ItemEntry.COLUMN_ITEM_RANK
+    };
+
+    /** Request code of the file picker of the import */
+    private static final int REQUEST_IMPORT_FILE = 1;
+
+    /** Seed for the dummy data generator, so that every run produces the same dataset */
+    private static final long DUMMY_DATA_SEED = 42L;
+
+    /** Columns of the lists, for the title and the list picker */
+    private static final String[] LIST_PROJECTION = {
+            ListEntry._ID,
+            ListEntry.COLUMN_LIST_NAME,
+            ListEntry.COLUMN_LIST_ITEM_COUNT
+    };
+
+    /** The lists with their counts, read with the todoitems so that the two agree */
+    private static final TodoItemQuery[] LISTS_QUERY = {
+            new TodoItemQuery(ListEntry.CONTENT_URI, LIST_PROJECTION, null, null, ListEntry._ID)
+    };
+
+    /** Preference holding the id of the list shown */
+    private static final String PREF_ACTIVE_LIST_ID = "active_list_id";
 
     // Adapter for the ListView
     TodoCursorAdapter mCursorAdapter;
 
+    // Text typed in the search box, or null when not searching
+    private String mSearchText;
+
+    // Column the list is grouped by, or null when it is not grouped
+    private String mGroupBy;
+
+    // List of todoitems, and the header of the section at its top
+    private ListView mListView;
+    private TextView mStickyHeader;
+
+    // Stream of the listed todoitems and of the lists with their counts, re-queried whenever
+    // they change
+    private TodoItemStream<Cursor[]> mItemStream;
+
+    // Position to scroll back to once the list is read again after a trim, or -1
+    private int mRestorePosition = -1;
+
+    // Id of the list shown; only its todoitems are queried
+    private long mListId;
+
+    // Latest lists with their counts
+    private TodoItemSnapshot mLists;
+
+    // Frame and section timings over the list, in debug builds
+    private PerfOverlay mPerfOverlay;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        PerfTrace.begin("CatalogActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
+        mPerfOverlay = new PerfOverlay(this);
+
+        // Show the list shown last time
+        mListId = getPreferences(MODE_PRIVATE).getLong(PREF_ACTIVE_LIST_ID, ListEntry.DEFAULT_LIST_ID);
 
         //  Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
@@ -40,25 +120,80 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             @Override
             public void onClick(View view){
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+                intent.putExtra(EditorActivity.EXTRA_LIST_ID, mListId);
                 startActivity(intent);
             }
         });
 
         setupTodoItemListView();
+
+        // Keep the list small by archiving old DONE items every day
+        TodoArchiver.schedule(this);
+        PerfTrace.end();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mItemStream.start();
+
+        // Create the instances of repeating items due today, if not done yet
+        new MaterializeRecurrencesTask(getApplicationContext()).execute();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        PerfTrace.startFrames();
+        mPerfOverlay.show();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mPerfOverlay.hide();
+        PerfTrace.stopFrames();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mItemStream.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mItemStream.close();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Nothing of the list is shown any more: drop its cursor and windows, and read it
+        // again when the activity starts
+        if (level >= TRIM_MEMORY_UI_HIDDEN && mItemStream != null) {
+            if (mCursorAdapter.getCursor() != null) {
+                mRestorePosition = mListView.getFirstVisiblePosition();
+            }
+            mItemStream.close();
+        }
+    }
 
     private void setupTodoItemListView() {
         // Find the ListView which will be populated with the todoitem data
         ListView itemListView = (ListView) findViewById(R.id.list);
+        mListView = itemListView;
+        mStickyHeader = (TextView) findViewById(R.id.sticky_header);
 
         // Find and Set empty view on the ListView, so that it only shows when the list has 0 items.
         View emptyView = findViewById(R.id.empty_view);
         itemListView.setEmptyView(emptyView);
 
         // Setup an Adapter to create a list item for each row of the todoitem data in the Cursor.
-        // There is no todoitem data yet (until the loader finishes) so pass in null for the Cursor.
+        // There is no todoitem data yet (until the first query finishes) so pass in null for the Cursor.
         mCursorAdapter = TodoCursorAdapter.getInstance(this, null);
+        mCursorAdapter.setGroupColumn(mGroupBy);
         itemListView.setAdapter(mCursorAdapter);
 
         // Setup the item click listener
@@ -83,45 +218,401 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Kick off the loader
-        getLoaderManager().initLoader(TODOITEM_LOADER, null, this);
+        // Swiping a row sideways moves the todoitem to its next status, without opening the editor
+        itemListView.setOnTouchListener(new SwipeToCycleListener(itemListView,
+                new SwipeToCycleListener.Callback() {
+                    @Override
+                    public void onSwiped(int position, final long id) {
+                        // Off the main thread, in the order of the swipes; the stream redraws
+                        // the row once the provider notifies the change
+                        final ContentResolver resolver = getApplicationContext().getContentResolver();
+                        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                resolver.call(ItemEntry.CONTENT_URI, TodoItemContract.METHOD_CYCLE_STATUS,
+                                        String.valueOf(id), null);
+                            }
+                        });
+                    }
+                }));
+
+        // Long-pressing a row drags it to another position; only its rank is rewritten
+        DragToReorderListener dragListener = new DragToReorderListener(itemListView,
+                new DragToReorderListener.Callback() {
+                    @Override
+                    public void onMoved(final long id, long afterId) {
+                        final Bundle extras = new Bundle();
+                        if (afterId != AdapterView.INVALID_ROW_ID) {
+                            extras.putLong(TodoItemContract.EXTRA_AFTER_ID, afterId);
+                        }
+                        // A move can respread the ranks of a whole region, so it runs off the
+                        // main thread, in order with the swipes
+                        final ContentResolver resolver = getApplicationContext().getContentResolver();
+                        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                resolver.call(ItemEntry.CONTENT_URI, TodoItemContract.METHOD_MOVE_ITEM,
+                                        String.valueOf(id), extras);
+                            }
+                        });
+                    }
+                });
+        itemListView.setOnItemLongClickListener(dragListener);
+        itemListView.setOnDragListener(dragListener);
+
+        // Keep the header of the top section pinned while its rows scroll by
+        itemListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                updateStickyHeader(firstVisibleItem);
+            }
+        });
+
+        // Create the stream of todoitems, along with the lists whose counts the title shows;
+        // it starts querying in onStart
+        mItemStream = TodoItemStream.observeWith(this, buildListQuery(), LISTS_QUERY, this);
     }
 
 
-    // Helper method to insert hardcoded todoitems data into the database.
-    // For debugging purposes only.
+    // Helper method to ask how many generated todoitems to insert into the database.
+    // For debugging and profiling purposes only.
     private void insertTodoItems() {
+        final int[] counts = getResources().getIntArray(R.array.array_dummy_data_counts);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.dummy_data_dialog_title);
+        builder.setItems(R.array.array_dummy_data_labels, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                new InsertTodoItemsTask(getApplicationContext(), DUMMY_DATA_SEED, mListId).execute(counts[which]);
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Fills the database with generated todoitems on a background thread,
+     * using batched transactional inserts through the provider.
+     */
+    private static class InsertTodoItemsTask extends AsyncTask<Integer, Void, Integer> {
+
+        private final Context mContext;
+        private final long mSeed;
+        private final long mListId;
+        private long mElapsedMillis;
+
+        InsertTodoItemsTask(Context context, long seed, long listId) {
+            mContext = context;
+            mSeed = seed;
+            mListId = listId;
+        }
+
+        @Override
+        protected Integer doInBackground(Integer... counts) {
+            long start = SystemClock.elapsedRealtime();
+            TodoItemGenerator generator = new TodoItemGenerator(mSeed);
+            int inserted = generator.generate(mContext.getContentResolver(), ListEntry.buildItemsUri(mListId),
+                    counts[0], TodoItemGenerator.DEFAULT_BATCH_SIZE);
+            mElapsedMillis = SystemClock.elapsedRealtime() - start;
+            return inserted;
+        }
+
+        @Override
+        protected void onPostExecute(Integer inserted) {
+            Log.v("CatalogActivity", inserted + " rows inserted in " + mElapsedMillis + " ms");
+            Toast.makeText(mContext, mContext.getString(R.string.dummy_data_inserted, inserted),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Creates the instances of the repeating todoitems due today on a background thread.
+     * Rules whose instances already exist up to the end of today are not read.
+     */
+    private static class MaterializeRecurrencesTask extends AsyncTask<Void, Void, Integer> {
+
+        private final Context mContext;
+
+        MaterializeRecurrencesTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            Bundle extras = new Bundle();
+            extras.putLong(TodoItemContract.EXTRA_WINDOW_START, calendar.getTimeInMillis());
+            calendar.add(Calendar.DATE, 1);
+            Bundle result = mContext.getContentResolver().call(ItemEntry.CONTENT_URI,
+                    TodoItemContract.METHOD_MATERIALIZE, String.valueOf(calendar.getTimeInMillis()), extras);
+            return result.getInt(TodoItemContract.EXTRA_MATERIALIZED_COUNT);
+        }
+
+        @Override
+        protected void onPostExecute(Integer created) {
+            Log.v("CatalogActivity", created + " repeating items created for today");
+        }
+    }
+
+    // Helper method to pick a CSV or todo.txt file to import todoitems from.
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("text/*");
+        startActivityForResult(Intent.createChooser(intent, getString(R.string.action_import)),
+                REQUEST_IMPORT_FILE);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_IMPORT_FILE) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+
+        // Ask what to do with items the app already has
+        final Uri fileUri = data.getData();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.import_dialog_title);
+        builder.setItems(R.array.array_import_policy_labels, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                String policy = which == 0 ? TodoItemContract.POLICY_SKIP : TodoItemContract.POLICY_MERGE;
+                new ImportTodoItemsTask(getApplicationContext(), policy).execute(fileUri);
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Imports the todoitems of a file on a background thread, through the provider.
+     * Files named *.csv are read as CSV, and any other file as todo.txt.
+     */
+    private static class ImportTodoItemsTask extends AsyncTask<Uri, Void, Bundle> {
+
+        private final Context mContext;
+        private final String mPolicy;
 
-        // Create a ContentValues object where column names are the keys,
-        // and Task1's pet attributes are the values.
-        ContentValues values = new ContentValues();
-        values.put(ItemEntry.COLUMN_ITEM_NAME, "Sample Task");
-        values.put(ItemEntry.COLUMN_ITEM_NOTES, "Notes");
-        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
-        values.put(ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.STATUS_TODO);
+        ImportTodoItemsTask(Context context, String policy) {
+            mContext = context;
+            mPolicy = policy;
+        }
 
-        // Insert a new row for "Sample-todoitem" into the provider using the ContentResolver.
-        // Use the {@link TodoItemContract.ItemEntry#CONTENT_URI} to indicate that we want to insert
-        // into the pets database table.
-        // Receive the new content URI that will allow us to access Sample-todoitem's data in the future.
+        @Override
+        protected Bundle doInBackground(Uri... uris) {
+            Bundle extras = new Bundle();
+            extras.putString(TodoItemContract.EXTRA_IMPORT_FORMAT, isCsv(uris[0])
+                    ? TodoItemContract.FORMAT_CSV : TodoItemContract.FORMAT_TODO_TXT);
+            extras.putString(TodoItemContract.EXTRA_IMPORT_POLICY, mPolicy);
+            try {
+                return mContext.getContentResolver().call(ItemEntry.CONTENT_URI, TodoItemContract.METHOD_IMPORT,
+                        uris[0].toString(), extras);
+            } catch (IllegalArgumentException e) {
+                Log.e("CatalogActivity", "Import of " + uris[0] + " failed", e);
+                return null;
+            }
+        }
 
-        Uri newUri = getContentResolver().insert(ItemEntry.CONTENT_URI, values);
+        private boolean isCsv(Uri uri) {
+            String name = uri.getLastPathSegment();
+            Cursor cursor = mContext.getContentResolver().query(uri,
+                    new String[] { OpenableColumns.DISPLAY_NAME }, null, null, null);
+            if (cursor != null) {
+                try {
+                    if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                        name = cursor.getString(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            return name != null && name.toLowerCase(Locale.US).endsWith(".csv");
+        }
+
+        @Override
+        protected void onPostExecute(Bundle result) {
+            if (result == null) {
+                Toast.makeText(mContext, R.string.import_failed, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            long lines = result.getLong(TodoItemContract.EXTRA_LINE_COUNT);
+            long elapsedMillis = result.getLong(TodoItemContract.EXTRA_ELAPSED_MILLIS);
+            Log.v("CatalogActivity", lines + " lines imported in " + elapsedMillis + " ms, "
+                    + lines * 1000 / Math.max(1, elapsedMillis) + " rows/s");
+            Toast.makeText(mContext, mContext.getString(R.string.import_done,
+                    result.getLong(TodoItemContract.EXTRA_INSERTED_COUNT),
+                    result.getLong(TodoItemContract.EXTRA_MERGED_COUNT),
+                    result.getLong(TodoItemContract.EXTRA_SKIPPED_COUNT)), Toast.LENGTH_LONG).show();
+        }
     }
 
-    // Helper method to delete all todoitems data from the database.
+    // Helper method to delete all todoitems of the list shown from the database.
     private void deleteAllTodoItems() {
-        int rowsDeleted = getContentResolver().delete(ItemEntry.CONTENT_URI, null, null);
+        int rowsDeleted = getContentResolver().delete(ListEntry.buildItemsUri(mListId), null, null);
         Log.v("CatalogActivity", rowsDeleted + " rows deleted from todo database");
     }
 
+    // Helper method to pick the list to show, or to create a new one.
+    private void pickList() {
+        final int listCount = mLists == null ? 0 : mLists.getRowCount();
+        CharSequence[] labels = new CharSequence[listCount + 1];
+        for (int i = 0; i < listCount; i++) {
+            labels[i] = getString(R.string.list_title, listName(i), mLists.getInt(i, 2));
+        }
+        labels[listCount] = getString(R.string.lists_new_list);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.lists_dialog_title);
+        builder.setItems(labels, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                if (which == listCount) {
+                    createList();
+                } else {
+                    setList(mLists.getLong(which, 0));
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    // Helper method to ask for the name of a new list, and show it once created.
+    private void createList() {
+        final EditText nameEditText = new EditText(this);
+        nameEditText.setHint(R.string.new_list_hint);
+        nameEditText.setSingleLine();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.new_list_dialog_title);
+        builder.setView(nameEditText);
+        builder.setPositiveButton(R.string.action_save, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                String name = nameEditText.getText().toString().trim();
+                if (name.isEmpty()) {
+                    return;
+                }
+                ContentValues values = new ContentValues();
+                values.put(ListEntry.COLUMN_LIST_NAME, name);
+                Uri listUri = getContentResolver().insert(ListEntry.CONTENT_URI, values);
+                if (listUri != null) {
+                    setList(ContentUris.parseId(listUri));
+                }
+            }
+        });
+        builder.setNegativeButton(android.R.string.cancel, null);
+        builder.create().show();
+    }
+
+    // Show the todoitems of the given list, and remember it for the next time
+    private void setList(long listId) {
+        if (listId == mListId) {
+            return;
+        }
+        mListId = listId;
+        getPreferences(MODE_PRIVATE).edit().putLong(PREF_ACTIVE_LIST_ID, listId).apply();
+        mItemStream.setQuery(buildListQuery());
+        updateTitle();
+    }
+
+    // Name of the list in the given row of the lists; the default list has a localized name
+    private String listName(int row) {
+        return mLists.getLong(row, 0) == ListEntry.DEFAULT_LIST_ID
+                ? getString(R.string.default_list_name) : mLists.getString(row, 1);
+    }
+
+    // Show the name and size of the list shown in the app bar
+    private void updateTitle() {
+        if (mLists == null) {
+            return;
+        }
+        for (int i = 0; i < mLists.getRowCount(); i++) {
+            if (mLists.getLong(i, 0) == mListId) {
+                setTitle(getString(R.string.list_title, listName(i), mLists.getInt(i, 2)));
+                return;
+            }
+        }
+        // The list is gone, so fall back to the default one
+        setList(ListEntry.DEFAULT_LIST_ID);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_catalog.xml file
         // This adds menu items to the app bar
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        setupSearchView((SearchView) menu.findItem(R.id.action_search).getActionView());
+        // The overlay is for developers; the report can be sent from any build
+        MenuItem perfOverlay = menu.findItem(R.id.action_perf_overlay);
+        perfOverlay.setVisible(BuildConfig.DEBUG);
+        perfOverlay.setChecked(PerfOverlay.isEnabled(this));
         return true;
     }
 
+    /**
+     * Search as the user types: every keystroke replaces the query of the stream, which cancels
+     * the query still running for the previous text.
+     */
+    private void setupSearchView(SearchView searchView) {
+        searchView.setQueryHint(getString(R.string.action_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String searchText = TextUtils.getTrimmedLength(newText) == 0 ? null : newText;
+                if (TextUtils.equals(searchText, mSearchText)) {
+                    return true;
+                }
+                mSearchText = searchText;
+                mItemStream.setQuery(buildListQuery());
+                return true;
+            }
+        });
+    }
+
+    // Send the timings recorded so far as text, through the app the user picks
+    private void sendPerfReport() {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.perf_report_subject));
+        intent.putExtra(Intent.EXTRA_TEXT, PerfTrace.getRecorder().report());
+        startActivity(Intent.createChooser(intent, getString(R.string.action_perf_report)));
+    }
+
+    // Show the section of the given position in the pinned header, if the list is grouped
+    private void updateStickyHeader(int firstVisibleItem) {
+        Object[] sections = mCursorAdapter.getSections();
+        if (mGroupBy == null || sections.length == 0 || mCursorAdapter.getCount() == 0) {
+            mStickyHeader.setVisibility(View.GONE);
+            return;
+        }
+        mStickyHeader.setText(sections[mCursorAdapter.getSectionForPosition(firstVisibleItem)].toString());
+        mStickyHeader.setVisibility(View.VISIBLE);
+    }
+
+    // Group the list by the given column, or not at all
+    private void setGroupBy(String groupBy) {
+        if (TextUtils.equals(groupBy, mGroupBy)) {
+            return;
+        }
+        mGroupBy = groupBy;
+        mCursorAdapter.setGroupColumn(groupBy);
+        mItemStream.setQuery(buildListQuery());
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -131,43 +622,102 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 insertTodoItems();
                 return true;
 
+            // Respond to a click on the "Lists" menu option
+            case R.id.action_lists:
+                pickList();
+                return true;
+
+            // Respond to a click on the "Import" menu option
+            case R.id.action_import:
+                pickImportFile();
+                return true;
+
+            // Respond to a click on the "Statistics" menu option
+            case R.id.action_stats:
+                startActivity(new Intent(this, StatsActivity.class));
+                return true;
+
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllTodoItems();
                 return true;
+
+            // Respond to a click on the "Performance overlay" menu option
+            case R.id.action_perf_overlay:
+                item.setChecked(!item.isChecked());
+                PerfOverlay.setEnabled(this, item.isChecked());
+                if (item.isChecked()) {
+                    mPerfOverlay.show();
+                } else {
+                    mPerfOverlay.hide();
+                }
+                return true;
+
+            // Respond to a click on the "Send performance report" menu option
+            case R.id.action_perf_report:
+                sendPerfReport();
+                return true;
+
+            // Respond to a click on one of the "Group by" options
+            case R.id.action_group_by_none:
+                item.setChecked(true);
+                setGroupBy(null);
+                return true;
+            case R.id.action_group_by_status:
+                item.setChecked(true);
+                setGroupBy(ItemEntry.COLUMN_ITEM_STATUS);
+                return true;
+            case R.id.action_group_by_priority:
+                item.setChecked(true);
+                setGroupBy(ItemEntry.COLUMN_ITEM_PRIORITY);
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ItemEntry._ID,
-                ItemEntry.COLUMN_ITEM_NAME,
-                ItemEntry.COLUMN_ITEM_NOTES,
-                ItemEntry.COLUMN_ITEM_PRIORITY,
-                ItemEntry.COLUMN_ITEM_STATUS
-        };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ItemEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    // Returns the query for the list: the search results, or every todoitem of the list shown
+    private TodoItemQuery buildListQuery() {
+        if (mSearchText != null) {
+            // Search the item names through the provider's prefix index, within the list
+            return new TodoItemQuery(ItemEntry.buildSearchUri(mSearchText), PROJECTION,
+                    ItemEntry.COLUMN_ITEM_LIST_ID + "=?", new String[] { String.valueOf(mListId) },
+                    ItemEntry.COLUMN_ITEM_RANK);
+        }
+
+        // Ask for a windowed cursor, so that only the rows around the visible ones are in memory.
+        // The items are in the order the user arranged them, read through the rank index.
+        // Grouped lists get one windowed cursor per section, sized by a single GROUP BY.
+        // Only the list shown is read, through the indexes leading on its id.
+        Uri.Builder listUri = ListEntry.buildItemsUri(mListId).buildUpon()
+                .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_WINDOWED, "true");
+        if (mGroupBy != null) {
+            listUri.appendQueryParameter(TodoItemContract.QUERY_PARAMETER_GROUP_BY, mGroupBy);
+        }
+        return new TodoItemQuery(listUri.build(), PROJECTION, null, null, ItemEntry.COLUMN_ITEM_RANK);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link TodoCursorAdapter} with this new cursor containing updated todoitems data
+    public void onQueryResult(Cursor[] results) {
+        PerfTrace.begin("CatalogActivity.onQueryResult");
+        Cursor data = results == null ? null : results[0];
+        if (results != null) {
+            // The title shows the name and size of the list, read from the counts the database
+            // keeps; searches read them in the same snapshot as their results
+            mLists = TodoItemSnapshot.read(results[1], Integer.MAX_VALUE);
+            updateTitle();
+        }
+        // Update {@link TodoCursorAdapter} with this new cursor containing updated todoitems data,
+        // or clear it when the stream is closed. The stream closes the previous cursor.
         mCursorAdapter.swapCursor(data);
-    }
+        if (data != null && mRestorePosition >= 0) {
+            mListView.setSelection(Math.max(0, Math.min(mRestorePosition, data.getCount() - 1)));
+            mRestorePosition = -1;
+        }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        // The fast scroller reads the sections when it is enabled, so re-enable it to refresh them
+        mListView.setFastScrollEnabled(false);
+        mListView.setFastScrollEnabled(true);
+        updateStickyHeader(mListView.getFirstVisiblePosition());
+        PerfTrace.end();
     }
 }
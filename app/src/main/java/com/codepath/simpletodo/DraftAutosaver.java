@@ -0,0 +1,141 @@
+package com.codepath.simpletodo;
+
+import java.util.Map;
+
+/**
+ * Debounces the autosaves of the editor's draft. Changes are coalesced, and the latest ones
+ * are written once the user pauses for {@link #QUIET_MILLIS}. While typing goes on, a write
+ * still happens every {@link #MAX_DELAY_MILLIS}. A draft equal to the last one written is not
+ * written again.
+ *
+ * The editor also flushes the draft when it pauses, so the delays only bound what a crash can
+ * lose. This class does not depend on the Android framework, so that it can be driven by a
+ * simulated clock in tests.
+ */
+class DraftAutosaver {
+
+    /**
+     * Source of the current time, in milliseconds.
+     */
+    interface Clock {
+        long now();
+    }
+
+    /**
+     * Calls {@link #onTimer()} back at the armed time, on the thread changes are reported on.
+     */
+    interface Timer {
+        /** Arm the timer at the given time, replacing any previously armed one */
+        void arm(long atMillis);
+
+        /** Cancel the armed timer */
+        void cancel();
+    }
+
+    /**
+     * Writes a draft. It is called on the thread changes are reported on, and should hand the
+     * write off to a background thread.
+     */
+    interface Writer {
+        void write(Map<String, Object> fields);
+    }
+
+    /** Pause in the changes after which the draft is written */
+    static final long QUIET_MILLIS = 2000;
+
+    /** Longest time a change waits to be written while changes go on */
+    static final long MAX_DELAY_MILLIS = 30000;
+
+    private static final long NONE = -1;
+
+    private final Clock mClock;
+    private final Timer mTimer;
+    private final Writer mWriter;
+
+    // Latest fields not written yet, or null, and the time of the first change since the last write
+    private Map<String, Object> mPending;
+    private long mFirstChangeAt = NONE;
+
+    // Fields last written, or restored from the previous draft
+    private Map<String, Object> mWritten;
+
+    private int mWriteCount;
+
+    /**
+     * Constructs a new {@link DraftAutosaver}
+     * @param clock  source of the current time
+     * @param timer  calls back when the draft is due
+     * @param writer writes the draft
+     */
+    DraftAutosaver(Clock clock, Timer timer, Writer writer) {
+        mClock = clock;
+        mTimer = timer;
+        mWriter = writer;
+    }
+
+    /**
+     * Record that the draft now has the given fields, which the caller must not change.
+     */
+    void onChanged(Map<String, Object> fields) {
+        long now = mClock.now();
+        mPending = fields;
+        if (mFirstChangeAt == NONE) {
+            mFirstChangeAt = now;
+        }
+        mTimer.arm(Math.min(now + QUIET_MILLIS, mFirstChangeAt + MAX_DELAY_MILLIS));
+    }
+
+    /**
+     * Called by the timer when the draft is due.
+     */
+    void onTimer() {
+        flush();
+    }
+
+    /**
+     * Write the pending changes now, if they differ from the draft last written.
+     */
+    void flush() {
+        mTimer.cancel();
+        Map<String, Object> fields = mPending;
+        mPending = null;
+        mFirstChangeAt = NONE;
+        if (fields == null || fields.equals(mWritten)) {
+            return;
+        }
+        mWritten = fields;
+        mWriteCount++;
+        mWriter.write(fields);
+    }
+
+    /**
+     * Drop the pending changes: the item was saved, or the edits discarded.
+     */
+    void discard() {
+        mTimer.cancel();
+        mPending = null;
+        mFirstChangeAt = NONE;
+        mWritten = null;
+    }
+
+    /**
+     * Record the fields of a draft restored from storage, which need no write as they are.
+     */
+    void onRestored(Map<String, Object> fields) {
+        mWritten = fields;
+    }
+
+    /**
+     * Returns whether there are changes not written yet.
+     */
+    boolean hasPending() {
+        return mPending != null;
+    }
+
+    /**
+     * Returns the number of drafts written.
+     */
+    int getWriteCount() {
+        return mWriteCount;
+    }
+}
@@ -0,0 +1,102 @@
+package com.codepath.simpletodo;
+
+import android.content.ClipData;
+import android.view.DragEvent;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ListView;
+
+/**
+ * Lets the user long-press a row of a {@link ListView} and drag it to another position.
+ * The list scrolls while the row is held near its top or bottom edge. On drop, the
+ * {@link Callback} is told which item moved and which item it now follows.
+ */
+class DragToReorderListener implements AdapterView.OnItemLongClickListener, View.OnDragListener {
+
+    /**
+     * Receives the moves.
+     */
+    interface Callback {
+        /**
+         * @param id      item that was dragged
+         * @param afterId item it was dropped right after, or {@link AdapterView#INVALID_ROW_ID}
+         *                if it was dropped at the top
+         */
+        void onMoved(long id, long afterId);
+    }
+
+    // Fraction of the list height, at each edge, where a held row scrolls the list
+    private static final float SCROLL_ZONE = 0.15f;
+    private static final int SCROLL_DURATION_MS = 100;
+
+    private final ListView mListView;
+    private final Callback mCallback;
+
+    // Position and id of the row being dragged
+    private int mFromPosition = ListView.INVALID_POSITION;
+    private long mDraggedId;
+
+    DragToReorderListener(ListView listView, Callback callback) {
+        mListView = listView;
+        mCallback = callback;
+    }
+
+    @Override
+    public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+        mFromPosition = position;
+        mDraggedId = id;
+        return view.startDrag(ClipData.newPlainText("", ""), new View.DragShadowBuilder(view), null, 0);
+    }
+
+    @Override
+    public boolean onDrag(View view, DragEvent event) {
+        if (mFromPosition == ListView.INVALID_POSITION) {
+            return false;
+        }
+        switch (event.getAction()) {
+            case DragEvent.ACTION_DRAG_LOCATION:
+                scrollIfAtEdge(event.getY());
+                return true;
+            case DragEvent.ACTION_DROP:
+                onDrop(event.getX(), event.getY());
+                return true;
+            case DragEvent.ACTION_DRAG_ENDED:
+                mFromPosition = ListView.INVALID_POSITION;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void scrollIfAtEdge(float y) {
+        int height = mListView.getHeight();
+        int step = height / 10;
+        if (y < height * SCROLL_ZONE) {
+            mListView.smoothScrollBy(-step, SCROLL_DURATION_MS);
+        } else if (y > height * (1 - SCROLL_ZONE)) {
+            mListView.smoothScrollBy(step, SCROLL_DURATION_MS);
+        }
+    }
+
+    private void onDrop(float x, float y) {
+        int toPosition = mListView.pointToPosition((int) x, (int) y);
+        if (toPosition == ListView.INVALID_POSITION) {
+            // Below the last row
+            toPosition = mListView.getCount() - 1;
+        }
+        if (toPosition == mFromPosition || toPosition < 0) {
+            return;
+        }
+
+        // Moving down, the item goes after the row it was dropped on; moving up, before it
+        long afterId;
+        if (toPosition > mFromPosition) {
+            afterId = mListView.getItemIdAtPosition(toPosition);
+        } else if (toPosition > 0) {
+            afterId = mListView.getItemIdAtPosition(toPosition - 1);
+        } else {
+            afterId = AdapterView.INVALID_ROW_ID;
+        }
+        mCallback.onMoved(mDraggedId, afterId);
+    }
+}
@@ -1,38 +1,84 @@
 package com.codepath.simpletodo;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
+import android.app.DatePickerDialog;
+import android.app.TimePickerDialog;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.DatePicker;
 import android.widget.EditText;
 import android.widget.Spinner;
+import android.widget.TimePicker;
 import android.widget.Toast;
 
+import com.codepath.simpletodo.data.TodoItemContract.DraftEntry;
 import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+import com.codepath.simpletodo.data.TodoItemContract.RecurrenceEntry;
+import com.codepath.simpletodo.data.TodoItemQuery;
+import com.codepath.simpletodo.data.TodoItemSnapshot;
+import com.codepath.simpletodo.data.TodoItemStream;
+import com.codepath.simpletodo.perf.PerfOverlay;
+import com.codepath.simpletodo.perf.PerfTrace;
 
-public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-    /** Identifier for the pet data loader */
-    private static final int EXISTING_TODO_LOADER = 0;
+public class EditorActivity extends AppCompatActivity implements TodoItemStream.Listener<TodoItemSnapshot> {
+
+    /** Extra with the id of the list a new item goes to, {@link ListEntry#DEFAULT_LIST_ID} if absent */
+    public static final String EXTRA_LIST_ID = "list_id";
+
+    // Since the editor shows all pet attributes, define a projection that contains
+    // all columns from the pet table, and the version the edits are based on
+    private static final String[] ITEM_PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_NOTES,
+            ItemEntry.COLUMN_ITEM_PRIORITY,
+            ItemEntry.COLUMN_ITEM_STATUS,
+            ItemEntry.COLUMN_ITEM_DUE_AT,
+            ItemEntry.COLUMN_ITEM_VERSION };
+
+    // The fields of a draft, named like those of the item
+    private static final String[] DRAFT_PROJECTION = {
+            DraftEntry.COLUMN_DRAFT_NAME,
+            DraftEntry.COLUMN_DRAFT_NOTES,
+            DraftEntry.COLUMN_DRAFT_PRIORITY,
+            DraftEntry.COLUMN_DRAFT_STATUS,
+            DraftEntry.COLUMN_DRAFT_DUE_AT };
 
     /** Content URI for the existing pet (null if it's a new pet) */
     private Uri mCurrentTodoItemUri;
 
+    /** Stream of the existing item (null if it's a new item) */
+    private TodoItemStream<TodoItemSnapshot> mItemStream;
+
     /** EditText field to enter the item's title */
     private EditText mNameEditText;
 
@@ -45,6 +91,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     // EditText field to enter the item's status
     private Spinner mStatusSpinner;
 
+    // Button showing the item's due date, which opens the date and time pickers
+    private Button mDueDateButton;
+
+    // Spinner to pick how a new item repeats
+    private Spinner mRepeatSpinner;
+
     /**
      * Priority of the TodoItem. The possible valid values are in the TodoItemContract.java file:
      * {@link ItemEntry#PRIORITY_LOW}, {@link ItemEntry#PRIORITY_MEDIUM}, or
@@ -59,9 +111,64 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private int mStatus = ItemEntry.STATUS_TODO;
 
+    /** Due date of the TodoItem in milliseconds since the epoch, or null if it has none */
+    private Long mDueAt = null;
+
+    /**
+     * Recurrence rule of a new TodoItem, such as {@link RecurrenceEntry#RULE_WEEKLY}, or null
+     * if it does not repeat.
+     */
+    private String mRepeatRule = null;
+
     /** Boolean flag that keeps track of whether the item has been edited (true) or not (false) */
     private boolean mItemHasChanged = false;
 
+    /** Fields of the existing item as they were loaded, which the user's edits are based on */
+    private Map<String, Object> mLoadedFields;
+
+    /** Version of the existing item when it was loaded; saving requires it to be unchanged */
+    private long mLoadedVersion;
+
+    /** Content URI of the draft of the item, new or existing */
+    private Uri mDraftUri;
+
+    /** Stream reading the draft left by a previous editor, closed once read */
+    private TodoItemStream<TodoItemSnapshot> mDraftStream;
+
+    /** Draft left by a previous editor, until it is shown over the loaded item */
+    private Map<String, Object> mRestoredDraft;
+
+    /** Writes the edits to the draft once the user pauses, so that they survive the editor being killed */
+    private DraftAutosaver mDraftSaver;
+
+    /** Frame and section timings over the editor, in debug builds */
+    private PerfOverlay mPerfOverlay;
+
+    private final Handler mHandler = new Handler();
+
+    private final Runnable mDraftTimer = new Runnable() {
+        @Override
+        public void run() {
+            mDraftSaver.onTimer();
+        }
+    };
+
+    /** Reports every change of the text fields to the draft */
+    private final TextWatcher mTextWatcher = new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            onFieldsChanged();
+        }
+    };
+
     /**
      * OnTouchListener that listens fo any user touches on a View, implying that they are modifying
      * the view, and we change the mItemHasChanged boolean to true.
@@ -78,6 +185,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_editor);
+        mPerfOverlay = new PerfOverlay(this);
 
         // Examine the intent that was used to launch this activity,
         // in order to figure out if we're creating a new item or editing an existing one.
@@ -97,9 +205,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // Otherwise this is an existing item, so change app bar to say "Edit Item"
             setTitle(getString(R.string.editor_activity_title_edit_item));
 
-            // Initialize the loader to read the item data from the database
-            // and display the current values in the editor
-            getLoaderManager().initLoader(EXISTING_TODO_LOADER, null, this);
+            // Create the stream that reads the item data from the database
+            // and displays the current values in the editor; it starts in onStart
+            mItemStream = TodoItemStream.observe(this, buildItemQuery(), this);
         }
 
         // Find all relevant views that we will need to read user input from
@@ -107,8 +215,244 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mNotesEditText = (EditText) findViewById(R.id.edit_task_description);
         mPrioritySpinner = (Spinner) findViewById(R.id.spinner_priority);
         mStatusSpinner = (Spinner) findViewById(R.id.spinner_status);
+        mDueDateButton = (Button) findViewById(R.id.button_due_date);
+        mRepeatSpinner = (Spinner) findViewById(R.id.spinner_repeat);
+
+        // Only a new item can be made to repeat
+        if (mCurrentTodoItemUri != null) {
+            findViewById(R.id.container_repeat).setVisibility(View.GONE);
+        }
+
+        // Setup OnTouchListeners on all the input fields, so we can determine if the user
+        // has touched or modified them. This tells us if there are unsaved changes, and keeps
+        // a newer version of the item from overwriting them.
+        mNameEditText.setOnTouchListener(mTouchListener);
+        mNotesEditText.setOnTouchListener(mTouchListener);
+        mPrioritySpinner.setOnTouchListener(mTouchListener);
+        mStatusSpinner.setOnTouchListener(mTouchListener);
+        mRepeatSpinner.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+        setupDueDateButton();
+        setupDraft(savedInstanceState == null);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mItemStream != null) {
+            mItemStream.start();
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        PerfTrace.startFrames();
+        mPerfOverlay.show();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mPerfOverlay.hide();
+        PerfTrace.stopFrames();
+        // The process can be killed from here on, so write the edits without waiting for a pause
+        mDraftSaver.flush();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (mItemStream != null) {
+            mItemStream.stop();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mItemStream != null) {
+            mItemStream.close();
+        }
+        if (mDraftStream != null) {
+            mDraftStream.close();
+        }
+        mHandler.removeCallbacks(mDraftTimer);
+    }
+
+    // Autosave the edits to the draft of the item, and read the draft a previous editor left
+    private void setupDraft(boolean restore) {
+        long itemId = mCurrentTodoItemUri == null ? DraftEntry.NEW_ITEM_ID : ContentUris.parseId(mCurrentTodoItemUri);
+        mDraftUri = DraftEntry.buildDraftUri(itemId);
+        final ContentResolver resolver = getApplicationContext().getContentResolver();
+        final long draftItemId = itemId;
+        mDraftSaver = new DraftAutosaver(new DraftAutosaver.Clock() {
+            @Override
+            public long now() {
+                return SystemClock.uptimeMillis();
+            }
+        }, new DraftAutosaver.Timer() {
+            @Override
+            public void arm(long atMillis) {
+                mHandler.removeCallbacks(mDraftTimer);
+                mHandler.postAtTime(mDraftTimer, atMillis);
+            }
+
+            @Override
+            public void cancel() {
+                mHandler.removeCallbacks(mDraftTimer);
+            }
+        }, new DraftAutosaver.Writer() {
+            @Override
+            public void write(Map<String, Object> fields) {
+                final ContentValues values = toContentValues(fields);
+                values.put(DraftEntry.COLUMN_DRAFT_ITEM_ID, draftItemId);
+                // Drafts are written in order, and before the delete that follows a save
+                AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        resolver.insert(DraftEntry.CONTENT_URI, values);
+                    }
+                });
+            }
+        });
+
+        mNameEditText.addTextChangedListener(mTextWatcher);
+        mNotesEditText.addTextChangedListener(mTextWatcher);
+
+        // The edit texts keep their text across configuration changes, so the draft is only
+        // read when the editor is opened
+        if (restore) {
+            mDraftStream = TodoItemStream.observe(this, new TodoItemQuery(mDraftUri, DRAFT_PROJECTION),
+                    new TodoItemStream.Listener<TodoItemSnapshot>() {
+                        @Override
+                        public void onQueryResult(TodoItemSnapshot draft) {
+                            onDraftLoaded(draft);
+                        }
+                    });
+            mDraftStream.start();
+        }
+    }
+
+    // Drafts are never notified, so the first result is the only one
+    private void onDraftLoaded(TodoItemSnapshot draft) {
+        if (draft == null || mDraftStream == null) {
+            return;
+        }
+        mDraftStream.close();
+        mDraftStream = null;
+        if (draft.getRowCount() < 1 || mItemHasChanged) {
+            return;
+        }
+        Map<String, Object> fields = new HashMap<>();
+        String notes = draft.getString(0, 1);
+        fields.put(ItemEntry.COLUMN_ITEM_NAME, draft.getString(0, 0));
+        fields.put(ItemEntry.COLUMN_ITEM_NOTES, notes == null ? "" : notes);
+        fields.put(ItemEntry.COLUMN_ITEM_PRIORITY, draft.getLong(0, 2));
+        fields.put(ItemEntry.COLUMN_ITEM_STATUS, draft.getLong(0, 3));
+        fields.put(ItemEntry.COLUMN_ITEM_DUE_AT, draft.isNull(0, 4) ? null : draft.getLong(0, 4));
+        mRestoredDraft = fields;
+        // The draft of an existing item is shown over it once it is loaded
+        if (mCurrentTodoItemUri == null || mLoadedFields != null) {
+            showRestoredDraft();
+        }
+    }
+
+    private void showRestoredDraft() {
+        Map<String, Object> draft = mRestoredDraft;
+        mRestoredDraft = null;
+        mDraftSaver.onRestored(draft);
+        if (draft.equals(mLoadedFields)) {
+            return;
+        }
+        showFields((String) draft.get(ItemEntry.COLUMN_ITEM_NAME), (String) draft.get(ItemEntry.COLUMN_ITEM_NOTES),
+                ((Long) draft.get(ItemEntry.COLUMN_ITEM_PRIORITY)).intValue(),
+                ((Long) draft.get(ItemEntry.COLUMN_ITEM_STATUS)).intValue(),
+                (Long) draft.get(ItemEntry.COLUMN_ITEM_DUE_AT));
+        mItemHasChanged = true;
+        Toast.makeText(this, getString(R.string.editor_draft_restored), Toast.LENGTH_SHORT).show();
+    }
+
+    // Report the fields to the draft, once the user has edited them
+    private void onFieldsChanged() {
+        if (mItemHasChanged && mDraftSaver != null) {
+            mDraftSaver.onChanged(readEditorFields());
+        }
+    }
+
+    // The edits were saved or discarded: drop the draft, after any write still queued
+    private void discardDraft() {
+        mDraftSaver.discard();
+        final ContentResolver resolver = getApplicationContext().getContentResolver();
+        final Uri draftUri = mDraftUri;
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                resolver.delete(draftUri, null, null);
+            }
+        });
+    }
+
+    // Setup the button that lets the user pick a due date and time, or clear it.
+    private void setupDueDateButton() {
+        mDueDateButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showDueDatePicker();
+            }
+        });
+    }
+
+    // Show a date picker followed by a time picker, starting from the current due date
+    private void showDueDatePicker() {
+        final Calendar calendar = Calendar.getInstance();
+        if (mDueAt != null) {
+            calendar.setTimeInMillis(mDueAt);
+        }
+
+        DatePickerDialog dateDialog = new DatePickerDialog(this, new DatePickerDialog.OnDateSetListener() {
+            @Override
+            public void onDateSet(DatePicker view, int year, int month, int dayOfMonth) {
+                calendar.set(year, month, dayOfMonth);
+                new TimePickerDialog(EditorActivity.this, new TimePickerDialog.OnTimeSetListener() {
+                    @Override
+                    public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
+                        calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
+                        calendar.set(Calendar.MINUTE, minute);
+                        calendar.set(Calendar.SECOND, 0);
+                        calendar.set(Calendar.MILLISECOND, 0);
+                        setDueAt(calendar.getTimeInMillis());
+                        mItemHasChanged = true;
+                        onFieldsChanged();
+                    }
+                }, calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE),
+                        android.text.format.DateFormat.is24HourFormat(EditorActivity.this)).show();
+            }
+        }, calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), calendar.get(Calendar.DAY_OF_MONTH));
+
+        // The neutral button removes the due date
+        dateDialog.setButton(DialogInterface.BUTTON_NEUTRAL, getString(R.string.due_date_clear),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        setDueAt(null);
+                        mItemHasChanged = true;
+                        onFieldsChanged();
+                    }
+                });
+        dateDialog.show();
+    }
+
+    // Update the due date, and the text of the due date button
+    private void setDueAt(Long dueAt) {
+        mDueAt = dueAt;
+        if (dueAt == null) {
+            mDueDateButton.setText(R.string.due_date_none);
+        } else {
+            mDueDateButton.setText(DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT)
+                    .format(dueAt));
+        }
     }
 
     // Setup the dropdown spinner that allows the user to select the priority of the item.
@@ -143,6 +487,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                         mPriority = ItemEntry.PRIORITY_MEDIUM;
                     }
                 }
+                onFieldsChanged();
             }
 
             @Override
@@ -165,6 +510,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                         mStatus = ItemEntry.STATUS_INPROGRESS;
                     }
                 }
+                onFieldsChanged();
             }
 
             @Override
@@ -172,38 +518,224 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 mStatus = ItemEntry.STATUS_TODO;
             }
         });
+
+        ArrayAdapter repeatSpinnerAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_repeat_options, android.R.layout.simple_spinner_item);
+        repeatSpinnerAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        mRepeatSpinner.setAdapter(repeatSpinnerAdapter);
+        mRepeatSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                String selection = (String) parent.getItemAtPosition(position);
+                if (selection.equals(getString(R.string.repeat_daily))) {
+                    mRepeatRule = RecurrenceEntry.RULE_DAILY;
+                } else if (selection.equals(getString(R.string.repeat_weekly))) {
+                    mRepeatRule = RecurrenceEntry.RULE_WEEKLY;
+                } else if (selection.equals(getString(R.string.repeat_monthly))) {
+                    mRepeatRule = RecurrenceEntry.RULE_MONTHLY;
+                } else {
+                    mRepeatRule = null;
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                mRepeatRule = null;
+            }
+        });
     }
 
-    // Get user input from editor and save new todoitem into database
-    private void saveItem() {
-        // Read from input fields
+    // Fields of the item as the user edited them, keyed by column
+    private Map<String, Object> readEditorFields() {
+        Map<String, Object> fields = new HashMap<>();
         // Use trim to eliminate leading or trailing white space
-        String nameString = mNameEditText.getText().toString().trim();
-        String notesString = mNotesEditText.getText().toString().trim();
+        fields.put(ItemEntry.COLUMN_ITEM_NAME, mNameEditText.getText().toString().trim());
+        fields.put(ItemEntry.COLUMN_ITEM_NOTES, mNotesEditText.getText().toString().trim());
+        fields.put(ItemEntry.COLUMN_ITEM_PRIORITY, (long) mPriority);
+        fields.put(ItemEntry.COLUMN_ITEM_STATUS, (long) mStatus);
+        fields.put(ItemEntry.COLUMN_ITEM_DUE_AT, mDueAt);
+        return fields;
+    }
+
+    // Fields of the item in the first row of the cursor, keyed by column
+    private static Map<String, Object> readItemFields(Cursor cursor) {
+        Map<String, Object> fields = new HashMap<>();
+        String notes = cursor.getString(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NOTES));
+        int dueAtColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_DUE_AT);
+        fields.put(ItemEntry.COLUMN_ITEM_NAME, cursor.getString(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME)));
+        fields.put(ItemEntry.COLUMN_ITEM_NOTES, notes == null ? "" : notes);
+        fields.put(ItemEntry.COLUMN_ITEM_PRIORITY, cursor.getLong(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_PRIORITY)));
+        fields.put(ItemEntry.COLUMN_ITEM_STATUS, cursor.getLong(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_STATUS)));
+        fields.put(ItemEntry.COLUMN_ITEM_DUE_AT, cursor.isNull(dueAtColumnIndex) ? null : cursor.getLong(dueAtColumnIndex));
+        return fields;
+    }
+
+    private static ContentValues toContentValues(Map<String, Object> fields) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, (String) fields.get(ItemEntry.COLUMN_ITEM_NAME));
+        values.put(ItemEntry.COLUMN_ITEM_NOTES, (String) fields.get(ItemEntry.COLUMN_ITEM_NOTES));
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, (Long) fields.get(ItemEntry.COLUMN_ITEM_PRIORITY));
+        values.put(ItemEntry.COLUMN_ITEM_STATUS, (Long) fields.get(ItemEntry.COLUMN_ITEM_STATUS));
+        Long dueAt = (Long) fields.get(ItemEntry.COLUMN_ITEM_DUE_AT);
+        if (dueAt != null) {
+            values.put(ItemEntry.COLUMN_ITEM_DUE_AT, dueAt);
+        } else {
+            values.putNull(ItemEntry.COLUMN_ITEM_DUE_AT);
+        }
+        return values;
+    }
+
+    // Values of the rule of a new repeating item, which first occurs at its due date, or now
+    private ContentValues toRecurrenceValues(Map<String, Object> fields, long listId) {
+        ContentValues values = new ContentValues();
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_NAME, (String) fields.get(ItemEntry.COLUMN_ITEM_NAME));
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_NOTES, (String) fields.get(ItemEntry.COLUMN_ITEM_NOTES));
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_PRIORITY, (Long) fields.get(ItemEntry.COLUMN_ITEM_PRIORITY));
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_LIST_ID, listId);
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_RULE, mRepeatRule);
+        values.put(RecurrenceEntry.COLUMN_RECURRENCE_START_AT, mDueAt != null ? mDueAt : System.currentTimeMillis());
+        return values;
+    }
+
+    /**
+     * Save the edited fields of the existing item, if it is still at the given version.
+     * If another write got there first, merge with it: changes to different fields are
+     * combined silently, and changes to the same fields are left to the user.
+     *
+     * @return whether saving is over, rather than waiting for the user to resolve a conflict
+     */
+    private boolean saveExistingItem(Map<String, Object> fields, long version) {
+        Uri versionedUri = ItemEntry.buildVersionedItemUri(mCurrentTodoItemUri, version);
+        while (getContentResolver().update(versionedUri, toContentValues(fields), null, null) == 0) {
+            // Find out what changed since the item was loaded
+            Cursor cursor = getContentResolver().query(mCurrentTodoItemUri, ITEM_PROJECTION,
+                    null, null, null);
+            Map<String, Object> theirs = null;
+            try {
+                if (cursor != null && cursor.moveToFirst()) {
+                    theirs = readItemFields(cursor);
+                    version = cursor.getLong(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_VERSION));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            if (theirs == null) {
+                // The item was deleted meanwhile, and its draft with it
+                mDraftSaver.discard();
+                Toast.makeText(this, getString(R.string.editor_update_todoitem_failed), Toast.LENGTH_SHORT).show();
+                return true;
+            }
+
+            TodoItemMerge merge = new TodoItemMerge(mLoadedFields, fields, theirs);
+            if (!merge.getConflicts().isEmpty()) {
+                showMergeDialog(merge, theirs, version);
+                return false;
+            }
+            // Their write is now the base, so that the next round only sees the user's edits
+            // as changes of ours
+            mLoadedFields = theirs;
+            fields = merge.getMerged();
+            versionedUri = ItemEntry.buildVersionedItemUri(mCurrentTodoItemUri, version);
+        }
+        discardDraft();
+        Toast.makeText(this, getString(R.string.editor_update_todoitem_successful), Toast.LENGTH_SHORT).show();
+        return true;
+    }
+
+    /**
+     * Ask the user which version of the fields changed on both sides to keep, then save.
+     */
+    private void showMergeDialog(final TodoItemMerge merge, final Map<String, Object> theirs, final long version) {
+        List<String> labels = new ArrayList<>();
+        for (String field : merge.getConflicts()) {
+            labels.add(getString(getFieldLabel(field)));
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getString(R.string.merge_dialog_msg, TextUtils.join(", ", labels)));
+        builder.setPositiveButton(R.string.merge_keep_mine, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                mLoadedFields = theirs;
+                if (saveExistingItem(merge.getMerged(), version)) {
+                    finish();
+                }
+            }
+        });
+        builder.setNegativeButton(R.string.merge_keep_theirs, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                mLoadedFields = theirs;
+                if (saveExistingItem(merge.getMergedKeepingTheirs(theirs), version)) {
+                    finish();
+                }
+            }
+        });
+        builder.setNeutralButton(R.string.keep_editing, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // The next save merges again, against whatever the item is then
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    private static int getFieldLabel(String field) {
+        switch (field) {
+            case ItemEntry.COLUMN_ITEM_NAME:
+                return R.string.label_task_name;
+            case ItemEntry.COLUMN_ITEM_NOTES:
+                return R.string.label_task_description;
+            case ItemEntry.COLUMN_ITEM_PRIORITY:
+                return R.string.label_task_priority;
+            case ItemEntry.COLUMN_ITEM_STATUS:
+                return R.string.label_task_status;
+            default:
+                return R.string.label_task_due_date;
+        }
+    }
+
+    /**
+     * Get user input from editor and save new todoitem into database.
+     *
+     * @return whether the editor can close, rather than waiting for the user to resolve a conflict
+     */
+    private boolean saveItem() {
+        PerfTrace.begin("EditorActivity.saveItem");
+        try {
+            return saveEditorFields();
+        } finally {
+            PerfTrace.end();
+        }
+    }
+
+    // Body of saveItem()
+    private boolean saveEditorFields() {
+        // Read from input fields
+        Map<String, Object> fields = readEditorFields();
+        String nameString = (String) fields.get(ItemEntry.COLUMN_ITEM_NAME);
+        String notesString = (String) fields.get(ItemEntry.COLUMN_ITEM_NOTES);
 
         // Check if this is supposed to be a new item
         // and check if all the fields in the editor are blank
         if (mCurrentTodoItemUri == null &&
                 TextUtils.isEmpty(nameString) && TextUtils.isEmpty(notesString) &&
-                mPriority == ItemEntry.PRIORITY_LOW && mStatus == ItemEntry.STATUS_TODO) {
+                mPriority == ItemEntry.PRIORITY_LOW && mStatus == ItemEntry.STATUS_TODO &&
+                mDueAt == null && mRepeatRule == null) {
             // Since no fields were modified, we can return early without creating a new pet.
             // No need to create ContentValues and no need to do any ContentProvider operations.
-            return;
+            return true;
         }
 
-        // Create a ContentValues object where column names are the keys,
-        // and todoitem attributes from the editor are the values
-        ContentValues values = new ContentValues();
-        values.put(ItemEntry.COLUMN_ITEM_NAME, nameString);
-        values.put(ItemEntry.COLUMN_ITEM_NOTES, notesString);
-        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, mPriority);
-        values.put(ItemEntry.COLUMN_ITEM_STATUS, mStatus);
-
         // Determine if this is a new or existing item by checking if mCurrentTodoItemUri is null or not
         if (mCurrentTodoItemUri == null) {
             // This is a NEW item, so insert a new item into the provider,
             // returning the content URI for the new item.
-            Uri newUri = getContentResolver().insert(ItemEntry.CONTENT_URI, values);
+            long listId = getIntent().getLongExtra(EXTRA_LIST_ID, ListEntry.DEFAULT_LIST_ID);
+            Uri newUri = mRepeatRule == null
+                    ? getContentResolver().insert(ListEntry.buildItemsUri(listId), toContentValues(fields))
+                    : getContentResolver().insert(RecurrenceEntry.CONTENT_URI, toRecurrenceValues(fields, listId));
 
             // Show a toast message depending on whether or not the insertion was successful
             if (newUri == null) {
@@ -211,25 +743,18 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 Toast.makeText(this, getString(R.string.editor_insert_todoitem_failed), Toast.LENGTH_SHORT).show();
             } else {
                 // Otherwise, the insertion was successful and we can display a toast.
+                discardDraft();
                 Toast.makeText(this, getString(R.string.editor_insert_todoitem_successful), Toast.LENGTH_SHORT).show();
             }
+        } else if (mLoadedFields == null) {
+            // The item was never loaded, so there are no edits to save
+            return true;
         } else {
-            // Otherwise this is an EXISTING item, so update the item with content URI: mCurrentTodoItemUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args because
-            // mCurrentTodoItemUri will already identify the correct row in the database that we want to modify.
-
-            int rowsAffected = getContentResolver().update(mCurrentTodoItemUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_todoitem_failed), Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_todoitem_successful), Toast.LENGTH_SHORT).show();
-            }
-
+            // Otherwise this is an EXISTING item, so update the item with content URI: mCurrentTodoItemUri,
+            // as long as nobody else changed it since it was loaded.
+            return saveExistingItem(fields, mLoadedVersion);
         }
+        return true;
     }
 
     @Override
@@ -262,10 +787,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save todoitem to database
-                saveItem();
-                // Exit activity
-                finish();
+                // Save todoitem to database, then exit activity unless a conflict needs the user
+                if (saveItem()) {
+                    finish();
+                }
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -289,6 +814,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                             @Override
                             public void onClick(DialogInterface dialogInterface, int i) {
                                 // User clicked "Discard" button, navigate to parent activity.
+                                discardDraft();
                                 NavUtils.navigateUpFromSameTask(EditorActivity.this);
                             }
                         };
@@ -318,6 +844,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                     @Override
                     public void onClick(DialogInterface dialogInterface, int i) {
                         // User clicked "Discard" button, close the current activity.
+                        discardDraft();
                         finish();
                     }
                 };
@@ -326,91 +853,118 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         showUnsavedChangesDialog(discardButtonClickListener);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Since the editor shows all pet attributes, define a projection that contains
-        // all columns from the pet table
-        String[] projection = {
-                ItemEntry._ID,
-                ItemEntry.COLUMN_ITEM_NAME,
-                ItemEntry.COLUMN_ITEM_NOTES,
-                ItemEntry.COLUMN_ITEM_PRIORITY,
-                ItemEntry.COLUMN_ITEM_STATUS };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                mCurrentTodoItemUri,    // Query the content URI for the current pet
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    // Returns the query reading the existing item
+    private TodoItemQuery buildItemQuery() {
+        // The stream runs the ContentProvider's query method on a background thread
+        return new TodoItemQuery(mCurrentTodoItemUri, ITEM_PROJECTION);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Bail early if the cursor is null or there is less than 1 row in the cursor
-        if (cursor == null || cursor.getCount() < 1) {
+    public void onQueryResult(TodoItemSnapshot item) {
+        PerfTrace.begin("EditorActivity.onQueryResult");
+        try {
+            showItem(item);
+        } finally {
+            PerfTrace.end();
+        }
+    }
+
+    // Show the loaded item in the input fields, unless the user already edited them
+    private void showItem(TodoItemSnapshot item) {
+        // The stream was closed: clear out all the data from the input fields
+        if (item == null) {
+            onItemReset();
             return;
         }
 
-        // Proceed with moving to the first row of the cursor and reading data from it
-        // (This should be the only row in the cursor)
-        if (cursor.moveToFirst()) {
-            // Find the columns of pet attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME);
-            int notesColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NOTES);
-            int priorityColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_PRIORITY);
-            int statusColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_STATUS);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            String notes = cursor.getString(notesColumnIndex);
-            int priority = cursor.getInt(priorityColumnIndex);
-            int status = cursor.getInt(statusColumnIndex);
-
-            // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mNotesEditText.setText(notes);
-
-            // Priority is a dropdown spinner, so map the constant value from the database
-            // into one of the dropdown options (0 is LOW, 1 is MEDIUM, 2 is HIGH).
-            // Then call setSelection() so that option is displayed on screen as the current selection.
-            switch (priority) {
-                case ItemEntry.PRIORITY_MEDIUM:
-                    mPrioritySpinner.setSelection(1);
-                    break;
-                case ItemEntry.PRIORITY_HIGH:
-                    mPrioritySpinner.setSelection(2);
-                    break;
-                default:
-                    mPrioritySpinner.setSelection(0);
-                    break;
-            }
+        // Bail early if there is less than 1 row in the result
+        if (item.getRowCount() < 1) {
+            return;
+        }
 
-            // Status is a dropdown spinner, so map the constant value from the database
-            // into one of the dropdown options (0 is STATUS_TODO, 1 is STATUS_INPROGRESS, 2 is STATUS_DONE).
-            // Then call setSelection() so that option is displayed on screen as the current selection.
-            switch (status) {
-                case ItemEntry.STATUS_INPROGRESS:
-                    mStatusSpinner.setSelection(1);
-                    break;
-                case ItemEntry.STATUS_DONE:
-                    mStatusSpinner.setSelection(2);
-                    break;
-                default:
-                    mStatusSpinner.setSelection(0);
-                    break;
-            }
+        // Once the user has edited the item, a newer version must not overwrite the edits;
+        // saving will merge with it instead
+        if (mItemHasChanged && mLoadedFields != null) {
+            return;
+        }
+
+        // Read the data from the first row of the result
+        // (This should be the only row in the result).
+        // Find the columns of pet attributes that we're interested in
+        int nameColumnIndex = item.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME);
+        int notesColumnIndex = item.getColumnIndex(ItemEntry.COLUMN_ITEM_NOTES);
+        int priorityColumnIndex = item.getColumnIndex(ItemEntry.COLUMN_ITEM_PRIORITY);
+        int statusColumnIndex = item.getColumnIndex(ItemEntry.COLUMN_ITEM_STATUS);
+        int dueAtColumnIndex = item.getColumnIndex(ItemEntry.COLUMN_ITEM_DUE_AT);
+
+        // Extract out the value from the result for the given column index
+        String name = item.getString(0, nameColumnIndex);
+        String notes = item.getString(0, notesColumnIndex);
+        int priority = item.getInt(0, priorityColumnIndex);
+        int status = item.getInt(0, statusColumnIndex);
+        Long dueAt = item.isNull(0, dueAtColumnIndex) ? null : item.getLong(0, dueAtColumnIndex);
+
+        // Remember what the edits are based on
+        mLoadedVersion = item.getLong(0, item.getColumnIndex(ItemEntry.COLUMN_ITEM_VERSION));
+        mLoadedFields = new HashMap<>();
+        mLoadedFields.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        mLoadedFields.put(ItemEntry.COLUMN_ITEM_NOTES, notes == null ? "" : notes);
+        mLoadedFields.put(ItemEntry.COLUMN_ITEM_PRIORITY, (long) priority);
+        mLoadedFields.put(ItemEntry.COLUMN_ITEM_STATUS, (long) status);
+        mLoadedFields.put(ItemEntry.COLUMN_ITEM_DUE_AT, dueAt);
+
+        // Update the views on the screen with the values from the database,
+        // then with the draft of a previous editor, if any
+        showFields(name, notes, priority, status, dueAt);
+        if (mRestoredDraft != null) {
+            showRestoredDraft();
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // If the loader is invalidated, clear out all the data from the input fields.
+    // Show the fields of the item in the views
+    private void showFields(String name, String notes, int priority, int status, Long dueAt) {
+        mNameEditText.setText(name);
+        mNotesEditText.setText(notes);
+        setDueAt(dueAt);
+
+        // Priority is a dropdown spinner, so map the constant value from the database
+        // into one of the dropdown options (0 is LOW, 1 is MEDIUM, 2 is HIGH).
+        // Then call setSelection() so that option is displayed on screen as the current selection.
+        switch (priority) {
+            case ItemEntry.PRIORITY_MEDIUM:
+                mPrioritySpinner.setSelection(1);
+                break;
+            case ItemEntry.PRIORITY_HIGH:
+                mPrioritySpinner.setSelection(2);
+                break;
+            default:
+                mPrioritySpinner.setSelection(0);
+                break;
+        }
+
+        // Status is a dropdown spinner, so map the constant value from the database
+        // into one of the dropdown options (0 is STATUS_TODO, 1 is STATUS_INPROGRESS, 2 is STATUS_DONE).
+        // Then call setSelection() so that option is displayed on screen as the current selection.
+        switch (status) {
+            case ItemEntry.STATUS_INPROGRESS:
+                mStatusSpinner.setSelection(1);
+                break;
+            case ItemEntry.STATUS_DONE:
+                mStatusSpinner.setSelection(2);
+                break;
+            default:
+                mStatusSpinner.setSelection(0);
+                break;
+        }
+    }
+
+    private void onItemReset() {
+        // If the item stream is closed, clear out all the data from the input fields.
         mNameEditText.setText("");
         mNotesEditText.setText("");
         mPrioritySpinner.setSelection(0); // Select "LOW" priority
         mStatusSpinner.setSelection(0); // Select "TODO" status
+        setDueAt(null);
     }
 
     /**
@@ -480,6 +1034,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // Call the ContentResolver to delete the pet at the given content URI.
             // Pass in null for the selection and selection args because the mCurrentPetUri
             // content URI already identifies the pet that we want.
+            discardDraft();
             int rowsDeleted = getContentResolver().delete(mCurrentTodoItemUri, null, null);
 
             // Show a toast message depending on whether or not the delete was successful.
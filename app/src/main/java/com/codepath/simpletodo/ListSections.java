@@ -0,0 +1,84 @@
+package com.codepath.simpletodo;
+
+import java.util.Arrays;
+
+/**
+ * Maps the positions of a list grouped into sections, given only the size of each section.
+ *
+ * Section headers are virtual: they are not rows of the list, but drawn on the first row of
+ * each section, so positions are the positions of the rows. Both directions of the mapping
+ * are O(log n) in the number of sections, whatever the number of rows.
+ */
+class ListSections {
+
+    /** Sections of a list that is not grouped */
+    static final ListSections NONE = new ListSections(new int[0], new int[0]);
+
+    private final int[] mValues;
+
+    // mStarts[s] is the position of the first row of section s; mStarts[n] is the row count
+    private final int[] mStarts;
+
+    /**
+     * Constructs a new {@link ListSections}
+     * @param values value of the grouping column for each section, in list order
+     * @param counts number of rows of each section
+     */
+    ListSections(int[] values, int[] counts) {
+        if (values.length != counts.length) {
+            throw new IllegalArgumentException("Every section needs a value and a count");
+        }
+        mValues = values;
+        mStarts = new int[counts.length + 1];
+        for (int s = 0; s < counts.length; s++) {
+            mStarts[s + 1] = mStarts[s] + counts[s];
+        }
+    }
+
+    int getSectionCount() {
+        return mValues.length;
+    }
+
+    /**
+     * Returns the value of the grouping column of the given section.
+     */
+    int getValue(int section) {
+        return mValues[section];
+    }
+
+    /**
+     * Returns the position of the first row of the given section, clamped to the sections.
+     */
+    int getPositionForSection(int section) {
+        if (mValues.length == 0) {
+            return 0;
+        }
+        return mStarts[Math.max(0, Math.min(section, mValues.length - 1))];
+    }
+
+    /**
+     * Returns the section the row at the given position belongs to, clamped to the sections.
+     */
+    int getSectionForPosition(int position) {
+        if (mValues.length == 0) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(mStarts, 0, mValues.length, position);
+        // Empty sections share their start with the next one; the last of them owns the row
+        if (i >= 0) {
+            while (i + 1 < mValues.length && mStarts[i + 1] == position) {
+                i++;
+            }
+            return i;
+        }
+        return Math.max(0, -i - 2);
+    }
+
+    /**
+     * Returns whether the row at the given position is the first of its section, and carries
+     * its header.
+     */
+    boolean isSectionStart(int position) {
+        return mValues.length != 0 && mStarts[getSectionForPosition(position)] == position;
+    }
+}
@@ -0,0 +1,165 @@
+package com.codepath.simpletodo;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.codepath.simpletodo.data.TodoItemContract.AnalyticsEntry;
+import com.codepath.simpletodo.data.TodoItemQuery;
+import com.codepath.simpletodo.data.TodoItemSnapshot;
+import com.codepath.simpletodo.data.TodoItemStream;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows how long items spend in each status, and from creation to DONE. The figures come from
+ * the aggregates behind {@link AnalyticsEntry#CONTENT_URI}, so the screen stays cheap to
+ * refresh, which it does on every change to the items.
+ */
+public class StatsActivity extends AppCompatActivity implements TodoItemStream.Listener<TodoItemSnapshot> {
+
+    private static final String[] PROJECTION = {
+            AnalyticsEntry._ID,
+            AnalyticsEntry.COLUMN_METRIC,
+            AnalyticsEntry.COLUMN_COUNT,
+            AnalyticsEntry.COLUMN_MEAN_MILLIS,
+            AnalyticsEntry.COLUMN_MIN_MILLIS,
+            AnalyticsEntry.COLUMN_MAX_MILLIS,
+            AnalyticsEntry.COLUMN_P50_MILLIS,
+            AnalyticsEntry.COLUMN_P90_MILLIS,
+            AnalyticsEntry.COLUMN_P99_MILLIS };
+
+    private StatsAdapter mAdapter;
+
+    // Stream of the analytics, re-queried whenever the items change
+    private TodoItemStream<TodoItemSnapshot> mStatsStream;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_stats);
+
+        mAdapter = new StatsAdapter(this);
+        ListView listView = (ListView) findViewById(R.id.list);
+        listView.setAdapter(mAdapter);
+
+        mStatsStream = TodoItemStream.observe(this, new TodoItemQuery(AnalyticsEntry.CONTENT_URI, PROJECTION), this);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mStatsStream.start();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mStatsStream.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mStatsStream.close();
+    }
+
+    @Override
+    public void onQueryResult(TodoItemSnapshot result) {
+        mAdapter.setSnapshot(result);
+    }
+
+    /**
+     * Returns a duration in milliseconds in its two largest units, e.g. "3d 4h" or "12m 5s".
+     */
+    static String formatDuration(Context context, long millis) {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(millis);
+        if (seconds >= TimeUnit.DAYS.toSeconds(1)) {
+            return context.getString(R.string.duration_days, TimeUnit.SECONDS.toDays(seconds),
+                    TimeUnit.SECONDS.toHours(seconds) % 24);
+        }
+        if (seconds >= TimeUnit.HOURS.toSeconds(1)) {
+            return context.getString(R.string.duration_hours, TimeUnit.SECONDS.toHours(seconds),
+                    TimeUnit.SECONDS.toMinutes(seconds) % 60);
+        }
+        if (seconds >= TimeUnit.MINUTES.toSeconds(1)) {
+            return context.getString(R.string.duration_minutes, TimeUnit.SECONDS.toMinutes(seconds), seconds % 60);
+        }
+        return context.getString(R.string.duration_seconds, seconds);
+    }
+
+    // One row per metric of the snapshot
+    private static class StatsAdapter extends BaseAdapter {
+
+        private final Context mContext;
+        private TodoItemSnapshot mSnapshot;
+
+        StatsAdapter(Context context) {
+            mContext = context;
+        }
+
+        void setSnapshot(TodoItemSnapshot snapshot) {
+            mSnapshot = snapshot;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot == null ? 0 : mSnapshot.getRowCount();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mSnapshot.getLong(position, 0);
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            if (convertView == null) {
+                convertView = LayoutInflater.from(mContext).inflate(R.layout.stats_item, parent, false);
+            }
+            TextView metricTextView = (TextView) convertView.findViewById(R.id.metric);
+            TextView summaryTextView = (TextView) convertView.findViewById(R.id.summary);
+
+            // Columns in PROJECTION order
+            metricTextView.setText(metricName(mSnapshot.getInt(position, 1)));
+            long count = mSnapshot.getLong(position, 2);
+            if (count == 0) {
+                summaryTextView.setText(R.string.stats_summary_empty);
+            } else {
+                summaryTextView.setText(mContext.getString(R.string.stats_summary, count,
+                        formatDuration(mContext, mSnapshot.getLong(position, 3)),
+                        formatDuration(mContext, mSnapshot.getLong(position, 6)),
+                        formatDuration(mContext, mSnapshot.getLong(position, 7)),
+                        formatDuration(mContext, mSnapshot.getLong(position, 8)),
+                        formatDuration(mContext, mSnapshot.getLong(position, 4)),
+                        formatDuration(mContext, mSnapshot.getLong(position, 5))));
+            }
+            return convertView;
+        }
+
+        private static int metricName(int metric) {
+            switch (metric) {
+                case AnalyticsEntry.METRIC_TIME_IN_TODO:
+                    return R.string.stats_time_in_todo;
+                case AnalyticsEntry.METRIC_TIME_IN_PROGRESS:
+                    return R.string.stats_time_in_progress;
+                case AnalyticsEntry.METRIC_TIME_IN_DONE:
+                    return R.string.stats_time_in_done;
+                default:
+                    return R.string.stats_cycle_time;
+            }
+        }
+    }
+}
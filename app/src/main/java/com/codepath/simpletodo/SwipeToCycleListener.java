@@ -0,0 +1,134 @@
+package com.codepath.simpletodo;
+
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.ListView;
+
+/**
+ * Touch listener for a {@link ListView} that lets the user swipe a row sideways.
+ * The row follows the finger, and once it has travelled a quarter of its width the
+ * {@link Callback} is told on release; the row then slides back into place.
+ */
+class SwipeToCycleListener implements View.OnTouchListener {
+
+    /**
+     * Receives the swipes.
+     */
+    interface Callback {
+        void onSwiped(int position, long id);
+    }
+
+    private final ListView mListView;
+    private final Callback mCallback;
+    private final int mTouchSlop;
+    private final int mMinFlingVelocity;
+    private final long mAnimationTime;
+
+    // State of the current gesture
+    private float mDownX;
+    private float mDownY;
+    private boolean mSwiping;
+    private int mDownPosition = ListView.INVALID_POSITION;
+    private View mDownView;
+    private VelocityTracker mVelocityTracker;
+
+    SwipeToCycleListener(ListView listView, Callback callback) {
+        ViewConfiguration configuration = ViewConfiguration.get(listView.getContext());
+        mTouchSlop = configuration.getScaledTouchSlop();
+        mMinFlingVelocity = configuration.getScaledMinimumFlingVelocity() * 16;
+        mAnimationTime = listView.getContext().getResources().getInteger(android.R.integer.config_shortAnimTime);
+        mListView = listView;
+        mCallback = callback;
+    }
+
+    @Override
+    public boolean onTouch(View view, MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                return onDown(event);
+            case MotionEvent.ACTION_MOVE:
+                return onMove(event);
+            case MotionEvent.ACTION_UP:
+                onUp(event);
+                return false;
+            case MotionEvent.ACTION_CANCEL:
+                reset();
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private boolean onDown(MotionEvent event) {
+        int position = mListView.pointToPosition((int) event.getX(), (int) event.getY());
+        if (position == ListView.INVALID_POSITION) {
+            return false;
+        }
+        mDownX = event.getRawX();
+        mDownY = event.getRawY();
+        mDownPosition = position;
+        mDownView = mListView.getChildAt(position - mListView.getFirstVisiblePosition());
+        mVelocityTracker = VelocityTracker.obtain();
+        mVelocityTracker.addMovement(event);
+        // Let the list see the down event too, for clicks and scrolling
+        return false;
+    }
+
+    private boolean onMove(MotionEvent event) {
+        if (mVelocityTracker == null || mDownView == null) {
+            return false;
+        }
+        mVelocityTracker.addMovement(event);
+        float deltaX = event.getRawX() - mDownX;
+        float deltaY = event.getRawY() - mDownY;
+        if (!mSwiping && Math.abs(deltaX) > mTouchSlop && Math.abs(deltaY) < Math.abs(deltaX) / 2) {
+            mSwiping = true;
+            mListView.requestDisallowInterceptTouchEvent(true);
+
+            // Cancel the list's own handling of the gesture, so the row is not clicked
+            MotionEvent cancelEvent = MotionEvent.obtain(event);
+            cancelEvent.setAction(MotionEvent.ACTION_CANCEL);
+            mListView.onTouchEvent(cancelEvent);
+            cancelEvent.recycle();
+        }
+        if (mSwiping) {
+            mDownView.setTranslationX(deltaX);
+            return true;
+        }
+        return false;
+    }
+
+    private void onUp(MotionEvent event) {
+        if (mVelocityTracker == null) {
+            return;
+        }
+        if (mSwiping) {
+            mVelocityTracker.addMovement(event);
+            mVelocityTracker.computeCurrentVelocity(1000);
+            float deltaX = event.getRawX() - mDownX;
+            float velocityX = mVelocityTracker.getXVelocity();
+            boolean swiped = Math.abs(deltaX) > mListView.getWidth() / 4
+                    || (Math.abs(velocityX) > mMinFlingVelocity && velocityX * deltaX > 0);
+            if (swiped && mDownPosition < mListView.getCount()) {
+                mCallback.onSwiped(mDownPosition, mListView.getItemIdAtPosition(mDownPosition));
+            }
+        }
+        reset();
+    }
+
+    // Slide the row back and forget the gesture
+    private void reset() {
+        if (mDownView != null) {
+            mDownView.animate().translationX(0).setDuration(mAnimationTime);
+        }
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+        mDownView = null;
+        mDownPosition = ListView.INVALID_POSITION;
+        mSwiping = false;
+    }
+}
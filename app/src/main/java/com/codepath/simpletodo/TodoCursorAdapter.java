@@ -7,20 +7,52 @@ import android.graphics.Color;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.os.Bundle;
 import android.widget.CursorAdapter;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 
+import com.codepath.simpletodo.data.TodoItemContract;
 import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.perf.PerfTrace;
 
 /**
  * {@link TodoCursorAdapter} is an adapter for a list or grid view
  * that uses a {@link Cursor} of pet data as its data source. This adapter knows
  * how to create list items for each row of todoitem data in the {@link Cursor}.
+ *
+ * When the cursor is grouped by status or priority, its extras describe the sections: the
+ * adapter indexes them for the fast scroller and draws each header on the first row of its
+ * section, without adding rows to the list.
  */
-public class TodoCursorAdapter extends CursorAdapter {
+public class TodoCursorAdapter extends CursorAdapter implements SectionIndexer {
 
     private static TodoCursorAdapter mInstance = null;
 
+    // Sections of the current cursor, and the column they group by
+    private ListSections mSections = ListSections.NONE;
+    private String mGroupColumn;
+    private String[] mSectionLabels = new String[0];
+
+    /**
+     * Views of a list item, found once when the item is created instead of on every bind.
+     */
+    private static class ViewHolder {
+        final TextView nameTextView;
+        final TextView notesTextView;
+        final TextView statusTextView;
+        final TextView priorityTextView;
+        final TextView sectionHeaderTextView;
+
+        ViewHolder(View view) {
+            sectionHeaderTextView = (TextView) view.findViewById(R.id.section_header);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            notesTextView = (TextView) view.findViewById(R.id.notes);
+            statusTextView = (TextView) view.findViewById(R.id.status);
+            priorityTextView = (TextView) view.findViewById(R.id.priority);
+        }
+    }
+
     /**
      * Constructs a new {@link TodoCursorAdapter}.
      *
@@ -29,9 +61,85 @@ public class TodoCursorAdapter extends CursorAdapter {
      */
     public TodoCursorAdapter(Context context, Cursor c) {
         super(context, c, 0);
+        readSections(c);
+    }
+
+    /**
+     * Set the column the cursors are grouped by, {@link ItemEntry#COLUMN_ITEM_STATUS},
+     * {@link ItemEntry#COLUMN_ITEM_PRIORITY}, or null; it names the sections.
+     */
+    public void setGroupColumn(String groupColumn) {
+        mGroupColumn = groupColumn;
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        readSections(newCursor);
+        return super.swapCursor(newCursor);
+    }
+
+    // Read the sections from the extras of a grouped cursor
+    private void readSections(Cursor cursor) {
+        Bundle extras = cursor == null ? Bundle.EMPTY : cursor.getExtras();
+        int[] values = extras.getIntArray(TodoItemContract.EXTRA_SECTION_VALUES);
+        int[] counts = extras.getIntArray(TodoItemContract.EXTRA_SECTION_COUNTS);
+        if (values == null || counts == null) {
+            mSections = ListSections.NONE;
+            mSectionLabels = new String[0];
+            return;
+        }
+        mSections = new ListSections(values, counts);
+        mSectionLabels = new String[values.length];
+        for (int s = 0; s < values.length; s++) {
+            mSectionLabels[s] = getSectionLabel(values[s]);
+        }
+    }
+
+    private String getSectionLabel(int value) {
+        if (ItemEntry.COLUMN_ITEM_PRIORITY.equals(mGroupColumn)) {
+            return mContext.getString(getPriorityLabel(value));
+        }
+        return mContext.getString(getStatusLabel(value));
+    }
+
+    private static int getPriorityLabel(int priority) {
+        switch (priority) {
+            case ItemEntry.PRIORITY_MEDIUM:
+                return R.string.priority_medium;
+            case ItemEntry.PRIORITY_HIGH:
+                return R.string.priority_high;
+            default:
+                return R.string.priority_low;
+        }
+    }
+
+    private static int getStatusLabel(int status) {
+        switch (status) {
+            case ItemEntry.STATUS_TODO:
+                return R.string.status_todo;
+            case ItemEntry.STATUS_INPROGRESS:
+                return R.string.status_inprogress;
+            default:
+                return R.string.status_done;
+        }
+    }
+
+    @Override
+    public Object[] getSections() {
+        return mSectionLabels;
     }
 
-    public static TodoCursorAdapter getInstance(Context ctx, Cursor cursor) {
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        return mSections.getPositionForSection(sectionIndex);
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        return mSections.getSectionForPosition(position);
+    }
+
+    public static synchronized TodoCursorAdapter getInstance(Context ctx, Cursor cursor) {
         // Use the application context, which will ensure that you
         // don't accidentally leak an Activity's context.
         // See this article for more information: http://bit.ly/6LRzfx
@@ -51,8 +159,12 @@ public class TodoCursorAdapter extends CursorAdapter {
      */
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        PerfTrace.begin("TodoCursorAdapter.newView");
         // Inflate the list item view using the layout specified in @link list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        view.setTag(new ViewHolder(view));
+        PerfTrace.end();
+        return view;
     }
 
     /**
@@ -67,11 +179,9 @@ public class TodoCursorAdapter extends CursorAdapter {
      */
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
-        // Find individual views that we want to modify in the list item layout
-        TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        TextView notesTextView = (TextView) view.findViewById(R.id.notes);
-        TextView statusTextView =  (TextView) view.findViewById(R.id.status);
-        TextView priorityTextView =  (TextView) view.findViewById(R.id.priority);
+        PerfTrace.begin("TodoCursorAdapter.bindView");
+        // Individual views that we want to modify in the list item layout
+        ViewHolder holder = (ViewHolder) view.getTag();
 
         // Find the columns of todoitem attributes that we're interested in
         int nameColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME);
@@ -122,12 +232,22 @@ public class TodoCursorAdapter extends CursorAdapter {
 
 
         // Update the TextViews with the attributes for the current todoitem
-        nameTextView.setText(itemName);
-        notesTextView.setText(itemNotes);
-        statusTextView.setText(itemStatus);
-        priorityTextView.setText(itemPriority);
-        priorityTextView.setTextColor(priorityColor);
-        statusTextView.setTextColor(statusColor);
+        holder.nameTextView.setText(itemName);
+        holder.notesTextView.setText(itemNotes);
+        holder.statusTextView.setText(itemStatus);
+        holder.priorityTextView.setText(itemPriority);
+        holder.priorityTextView.setTextColor(priorityColor);
+        holder.statusTextView.setTextColor(statusColor);
+
+        // Only the first row of a section shows its header
+        int position = cursor.getPosition();
+        if (mSections.isSectionStart(position)) {
+            holder.sectionHeaderTextView.setText(mSectionLabels[mSections.getSectionForPosition(position)]);
+            holder.sectionHeaderTextView.setVisibility(View.VISIBLE);
+        } else {
+            holder.sectionHeaderTextView.setVisibility(View.GONE);
+        }
+        PerfTrace.end();
     }
 
 
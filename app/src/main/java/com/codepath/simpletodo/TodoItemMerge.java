@@ -0,0 +1,74 @@
+package com.codepath.simpletodo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Three-way merge of the fields of a todoitem, after a compare-and-set update found that
+ * another write changed the item since the editor loaded it.
+ *
+ * A field changed on one side only takes that side's value. A field both sides changed to
+ * different values is a conflict, and takes the editor's value until the user decides.
+ */
+class TodoItemMerge {
+
+    private final Map<String, Object> mMerged = new HashMap<>();
+    private final List<String> mConflicts = new ArrayList<>();
+
+    /**
+     * Constructs a new {@link TodoItemMerge}
+     * @param base   fields as the editor loaded them
+     * @param mine   fields as the user edited them
+     * @param theirs fields as they are now in the database
+     */
+    TodoItemMerge(Map<String, Object> base, Map<String, Object> mine, Map<String, Object> theirs) {
+        Set<String> fields = new LinkedHashSet<>(mine.keySet());
+        fields.addAll(theirs.keySet());
+        for (String field : fields) {
+            Object baseValue = base.get(field);
+            Object myValue = mine.get(field);
+            Object theirValue = theirs.get(field);
+            if (equal(myValue, baseValue)) {
+                mMerged.put(field, theirValue);
+            } else {
+                mMerged.put(field, myValue);
+                if (!equal(theirValue, baseValue) && !equal(theirValue, myValue)) {
+                    mConflicts.add(field);
+                }
+            }
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns the merged fields, with the editor's values for the conflicts.
+     */
+    Map<String, Object> getMerged() {
+        return mMerged;
+    }
+
+    /**
+     * Returns the merged fields, with the database's values for the conflicts.
+     */
+    Map<String, Object> getMergedKeepingTheirs(Map<String, Object> theirs) {
+        Map<String, Object> merged = new HashMap<>(mMerged);
+        for (String field : mConflicts) {
+            merged.put(field, theirs.get(field));
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the fields both sides changed to different values, in field order.
+     */
+    List<String> getConflicts() {
+        return mConflicts;
+    }
+}
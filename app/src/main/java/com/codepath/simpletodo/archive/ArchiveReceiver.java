@@ -0,0 +1,44 @@
+package com.codepath.simpletodo.archive;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+import android.util.Log;
+
+import com.codepath.simpletodo.data.TodoItemContract;
+
+/**
+ * Receives the daily archiving alarm and the boot broadcast.
+ *
+ * On the alarm, old DONE todoitems are archived on a background thread while the broadcast is
+ * kept pending. On boot, the alarm, which does not survive a reboot, is armed again.
+ */
+public class ArchiveReceiver extends BroadcastReceiver {
+
+    private static final String LOG_TAG = ArchiveReceiver.class.getSimpleName();
+
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        String action = intent.getAction();
+        if (Intent.ACTION_BOOT_COMPLETED.equals(action)) {
+            TodoArchiver.schedule(context);
+        } else if (TodoArchiver.ACTION_ARCHIVE.equals(action)) {
+            final PendingResult pendingResult = goAsync();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    try {
+                        int archived = TodoArchiver.archive(context.getApplicationContext(),
+                                TodoItemContract.DEFAULT_ARCHIVE_AGE_MILLIS);
+                        Log.i(LOG_TAG, "Archived " + archived + " items");
+                    } finally {
+                        pendingResult.finish();
+                    }
+                }
+            }, "TodoArchiver");
+            thread.start();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.codepath.simpletodo.archive;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.codepath.simpletodo.data.TodoItemContract;
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+/**
+ * Schedules the job that moves old DONE todoitems to the archive, once a day.
+ *
+ * The alarm is inexact and does not wake the device, so the system can batch it with other
+ * work; the job itself runs in bounded batches in the provider.
+ */
+public final class TodoArchiver {
+
+    /** Action of the archiving alarm */
+    public static final String ACTION_ARCHIVE = "com.codepath.simpletodo.action.ARCHIVE";
+
+    private TodoArchiver() {}
+
+    /**
+     * Arm the daily archiving alarm, unless it is already armed.
+     */
+    public static void schedule(Context context) {
+        Intent intent = new Intent(context, ArchiveReceiver.class);
+        intent.setAction(ACTION_ARCHIVE);
+        if (PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent, 0);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR,
+                AlarmManager.INTERVAL_DAY, pendingIntent);
+    }
+
+    /**
+     * Archive the DONE todoitems finished longer ago than the given age. Runs on the
+     * calling thread, which must not be the main thread.
+     *
+     * @return the number of items archived
+     */
+    public static int archive(Context context, long maxAgeMillis) {
+        Bundle result = context.getContentResolver().call(ItemEntry.CONTENT_URI,
+                TodoItemContract.METHOD_ARCHIVE_DONE, String.valueOf(maxAgeMillis), null);
+        return result == null ? 0 : result.getInt(TodoItemContract.EXTRA_ARCHIVED_COUNT);
+    }
+}
@@ -0,0 +1,438 @@
+package com.codepath.simpletodo.data;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative ints, used to index todoitem ids in memory.
+ *
+ * Values are split by their high 16 bits into containers of up to 65536 values. Sparse
+ * containers are sorted char arrays; once a container holds more than {@link #ARRAY_MAX_SIZE}
+ * values it becomes a plain 1024-word bitmap. Intersections and unions work container by
+ * container, with word-level AND/OR between bitmap containers.
+ */
+public class CompressedBitmap {
+
+    /** Largest number of values kept in an array container */
+    static final int ARRAY_MAX_SIZE = 4096;
+
+    private static final int BITMAP_WORDS = 1024;
+
+    // Sorted high 16 bits of the containers, and the containers themselves:
+    // either a char[] (sorted low 16 bits) or a long[BITMAP_WORDS]
+    private char[] mKeys = new char[4];
+    private Object[] mContainers = new Object[4];
+    private int[] mCardinalities = new int[4];
+    private int mSize;
+
+    /**
+     * Adds the value to the set. Returns false if it was already present.
+     */
+    public boolean add(int value) {
+        checkValue(value);
+        char key = (char) (value >>> 16);
+        char low = (char) value;
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key, new char[4], 0);
+        }
+
+        Object container = mContainers[index];
+        if (container instanceof long[]) {
+            long[] words = (long[]) container;
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                return false;
+            }
+            words[low >>> 6] |= bit;
+            mCardinalities[index]++;
+            return true;
+        }
+
+        char[] values = (char[]) container;
+        int cardinality = mCardinalities[index];
+        int position = Arrays.binarySearch(values, 0, cardinality, low);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        if (cardinality == ARRAY_MAX_SIZE) {
+            long[] words = toBitmap(values, cardinality);
+            words[low >>> 6] |= 1L << low;
+            mContainers[index] = words;
+        } else {
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX_SIZE, cardinality * 2));
+                mContainers[index] = values;
+            }
+            System.arraycopy(values, position, values, position + 1, cardinality - position);
+            values[position] = low;
+        }
+        mCardinalities[index]++;
+        return true;
+    }
+
+    /**
+     * Removes the value from the set. Returns false if it was not present.
+     */
+    public boolean remove(int value) {
+        if (value < 0) {
+            return false;
+        }
+        char key = (char) (value >>> 16);
+        char low = (char) value;
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (index < 0) {
+            return false;
+        }
+
+        Object container = mContainers[index];
+        if (container instanceof long[]) {
+            long[] words = (long[]) container;
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                return false;
+            }
+            words[low >>> 6] &= ~bit;
+            if (--mCardinalities[index] == ARRAY_MAX_SIZE) {
+                mContainers[index] = toArray(words, ARRAY_MAX_SIZE);
+            }
+            return true;
+        }
+
+        char[] values = (char[]) container;
+        int cardinality = mCardinalities[index];
+        int position = Arrays.binarySearch(values, 0, cardinality, low);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(values, position + 1, values, position, cardinality - position - 1);
+        if (--mCardinalities[index] == 0) {
+            removeContainer(index);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the value is in the set.
+     */
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        char low = (char) value;
+        int index = Arrays.binarySearch(mKeys, 0, mSize, (char) (value >>> 16));
+        if (index < 0) {
+            return false;
+        }
+        Object container = mContainers[index];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, mCardinalities[index], low) >= 0;
+    }
+
+    /**
+     * Returns the number of values in the set.
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < mSize; i++) {
+            cardinality += mCardinalities[i];
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Returns the values of the set, in ascending order.
+     */
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int n = 0;
+        for (int i = 0; i < mSize; i++) {
+            int high = mKeys[i] << 16;
+            Object container = mContainers[i];
+            if (container instanceof long[]) {
+                long[] words = (long[]) container;
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        result[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) container;
+                for (int v = 0; v < mCardinalities[i]; v++) {
+                    result[n++] = high | values[v];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new bitmap holding the values present in both bitmaps.
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < mSize && j < other.mSize) {
+            if (mKeys[i] < other.mKeys[j]) {
+                i++;
+            } else if (mKeys[i] > other.mKeys[j]) {
+                j++;
+            } else {
+                result.appendAnd(mKeys[i], mContainers[i], mCardinalities[i],
+                        other.mContainers[j], other.mCardinalities[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new bitmap holding the values present in either bitmap.
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < mSize || j < other.mSize) {
+            if (j == other.mSize || (i < mSize && mKeys[i] < other.mKeys[j])) {
+                result.appendCopy(mKeys[i], mContainers[i], mCardinalities[i]);
+                i++;
+            } else if (i == mSize || mKeys[i] > other.mKeys[j]) {
+                result.appendCopy(other.mKeys[j], other.mContainers[j], other.mCardinalities[j]);
+                j++;
+            } else {
+                result.appendOr(mKeys[i], mContainers[i], mCardinalities[i],
+                        other.mContainers[j], other.mCardinalities[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds every value of the other bitmap to this one. Unlike {@link #or(CompressedBitmap)},
+     * this does not copy the containers of this bitmap, which keeps unions of many bitmaps cheap.
+     */
+    public void orInPlace(CompressedBitmap other) {
+        int[] cardinality = new int[1];
+        for (int j = 0; j < other.mSize; j++) {
+            char key = other.mKeys[j];
+            int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+            if (index < 0) {
+                Object container = other.mContainers[j];
+                Object copy = container instanceof long[]
+                        ? ((long[]) container).clone()
+                        : Arrays.copyOf((char[]) container, other.mCardinalities[j]);
+                insertContainer(-index - 1, key, copy, other.mCardinalities[j]);
+            } else {
+                mContainers[index] = orContainers(mContainers[index], mCardinalities[index],
+                        other.mContainers[j], other.mCardinalities[j], true, cardinality);
+                mCardinalities[index] = cardinality[0];
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of this bitmap.
+     */
+    public CompressedBitmap copy() {
+        CompressedBitmap result = new CompressedBitmap();
+        for (int i = 0; i < mSize; i++) {
+            result.appendCopy(mKeys[i], mContainers[i], mCardinalities[i]);
+        }
+        return result;
+    }
+
+    private void appendAnd(char key, Object a, int aCardinality, Object b, int bCardinality) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] aWords = (long[]) a;
+            long[] bWords = (long[]) b;
+            long[] words = new long[BITMAP_WORDS];
+            int cardinality = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] = aWords[w] & bWords[w];
+                cardinality += Long.bitCount(words[w]);
+            }
+            if (cardinality > ARRAY_MAX_SIZE) {
+                appendContainer(key, words, cardinality);
+            } else if (cardinality > 0) {
+                appendContainer(key, toArray(words, cardinality), cardinality);
+            }
+            return;
+        }
+
+        if (a instanceof long[]) {
+            // Make sure a is the array container
+            Object swap = a;
+            a = b;
+            b = swap;
+            aCardinality = bCardinality;
+        }
+        char[] aValues = (char[]) a;
+        char[] values = new char[aCardinality];
+        int cardinality = 0;
+        if (b instanceof long[]) {
+            long[] bWords = (long[]) b;
+            for (int i = 0; i < aCardinality; i++) {
+                char v = aValues[i];
+                if ((bWords[v >>> 6] & (1L << v)) != 0) {
+                    values[cardinality++] = v;
+                }
+            }
+        } else {
+            char[] bValues = (char[]) b;
+            int i = 0;
+            int j = 0;
+            while (i < aCardinality && j < bCardinality) {
+                if (aValues[i] < bValues[j]) {
+                    i++;
+                } else if (aValues[i] > bValues[j]) {
+                    j++;
+                } else {
+                    values[cardinality++] = aValues[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        if (cardinality > 0) {
+            appendContainer(key, values, cardinality);
+        }
+    }
+
+    private void appendOr(char key, Object a, int aCardinality, Object b, int bCardinality) {
+        int[] cardinality = new int[1];
+        Object container = orContainers(a, aCardinality, b, bCardinality, false, cardinality);
+        appendContainer(key, container, cardinality[0]);
+    }
+
+    /**
+     * Returns the union of two containers, and its cardinality in cardinalityOut[0].
+     * If reuseA is true, a bitmap container a is updated in place instead of copied.
+     */
+    private static Object orContainers(Object a, int aCardinality, Object b, int bCardinality,
+                                       boolean reuseA, int[] cardinalityOut) {
+        if (a instanceof char[] && b instanceof char[]) {
+            char[] aValues = (char[]) a;
+            char[] bValues = (char[]) b;
+            char[] values = new char[aCardinality + bCardinality];
+            int cardinality = 0;
+            int i = 0;
+            int j = 0;
+            while (i < aCardinality || j < bCardinality) {
+                if (j == bCardinality || (i < aCardinality && aValues[i] < bValues[j])) {
+                    values[cardinality++] = aValues[i++];
+                } else if (i == aCardinality || aValues[i] > bValues[j]) {
+                    values[cardinality++] = bValues[j++];
+                } else {
+                    values[cardinality++] = aValues[i++];
+                    j++;
+                }
+            }
+            cardinalityOut[0] = cardinality;
+            return cardinality > ARRAY_MAX_SIZE ? toBitmap(values, cardinality) : values;
+        }
+
+        if (b instanceof long[] && !(a instanceof long[])) {
+            // Make sure a is the bitmap container
+            Object swap = a;
+            a = b;
+            b = swap;
+            int swapCardinality = aCardinality;
+            aCardinality = bCardinality;
+            bCardinality = swapCardinality;
+            reuseA = false;
+        }
+        long[] words = reuseA ? (long[]) a : ((long[]) a).clone();
+        if (b instanceof long[]) {
+            long[] bWords = (long[]) b;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] |= bWords[w];
+            }
+        } else {
+            char[] bValues = (char[]) b;
+            for (int i = 0; i < bCardinality; i++) {
+                words[bValues[i] >>> 6] |= 1L << bValues[i];
+            }
+        }
+        int cardinality = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            cardinality += Long.bitCount(words[w]);
+        }
+        cardinalityOut[0] = cardinality;
+        return words;
+    }
+
+    private void appendCopy(char key, Object container, int cardinality) {
+        Object copy = container instanceof long[]
+                ? ((long[]) container).clone()
+                : Arrays.copyOf((char[]) container, cardinality);
+        appendContainer(key, copy, cardinality);
+    }
+
+    private void appendContainer(char key, Object container, int cardinality) {
+        insertContainer(mSize, key, container, cardinality);
+    }
+
+    private void insertContainer(int index, char key, Object container, int cardinality) {
+        if (mSize == mKeys.length) {
+            int newLength = mSize * 2;
+            mKeys = Arrays.copyOf(mKeys, newLength);
+            mContainers = Arrays.copyOf(mContainers, newLength);
+            mCardinalities = Arrays.copyOf(mCardinalities, newLength);
+        }
+        System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+        System.arraycopy(mContainers, index, mContainers, index + 1, mSize - index);
+        System.arraycopy(mCardinalities, index, mCardinalities, index + 1, mSize - index);
+        mKeys[index] = key;
+        mContainers[index] = container;
+        mCardinalities[index] = cardinality;
+        mSize++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+        System.arraycopy(mContainers, index + 1, mContainers, index, mSize - index - 1);
+        System.arraycopy(mCardinalities, index + 1, mCardinalities, index, mSize - index - 1);
+        mContainers[--mSize] = null;
+    }
+
+    private static long[] toBitmap(char[] values, int cardinality) {
+        long[] words = new long[BITMAP_WORDS];
+        for (int i = 0; i < cardinality; i++) {
+            words[values[i] >>> 6] |= 1L << values[i];
+        }
+        return words;
+    }
+
+    private static char[] toArray(long[] words, int cardinality) {
+        char[] values = new char[cardinality];
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    private static void checkValue(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative values are not supported: " + value);
+        }
+    }
+}
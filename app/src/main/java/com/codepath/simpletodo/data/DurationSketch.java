@@ -0,0 +1,105 @@
+package com.codepath.simpletodo.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Percentile sketch of durations: a histogram with log-spaced buckets, each about sqrt(2)
+ * times as wide as the one before, from 1 ms to two years.
+ *
+ * A duration only increments the count of its bucket, which the database triggers do in SQL
+ * through {@link #sqlBucketOf}, so the sketch is kept up to date in constant time and space.
+ * Percentiles are read back by finding the bucket holding the wanted rank and interpolating
+ * geometrically inside it; the estimate is never off by more than the width of one bucket,
+ * and for smooth distributions by a few percent.
+ */
+final class DurationSketch {
+
+    private DurationSketch() {}
+
+    // Exclusive upper bounds of every bucket but the last, in milliseconds
+    private static final long[] BOUNDS;
+
+    /** Number of buckets; the last one holds every duration past two years */
+    static final int BUCKET_COUNT;
+
+    static {
+        ArrayList<Long> bounds = new ArrayList<>();
+        long last = 0;
+        for (double bound = 1; bound <= (1L << 36); bound *= Math.sqrt(2)) {
+            long rounded = Math.round(bound);
+            if (rounded > last) {
+                bounds.add(rounded);
+                last = rounded;
+            }
+        }
+        BOUNDS = new long[bounds.size()];
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUNDS[i] = bounds.get(i);
+        }
+        BUCKET_COUNT = BOUNDS.length + 1;
+    }
+
+    /**
+     * Returns the bucket of a duration in milliseconds; negative durations, from clock
+     * changes, count as 0.
+     */
+    static int bucketOf(long millis) {
+        int index = Arrays.binarySearch(BOUNDS, millis);
+        // An exact match is the lower bound of the next bucket
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Returns an SQL expression of the bucket of the duration in the given expression,
+     * matching {@link #bucketOf}.
+     */
+    static String sqlBucketOf(String expression) {
+        StringBuilder sql = new StringBuilder(BOUNDS.length * 32);
+        sql.append("CASE");
+        for (int i = 0; i < BOUNDS.length; i++) {
+            sql.append(" WHEN ").append(expression).append(" < ").append(BOUNDS[i]).append(" THEN ").append(i);
+        }
+        return sql.append(" ELSE ").append(BOUNDS.length).append(" END").toString();
+    }
+
+    /**
+     * Estimate a percentile from the bucket counts.
+     *
+     * @param counts   count of each bucket
+     * @param quantile wanted quantile, between 0 and 1
+     * @param min      smallest duration counted, which bounds the estimate
+     * @param max      largest duration counted, which bounds the estimate
+     * @return the estimated duration in milliseconds, or 0 if nothing was counted
+     */
+    static long percentile(long[] counts, double quantile, long min, long max) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        if (quantile <= 0) {
+            return min;
+        }
+        if (quantile >= 1) {
+            return max;
+        }
+
+        // Nearest rank, 1-based, found in the cumulative counts
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long before = 0;
+        int bucket = 0;
+        while (before + counts[bucket] < rank) {
+            before += counts[bucket++];
+        }
+
+        // Assume the durations of the bucket are spread evenly on a log scale
+        double fraction = (rank - before - 0.5) / counts[bucket];
+        double lower = bucket == 0 ? 0 : BOUNDS[bucket - 1];
+        double upper = bucket < BOUNDS.length ? BOUNDS[bucket] : Math.max(max, lower);
+        double estimate = lower <= 0 ? upper * fraction : lower * Math.pow(upper / lower, fraction);
+        return Math.min(max, Math.max(min, Math.round(estimate)));
+    }
+}
@@ -0,0 +1,106 @@
+package com.codepath.simpletodo.data;
+
+/**
+ * Map from long keys to long values, in two arrays with open addressing and linear probing.
+ * Unlike a HashMap of boxed Longs, an entry costs 16 bytes at most twice over and lookups
+ * allocate nothing, so that an importer can hold the content hash of every todoitem.
+ */
+final class LongHashMap {
+
+    // The table is grown once it is more than this full
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // Marks free slots; a key equal to it is stored aside
+    private static final long FREE = 0;
+
+    private long[] mKeys;
+    private long[] mValues;
+    private int mSize;
+    private int mMask;
+
+    private boolean mHasFreeKey;
+    private long mFreeKeyValue;
+
+    /**
+     * @param expectedSize number of entries the map can hold without growing
+     */
+    LongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new long[capacity];
+        mMask = capacity - 1;
+    }
+
+    int size() {
+        return mSize + (mHasFreeKey ? 1 : 0);
+    }
+
+    /**
+     * Returns the value of the key, or the given default if the map does not hold it.
+     */
+    long get(long key, long defaultValue) {
+        if (key == FREE) {
+            return mHasFreeKey ? mFreeKeyValue : defaultValue;
+        }
+        int slot = slotOf(key);
+        while (mKeys[slot] != FREE) {
+            if (mKeys[slot] == key) {
+                return mValues[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Map the key to the value, replacing any value it had.
+     */
+    void put(long key, long value) {
+        if (key == FREE) {
+            mHasFreeKey = true;
+            mFreeKeyValue = value;
+            return;
+        }
+        int slot = slotOf(key);
+        while (mKeys[slot] != FREE) {
+            if (mKeys[slot] == key) {
+                mValues[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        if (++mSize > mKeys.length * LOAD_FACTOR) {
+            rehash(mKeys.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        long[] values = mValues;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                int slot = slotOf(keys[i]);
+                while (mKeys[slot] != FREE) {
+                    slot = (slot + 1) & mMask;
+                }
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    // Spread the bits of the key over the slot index (the finalizer of MurmurHash3)
+    private int slotOf(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mMask;
+    }
+}
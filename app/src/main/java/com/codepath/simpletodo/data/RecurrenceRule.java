@@ -0,0 +1,498 @@
+package com.codepath.simpletodo.data;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A recurrence rule in the RRULE syntax of RFC 5545, limited to what the app offers:
+ * FREQ=DAILY, WEEKLY, MONTHLY or YEARLY, with INTERVAL, BYDAY (weekly rules, plain weekdays),
+ * BYMONTHDAY (monthly rules, 1 to 31 or -1 for the last day to -31) and either COUNT or UNTIL
+ * (UTC, as 20261231T235959Z). Without BYDAY or BYMONTHDAY the rule repeats on the weekday or day
+ * of the month of its start; yearly rules repeat on the date of their start.
+ *
+ * Occurrences keep the local time of the start in its time zone, across daylight saving
+ * changes. Expanding a range jumps straight to the first period that can hold it, with the
+ * day arithmetic of the proleptic Gregorian calendar rather than by walking the periods from
+ * the start, so it costs O(occurrences in the range). Only counted rules whose periods hold a
+ * varying number of days (the 29th to 31st of the month, or the 29th of February) walk the
+ * periods before the range, to number their occurrences.
+ */
+final class RecurrenceRule {
+
+    /** Frequencies of the rules */
+    static final int DAILY = 0;
+    static final int WEEKLY = 1;
+    static final int MONTHLY = 2;
+    static final int YEARLY = 3;
+
+    /** Returned by {@link #next} when the rule has no more occurrences */
+    static final long END = Long.MAX_VALUE;
+
+    private static final String[] FREQUENCIES = { "DAILY", "WEEKLY", "MONTHLY", "YEARLY" };
+    private static final String[] WEEKDAYS = { "MO", "TU", "WE", "TH", "FR", "SA", "SU" };
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    // Rules whose periods stay empty this long never occur again,
+    // e.g. every 12 months on the 30th, from February
+    private static final int MAX_EMPTY_PERIODS = 400;
+
+    private final int mFrequency;
+    private final int mInterval;
+    // Weekdays of weekly rules, Monday first, or 0 for the weekday of the start
+    private final int mWeekdays;
+    // Days of the month of monthly rules, or null for the day of the start
+    private final int[] mMonthDays;
+    // Number of occurrences, or 0 if unbounded
+    private final int mCount;
+    // Last time an occurrence may have, or END if unbounded
+    private final long mUntil;
+
+    private RecurrenceRule(int frequency, int interval, int weekdays, int[] monthDays, int count, long until) {
+        mFrequency = frequency;
+        mInterval = interval;
+        mWeekdays = weekdays;
+        mMonthDays = monthDays;
+        mCount = count;
+        mUntil = until;
+    }
+
+    /**
+     * Parse a rule, with or without its "RRULE:" prefix.
+     *
+     * @throws IllegalArgumentException if the rule is malformed or uses parts not supported
+     */
+    static RecurrenceRule parse(String rule) {
+        if (rule == null) {
+            throw new IllegalArgumentException("Recurrence requires a rule");
+        }
+        String text = rule.trim().toUpperCase(Locale.US);
+        if (text.startsWith("RRULE:")) {
+            text = text.substring("RRULE:".length());
+        }
+        int frequency = -1;
+        int interval = 1;
+        int weekdays = 0;
+        int[] monthDays = null;
+        int count = 0;
+        long until = END;
+        for (String part : text.split(";")) {
+            int equals = part.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Malformed rule " + rule);
+            }
+            String name = part.substring(0, equals);
+            String value = part.substring(equals + 1);
+            switch (name) {
+                case "FREQ":
+                    frequency = Arrays.asList(FREQUENCIES).indexOf(value);
+                    if (frequency < 0) {
+                        throw new IllegalArgumentException("Unsupported frequency in " + rule);
+                    }
+                    break;
+                case "INTERVAL":
+                    interval = parsePositive(value, rule);
+                    break;
+                case "COUNT":
+                    count = parsePositive(value, rule);
+                    break;
+                case "UNTIL":
+                    until = parseUntil(value, rule);
+                    break;
+                case "BYDAY":
+                    for (String day : value.split(",")) {
+                        int weekday = Arrays.asList(WEEKDAYS).indexOf(day);
+                        if (weekday < 0) {
+                            throw new IllegalArgumentException("Unsupported weekday in " + rule);
+                        }
+                        weekdays |= 1 << weekday;
+                    }
+                    break;
+                case "BYMONTHDAY":
+                    String[] days = value.split(",");
+                    monthDays = new int[days.length];
+                    for (int i = 0; i < days.length; i++) {
+                        monthDays[i] = parseInt(days[i], rule);
+                        if (monthDays[i] == 0 || monthDays[i] < -31 || monthDays[i] > 31) {
+                            throw new IllegalArgumentException("Invalid day of the month in " + rule);
+                        }
+                    }
+                    Arrays.sort(monthDays);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported part " + name + " in " + rule);
+            }
+        }
+        if (frequency < 0) {
+            throw new IllegalArgumentException("Rule requires a frequency: " + rule);
+        }
+        if (count != 0 && until != END) {
+            throw new IllegalArgumentException("Rule cannot have both COUNT and UNTIL: " + rule);
+        }
+        if ((weekdays != 0 && frequency != WEEKLY) || (monthDays != null && frequency != MONTHLY)) {
+            throw new IllegalArgumentException("BYDAY needs a weekly rule and BYMONTHDAY a monthly one: " + rule);
+        }
+        return new RecurrenceRule(frequency, interval, weekdays, monthDays, count, until);
+    }
+
+    private static int parseInt(String value, String rule) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed number in " + rule);
+        }
+    }
+
+    private static int parsePositive(String value, String rule) {
+        int number = parseInt(value, rule);
+        if (number <= 0) {
+            throw new IllegalArgumentException("Number must be positive in " + rule);
+        }
+        return number;
+    }
+
+    // UTC date and time, as 20261231T235959Z
+    private static long parseUntil(String value, String rule) {
+        if (value.length() != 16 || value.charAt(8) != 'T' || value.charAt(15) != 'Z') {
+            throw new IllegalArgumentException("UNTIL must be a UTC time such as 20261231T235959Z: " + rule);
+        }
+        int year = parseInt(value.substring(0, 4), rule);
+        int month = parseInt(value.substring(4, 6), rule);
+        int day = parseInt(value.substring(6, 8), rule);
+        int hour = parseInt(value.substring(9, 11), rule);
+        int minute = parseInt(value.substring(11, 13), rule);
+        int second = parseInt(value.substring(13, 15), rule);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59
+                || second > 59) {
+            throw new IllegalArgumentException("Invalid UNTIL in " + rule);
+        }
+        return daysFromCivil(year, month, day) * DAY_MILLIS + ((hour * 60L + minute) * 60 + second) * 1000;
+    }
+
+    /**
+     * Returns the occurrences from fromMillis, inclusive, to toMillis, exclusive, in order.
+     *
+     * @param startMillis    time of the first occurrence the rule can have
+     * @param zone           time zone whose local time the occurrences keep
+     * @param maxOccurrences largest number of occurrences returned
+     */
+    long[] expand(long startMillis, TimeZone zone, long fromMillis, long toMillis, int maxOccurrences) {
+        if (fromMillis < startMillis) {
+            fromMillis = startMillis;
+        }
+        if (fromMillis >= toMillis || fromMillis > mUntil || maxOccurrences <= 0) {
+            return new long[0];
+        }
+        long[] occurrences = new long[Math.min(maxOccurrences, 16)];
+        int size = 0;
+
+        Start start = new Start(startMillis, zone);
+        int[] days = new int[31];
+        int period = Math.max(0, firstPeriod(start, localDay(fromMillis, zone)));
+        long index = mCount == 0 ? 0 : occurrencesBefore(start, period, days);
+        int emptyPeriods = 0;
+        while (emptyPeriods < MAX_EMPTY_PERIODS) {
+            int dayCount = periodDays(start, period, days);
+            emptyPeriods = dayCount == 0 ? emptyPeriods + 1 : 0;
+            for (int i = 0; i < dayCount; i++) {
+                if (days[i] < start.day) {
+                    continue;
+                }
+                if (mCount != 0 && index >= mCount) {
+                    return Arrays.copyOf(occurrences, size);
+                }
+                index++;
+                long millis = toMillis(days[i], start.timeOfDay, zone);
+                if (millis < fromMillis) {
+                    continue;
+                }
+                if (millis >= toMillis || millis > mUntil) {
+                    return Arrays.copyOf(occurrences, size);
+                }
+                if (size == occurrences.length) {
+                    occurrences = Arrays.copyOf(occurrences, Math.min(maxOccurrences, size * 2));
+                }
+                occurrences[size++] = millis;
+                if (size == maxOccurrences) {
+                    return occurrences;
+                }
+            }
+            period++;
+        }
+        return Arrays.copyOf(occurrences, size);
+    }
+
+    /**
+     * Returns the first occurrence at or after fromMillis, or {@link #END} if there is none.
+     */
+    long next(long startMillis, TimeZone zone, long fromMillis) {
+        long[] occurrence = expand(startMillis, zone, fromMillis, END, 1);
+        return occurrence.length == 0 ? END : occurrence[0];
+    }
+
+    // Local date and time of day of the start, which every occurrence derives from
+    private static final class Start {
+        final int day;
+        final long timeOfDay;
+        final int year;
+        final int month;
+        final int dayOfMonth;
+
+        Start(long millis, TimeZone zone) {
+            long local = millis + zone.getOffset(millis);
+            day = (int) floorDiv(local, DAY_MILLIS);
+            timeOfDay = floorMod(local, DAY_MILLIS);
+            long civil = civilFromDays(day);
+            year = (int) (civil >> 9);
+            month = (int) (civil >> 5) & 0xf;
+            dayOfMonth = (int) civil & 0x1f;
+        }
+    }
+
+    // The period that holds the given day, or the last one before it
+    private int firstPeriod(Start start, int day) {
+        long civil = civilFromDays(day);
+        switch (mFrequency) {
+            case DAILY:
+                return floorDiv(day - start.day, mInterval);
+            case WEEKLY:
+                return floorDiv(floorDiv(day - weekStart(start.day), 7), mInterval);
+            case MONTHLY:
+                int months = ((int) (civil >> 9) - start.year) * 12 + ((int) (civil >> 5) & 0xf) - start.month;
+                return floorDiv(months, mInterval);
+            default:
+                return floorDiv((int) (civil >> 9) - start.year, mInterval);
+        }
+    }
+
+    /**
+     * Fill days with the local days of the given period, in order, and return how many there
+     * are. Days before the start are included; the callers skip them.
+     */
+    private int periodDays(Start start, int period, int[] days) {
+        switch (mFrequency) {
+            case DAILY:
+                days[0] = start.day + period * mInterval;
+                return 1;
+            case WEEKLY: {
+                int weekStart = weekStart(start.day) + period * mInterval * 7;
+                if (mWeekdays == 0) {
+                    days[0] = weekStart + weekday(start.day);
+                    return 1;
+                }
+                int count = 0;
+                for (int weekday = 0; weekday < 7; weekday++) {
+                    if ((mWeekdays & (1 << weekday)) != 0) {
+                        days[count++] = weekStart + weekday;
+                    }
+                }
+                return count;
+            }
+            case MONTHLY: {
+                int months = start.month - 1 + period * mInterval;
+                int year = start.year + floorDiv(months, 12);
+                int month = floorMod(months, 12) + 1;
+                int length = daysInMonth(year, month);
+                int first = (int) daysFromCivil(year, month, 1);
+                if (mMonthDays == null) {
+                    if (start.dayOfMonth > length) {
+                        return 0;
+                    }
+                    days[0] = first + start.dayOfMonth - 1;
+                    return 1;
+                }
+                int count = 0;
+                for (int monthDay : mMonthDays) {
+                    int dayOfMonth = monthDay > 0 ? monthDay : length + 1 + monthDay;
+                    if (dayOfMonth >= 1 && dayOfMonth <= length) {
+                        days[count++] = first + dayOfMonth - 1;
+                    }
+                }
+                // Negative days fall among the positive ones; a day named twice occurs once
+                Arrays.sort(days, 0, count);
+                int distinct = 0;
+                for (int i = 0; i < count; i++) {
+                    if (distinct == 0 || days[distinct - 1] != days[i]) {
+                        days[distinct++] = days[i];
+                    }
+                }
+                return distinct;
+            }
+            default: {
+                int year = start.year + period * mInterval;
+                if (start.dayOfMonth > daysInMonth(year, start.month)) {
+                    return 0;
+                }
+                days[0] = (int) daysFromCivil(year, start.month, start.dayOfMonth);
+                return 1;
+            }
+        }
+    }
+
+    // Number of occurrences in the periods before the given one
+    private long occurrencesBefore(Start start, int period, int[] days) {
+        if (period == 0) {
+            return 0;
+        }
+        int skipped = 0;
+        int perPeriod = periodDays(start, 0, days);
+        for (int i = 0; i < perPeriod; i++) {
+            if (days[i] < start.day) {
+                skipped++;
+            }
+        }
+        if (hasFixedPeriods(start)) {
+            return (long) period * perPeriod - skipped;
+        }
+        long count = perPeriod - skipped;
+        for (int p = 1; p < period && count < mCount; p++) {
+            count += periodDays(start, p, days);
+        }
+        return count;
+    }
+
+    // Whether every period holds the same number of days
+    private boolean hasFixedPeriods(Start start) {
+        if (mFrequency == DAILY || mFrequency == WEEKLY) {
+            return true;
+        }
+        if (mMonthDays == null) {
+            return start.dayOfMonth <= 28;
+        }
+        for (int monthDay : mMonthDays) {
+            if (monthDay > 28 || monthDay < -28) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Local day of a time
+    private static int localDay(long millis, TimeZone zone) {
+        return (int) floorDiv(millis + zone.getOffset(millis), DAY_MILLIS);
+    }
+
+    /**
+     * Returns the time of a local day and time of day. A local time skipped by a daylight
+     * saving change moves forward by the length of the change.
+     */
+    static long toMillis(int day, long timeOfDay, TimeZone zone) {
+        long local = day * DAY_MILLIS + timeOfDay;
+        int offset = zone.getOffset(local - zone.getRawOffset());
+        long millis = local - offset;
+        int actualOffset = zone.getOffset(millis);
+        return actualOffset == offset ? millis : local - actualOffset;
+    }
+
+    // Division and remainder rounding towards negative infinity, for days before 1970
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? quotient - 1 : quotient;
+    }
+
+    private static int floorDiv(int x, int y) {
+        return (int) floorDiv((long) x, (long) y);
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+
+    private static int floorMod(int x, int y) {
+        return (int) floorMod((long) x, (long) y);
+    }
+
+    // Monday of the week of a day, weeks starting on Monday
+    private static int weekStart(int day) {
+        return day - weekday(day);
+    }
+
+    // Weekday of a day, 0 for Monday; day 0 was a Thursday
+    private static int weekday(int day) {
+        return floorMod(day + 3, 7);
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Returns the number of days from 1970-01-01 to the given date, month 1 being January.
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the date of a number of days from 1970-01-01, packed as year << 9 | month << 5 | day.
+     */
+    static long civilFromDays(long days) {
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+
+    /**
+     * Returns the rule in its canonical form, which {@link #parse} reads back.
+     */
+    @Override
+    public String toString() {
+        StringBuilder rule = new StringBuilder("FREQ=").append(FREQUENCIES[mFrequency]);
+        if (mInterval != 1) {
+            rule.append(";INTERVAL=").append(mInterval);
+        }
+        if (mWeekdays != 0) {
+            rule.append(";BYDAY=");
+            String separator = "";
+            for (int weekday = 0; weekday < 7; weekday++) {
+                if ((mWeekdays & (1 << weekday)) != 0) {
+                    rule.append(separator).append(WEEKDAYS[weekday]);
+                    separator = ",";
+                }
+            }
+        }
+        if (mMonthDays != null) {
+            rule.append(";BYMONTHDAY=");
+            for (int i = 0; i < mMonthDays.length; i++) {
+                rule.append(i == 0 ? "" : ",").append(mMonthDays[i]);
+            }
+        }
+        if (mCount != 0) {
+            rule.append(";COUNT=").append(mCount);
+        }
+        if (mUntil != END) {
+            long civil = civilFromDays(floorDiv(mUntil, DAY_MILLIS));
+            long seconds = floorMod(mUntil, DAY_MILLIS) / 1000;
+            rule.append(String.format(Locale.US, ";UNTIL=%04d%02d%02dT%02d%02d%02dZ", civil >> 9, (civil >> 5) & 0xf,
+                    civil & 0x1f, seconds / 3600, seconds / 60 % 60, seconds % 60));
+        }
+        return rule.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.codepath.simpletodo.data.TodoItemContract.AnalyticsEntry;
+
+/**
+ * Reads the status analytics out of the aggregates the database keeps for each metric: a row
+ * with the count, total, minimum and maximum of its durations, and the counts of a
+ * {@link DurationSketch}. Triggers on the status history update both on every status change,
+ * so a query reads a few hundred rows whatever the length of the history.
+ */
+final class TodoItemAnalytics {
+
+    private TodoItemAnalytics() {}
+
+    // Tables of the aggregates, and their columns
+    static final String STATS_TABLE = "status_stats";
+    static final String BUCKETS_TABLE = "status_stats_buckets";
+    static final String COLUMN_METRIC = "metric";
+    static final String COLUMN_BUCKET = "bucket";
+    static final String COLUMN_COUNT = "count";
+    static final String COLUMN_TOTAL = "total_millis";
+    static final String COLUMN_MIN = "min_millis";
+    static final String COLUMN_MAX = "max_millis";
+
+    // Columns returned when the projection is null
+    private static final String[] DEFAULT_PROJECTION = {
+            AnalyticsEntry._ID, AnalyticsEntry.COLUMN_METRIC, AnalyticsEntry.COLUMN_COUNT,
+            AnalyticsEntry.COLUMN_MEAN_MILLIS, AnalyticsEntry.COLUMN_MIN_MILLIS, AnalyticsEntry.COLUMN_MAX_MILLIS,
+            AnalyticsEntry.COLUMN_P50_MILLIS, AnalyticsEntry.COLUMN_P90_MILLIS, AnalyticsEntry.COLUMN_P99_MILLIS };
+
+    /**
+     * Returns one row per metric, in METRIC_* order, with the given columns of
+     * {@link AnalyticsEntry}, or all of them if the projection is null.
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection) {
+        if (projection == null) {
+            projection = DEFAULT_PROJECTION;
+        }
+        long[] counts = new long[AnalyticsEntry.METRIC_COUNT];
+        long[] totals = new long[AnalyticsEntry.METRIC_COUNT];
+        long[] mins = new long[AnalyticsEntry.METRIC_COUNT];
+        long[] maxes = new long[AnalyticsEntry.METRIC_COUNT];
+        long[][] buckets = new long[AnalyticsEntry.METRIC_COUNT][DurationSketch.BUCKET_COUNT];
+
+        // Both tables are read in one transaction, so a status change cannot fall in between
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(STATS_TABLE,
+                    new String[] { COLUMN_METRIC, COLUMN_COUNT, COLUMN_TOTAL, COLUMN_MIN, COLUMN_MAX },
+                    null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    int metric = cursor.getInt(0);
+                    counts[metric] = cursor.getLong(1);
+                    totals[metric] = cursor.getLong(2);
+                    mins[metric] = cursor.getLong(3);
+                    maxes[metric] = cursor.getLong(4);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // Only the buckets holding durations
+            cursor = db.query(BUCKETS_TABLE, new String[] { COLUMN_METRIC, COLUMN_BUCKET, COLUMN_COUNT },
+                    COLUMN_COUNT + " > 0", null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    buckets[cursor.getInt(0)][cursor.getInt(1)] = cursor.getLong(2);
+                }
+            } finally {
+                cursor.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        MatrixCursor result = new MatrixCursor(projection, AnalyticsEntry.METRIC_COUNT);
+        Object[] row = new Object[projection.length];
+        for (int metric = 0; metric < AnalyticsEntry.METRIC_COUNT; metric++) {
+            for (int i = 0; i < projection.length; i++) {
+                row[i] = value(projection[i], metric, counts[metric], totals[metric], mins[metric],
+                        maxes[metric], buckets[metric]);
+            }
+            result.addRow(row);
+        }
+        return result;
+    }
+
+    private static long value(String column, int metric, long count, long total, long min, long max,
+                              long[] buckets) {
+        switch (column) {
+            case AnalyticsEntry._ID:
+            case AnalyticsEntry.COLUMN_METRIC:
+                return metric;
+            case AnalyticsEntry.COLUMN_COUNT:
+                return count;
+            case AnalyticsEntry.COLUMN_MEAN_MILLIS:
+                return count == 0 ? 0 : total / count;
+            case AnalyticsEntry.COLUMN_MIN_MILLIS:
+                return min;
+            case AnalyticsEntry.COLUMN_MAX_MILLIS:
+                return max;
+            case AnalyticsEntry.COLUMN_P50_MILLIS:
+                return DurationSketch.percentile(buckets, 0.5, min, max);
+            case AnalyticsEntry.COLUMN_P90_MILLIS:
+                return DurationSketch.percentile(buckets, 0.9, min, max);
+            case AnalyticsEntry.COLUMN_P99_MILLIS:
+                return DurationSketch.percentile(buckets, 0.99, min, max);
+            default:
+                throw new IllegalArgumentException("Unknown analytics column " + column);
+        }
+    }
+}
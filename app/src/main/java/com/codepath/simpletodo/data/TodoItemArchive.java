@@ -0,0 +1,79 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.codepath.simpletodo.data.TodoItemContract.ArchiveEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+/**
+ * Moves old DONE todoitems from the `todo` table to the archive, so that the table the
+ * catalog lists stays small however long the history gets.
+ *
+ * Items are moved oldest first, found through the done_at index, in bounded batches: each
+ * batch is one short transaction, so readers and writers are never held up for long.
+ */
+final class TodoItemArchive {
+
+    private TodoItemArchive() {}
+
+    // Items with subtasks are archived after them, since deleting an item deletes its subtree
+    private static final String SELECTION_OLD_DONE = ItemEntry.COLUMN_ITEM_DONE_AT + " < ? AND "
+            + ItemEntry.COLUMN_ITEM_STATUS + " = " + ItemEntry.STATUS_DONE + " AND NOT EXISTS (SELECT 1 FROM "
+            + TodoItemSubtasks.CLOSURE_TABLE + " WHERE " + TodoItemSubtasks.COLUMN_ANCESTOR_ID + " = "
+            + ItemEntry.TABLE_NAME + "." + ItemEntry._ID + " AND " + TodoItemSubtasks.COLUMN_DEPTH + " > 0)";
+
+    /**
+     * Archive the oldest DONE items finished before the cutoff, at most batchSize of them.
+     *
+     * @param cutoff     items finished before this time are archived, in milliseconds since the epoch
+     * @param batchSize  largest number of items moved
+     * @param archivedAt time recorded as the archive time
+     * @return ids of the archived items; fewer than batchSize once none are left
+     */
+    static long[] archiveBatch(SQLiteDatabase db, long cutoff, int batchSize, long archivedAt) {
+        db.beginTransaction();
+        try {
+            long[] ids;
+            Cursor cursor = db.query(ItemEntry.TABLE_NAME, new String[] { ItemEntry._ID },
+                    SELECTION_OLD_DONE, new String[] { String.valueOf(cutoff) }, null, null,
+                    ItemEntry.COLUMN_ITEM_DONE_AT, String.valueOf(batchSize));
+            try {
+                ids = new long[cursor.getCount()];
+                int i = 0;
+                while (cursor.moveToNext()) {
+                    ids[i++] = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (ids.length == 0) {
+                return ids;
+            }
+
+            // The ids come from the table, not from the caller, so they are safe to inline.
+            // Copying first keeps the tags of the items; see TodoItemDbHelper.
+            String inIds = inList(ids);
+            db.execSQL("INSERT INTO " + ArchiveEntry.TABLE_NAME + " (" + TodoItemDbHelper.ITEM_COLUMNS + ", "
+                    + ItemEntry.COLUMN_ITEM_ARCHIVED_AT + ") SELECT " + TodoItemDbHelper.ITEM_COLUMNS + ", ? FROM "
+                    + ItemEntry.TABLE_NAME + " WHERE " + inIds, new Object[] { archivedAt });
+            db.execSQL("DELETE FROM " + ItemEntry.TABLE_NAME + " WHERE " + inIds);
+            db.setTransactionSuccessful();
+            return ids;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static String inList(long[] ids) {
+        StringBuilder sb = new StringBuilder(ids.length * 7 + 16);
+        sb.append(ItemEntry._ID).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(ids[i]);
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,231 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ItemTagEntry;
+import com.codepath.simpletodo.data.TodoItemContract.TagEntry;
+
+import java.util.HashMap;
+
+/**
+ * In-memory bitmap indexes over the todoitem ids: one {@link CompressedBitmap} per tag,
+ * per STATUS_* and per PRIORITY_* value.
+ *
+ * Combined tag, status and priority filters are answered by intersecting (or uniting) the
+ * bitmaps, without joining the item_tags table in SQL. The index is loaded from the database
+ * on first use and then kept up to date by {@link TodoItemProvider} on every write; writes the
+ * provider cannot apply incrementally simply {@link #invalidate()} it.
+ */
+public class TodoItemBitmapIndex {
+
+    private final CompressedBitmap[] mStatus = new CompressedBitmap[3];
+    private final CompressedBitmap[] mPriority = new CompressedBitmap[3];
+    private CompressedBitmap mAll = new CompressedBitmap();
+    private final HashMap<Long, CompressedBitmap> mTags = new HashMap<>();
+    private final HashMap<String, Long> mTagIds = new HashMap<>();
+    private boolean mLoaded;
+
+    public TodoItemBitmapIndex() {
+        for (int i = 0; i < 3; i++) {
+            mStatus[i] = new CompressedBitmap();
+            mPriority[i] = new CompressedBitmap();
+        }
+    }
+
+    /**
+     * Load the index from the database, if it is not loaded yet.
+     */
+    public synchronized void ensureLoaded(SQLiteDatabase db) {
+        if (mLoaded) {
+            return;
+        }
+        clear();
+
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME, new String[] {
+                ItemEntry._ID, ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.COLUMN_ITEM_PRIORITY },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                int id = (int) cursor.getLong(0);
+                mAll.add(id);
+                addTo(mStatus, cursor.getInt(1), id);
+                addTo(mPriority, cursor.getInt(2), id);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = db.query(TagEntry.TABLE_NAME, new String[] { TagEntry._ID, TagEntry.COLUMN_TAG_NAME },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                mTagIds.put(cursor.getString(1), cursor.getLong(0));
+                mTags.put(cursor.getLong(0), new CompressedBitmap());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = db.query(ItemTagEntry.TABLE_NAME,
+                new String[] { ItemTagEntry.COLUMN_ITEM_ID, ItemTagEntry.COLUMN_TAG_ID },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                CompressedBitmap tagBitmap = mTags.get(cursor.getLong(1));
+                if (tagBitmap != null) {
+                    tagBitmap.add((int) cursor.getLong(0));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        mLoaded = true;
+    }
+
+    /**
+     * Drop the index; it is reloaded on next use.
+     */
+    public synchronized void invalidate() {
+        mLoaded = false;
+        clear();
+    }
+
+    private void clear() {
+        for (int i = 0; i < 3; i++) {
+            mStatus[i] = new CompressedBitmap();
+            mPriority[i] = new CompressedBitmap();
+        }
+        mAll = new CompressedBitmap();
+        mTags.clear();
+        mTagIds.clear();
+    }
+
+    // Add the id to the bitmap of the given value, ignoring values that are not indexed
+    private static void addTo(CompressedBitmap[] bitmaps, int value, int id) {
+        if (value >= 0 && value < bitmaps.length) {
+            bitmaps[value].add(id);
+        }
+    }
+
+    // Returns the bitmap of the given value, or an empty one for values that are not indexed
+    private static CompressedBitmap bitmapFor(CompressedBitmap[] bitmaps, int value) {
+        if (value < 0 || value >= bitmaps.length) {
+            return new CompressedBitmap();
+        }
+        return bitmaps[value];
+    }
+
+    /**
+     * Record the status and priority of an inserted or updated item.
+     */
+    public synchronized void onItemWritten(long id, int status, int priority) {
+        if (!mLoaded) {
+            return;
+        }
+        int itemId = (int) id;
+        mAll.add(itemId);
+        for (int i = 0; i < 3; i++) {
+            if (i == status) {
+                mStatus[i].add(itemId);
+            } else {
+                mStatus[i].remove(itemId);
+            }
+            if (i == priority) {
+                mPriority[i].add(itemId);
+            } else {
+                mPriority[i].remove(itemId);
+            }
+        }
+    }
+
+    /**
+     * Remove a deleted item from every bitmap.
+     */
+    public synchronized void onItemDeleted(long id) {
+        if (!mLoaded) {
+            return;
+        }
+        int itemId = (int) id;
+        mAll.remove(itemId);
+        for (int i = 0; i < 3; i++) {
+            mStatus[i].remove(itemId);
+            mPriority[i].remove(itemId);
+        }
+        for (CompressedBitmap tagBitmap : mTags.values()) {
+            tagBitmap.remove(itemId);
+        }
+    }
+
+    /**
+     * Record a newly created tag.
+     */
+    public synchronized void onTagCreated(long tagId, String name) {
+        if (!mLoaded) {
+            return;
+        }
+        mTagIds.put(name, tagId);
+        mTags.put(tagId, new CompressedBitmap());
+    }
+
+    /**
+     * Record that an item was tagged (added is true) or untagged.
+     */
+    public synchronized void onItemTagged(long id, long tagId, boolean added) {
+        if (!mLoaded) {
+            return;
+        }
+        CompressedBitmap tagBitmap = mTags.get(tagId);
+        if (tagBitmap == null) {
+            return;
+        }
+        if (added) {
+            tagBitmap.add((int) id);
+        } else {
+            tagBitmap.remove((int) id);
+        }
+    }
+
+    /**
+     * Find the items matching a combined filter.
+     *
+     * @param tagNames names of the tags to filter on, or an empty array for no tag filter
+     * @param matchAll true if items need every tag, false if any one tag is enough
+     * @param status   STATUS_* value to filter on, or null for any status
+     * @param priority PRIORITY_* value to filter on, or null for any priority
+     * @return the matching item ids, in ascending order
+     */
+    public synchronized int[] query(String[] tagNames, boolean matchAll, Integer status, Integer priority) {
+        if (!mLoaded) {
+            throw new IllegalStateException("Index is not loaded");
+        }
+        CompressedBitmap result = null;
+        for (String tagName : tagNames) {
+            Long tagId = mTagIds.get(tagName);
+            CompressedBitmap tagBitmap = tagId == null ? null : mTags.get(tagId);
+            if (tagBitmap == null) {
+                if (matchAll) {
+                    // An unknown tag matches no item
+                    return new int[0];
+                }
+                continue;
+            }
+            if (result == null) {
+                result = tagBitmap;
+            } else {
+                result = matchAll ? result.and(tagBitmap) : result.or(tagBitmap);
+            }
+        }
+        if (result == null) {
+            result = tagNames.length == 0 ? mAll : new CompressedBitmap();
+        }
+        if (status != null) {
+            result = result.and(bitmapFor(mStatus, status));
+        }
+        if (priority != null) {
+            result = result.and(bitmapFor(mPriority, priority));
+        }
+        return result.toArray();
+    }
+}
@@ -0,0 +1,59 @@
+package com.codepath.simpletodo.data;
+
+/**
+ * Content hash of a todoitem, kept in {@link TodoItemContract.ItemEntry#COLUMN_ITEM_CONTENT_HASH}
+ * so that imports can recognise items they already wrote.
+ *
+ * The hash is a 64-bit FNV-1a over the normalized name and notes: lowercase, with runs of
+ * whitespace collapsed to one space and no leading or trailing whitespace. Missing notes hash
+ * like empty ones. It is computed straight from the characters, without building the
+ * normalized strings, so that parsers can hash their reused buffers.
+ */
+final class TodoItemContentHash {
+
+    private TodoItemContentHash() {}
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Separates the name from the notes, so that "a b" + "" and "a" + "b" differ
+    private static final char SEPARATOR = '\0';
+
+    /**
+     * Returns the content hash of an item with the given name and notes, either of which may be null.
+     */
+    static long of(CharSequence name, CharSequence notes) {
+        long hash = update(FNV_OFFSET_BASIS, name);
+        hash = mix(hash, SEPARATOR);
+        return update(hash, notes);
+    }
+
+    // Hash the normalized text: whitespace runs count as one space, except at either end
+    private static long update(long hash, CharSequence text) {
+        if (text == null) {
+            return hash;
+        }
+        boolean pendingSpace = false;
+        boolean started = false;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = started;
+                continue;
+            }
+            if (pendingSpace) {
+                hash = mix(hash, ' ');
+                pendingSpace = false;
+            }
+            hash = mix(hash, Character.toLowerCase(c));
+            started = true;
+        }
+        return hash;
+    }
+
+    // Both bytes of the char, low byte first
+    private static long mix(long hash, char c) {
+        hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+        return (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+}
@@ -1,8 +1,10 @@
 package com.codepath.simpletodo.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 
 /**
  * API Contract for the SimpleTodo app
@@ -35,6 +37,209 @@ public final class TodoItemContract {
      */
     public static final String PATH_TODO = "todo";
 
+    /**
+     * Path of the tags table, and path segment for tag filters and item tags:
+     * content://com.codepath.simpletodo/todo/tag/work,home filters items by tag and
+     * content://com.codepath.simpletodo/todo/3/tag/work tags (or untags) item 3.
+     */
+    public static final String PATH_TAGS = "tags";
+    public static final String PATH_TAG = "tag";
+
+    /**
+     * Path segment for name searches, e.g. content://com.codepath.simpletodo/todo/search/rev
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path segment of archived todoitems, e.g. content://com.codepath.simpletodo/todo/archive
+     * and content://com.codepath.simpletodo/todo/archive/3
+     */
+    public static final String PATH_ARCHIVE = "archive";
+
+    /**
+     * Path of the named lists of todoitems: content://com.codepath.simpletodo/lists is every
+     * list, content://com.codepath.simpletodo/lists/3 one list and
+     * content://com.codepath.simpletodo/lists/3/todo the todoitems of list 3.
+     */
+    public static final String PATH_LISTS = "lists";
+
+    /**
+     * Path of the recurring todoitems: content://com.codepath.simpletodo/recurrences is every
+     * rule, and content://com.codepath.simpletodo/recurrences/3 one rule.
+     */
+    public static final String PATH_RECURRENCES = "recurrences";
+
+    /**
+     * Path segment of the subtasks of a todoitem: content://com.codepath.simpletodo/todo/3/subtree
+     * is item 3 and all of its subtasks, at any depth.
+     */
+    public static final String PATH_SUBTREE = "subtree";
+
+    /**
+     * Path segment of the status analytics, content://com.codepath.simpletodo/todo/analytics
+     */
+    public static final String PATH_ANALYTICS = "analytics";
+
+    /**
+     * Path of the editor's drafts: content://com.codepath.simpletodo/drafts takes the inserts,
+     * and content://com.codepath.simpletodo/drafts/3 is the draft of item 3.
+     */
+    public static final String PATH_DRAFTS = "drafts";
+
+    /**
+     * Query parameter for list queries. When set to "true", the provider returns a cursor
+     * that loads rows in chunks ordered by _id (or by rank, if that is the sort order).
+     */
+    public static final String QUERY_PARAMETER_WINDOWED = "windowed";
+
+    /**
+     * Query parameter of windowed list queries: {@link ItemEntry#COLUMN_ITEM_STATUS} or
+     * {@link ItemEntry#COLUMN_ITEM_PRIORITY}. The rows are grouped by the values of that column,
+     * in ascending order, and keep the order of the query within each group. The extras of the
+     * cursor describe the groups, under {@link #EXTRA_SECTION_VALUES} and
+     * {@link #EXTRA_SECTION_COUNTS}, so that no row has to be read to find them.
+     */
+    public static final String QUERY_PARAMETER_GROUP_BY = "group_by";
+    public static final String EXTRA_SECTION_VALUES = "section_values";
+    public static final String EXTRA_SECTION_COUNTS = "section_counts";
+
+    /**
+     * Query parameter of list queries that are not windowed: the largest number of rows returned,
+     * in the sort order of the query.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter of item updates: the {@link ItemEntry#COLUMN_ITEM_VERSION} the item must
+     * still have for the update to apply. See {@link ItemEntry#buildVersionedItemUri}.
+     */
+    public static final String QUERY_PARAMETER_EXPECTED_VERSION = "expected_version";
+
+    /**
+     * Query parameters of tag filters: whether items need "all" (the default) or "any" of the
+     * tags, and optional STATUS_* and PRIORITY_* values the items must have.
+     */
+    public static final String QUERY_PARAMETER_MATCH = "match";
+    public static final String MATCH_ALL = "all";
+    public static final String MATCH_ANY = "any";
+    public static final String QUERY_PARAMETER_STATUS = "status";
+    public static final String QUERY_PARAMETER_PRIORITY = "priority";
+
+    /**
+     * Query parameter of searches. When set to "true", archived todoitems are searched too,
+     * and every row has an {@link ItemEntry#COLUMN_ITEM_ARCHIVED} flag.
+     */
+    public static final String QUERY_PARAMETER_ARCHIVED = "archived";
+
+    /**
+     * Methods of {@link android.content.ContentResolver#call} that change one field of one
+     * todoitem, whose id is the arg, without a cursor. "toggleStatus" switches between TODO and
+     * DONE, "cycleStatus" goes TODO, IN PROGRESS, DONE, TODO, and "setPriority" sets the
+     * priority found in the extras under {@link ItemEntry#COLUMN_ITEM_PRIORITY}.
+     *
+     * The result holds the new {@link ItemEntry#_ID}, {@link ItemEntry#COLUMN_ITEM_STATUS} and
+     * {@link ItemEntry#COLUMN_ITEM_PRIORITY} of the item, or is null if there is no such item.
+     */
+    public static final String METHOD_TOGGLE_STATUS = "toggleStatus";
+    public static final String METHOD_CYCLE_STATUS = "cycleStatus";
+    public static final String METHOD_SET_PRIORITY = "setPriority";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} that moves the todoitem whose id is
+     * the arg to just after the one found in the extras under {@link #EXTRA_AFTER_ID}, or to the
+     * top of the list without it. The result holds the {@link ItemEntry#_ID} and new
+     * {@link ItemEntry#COLUMN_ITEM_RANK} of the item, or is null if either item does not exist.
+     */
+    public static final String METHOD_MOVE_ITEM = "moveItem";
+    public static final String EXTRA_AFTER_ID = "after_id";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} that moves DONE todoitems finished
+     * longer ago than the arg, in milliseconds, to the archive. They are moved in transactions of
+     * at most {@link #EXTRA_BATCH_SIZE} items (default {@link #DEFAULT_ARCHIVE_BATCH_SIZE}).
+     * The result holds the number of items moved under {@link #EXTRA_ARCHIVED_COUNT}.
+     */
+    public static final String METHOD_ARCHIVE_DONE = "archiveDone";
+    public static final String EXTRA_BATCH_SIZE = "batch_size";
+    public static final String EXTRA_ARCHIVED_COUNT = "archived_count";
+    public static final int DEFAULT_ARCHIVE_BATCH_SIZE = 500;
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} that imports the todoitems of the
+     * file whose URI is the arg, in the format found in the extras under
+     * {@link #EXTRA_IMPORT_FORMAT}: {@link #FORMAT_CSV} (the default) or {@link #FORMAT_TODO_TXT}.
+     * Records with the normalized name and notes of an existing item, see
+     * {@link ItemEntry#COLUMN_ITEM_CONTENT_HASH}, are skipped; with {@link #EXTRA_IMPORT_POLICY}
+     * set to {@link #POLICY_MERGE} they give the item their priority, status and due date instead.
+     * New items are inserted in transactions of at most {@link #EXTRA_BATCH_SIZE} items
+     * (default {@link #DEFAULT_IMPORT_BATCH_SIZE}).
+     *
+     * The result holds the number of lines read and of items inserted, merged, skipped and left
+     * out as malformed, and the time the import took.
+     */
+    public static final String METHOD_IMPORT = "import";
+    public static final String EXTRA_IMPORT_FORMAT = "format";
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_TODO_TXT = "todo.txt";
+    public static final String EXTRA_IMPORT_POLICY = "policy";
+    public static final String POLICY_SKIP = "skip";
+    public static final String POLICY_MERGE = "merge";
+    public static final String EXTRA_LINE_COUNT = "line_count";
+    public static final String EXTRA_INSERTED_COUNT = "inserted_count";
+    public static final String EXTRA_MERGED_COUNT = "merged_count";
+    public static final String EXTRA_SKIPPED_COUNT = "skipped_count";
+    public static final String EXTRA_MALFORMED_COUNT = "malformed_count";
+    public static final String EXTRA_ELAPSED_MILLIS = "elapsed_millis";
+    public static final int DEFAULT_IMPORT_BATCH_SIZE = 500;
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} that creates the instances of the
+     * recurring todoitems due before the time in the arg, in milliseconds. Occurrences before
+     * the time found in the extras under {@link #EXTRA_WINDOW_START}, if any, are passed over
+     * rather than created. Each occurrence is considered once: instances deleted later are not
+     * created again. The result holds the number of instances created under
+     * {@link #EXTRA_MATERIALIZED_COUNT}.
+     */
+    public static final String METHOD_MATERIALIZE = "materialize";
+    public static final String EXTRA_WINDOW_START = "window_start";
+    public static final String EXTRA_MATERIALIZED_COUNT = "materialized_count";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} that counts the subtasks, at any
+     * depth, of the todoitem whose id is the arg, with one indexed query. The result holds the
+     * number of subtasks under {@link #EXTRA_SUBTASK_COUNT} and the number of DONE ones under
+     * {@link #EXTRA_SUBTASK_DONE_COUNT}, or is null if there is no such item.
+     */
+    public static final String METHOD_SUBTREE_PROGRESS = "subtreeProgress";
+    public static final String EXTRA_SUBTASK_COUNT = "subtask_count";
+    public static final String EXTRA_SUBTASK_DONE_COUNT = "subtask_done_count";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} that reads the log of the queries
+     * that took longer than a threshold. The extras can set the threshold in milliseconds under
+     * {@link #EXTRA_SLOW_THRESHOLD_MILLIS}, and, in debug builds only, switch on strict mode under
+     * {@link #EXTRA_SLOW_STRICT}: any query that scans the todo table then fails. With the arg
+     * {@link #SLOW_LOG_CLEAR}, the log is emptied after it is read.
+     *
+     * The result holds the threshold and the entries kept, oldest first, in arrays of the same
+     * length: the time each was logged, its SQL, the shapes of the arguments bound by the caller
+     * (null, int, real or text with its length), the number of rows, the time it took in
+     * milliseconds and its plan from EXPLAIN QUERY PLAN.
+     */
+    public static final String METHOD_SLOW_LOG = "slowlog";
+    public static final String SLOW_LOG_CLEAR = "clear";
+    public static final String EXTRA_SLOW_THRESHOLD_MILLIS = "threshold_millis";
+    public static final String EXTRA_SLOW_STRICT = "strict";
+    public static final String EXTRA_SLOW_TIMES = "times";
+    public static final String EXTRA_SLOW_SQL = "sql";
+    public static final String EXTRA_SLOW_ARG_SHAPES = "arg_shapes";
+    public static final String EXTRA_SLOW_ROW_COUNTS = "row_counts";
+    public static final String EXTRA_SLOW_MILLIS = "millis";
+    public static final String EXTRA_SLOW_PLANS = "plans";
+
+    /** Age after which the scheduled job archives DONE todoitems: 30 days */
+    public static final long DEFAULT_ARCHIVE_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
     // Inner class that defines constant values for the To-do database table
     public static final class ItemEntry implements BaseColumns {
 
@@ -60,6 +265,78 @@ public final class TodoItemContract {
         public final static String COLUMN_ITEM_NOTES ="notes";
         public final static String COLUMN_ITEM_PRIORITY ="priority";
         public final static String COLUMN_ITEM_STATUS ="status";
+        public final static String COLUMN_ITEM_DUE_AT ="due_at";
+
+        /**
+         * Manual order of the item: list queries sorted by this column return the items in the
+         * order the user arranged them. Set by the provider; move items with
+         * {@link TodoItemContract#METHOD_MOVE_ITEM}.
+         */
+        public final static String COLUMN_ITEM_RANK ="rank";
+
+        /**
+         * Time the item was last set to {@link #STATUS_DONE}, in milliseconds since the epoch
+         * (NULL unless it is DONE). Maintained by the database.
+         */
+        public final static String COLUMN_ITEM_DONE_AT ="done_at";
+
+        /**
+         * Time an archived item was archived, in milliseconds since the epoch.
+         * Only in {@link ArchiveEntry#CONTENT_URI} results.
+         */
+        public final static String COLUMN_ITEM_ARCHIVED_AT ="archived_at";
+
+        /**
+         * 1 for archived items and 0 otherwise. Only in searches that include archived items.
+         */
+        public final static String COLUMN_ITEM_ARCHIVED ="archived";
+
+        /**
+         * Version of the item, incremented by every update of the item. Maintained by the
+         * provider; pass it to {@link #buildVersionedItemUri} to update the item only if it
+         * is still at that version.
+         */
+        public final static String COLUMN_ITEM_VERSION ="version";
+
+        /**
+         * Hash of the item's name and notes, lowercased and with whitespace runs collapsed, so
+         * that imports find the items they already wrote with an index lookup. Maintained by
+         * the provider.
+         */
+        public final static String COLUMN_ITEM_CONTENT_HASH ="content_hash";
+
+        /**
+         * The {@link ListEntry#_ID} of the list holding the item; items inserted without one go
+         * to {@link ListEntry#DEFAULT_LIST_ID}. Updating it moves the item to another list.
+         */
+        public final static String COLUMN_ITEM_LIST_ID ="list_id";
+
+        /**
+         * The {@link RecurrenceEntry#_ID} of the rule the item is an instance of, or NULL. Its
+         * {@link #COLUMN_ITEM_DUE_AT} is the occurrence. Set by the provider; it cannot be updated.
+         */
+        public final static String COLUMN_ITEM_RECURRENCE_ID ="recurrence_id";
+
+        /**
+         * The {@link #_ID} of the item this item is a subtask of, or NULL for a top-level item.
+         * A subtask is always in the list of its parent: setting it moves the item, with its
+         * own subtasks, to that list, and moving an item to another list detaches it from its
+         * parent. Deleting an item deletes its subtasks, and marking it DONE marks them DONE.
+         */
+        public final static String COLUMN_ITEM_PARENT_ID ="parent_id";
+
+        /**
+         * The {@link #COLUMN_ITEM_DUE_AT} whose reminder was posted, or NULL if none was. A
+         * reminder is pending while it differs from the due date, so changing the due date
+         * reminds again. Maintained by the reminders.
+         */
+        public final static String COLUMN_ITEM_REMINDED_DUE_AT ="reminded_due_at";
+
+        /**
+         * Depth of an item below the root of a subtree, 0 for the root itself. Only in
+         * {@link #buildSubtreeUri} results.
+         */
+        public final static String COLUMN_ITEM_DEPTH ="depth";
 
         /**
          * Possible values for the priority of the item.
@@ -75,6 +352,62 @@ public final class TodoItemContract {
         public static final int STATUS_INPROGRESS = 1;
         public static final int STATUS_DONE = 2;
 
+        /**
+         * Returns the content URI that filters todoitems by the given tags, e.g.
+         * "content://com.codepath.simpletodo/todo/tag/work,home".
+         */
+        public static Uri buildTagFilterUri(String... tagNames) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_TAG)
+                    .appendPath(TextUtils.join(",", tagNames))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI that searches todoitems whose name has tokens starting
+         * with the tokens of the given text, e.g. "content://com.codepath.simpletodo/todo/search/rev".
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(text)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI that tags (or untags) a todoitem, e.g.
+         * "content://com.codepath.simpletodo/todo/3/tag/work".
+         */
+        public static Uri buildItemTagUri(long id, String tagName) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_TAG)
+                    .appendPath(tagName)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of a todoitem and all of its subtasks, e.g.
+         * "content://com.codepath.simpletodo/todo/3/subtree". Rows are ordered by depth, then by
+         * rank, unless a sort order is given.
+         */
+        public static Uri buildSubtreeUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_SUBTREE)
+                    .build();
+        }
+
+        /**
+         * Returns the URI of a todoitem that updates it only if its
+         * {@link #COLUMN_ITEM_VERSION} is still the given one, e.g.
+         * "content://com.codepath.simpletodo/todo/3?expected_version=7". An update through it
+         * changes no row, and returns 0, if another write got there first.
+         */
+        public static Uri buildVersionedItemUri(Uri itemUri, long expectedVersion) {
+            return itemUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_EXPECTED_VERSION, String.valueOf(expectedVersion))
+                    .build();
+        }
+
         /**
          * Returns whether or not the given priority is {@link #PRIORITY_HIGH}, {@link #PRIORITY_LOW},
          * or {@link #PRIORITY_MEDIUM}.
@@ -86,4 +419,285 @@ public final class TodoItemContract {
             return false;
         }
     }
+
+    // Inner class that defines constant values for the archive of old DONE todoitems,
+    // whose rows have the columns of ItemEntry and keep their _id
+    public static final class ArchiveEntry {
+
+        /** The content URI to access the archived todoitems in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ItemEntry.CONTENT_URI, PATH_ARCHIVE);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of archived todoitems.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single archived todoitem.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public final static String TABLE_NAME = "todo_archive";
+
+        /** View of the todoitems and archived todoitems together */
+        public final static String VIEW_ALL_NAME = "todo_all";
+    }
+
+    // Inner class that defines constant values for the named lists of todoitems
+    public static final class ListEntry implements BaseColumns {
+
+        /** The content URI to access the lists in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LISTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of lists.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LISTS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single list.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LISTS;
+
+        public final static String TABLE_NAME = "lists";
+
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_LIST_NAME = "name";
+
+        /**
+         * Number of todoitems in the list, and of those that are DONE, archived items aside.
+         * Maintained by the database; they cannot be written.
+         */
+        public final static String COLUMN_LIST_ITEM_COUNT = "item_count";
+        public final static String COLUMN_LIST_DONE_COUNT = "done_count";
+
+        /** The list that always exists, and holds the items of earlier versions. It cannot be deleted. */
+        public static final long DEFAULT_LIST_ID = 1;
+
+        /**
+         * Returns the content URI of the todoitems of a list, e.g.
+         * "content://com.codepath.simpletodo/lists/3/todo". It takes the queries, inserts,
+         * updates and deletes of {@link ItemEntry#CONTENT_URI}, limited to the list.
+         */
+        public static Uri buildItemsUri(long listId) {
+            return ContentUris.withAppendedId(CONTENT_URI, listId).buildUpon()
+                    .appendPath(PATH_TODO)
+                    .build();
+        }
+    }
+
+    // Inner class that defines constant values for the drafts of the editor: the unsaved edits of
+    // one item each, autosaved while the user types. Writes to drafts notify no observer.
+    public static final class DraftEntry implements BaseColumns {
+
+        /** The content URI to insert drafts */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_DRAFTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of drafts.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DRAFTS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single draft.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DRAFTS;
+
+        public final static String TABLE_NAME = "drafts";
+
+        /**
+         * The item the draft edits, or {@link #NEW_ITEM_ID} for an item not saved yet. An item
+         * has at most one draft: inserting a draft replaces the previous one.
+         */
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_DRAFT_ITEM_ID = "item_id";
+
+        /**
+         * The edited fields, as in {@link ItemEntry}.
+         */
+        public final static String COLUMN_DRAFT_NAME = "name";
+        public final static String COLUMN_DRAFT_NOTES = "notes";
+        public final static String COLUMN_DRAFT_PRIORITY = "priority";
+        public final static String COLUMN_DRAFT_STATUS = "status";
+        public final static String COLUMN_DRAFT_DUE_AT = "due_at";
+
+        /** Time the draft was last saved, in milliseconds since the epoch. Set by the provider. */
+        public final static String COLUMN_DRAFT_UPDATED_AT = "updated_at";
+
+        /** Item id of the draft of a new item */
+        public static final long NEW_ITEM_ID = 0;
+
+        /**
+         * Returns the content URI of the draft of an item, e.g. "content://com.codepath.simpletodo/drafts/3",
+         * or of the new item for {@link #NEW_ITEM_ID}.
+         */
+        public static Uri buildDraftUri(long itemId) {
+            return ContentUris.withAppendedId(CONTENT_URI, itemId);
+        }
+    }
+
+    // Inner class that defines constant values for the recurring todoitems: a rule, stored once,
+    // whose instances are created in the todo table only as they come due
+    public static final class RecurrenceEntry implements BaseColumns {
+
+        /** The content URI to access the rules in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_RECURRENCES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of rules.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_RECURRENCES;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single rule.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_RECURRENCES;
+
+        public final static String TABLE_NAME = "recurrences";
+
+        /**
+         * The name, notes, priority and list given to every instance.
+         */
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_RECURRENCE_NAME = "name";
+        public final static String COLUMN_RECURRENCE_NOTES = "notes";
+        public final static String COLUMN_RECURRENCE_PRIORITY = "priority";
+        public final static String COLUMN_RECURRENCE_LIST_ID = "list_id";
+
+        /**
+         * The rule, in the RRULE syntax of RFC 5545: FREQ=DAILY, WEEKLY, MONTHLY or YEARLY, with
+         * INTERVAL, BYDAY (weekly), BYMONTHDAY (monthly) and COUNT or UNTIL, e.g.
+         * "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,TH". See {@link #RULE_DAILY} and its neighbours.
+         */
+        public final static String COLUMN_RECURRENCE_RULE = "rule";
+
+        /**
+         * Time of the first occurrence, in milliseconds since the epoch, and the time zone whose
+         * local time the occurrences keep (the default time zone if it is not given).
+         */
+        public final static String COLUMN_RECURRENCE_START_AT = "start_at";
+        public final static String COLUMN_RECURRENCE_TIME_ZONE = "time_zone";
+
+        /**
+         * Time up to which the occurrences have been considered: instances exist for those
+         * before it, unless they were passed over or deleted. Maintained by the provider.
+         */
+        public final static String COLUMN_RECURRENCE_MATERIALIZED_UNTIL = "materialized_until";
+
+        /**
+         * Rules offered by the editor.
+         */
+        public static final String RULE_DAILY = "FREQ=DAILY";
+        public static final String RULE_WEEKLY = "FREQ=WEEKLY";
+        public static final String RULE_MONTHLY = "FREQ=MONTHLY";
+    }
+
+    // Inner class that defines constant values for the history of status changes, one row per
+    // change and one per new item. Maintained by the database; rows are never changed or removed.
+    public static final class StatusHistoryEntry implements BaseColumns {
+
+        public final static String TABLE_NAME = "status_history";
+
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_ITEM_ID = "item_id";
+
+        /** Status before the change, or NULL in the row of a new item */
+        public final static String COLUMN_FROM_STATUS = "from_status";
+        public final static String COLUMN_TO_STATUS = "to_status";
+
+        /** Time of the change, in milliseconds since the epoch */
+        public final static String COLUMN_CHANGED_AT = "changed_at";
+
+        /**
+         * Time the item spent in the status before the change, in milliseconds, or NULL if the
+         * history does not say when the item entered it.
+         */
+        public final static String COLUMN_TIME_IN_STATE = "time_in_state";
+
+        /**
+         * Time from the creation of the item to this change, in milliseconds, only for changes
+         * to {@link ItemEntry#STATUS_DONE} of items created with a history.
+         */
+        public final static String COLUMN_CYCLE_TIME = "cycle_time";
+    }
+
+    // Inner class that defines constant values for the status analytics: one row per metric,
+    // read from aggregates that the database keeps up to date on every status change
+    public static final class AnalyticsEntry implements BaseColumns {
+
+        /** The content URI to access the analytics in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ItemEntry.CONTENT_URI, PATH_ANALYTICS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the list of metrics.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ANALYTICS;
+
+        public final static String _ID = BaseColumns._ID;
+
+        /** One of the METRIC_* values, also the _id of the row */
+        public final static String COLUMN_METRIC = "metric";
+
+        /** Number of durations measured */
+        public final static String COLUMN_COUNT = "count";
+
+        /**
+         * Durations in milliseconds. Percentiles are estimates, within a few percent; the
+         * others are exact. All are 0 when nothing was measured.
+         */
+        public final static String COLUMN_MEAN_MILLIS = "mean_millis";
+        public final static String COLUMN_MIN_MILLIS = "min_millis";
+        public final static String COLUMN_MAX_MILLIS = "max_millis";
+        public final static String COLUMN_P50_MILLIS = "p50_millis";
+        public final static String COLUMN_P90_MILLIS = "p90_millis";
+        public final static String COLUMN_P99_MILLIS = "p99_millis";
+
+        /**
+         * Possible metrics: time items spent in each status before leaving it, which use the
+         * STATUS_* values, and time from creation to DONE.
+         */
+        public static final int METRIC_TIME_IN_TODO = ItemEntry.STATUS_TODO;
+        public static final int METRIC_TIME_IN_PROGRESS = ItemEntry.STATUS_INPROGRESS;
+        public static final int METRIC_TIME_IN_DONE = ItemEntry.STATUS_DONE;
+        public static final int METRIC_CYCLE_TIME = 3;
+
+        /** Number of metrics; they go from 0 to METRIC_COUNT - 1 */
+        public static final int METRIC_COUNT = 4;
+    }
+
+    // Inner class that defines constant values for the tags database table
+    public static final class TagEntry implements BaseColumns {
+
+        /** The content URI to access the tags in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_TAGS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of tags.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TAGS;
+
+        public final static String TABLE_NAME = "tags";
+
+        public final static String _ID = BaseColumns._ID;
+        public final static String COLUMN_TAG_NAME = "name";
+    }
+
+    // Inner class that defines constant values for the join table between todoitems and tags
+    public static final class ItemTagEntry {
+
+        public final static String TABLE_NAME = "item_tags";
+
+        public final static String COLUMN_ITEM_ID = "item_id";
+        public final static String COLUMN_TAG_ID = "tag_id";
+    }
 }
@@ -1,8 +1,16 @@
 package com.codepath.simpletodo.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.codepath.simpletodo.data.TodoItemContract.AnalyticsEntry;
+import com.codepath.simpletodo.data.TodoItemContract.DraftEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+import com.codepath.simpletodo.data.TodoItemContract.RecurrenceEntry;
+import com.codepath.simpletodo.data.TodoItemContract.StatusHistoryEntry;
 
 /**
  * Database helper for SimpleTodo app. Manages database creation and version management.
@@ -14,13 +22,24 @@ public class TodoItemDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "simpletodo.db";
 
     // Database version. If you change the database schema, you must increase the database version.
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 14;
 
     private static final String TEXT_TYPE = " TEXT";
     private static final String COMMA_SEP = ", ";
 
+    /** Default size of SQLite's page cache, in KiB; the same as SQLite's own default */
+    public static final int DEFAULT_CACHE_SIZE_KIB = 2000;
+
+    /** Default size of the memory-mapped part of the database file, in bytes; 0 disables mmap */
+    public static final long DEFAULT_MMAP_SIZE = 0;
+
     private static TodoItemDbHelper mInstance = null;
 
+    private int mCacheSizeKib = DEFAULT_CACHE_SIZE_KIB;
+    private long mMmapSize = DEFAULT_MMAP_SIZE;
+
+    private final TodoItemSlowQueryLog mSlowQueryLog;
+
 
     // Create a string that contains the SQL statement to create the "todoitems" table
     private static final String SQL_CREATE_ENTRIES =
@@ -29,15 +48,545 @@ public class TodoItemDbHelper extends SQLiteOpenHelper {
                     + TodoItemContract.ItemEntry.COLUMN_ITEM_NAME + TEXT_TYPE + " NOT NULL" + COMMA_SEP
                     + TodoItemContract.ItemEntry.COLUMN_ITEM_NOTES + TEXT_TYPE + COMMA_SEP
                     + TodoItemContract.ItemEntry.COLUMN_ITEM_PRIORITY + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
-                    + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + " INTEGER NOT NULL DEFAULT 0);";
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_DUE_AT + " INTEGER" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_DONE_AT + " INTEGER" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_VERSION + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_CONTENT_HASH + " INTEGER" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + " INTEGER NOT NULL DEFAULT "
+                    + ListEntry.DEFAULT_LIST_ID + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_RECURRENCE_ID + " INTEGER" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID + " INTEGER" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_REMINDED_DUE_AT + " INTEGER);";
+
+    // Version 2: due date of an item, in milliseconds since the epoch (NULL if it has none)
+    private static final String SQL_ADD_DUE_AT =
+            "ALTER TABLE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_DUE_AT + " INTEGER;";
+
+    // Index used to rebuild the reminder schedule with a range query on the due date
+    private static final String SQL_CREATE_DUE_AT_INDEX =
+            "CREATE INDEX todo_due_at_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_DUE_AT + ");";
+
+    // Version 3: tags, and the join table between todoitems and tags
+    private static final String SQL_CREATE_TAGS =
+            "CREATE TABLE " + TodoItemContract.TagEntry.TABLE_NAME + " ("
+                    + TodoItemContract.TagEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT" + COMMA_SEP
+                    + TodoItemContract.TagEntry.COLUMN_TAG_NAME + TEXT_TYPE + " NOT NULL UNIQUE);";
+
+    private static final String SQL_CREATE_ITEM_TAGS =
+            "CREATE TABLE " + TodoItemContract.ItemTagEntry.TABLE_NAME + " ("
+                    + TodoItemContract.ItemTagEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL" + COMMA_SEP
+                    + TodoItemContract.ItemTagEntry.COLUMN_TAG_ID + " INTEGER NOT NULL" + COMMA_SEP
+                    + "PRIMARY KEY (" + TodoItemContract.ItemTagEntry.COLUMN_ITEM_ID + COMMA_SEP
+                    + TodoItemContract.ItemTagEntry.COLUMN_TAG_ID + "));";
+
+    private static final String SQL_CREATE_ITEM_TAGS_INDEX =
+            "CREATE INDEX item_tags_tag_index ON " + TodoItemContract.ItemTagEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemTagEntry.COLUMN_TAG_ID + ");";
+
+    // Drop the tags of a todoitem when it is deleted
+    private static final String SQL_CREATE_ITEM_TAGS_TRIGGER =
+            "CREATE TRIGGER todo_delete_item_tags AFTER DELETE ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " BEGIN DELETE FROM " + TodoItemContract.ItemTagEntry.TABLE_NAME
+                    + " WHERE " + TodoItemContract.ItemTagEntry.COLUMN_ITEM_ID + " = OLD."
+                    + TodoItemContract.ItemEntry._ID + "; END;";
+
+    // Version 4: manual order of the items, spaced out so that a move rewrites a single row
+    private static final String SQL_ADD_RANK =
+            "ALTER TABLE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + " INTEGER NOT NULL DEFAULT 0;";
+
+    // Existing items keep their insertion order
+    private static final String SQL_INIT_RANK =
+            "UPDATE " + TodoItemContract.ItemEntry.TABLE_NAME + " SET " + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK
+                    + " = " + TodoItemContract.ItemEntry._ID + " * " + TodoItemRanks.GAP + ";";
+
+    // Index used by list queries sorted by rank, and to find the neighbours of a moved item
+    private static final String SQL_CREATE_RANK_INDEX =
+            "CREATE INDEX todo_rank_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + ");";
+
+    // Version 5: time items were finished, and the archive of old DONE items
+    private static final String SQL_ADD_DONE_AT =
+            "ALTER TABLE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_DONE_AT + " INTEGER;";
+
+    // Current time in milliseconds since the epoch, in SQL
+    private static final String SQL_NOW = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    // Items already DONE before the upgrade count as finished now
+    private static final String SQL_INIT_DONE_AT =
+            "UPDATE " + TodoItemContract.ItemEntry.TABLE_NAME + " SET " + TodoItemContract.ItemEntry.COLUMN_ITEM_DONE_AT
+                    + " = " + SQL_NOW + " WHERE " + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " = " + TodoItemContract.ItemEntry.STATUS_DONE + ";";
+
+    // Index used by the archiver to find the oldest DONE items
+    private static final String SQL_CREATE_DONE_AT_INDEX =
+            "CREATE INDEX todo_done_at_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_DONE_AT + ");";
+
+    // Keep done_at in line with the status on every write path, including the compiled statements
+    private static final String SQL_CREATE_DONE_AT_INSERT_TRIGGER =
+            "CREATE TRIGGER todo_done_at_insert AFTER INSERT ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHEN NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + " = " + TodoItemContract.ItemEntry.STATUS_DONE
+                    + " AND NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_DONE_AT + " IS NULL"
+                    + " BEGIN UPDATE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " SET " + TodoItemContract.ItemEntry.COLUMN_ITEM_DONE_AT + " = " + SQL_NOW
+                    + " WHERE " + TodoItemContract.ItemEntry._ID + " = NEW." + TodoItemContract.ItemEntry._ID + "; END;";
+
+    private static final String SQL_CREATE_DONE_AT_UPDATE_TRIGGER =
+            "CREATE TRIGGER todo_done_at_update AFTER UPDATE OF " + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHEN NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " != OLD." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " BEGIN UPDATE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " SET " + TodoItemContract.ItemEntry.COLUMN_ITEM_DONE_AT + " = CASE WHEN NEW."
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + " = " + TodoItemContract.ItemEntry.STATUS_DONE
+                    + " THEN " + SQL_NOW + " ELSE NULL END"
+                    + " WHERE " + TodoItemContract.ItemEntry._ID + " = NEW." + TodoItemContract.ItemEntry._ID + "; END;";
+
+    // Columns shared by the todo and archive tables, in table order
+    static final String ITEM_COLUMNS = TodoItemContract.ItemEntry._ID + COMMA_SEP
+            + TodoItemContract.ItemEntry.COLUMN_ITEM_NAME + COMMA_SEP
+            + TodoItemContract.ItemEntry.COLUMN_ITEM_NOTES + COMMA_SEP
+            + TodoItemContract.ItemEntry.COLUMN_ITEM_PRIORITY + COMMA_SEP
+            + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + COMMA_SEP
+            + TodoItemContract.ItemEntry.COLUMN_ITEM_DUE_AT + COMMA_SEP
+            + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + COMMA_SEP
+            + TodoItemContract.ItemEntry.COLUMN_ITEM_DONE_AT + COMMA_SEP
+            + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID;
+
+    // Archived items keep their _id, which AUTOINCREMENT never hands out again. The list_id
+    // column is added with the lists, in version 10.
+    private static final String SQL_CREATE_ARCHIVE =
+            "CREATE TABLE " + TodoItemContract.ArchiveEntry.TABLE_NAME + " ("
+                    + TodoItemContract.ItemEntry._ID + " INTEGER PRIMARY KEY" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_NAME + TEXT_TYPE + " NOT NULL" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_NOTES + TEXT_TYPE + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_PRIORITY + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_DUE_AT + " INTEGER" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_DONE_AT + " INTEGER" + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_ARCHIVED_AT + " INTEGER NOT NULL);";
+
+    // Hot and archived items together, for searches that include the archive. Created with
+    // the lists, since it has every column of ITEM_COLUMNS.
+    private static final String SQL_DROP_ALL_VIEW = "DROP VIEW IF EXISTS " + TodoItemContract.ArchiveEntry.VIEW_ALL_NAME + ";";
+
+    private static final String SQL_CREATE_ALL_VIEW =
+            "CREATE VIEW " + TodoItemContract.ArchiveEntry.VIEW_ALL_NAME + " AS"
+                    + " SELECT " + ITEM_COLUMNS + ", 0 AS " + TodoItemContract.ItemEntry.COLUMN_ITEM_ARCHIVED
+                    + " FROM " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " UNION ALL SELECT " + ITEM_COLUMNS + ", 1 FROM " + TodoItemContract.ArchiveEntry.TABLE_NAME + ";";
+
+    // Archived items keep their tags: the tags of a todoitem are only dropped if it was not
+    // just copied to the archive, and the tags of an archived item when it is deleted from there
+    private static final String SQL_DROP_ITEM_TAGS_TRIGGER = "DROP TRIGGER IF EXISTS todo_delete_item_tags;";
+
+    private static final String SQL_CREATE_ITEM_TAGS_UNLESS_ARCHIVED_TRIGGER =
+            "CREATE TRIGGER todo_delete_item_tags AFTER DELETE ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHEN NOT EXISTS (SELECT 1 FROM " + TodoItemContract.ArchiveEntry.TABLE_NAME
+                    + " WHERE " + TodoItemContract.ItemEntry._ID + " = OLD." + TodoItemContract.ItemEntry._ID + ")"
+                    + " BEGIN DELETE FROM " + TodoItemContract.ItemTagEntry.TABLE_NAME
+                    + " WHERE " + TodoItemContract.ItemTagEntry.COLUMN_ITEM_ID + " = OLD."
+                    + TodoItemContract.ItemEntry._ID + "; END;";
+
+    private static final String SQL_CREATE_ARCHIVE_ITEM_TAGS_TRIGGER =
+            "CREATE TRIGGER todo_archive_delete_item_tags AFTER DELETE ON " + TodoItemContract.ArchiveEntry.TABLE_NAME
+                    + " BEGIN DELETE FROM " + TodoItemContract.ItemTagEntry.TABLE_NAME
+                    + " WHERE " + TodoItemContract.ItemTagEntry.COLUMN_ITEM_ID + " = OLD."
+                    + TodoItemContract.ItemEntry._ID + "; END;";
 
     // Create a string that contains the SQL statement to Drop the `todoitems` table
     private static final String SQL_DELETE_ENTRIES = "DROP TABLE IF EXISTS " + TodoItemContract.ItemEntry.TABLE_NAME;
 
-    public static TodoItemDbHelper getInstance(Context ctx) {
+    // Version 6: indexes of the lists grouped by status or priority. Each one answers both the
+    // GROUP BY that counts the sections and the rank-ordered chunks of a section.
+    private static final String SQL_CREATE_STATUS_RANK_INDEX =
+            "CREATE INDEX todo_status_rank_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + ");";
+    private static final String SQL_CREATE_PRIORITY_RANK_INDEX =
+            "CREATE INDEX todo_priority_rank_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_PRIORITY + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + ");";
+
+    // Version 7: version of each item, bumped by every update, for compare-and-set updates
+    private static final String SQL_ADD_VERSION =
+            "ALTER TABLE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_VERSION + " INTEGER NOT NULL DEFAULT 0;";
+
+    // Version 8: hash of the normalized name and notes, which imports look items up by
+    private static final String SQL_ADD_CONTENT_HASH =
+            "ALTER TABLE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_CONTENT_HASH + " INTEGER;";
+
+    private static final String SQL_CREATE_CONTENT_HASH_INDEX =
+            "CREATE INDEX todo_content_hash_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_CONTENT_HASH + ");";
+
+    private static final String SQL_SET_CONTENT_HASH =
+            "UPDATE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " SET " + TodoItemContract.ItemEntry.COLUMN_ITEM_CONTENT_HASH + " = ?"
+                    + " WHERE " + TodoItemContract.ItemEntry._ID + " = ?;";
+
+    // Version 9: history of status changes, and the aggregates of the time spent in each status
+    private static final String SQL_CREATE_STATUS_HISTORY =
+            "CREATE TABLE " + StatusHistoryEntry.TABLE_NAME + " ("
+                    + StatusHistoryEntry._ID + " INTEGER PRIMARY KEY" + COMMA_SEP
+                    + StatusHistoryEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL" + COMMA_SEP
+                    + StatusHistoryEntry.COLUMN_FROM_STATUS + " INTEGER" + COMMA_SEP
+                    + StatusHistoryEntry.COLUMN_TO_STATUS + " INTEGER NOT NULL" + COMMA_SEP
+                    + StatusHistoryEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL" + COMMA_SEP
+                    + StatusHistoryEntry.COLUMN_TIME_IN_STATE + " INTEGER" + COMMA_SEP
+                    + StatusHistoryEntry.COLUMN_CYCLE_TIME + " INTEGER);";
+
+    // Index used by the triggers to find the last change and the creation of an item. It holds
+    // the _id too, so the last change is the last entry of the item.
+    private static final String SQL_CREATE_STATUS_HISTORY_INDEX =
+            "CREATE INDEX status_history_item_index ON " + StatusHistoryEntry.TABLE_NAME
+                    + " (" + StatusHistoryEntry.COLUMN_ITEM_ID + ");";
+
+    private static final String SQL_CREATE_STATUS_STATS =
+            "CREATE TABLE " + TodoItemAnalytics.STATS_TABLE + " ("
+                    + TodoItemAnalytics.COLUMN_METRIC + " INTEGER PRIMARY KEY" + COMMA_SEP
+                    + TodoItemAnalytics.COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + TodoItemAnalytics.COLUMN_TOTAL + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + TodoItemAnalytics.COLUMN_MIN + " INTEGER" + COMMA_SEP
+                    + TodoItemAnalytics.COLUMN_MAX + " INTEGER);";
+
+    private static final String SQL_CREATE_STATUS_BUCKETS =
+            "CREATE TABLE " + TodoItemAnalytics.BUCKETS_TABLE + " ("
+                    + TodoItemAnalytics.COLUMN_METRIC + " INTEGER NOT NULL" + COMMA_SEP
+                    + TodoItemAnalytics.COLUMN_BUCKET + " INTEGER NOT NULL" + COMMA_SEP
+                    + TodoItemAnalytics.COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + "PRIMARY KEY (" + TodoItemAnalytics.COLUMN_METRIC + COMMA_SEP
+                    + TodoItemAnalytics.COLUMN_BUCKET + "));";
+
+    // Every write path goes through the triggers: new items get a row with no previous status,
+    // and changes a row with the time since the last change of the item and, for DONE, since
+    // its creation. Durations made negative by clock changes count as 0.
+    private static final String SQL_CREATE_STATUS_HISTORY_INSERT_TRIGGER =
+            "CREATE TRIGGER todo_status_history_insert AFTER INSERT ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " BEGIN INSERT INTO " + StatusHistoryEntry.TABLE_NAME + " ("
+                    + StatusHistoryEntry.COLUMN_ITEM_ID + COMMA_SEP + StatusHistoryEntry.COLUMN_TO_STATUS + COMMA_SEP
+                    + StatusHistoryEntry.COLUMN_CHANGED_AT + ") VALUES (NEW." + TodoItemContract.ItemEntry._ID
+                    + COMMA_SEP + "NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + COMMA_SEP + SQL_NOW + "); END;";
+
+    private static final String SQL_ITEM_HISTORY = " FROM " + StatusHistoryEntry.TABLE_NAME
+            + " WHERE " + StatusHistoryEntry.COLUMN_ITEM_ID + " = NEW." + TodoItemContract.ItemEntry._ID;
+
+    private static final String SQL_CREATE_STATUS_HISTORY_UPDATE_TRIGGER =
+            "CREATE TRIGGER todo_status_history_update AFTER UPDATE OF " + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHEN NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " != OLD." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " BEGIN INSERT INTO " + StatusHistoryEntry.TABLE_NAME + " ("
+                    + StatusHistoryEntry.COLUMN_ITEM_ID + COMMA_SEP + StatusHistoryEntry.COLUMN_FROM_STATUS + COMMA_SEP
+                    + StatusHistoryEntry.COLUMN_TO_STATUS + COMMA_SEP + StatusHistoryEntry.COLUMN_CHANGED_AT + COMMA_SEP
+                    + StatusHistoryEntry.COLUMN_TIME_IN_STATE + COMMA_SEP + StatusHistoryEntry.COLUMN_CYCLE_TIME + ")"
+                    + " SELECT NEW." + TodoItemContract.ItemEntry._ID
+                    + COMMA_SEP + "OLD." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + COMMA_SEP + "NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + COMMA_SEP + "now"
+                    + COMMA_SEP + "MAX(0, now - (SELECT " + StatusHistoryEntry.COLUMN_CHANGED_AT + SQL_ITEM_HISTORY
+                    + " ORDER BY " + StatusHistoryEntry._ID + " DESC LIMIT 1))"
+                    + COMMA_SEP + "CASE WHEN NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " = " + TodoItemContract.ItemEntry.STATUS_DONE
+                    + " THEN MAX(0, now - (SELECT " + StatusHistoryEntry.COLUMN_CHANGED_AT + SQL_ITEM_HISTORY
+                    + " AND " + StatusHistoryEntry.COLUMN_FROM_STATUS + " IS NULL)) END"
+                    + " FROM (SELECT " + SQL_NOW + " AS now); END;";
+
+    // Fold each measured duration into the count, total, extremes and sketch of its metric.
+    // The rows of every metric and bucket exist from the start, so these are plain updates.
+    private static final String SQL_CREATE_TIME_IN_STATE_TRIGGER =
+            createAggregateTrigger("status_history_time_in_state", StatusHistoryEntry.COLUMN_TIME_IN_STATE,
+                    "NEW." + StatusHistoryEntry.COLUMN_FROM_STATUS);
+
+    private static final String SQL_CREATE_CYCLE_TIME_TRIGGER =
+            createAggregateTrigger("status_history_cycle_time", StatusHistoryEntry.COLUMN_CYCLE_TIME,
+                    String.valueOf(AnalyticsEntry.METRIC_CYCLE_TIME));
+
+    private static String createAggregateTrigger(String name, String column, String metric) {
+        String duration = "NEW." + column;
+        return "CREATE TRIGGER " + name + " AFTER INSERT ON " + StatusHistoryEntry.TABLE_NAME
+                + " WHEN " + duration + " IS NOT NULL"
+                + " BEGIN UPDATE " + TodoItemAnalytics.STATS_TABLE + " SET "
+                + TodoItemAnalytics.COLUMN_COUNT + " = " + TodoItemAnalytics.COLUMN_COUNT + " + 1" + COMMA_SEP
+                + TodoItemAnalytics.COLUMN_TOTAL + " = " + TodoItemAnalytics.COLUMN_TOTAL + " + " + duration + COMMA_SEP
+                + TodoItemAnalytics.COLUMN_MIN + " = MIN(IFNULL(" + TodoItemAnalytics.COLUMN_MIN + COMMA_SEP
+                + duration + ")" + COMMA_SEP + duration + ")" + COMMA_SEP
+                + TodoItemAnalytics.COLUMN_MAX + " = MAX(IFNULL(" + TodoItemAnalytics.COLUMN_MAX + COMMA_SEP
+                + duration + ")" + COMMA_SEP + duration + ")"
+                + " WHERE " + TodoItemAnalytics.COLUMN_METRIC + " = " + metric + ";"
+                + " UPDATE " + TodoItemAnalytics.BUCKETS_TABLE + " SET "
+                + TodoItemAnalytics.COLUMN_COUNT + " = " + TodoItemAnalytics.COLUMN_COUNT + " + 1"
+                + " WHERE " + TodoItemAnalytics.COLUMN_METRIC + " = " + metric
+                + " AND " + TodoItemAnalytics.COLUMN_BUCKET + " = " + DurationSketch.sqlBucketOf(duration) + "; END;";
+    }
+
+    // Version 10: named lists, and the list of each item
+    private static final String SQL_CREATE_LISTS =
+            "CREATE TABLE " + ListEntry.TABLE_NAME + " ("
+                    + ListEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT" + COMMA_SEP
+                    + ListEntry.COLUMN_LIST_NAME + TEXT_TYPE + " NOT NULL" + COMMA_SEP
+                    + ListEntry.COLUMN_LIST_ITEM_COUNT + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + ListEntry.COLUMN_LIST_DONE_COUNT + " INTEGER NOT NULL DEFAULT 0);";
+
+    private static final String SQL_INSERT_DEFAULT_LIST =
+            "INSERT INTO " + ListEntry.TABLE_NAME + " (" + ListEntry._ID + COMMA_SEP + ListEntry.COLUMN_LIST_NAME
+                    + ") VALUES (" + ListEntry.DEFAULT_LIST_ID + ", 'Inbox');";
+
+    private static final String SQL_ADD_LIST_ID =
+            "ALTER TABLE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + " INTEGER NOT NULL DEFAULT "
+                    + ListEntry.DEFAULT_LIST_ID + ";";
+
+    private static final String SQL_ADD_ARCHIVE_LIST_ID =
+            "ALTER TABLE " + TodoItemContract.ArchiveEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + " INTEGER NOT NULL DEFAULT "
+                    + ListEntry.DEFAULT_LIST_ID + ";";
+
+    // Indexes of the list queries, leading on list_id so that a list is read from its own
+    // range of each index, whatever the size of the other lists: rank order, and the sections
+    // grouped by status or priority
+    private static final String SQL_CREATE_LIST_RANK_INDEX =
+            "CREATE INDEX todo_list_rank_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + ");";
+    private static final String SQL_CREATE_LIST_STATUS_RANK_INDEX =
+            "CREATE INDEX todo_list_status_rank_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + ");";
+    private static final String SQL_CREATE_LIST_PRIORITY_RANK_INDEX =
+            "CREATE INDEX todo_list_priority_rank_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_PRIORITY + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_RANK + ");";
+
+    // SQL expression of 1 if the item in the given row (NEW or OLD) is DONE, else 0
+    private static String sqlIsDone(String row) {
+        return "(" + row + "." + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                + " = " + TodoItemContract.ItemEntry.STATUS_DONE + ")";
+    }
+
+    // SQL statement adding the item in the given row (NEW or OLD) to the counts of its list,
+    // with the given sign
+    private static String sqlCountItem(String row, String sign) {
+        return "UPDATE " + ListEntry.TABLE_NAME + " SET "
+                + ListEntry.COLUMN_LIST_ITEM_COUNT + " = " + ListEntry.COLUMN_LIST_ITEM_COUNT + " " + sign + " 1" + COMMA_SEP
+                + ListEntry.COLUMN_LIST_DONE_COUNT + " = " + ListEntry.COLUMN_LIST_DONE_COUNT + " " + sign + " " + sqlIsDone(row)
+                + " WHERE " + ListEntry._ID + " = " + row + "." + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + ";";
+    }
+
+    // Keep the counts of every list up to date on every write path, so they are never counted
+    private static final String SQL_CREATE_LIST_COUNT_INSERT_TRIGGER =
+            "CREATE TRIGGER todo_list_count_insert AFTER INSERT ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " BEGIN " + sqlCountItem("NEW", "+") + " END;";
+
+    private static final String SQL_CREATE_LIST_COUNT_DELETE_TRIGGER =
+            "CREATE TRIGGER todo_list_count_delete AFTER DELETE ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " BEGIN " + sqlCountItem("OLD", "-") + " END;";
+
+    private static final String SQL_CREATE_LIST_COUNT_UPDATE_TRIGGER =
+            "CREATE TRIGGER todo_list_count_update AFTER UPDATE OF " + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID
+                    + COMMA_SEP + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + " ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHEN NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID
+                    + " != OLD." + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID
+                    + " OR " + sqlIsDone("NEW") + " != " + sqlIsDone("OLD")
+                    + " BEGIN " + sqlCountItem("OLD", "-") + " " + sqlCountItem("NEW", "+") + " END;";
+
+    // Items already in the database all go to the default list
+    private static final String SQL_INIT_LIST_COUNTS =
+            "UPDATE " + ListEntry.TABLE_NAME + " SET "
+                    + ListEntry.COLUMN_LIST_ITEM_COUNT + " = (SELECT COUNT(*) FROM " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + ")" + COMMA_SEP + ListEntry.COLUMN_LIST_DONE_COUNT + " = (SELECT COUNT(*) FROM "
+                    + TodoItemContract.ItemEntry.TABLE_NAME + " WHERE " + sqlIsDone(TodoItemContract.ItemEntry.TABLE_NAME)
+                    + ") WHERE " + ListEntry._ID + " = " + ListEntry.DEFAULT_LIST_ID + ";";
+
+    // Version 11: recurring todoitems, whose rules are stored once and whose instances are
+    // created in the todo table as they come due
+    private static final String SQL_CREATE_RECURRENCES =
+            "CREATE TABLE " + RecurrenceEntry.TABLE_NAME + " ("
+                    + RecurrenceEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT" + COMMA_SEP
+                    + RecurrenceEntry.COLUMN_RECURRENCE_NAME + TEXT_TYPE + " NOT NULL" + COMMA_SEP
+                    + RecurrenceEntry.COLUMN_RECURRENCE_NOTES + TEXT_TYPE + COMMA_SEP
+                    + RecurrenceEntry.COLUMN_RECURRENCE_PRIORITY + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + RecurrenceEntry.COLUMN_RECURRENCE_LIST_ID + " INTEGER NOT NULL DEFAULT "
+                    + ListEntry.DEFAULT_LIST_ID + COMMA_SEP
+                    + RecurrenceEntry.COLUMN_RECURRENCE_RULE + TEXT_TYPE + " NOT NULL" + COMMA_SEP
+                    + RecurrenceEntry.COLUMN_RECURRENCE_START_AT + " INTEGER NOT NULL" + COMMA_SEP
+                    + RecurrenceEntry.COLUMN_RECURRENCE_TIME_ZONE + TEXT_TYPE + " NOT NULL" + COMMA_SEP
+                    + RecurrenceEntry.COLUMN_RECURRENCE_MATERIALIZED_UNTIL + " INTEGER NOT NULL);";
+
+    // Index of the rules with occurrences left before a given time
+    private static final String SQL_CREATE_MATERIALIZED_UNTIL_INDEX =
+            "CREATE INDEX recurrences_materialized_until_index ON " + RecurrenceEntry.TABLE_NAME
+                    + " (" + RecurrenceEntry.COLUMN_RECURRENCE_MATERIALIZED_UNTIL + ");";
+
+    private static final String SQL_ADD_RECURRENCE_ID =
+            "ALTER TABLE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_RECURRENCE_ID + " INTEGER;";
+
+    // Index of the instances of a rule, to find whether one is still open
+    private static final String SQL_CREATE_RECURRENCE_INDEX =
+            "CREATE INDEX todo_recurrence_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_RECURRENCE_ID + COMMA_SEP
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + ");";
+
+    // Rules whose instance was just finished, on any write path, for the provider to follow up
+    private static final String SQL_CREATE_RECURRENCE_PENDING =
+            "CREATE TABLE " + TodoItemRecurrences.PENDING_TABLE + " ("
+                    + TodoItemRecurrences.COLUMN_RECURRENCE_ID + " INTEGER PRIMARY KEY);";
+
+    private static final String SQL_CREATE_RECURRENCE_DONE_TRIGGER =
+            "CREATE TRIGGER todo_recurrence_done AFTER UPDATE OF " + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHEN NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_RECURRENCE_ID + " IS NOT NULL AND "
+                    + sqlIsDone("NEW") + " AND NOT " + sqlIsDone("OLD")
+                    + " BEGIN INSERT OR IGNORE INTO " + TodoItemRecurrences.PENDING_TABLE
+                    + " VALUES (NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_RECURRENCE_ID + "); END;";
+
+    // Version 12: subtasks, with a closure table of every (ancestor, descendant) pair, the item
+    // itself included at depth 0, kept by the triggers below on every write path
+    private static final String SQL_ADD_PARENT_ID =
+            "ALTER TABLE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID + " INTEGER;";
+
+    private static final String SQL_CREATE_PARENT_INDEX =
+            "CREATE INDEX todo_parent_index ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " (" + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID + ");";
+
+    // The primary key is the subtrees, and the index the ancestors of each item
+    private static final String SQL_CREATE_CLOSURE =
+            "CREATE TABLE " + TodoItemSubtasks.CLOSURE_TABLE + " ("
+                    + TodoItemSubtasks.COLUMN_ANCESTOR_ID + " INTEGER NOT NULL" + COMMA_SEP
+                    + TodoItemSubtasks.COLUMN_DESCENDANT_ID + " INTEGER NOT NULL" + COMMA_SEP
+                    + TodoItemSubtasks.COLUMN_DEPTH + " INTEGER NOT NULL" + COMMA_SEP
+                    + "PRIMARY KEY (" + TodoItemSubtasks.COLUMN_ANCESTOR_ID + COMMA_SEP
+                    + TodoItemSubtasks.COLUMN_DESCENDANT_ID + "));";
+
+    private static final String SQL_CREATE_CLOSURE_DESCENDANT_INDEX =
+            "CREATE INDEX todo_closure_descendant_index ON " + TodoItemSubtasks.CLOSURE_TABLE
+                    + " (" + TodoItemSubtasks.COLUMN_DESCENDANT_ID + ");";
+
+    // Items already in the database are all top-level
+    private static final String SQL_INIT_CLOSURE =
+            "INSERT INTO " + TodoItemSubtasks.CLOSURE_TABLE + " SELECT " + TodoItemContract.ItemEntry._ID
+                    + COMMA_SEP + TodoItemContract.ItemEntry._ID + ", 0 FROM " + TodoItemContract.ItemEntry.TABLE_NAME + ";";
+
+    // The subtree of the item in the given row (NEW or OLD), itself included
+    private static String sqlSubtree(String row, boolean withRoot) {
+        return "SELECT " + TodoItemSubtasks.COLUMN_DESCENDANT_ID + " FROM " + TodoItemSubtasks.CLOSURE_TABLE
+                + " WHERE " + TodoItemSubtasks.COLUMN_ANCESTOR_ID + " = " + row + "." + TodoItemContract.ItemEntry._ID
+                + (withRoot ? "" : " AND " + TodoItemSubtasks.COLUMN_DEPTH + " > 0");
+    }
+
+    // The list of the parent of the item in the NEW row
+    private static final String SQL_PARENT_LIST = "(SELECT " + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID
+            + " FROM " + TodoItemContract.ItemEntry.TABLE_NAME + " WHERE " + TodoItemContract.ItemEntry._ID
+            + " = NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID + ")";
+
+    // A new item is below the ancestors of its parent, one level deeper
+    private static final String SQL_CREATE_CLOSURE_INSERT_TRIGGER =
+            "CREATE TRIGGER todo_closure_insert AFTER INSERT ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " BEGIN INSERT INTO " + TodoItemSubtasks.CLOSURE_TABLE + " SELECT NEW." + TodoItemContract.ItemEntry._ID
+                    + ", NEW." + TodoItemContract.ItemEntry._ID + ", 0 UNION ALL SELECT "
+                    + TodoItemSubtasks.COLUMN_ANCESTOR_ID + ", NEW." + TodoItemContract.ItemEntry._ID + COMMA_SEP
+                    + TodoItemSubtasks.COLUMN_DEPTH + " + 1 FROM " + TodoItemSubtasks.CLOSURE_TABLE
+                    + " WHERE " + TodoItemSubtasks.COLUMN_DESCENDANT_ID + " = NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID
+                    + "; END;";
+
+    // A moved subtree leaves the ancestors outside of it, gets those of its new parent, and
+    // goes to the list of its new parent
+    private static final String SQL_CREATE_CLOSURE_MOVE_TRIGGER =
+            "CREATE TRIGGER todo_closure_move AFTER UPDATE OF " + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID
+                    + " ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHEN NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID
+                    + " IS NOT OLD." + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID
+                    + " BEGIN DELETE FROM " + TodoItemSubtasks.CLOSURE_TABLE
+                    + " WHERE " + TodoItemSubtasks.COLUMN_DESCENDANT_ID + " IN (" + sqlSubtree("NEW", true) + ")"
+                    + " AND " + TodoItemSubtasks.COLUMN_ANCESTOR_ID + " NOT IN (" + sqlSubtree("NEW", true) + ");"
+                    + " INSERT INTO " + TodoItemSubtasks.CLOSURE_TABLE + " SELECT a." + TodoItemSubtasks.COLUMN_ANCESTOR_ID
+                    + ", d." + TodoItemSubtasks.COLUMN_DESCENDANT_ID + ", a." + TodoItemSubtasks.COLUMN_DEPTH
+                    + " + d." + TodoItemSubtasks.COLUMN_DEPTH + " + 1 FROM " + TodoItemSubtasks.CLOSURE_TABLE + " a, "
+                    + TodoItemSubtasks.CLOSURE_TABLE + " d WHERE a." + TodoItemSubtasks.COLUMN_DESCENDANT_ID
+                    + " = NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID + " AND d." + TodoItemSubtasks.COLUMN_ANCESTOR_ID
+                    + " = NEW." + TodoItemContract.ItemEntry._ID + ";"
+                    + " UPDATE " + TodoItemContract.ItemEntry.TABLE_NAME + " SET " + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID
+                    + " = " + SQL_PARENT_LIST + " WHERE " + TodoItemContract.ItemEntry._ID + " = NEW." + TodoItemContract.ItemEntry._ID
+                    + " AND " + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + " != " + SQL_PARENT_LIST + "; END;";
+
+    // An item moved to another list takes its subtree along, and leaves a parent in the old list.
+    // Triggers do not fire themselves, so the subtree is updated at once rather than per level.
+    private static final String SQL_CREATE_SUBTREE_LIST_TRIGGER =
+            "CREATE TRIGGER todo_subtree_list AFTER UPDATE OF " + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID
+                    + " ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHEN NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID
+                    + " != OLD." + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID
+                    + " BEGIN UPDATE " + TodoItemContract.ItemEntry.TABLE_NAME + " SET "
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + " = NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID
+                    + COMMA_SEP + TodoItemContract.ItemEntry.COLUMN_ITEM_VERSION + " = "
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_VERSION + " + 1"
+                    + " WHERE " + TodoItemContract.ItemEntry._ID + " IN (" + sqlSubtree("NEW", false) + ");"
+                    + " UPDATE " + TodoItemContract.ItemEntry.TABLE_NAME + " SET "
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_PARENT_ID + " = NULL WHERE " + TodoItemContract.ItemEntry._ID
+                    + " = NEW." + TodoItemContract.ItemEntry._ID + " AND " + SQL_PARENT_LIST
+                    + " != NEW." + TodoItemContract.ItemEntry.COLUMN_ITEM_LIST_ID + "; END;";
+
+    // Finishing an item finishes its whole subtree
+    private static final String SQL_CREATE_SUBTREE_DONE_TRIGGER =
+            "CREATE TRIGGER todo_subtree_done AFTER UPDATE OF " + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS
+                    + " ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHEN " + sqlIsDone("NEW") + " AND NOT " + sqlIsDone("OLD")
+                    + " BEGIN UPDATE " + TodoItemContract.ItemEntry.TABLE_NAME + " SET "
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + " = " + TodoItemContract.ItemEntry.STATUS_DONE
+                    + COMMA_SEP + TodoItemContract.ItemEntry.COLUMN_ITEM_VERSION + " = "
+                    + TodoItemContract.ItemEntry.COLUMN_ITEM_VERSION + " + 1"
+                    + " WHERE " + TodoItemContract.ItemEntry._ID + " IN (" + sqlSubtree("NEW", false) + ")"
+                    + " AND " + TodoItemContract.ItemEntry.COLUMN_ITEM_STATUS + " != " + TodoItemContract.ItemEntry.STATUS_DONE
+                    + "; END;";
+
+    // Deleting an item deletes its whole subtree, and the pairs of the subtree
+    private static final String SQL_CREATE_SUBTREE_DELETE_TRIGGER =
+            "CREATE TRIGGER todo_subtree_delete AFTER DELETE ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " BEGIN DELETE FROM " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " WHERE " + TodoItemContract.ItemEntry._ID + " IN (" + sqlSubtree("OLD", false) + ");"
+                    + " DELETE FROM " + TodoItemSubtasks.CLOSURE_TABLE + " WHERE " + TodoItemSubtasks.COLUMN_DESCENDANT_ID
+                    + " IN (" + sqlSubtree("OLD", true) + "); END;";
+
+    // Drafts of the editor, at most one per item
+    private static final String SQL_CREATE_DRAFTS =
+            "CREATE TABLE " + DraftEntry.TABLE_NAME + " ("
+                    + DraftEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT" + COMMA_SEP
+                    + DraftEntry.COLUMN_DRAFT_ITEM_ID + " INTEGER NOT NULL UNIQUE" + COMMA_SEP
+                    + DraftEntry.COLUMN_DRAFT_NAME + TEXT_TYPE + " NOT NULL DEFAULT ''" + COMMA_SEP
+                    + DraftEntry.COLUMN_DRAFT_NOTES + TEXT_TYPE + COMMA_SEP
+                    + DraftEntry.COLUMN_DRAFT_PRIORITY + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + DraftEntry.COLUMN_DRAFT_STATUS + " INTEGER NOT NULL DEFAULT 0" + COMMA_SEP
+                    + DraftEntry.COLUMN_DRAFT_DUE_AT + " INTEGER" + COMMA_SEP
+                    + DraftEntry.COLUMN_DRAFT_UPDATED_AT + " INTEGER NOT NULL);";
+
+    // The draft of a deleted (or archived) item can never be saved
+    private static final String SQL_CREATE_DRAFT_DELETE_TRIGGER =
+            "CREATE TRIGGER todo_draft_delete AFTER DELETE ON " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " BEGIN DELETE FROM " + DraftEntry.TABLE_NAME + " WHERE " + DraftEntry.COLUMN_DRAFT_ITEM_ID
+                    + " = OLD." + TodoItemContract.ItemEntry._ID + "; END;";
+
+    // Version 14: the due date whose reminder was posted, so that reminders survive the process
+    private static final String SQL_ADD_REMINDED_DUE_AT =
+            "ALTER TABLE " + TodoItemContract.ItemEntry.TABLE_NAME
+                    + " ADD COLUMN " + TodoItemContract.ItemEntry.COLUMN_ITEM_REMINDED_DUE_AT + " INTEGER;";
+
+    public static synchronized TodoItemDbHelper getInstance(Context ctx) {
         // Use the application context, which will ensure that you
         // don't accidentally leak an Activity's context.
         // See this article for more information: http://bit.ly/6LRzfx
+        // Synchronized, since the provider is first used from binder and loader threads.
         if (mInstance == null) {
             mInstance = new TodoItemDbHelper(ctx.getApplicationContext());
         }
@@ -49,19 +598,247 @@ public class TodoItemDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public TodoItemDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Constructs a new {@link TodoItemDbHelper} on another database file, for tests and benchmarks
+     * @param context of the app
+     * @param name of the database file, or null for an in-memory database
+     */
+    public TodoItemDbHelper(Context context, String name) {
+        this(context, name, new TodoItemSlowQueryLog());
+    }
+
+    private TodoItemDbHelper(Context context, String name, TodoItemSlowQueryLog slowQueryLog) {
+        super(context, name, new TodoItemTimedCursorFactory(slowQueryLog), DATABASE_VERSION);
+        mSlowQueryLog = slowQueryLog;
+        // Readers then run on their own connections, beside a writer; in-memory databases ignore it
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Returns the log of the slow queries of the database, timed by its cursor factory.
+     */
+    public TodoItemSlowQueryLog getSlowQueryLog() {
+        return mSlowQueryLog;
+    }
+
+    /**
+     * Set the size of SQLite's page cache and of the memory-mapped part of the database file.
+     * They are applied when the database is opened, so call this before its first use.
+     * Memory mapping needs SQLite 3.7.17 (API 21); older versions ignore it.
+     *
+     * @param cacheSizeKib page cache of each connection, in KiB
+     * @param mmapSize     bytes of the file read through a memory map instead of the page
+     *                     cache, or 0 to read it all through the page cache
+     */
+    public synchronized void setMemoryTuning(int cacheSizeKib, long mmapSize) {
+        if (cacheSizeKib <= 0 || mmapSize < 0) {
+            throw new IllegalArgumentException("Invalid memory tuning " + cacheSizeKib + ", " + mmapSize);
+        }
+        mCacheSizeKib = cacheSizeKib;
+        mMmapSize = mmapSize;
+    }
+
+    // Called on every open, before the database is created or upgraded
+    @Override
+    public synchronized void onConfigure(SQLiteDatabase db) {
+        // A negative cache size is in KiB rather than in pages
+        db.execSQL("PRAGMA cache_size = -" + mCacheSizeKib);
+        // The pragma returns the new size, which execSQL does not accept
+        Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + mMmapSize, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     // This is called when the database is created for the first time
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Execute the SQL statement
+        // Execute the SQL statements
         db.execSQL(SQL_CREATE_ENTRIES);
+        db.execSQL(SQL_CREATE_DUE_AT_INDEX);
+        db.execSQL(SQL_CREATE_RANK_INDEX);
+        db.execSQL(SQL_CREATE_STATUS_RANK_INDEX);
+        db.execSQL(SQL_CREATE_PRIORITY_RANK_INDEX);
+        db.execSQL(SQL_CREATE_CONTENT_HASH_INDEX);
+        createTagTables(db);
+        createArchive(db);
+        createStatusHistory(db);
+        createLists(db);
+        createRecurrences(db);
+        createSubtasks(db);
+        createDrafts(db);
+    }
+
+    private void createTagTables(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_TAGS);
+        db.execSQL(SQL_CREATE_ITEM_TAGS);
+        db.execSQL(SQL_CREATE_ITEM_TAGS_INDEX);
+        db.execSQL(SQL_CREATE_ITEM_TAGS_TRIGGER);
+    }
+
+    private void createArchive(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_DONE_AT_INDEX);
+        db.execSQL(SQL_CREATE_DONE_AT_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_DONE_AT_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_ARCHIVE);
+        db.execSQL(SQL_DROP_ITEM_TAGS_TRIGGER);
+        db.execSQL(SQL_CREATE_ITEM_TAGS_UNLESS_ARCHIVED_TRIGGER);
+        db.execSQL(SQL_CREATE_ARCHIVE_ITEM_TAGS_TRIGGER);
+    }
+
+    // Items that exist before the history have no row in it, so their first change records no
+    // duration, and they never get a cycle time
+    private void createStatusHistory(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_STATUS_HISTORY);
+        db.execSQL(SQL_CREATE_STATUS_HISTORY_INDEX);
+        db.execSQL(SQL_CREATE_STATUS_STATS);
+        db.execSQL(SQL_CREATE_STATUS_BUCKETS);
+        SQLiteStatement insertStats = db.compileStatement("INSERT INTO " + TodoItemAnalytics.STATS_TABLE
+                + " (" + TodoItemAnalytics.COLUMN_METRIC + ") VALUES (?);");
+        SQLiteStatement insertBucket = db.compileStatement("INSERT INTO " + TodoItemAnalytics.BUCKETS_TABLE
+                + " (" + TodoItemAnalytics.COLUMN_METRIC + COMMA_SEP + TodoItemAnalytics.COLUMN_BUCKET + ") VALUES (?, ?);");
+        try {
+            for (int metric = 0; metric < AnalyticsEntry.METRIC_COUNT; metric++) {
+                insertStats.bindLong(1, metric);
+                insertStats.executeInsert();
+                for (int bucket = 0; bucket < DurationSketch.BUCKET_COUNT; bucket++) {
+                    insertBucket.bindLong(1, metric);
+                    insertBucket.bindLong(2, bucket);
+                    insertBucket.executeInsert();
+                }
+            }
+        } finally {
+            insertStats.close();
+            insertBucket.close();
+        }
+        db.execSQL(SQL_CREATE_STATUS_HISTORY_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_STATUS_HISTORY_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_TIME_IN_STATE_TRIGGER);
+        db.execSQL(SQL_CREATE_CYCLE_TIME_TRIGGER);
+    }
+
+    // Called after the list_id column exists in the todo table
+    private void createLists(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_LISTS);
+        db.execSQL(SQL_INSERT_DEFAULT_LIST);
+        db.execSQL(SQL_INIT_LIST_COUNTS);
+        db.execSQL(SQL_ADD_ARCHIVE_LIST_ID);
+        db.execSQL(SQL_DROP_ALL_VIEW);
+        db.execSQL(SQL_CREATE_ALL_VIEW);
+        db.execSQL(SQL_CREATE_LIST_RANK_INDEX);
+        db.execSQL(SQL_CREATE_LIST_STATUS_RANK_INDEX);
+        db.execSQL(SQL_CREATE_LIST_PRIORITY_RANK_INDEX);
+        db.execSQL(SQL_CREATE_LIST_COUNT_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_LIST_COUNT_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_LIST_COUNT_UPDATE_TRIGGER);
+    }
+
+    // Called after the recurrence_id column exists in the todo table
+    private void createRecurrences(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_RECURRENCES);
+        db.execSQL(SQL_CREATE_MATERIALIZED_UNTIL_INDEX);
+        db.execSQL(SQL_CREATE_RECURRENCE_INDEX);
+        db.execSQL(SQL_CREATE_RECURRENCE_PENDING);
+        db.execSQL(SQL_CREATE_RECURRENCE_DONE_TRIGGER);
+    }
+
+    // Called after the parent_id column exists in the todo table
+    private void createSubtasks(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_PARENT_INDEX);
+        db.execSQL(SQL_CREATE_CLOSURE);
+        db.execSQL(SQL_INIT_CLOSURE);
+        db.execSQL(SQL_CREATE_CLOSURE_DESCENDANT_INDEX);
+        db.execSQL(SQL_CREATE_CLOSURE_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_CLOSURE_MOVE_TRIGGER);
+        db.execSQL(SQL_CREATE_SUBTREE_LIST_TRIGGER);
+        db.execSQL(SQL_CREATE_SUBTREE_DONE_TRIGGER);
+        db.execSQL(SQL_CREATE_SUBTREE_DELETE_TRIGGER);
+    }
+
+    private void createDrafts(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_DRAFTS);
+        db.execSQL(SQL_CREATE_DRAFT_DELETE_TRIGGER);
     }
 
     // This is called when the database needs to be upgraded.
     @Override
     public void onUpgrade (SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to be done here.
+        // Apply every schema change made after the old version, in order.
+        if (oldVersion < 2) {
+            db.execSQL(SQL_ADD_DUE_AT);
+            db.execSQL(SQL_CREATE_DUE_AT_INDEX);
+        }
+        if (oldVersion < 3) {
+            createTagTables(db);
+        }
+        if (oldVersion < 4) {
+            db.execSQL(SQL_ADD_RANK);
+            db.execSQL(SQL_INIT_RANK);
+            db.execSQL(SQL_CREATE_RANK_INDEX);
+        }
+        if (oldVersion < 5) {
+            db.execSQL(SQL_ADD_DONE_AT);
+            db.execSQL(SQL_INIT_DONE_AT);
+            createArchive(db);
+        }
+        if (oldVersion < 6) {
+            db.execSQL(SQL_CREATE_STATUS_RANK_INDEX);
+            db.execSQL(SQL_CREATE_PRIORITY_RANK_INDEX);
+        }
+        if (oldVersion < 7) {
+            db.execSQL(SQL_ADD_VERSION);
+        }
+        if (oldVersion < 8) {
+            db.execSQL(SQL_ADD_CONTENT_HASH);
+            updateContentHashes(db, null, null);
+            db.execSQL(SQL_CREATE_CONTENT_HASH_INDEX);
+        }
+        if (oldVersion < 9) {
+            createStatusHistory(db);
+        }
+        if (oldVersion < 10) {
+            db.execSQL(SQL_ADD_LIST_ID);
+            createLists(db);
+        }
+        if (oldVersion < 11) {
+            db.execSQL(SQL_ADD_RECURRENCE_ID);
+            createRecurrences(db);
+        }
+        if (oldVersion < 12) {
+            db.execSQL(SQL_ADD_PARENT_ID);
+            createSubtasks(db);
+        }
+        if (oldVersion < 13) {
+            createDrafts(db);
+        }
+        if (oldVersion < 14) {
+            db.execSQL(SQL_ADD_REMINDED_DUE_AT);
+        }
+    }
+
+    /**
+     * Recompute the content hash of the todoitems matching the selection, or of every todoitem.
+     * SQLite cannot run the hash, so the rows are read and written back one by one.
+     */
+    static void updateContentHashes(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        SQLiteStatement setHash = db.compileStatement(SQL_SET_CONTENT_HASH);
+        Cursor cursor = db.query(TodoItemContract.ItemEntry.TABLE_NAME, new String[] {
+                TodoItemContract.ItemEntry._ID, TodoItemContract.ItemEntry.COLUMN_ITEM_NAME,
+                TodoItemContract.ItemEntry.COLUMN_ITEM_NOTES }, selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                setHash.bindLong(1, TodoItemContentHash.of(cursor.getString(1), cursor.getString(2)));
+                setHash.bindLong(2, cursor.getLong(0));
+                setHash.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            setHash.close();
+        }
     }
 }
@@ -0,0 +1,124 @@
+package com.codepath.simpletodo.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+/**
+ * Compiled statements behind the single-field operations of {@link TodoItemProvider#call}.
+ *
+ * Each operation is one UPDATE, computing the new value in SQL, followed by a read back of the
+ * new status and priority in the same transaction. Both are precompiled and read no cursor:
+ * the state comes back packed in a long, see {@link #statusOf} and {@link #priorityOf}.
+ */
+class TodoItemFastPaths {
+
+    /** Returned when there is no item with the given id */
+    static final long NO_ITEM = -1;
+
+    private static final String WHERE_ID = " WHERE " + ItemEntry._ID + " = ?";
+
+    // Every update is a new version of the item, so that compare-and-set updates see it
+    private static final String BUMP_VERSION = ", " + ItemEntry.COLUMN_ITEM_VERSION + " = "
+            + ItemEntry.COLUMN_ITEM_VERSION + " + 1";
+
+    private static final String SQL_TOGGLE_STATUS = "UPDATE " + ItemEntry.TABLE_NAME
+            + " SET " + ItemEntry.COLUMN_ITEM_STATUS + " = CASE WHEN " + ItemEntry.COLUMN_ITEM_STATUS
+            + " = " + ItemEntry.STATUS_DONE + " THEN " + ItemEntry.STATUS_TODO
+            + " ELSE " + ItemEntry.STATUS_DONE + " END" + BUMP_VERSION + WHERE_ID;
+
+    // TODO -> IN PROGRESS -> DONE -> TODO
+    private static final String SQL_CYCLE_STATUS = "UPDATE " + ItemEntry.TABLE_NAME
+            + " SET " + ItemEntry.COLUMN_ITEM_STATUS + " = (" + ItemEntry.COLUMN_ITEM_STATUS + " + 1) % 3"
+            + BUMP_VERSION + WHERE_ID;
+
+    private static final String SQL_SET_PRIORITY = "UPDATE " + ItemEntry.TABLE_NAME
+            + " SET " + ItemEntry.COLUMN_ITEM_PRIORITY + " = ?" + BUMP_VERSION + WHERE_ID;
+
+    private static final String SQL_READ_STATE = "SELECT (" + ItemEntry.COLUMN_ITEM_STATUS + " << 8) | "
+            + ItemEntry.COLUMN_ITEM_PRIORITY + " FROM " + ItemEntry.TABLE_NAME + WHERE_ID;
+
+    private static final String SQL_READ_DUE_AT = "SELECT " + ItemEntry.COLUMN_ITEM_DUE_AT
+            + " FROM " + ItemEntry.TABLE_NAME + WHERE_ID + " AND " + ItemEntry.COLUMN_ITEM_DUE_AT + " IS NOT NULL";
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mToggleStatus;
+    private final SQLiteStatement mCycleStatus;
+    private final SQLiteStatement mSetPriority;
+    private final SQLiteStatement mReadState;
+    private final SQLiteStatement mReadDueAt;
+
+    TodoItemFastPaths(SQLiteDatabase db) {
+        mDb = db;
+        mToggleStatus = db.compileStatement(SQL_TOGGLE_STATUS);
+        mCycleStatus = db.compileStatement(SQL_CYCLE_STATUS);
+        mSetPriority = db.compileStatement(SQL_SET_PRIORITY);
+        mReadState = db.compileStatement(SQL_READ_STATE);
+        mReadDueAt = db.compileStatement(SQL_READ_DUE_AT);
+    }
+
+    static int statusOf(long state) {
+        return (int) (state >> 8);
+    }
+
+    static int priorityOf(long state) {
+        return (int) (state & 0xff);
+    }
+
+    /**
+     * Set the status to DONE, or back to TODO if it was DONE.
+     * @return the new state, or {@link #NO_ITEM}
+     */
+    synchronized long toggleStatus(long id) {
+        mToggleStatus.bindLong(1, id);
+        return update(mToggleStatus, id);
+    }
+
+    /**
+     * Move the status to the next one.
+     * @return the new state, or {@link #NO_ITEM}
+     */
+    synchronized long cycleStatus(long id) {
+        mCycleStatus.bindLong(1, id);
+        return update(mCycleStatus, id);
+    }
+
+    /**
+     * Set the priority, which must be valid.
+     * @return the new state, or {@link #NO_ITEM}
+     */
+    synchronized long setPriority(long id, int priority) {
+        mSetPriority.bindLong(1, priority);
+        mSetPriority.bindLong(2, id);
+        return update(mSetPriority, id);
+    }
+
+    /**
+     * Returns the due date of the item, or null if it has none.
+     */
+    synchronized Long readDueAt(long id) {
+        mReadDueAt.bindLong(1, id);
+        try {
+            return mReadDueAt.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    private long update(SQLiteStatement statement, long id) {
+        mDb.beginTransaction();
+        try {
+            if (statement.executeUpdateDelete() == 0) {
+                return NO_ITEM;
+            }
+            mReadState.bindLong(1, id);
+            long state = mReadState.simpleQueryForLong();
+            mDb.setTransactionSuccessful();
+            return state;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+}
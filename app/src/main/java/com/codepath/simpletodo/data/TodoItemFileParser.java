@@ -0,0 +1,509 @@
+package com.codepath.simpletodo.data;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.TimeZone;
+
+/**
+ * Streaming parser of todoitem files, in CSV or todo.txt format.
+ *
+ * The file is read through one fixed buffer and every field is collected in a reused
+ * StringBuilder, which is handed to the {@link Listener} as is: a record that the listener
+ * skips allocates nothing, and memory use does not grow with the size of the file.
+ *
+ * CSV files have the columns name, notes, priority, status and due_at, in that order unless a
+ * header row names them. Fields may be quoted, with "" for a quote, and may then hold commas and
+ * line breaks. Priorities and statuses are numbers or names (low, medium, high; todo,
+ * in progress, done), and due dates are milliseconds since the epoch or yyyy-mm-dd dates.
+ *
+ * todo.txt lines start with "x " for done items, or "(A) " for a priority: A is high, B is
+ * medium and anything else low. Dates after these markers are skipped, "due:yyyy-mm-dd" and
+ * "pri:A" are read, and the remaining words are the name. Records without a name, or with a
+ * value that cannot be read, are counted as malformed and left out.
+ */
+final class TodoItemFileParser {
+
+    /**
+     * Receives the records of the file, in order.
+     */
+    interface Listener {
+        /**
+         * The name and notes are only valid during the call; the notes may be null.
+         * The priority and status are {@link #ABSENT} and the due date {@link #NO_DUE_AT}
+         * when the record leaves them out.
+         */
+        void onItem(CharSequence name, CharSequence notes, int priority, int status, long dueAt);
+    }
+
+    /** Value of a priority or status the record does not have */
+    static final int ABSENT = -1;
+
+    /** Due date of a record without one */
+    static final long NO_DUE_AT = Long.MIN_VALUE;
+
+    private static final int INVALID = -2;
+    private static final long INVALID_DATE = Long.MAX_VALUE;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader mReader;
+    private final TimeZone mTimeZone;
+    private final Listener mListener;
+
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+
+    // Fields of the current CSV record, or the current todo.txt line and the name read from it
+    private StringBuilder[] mFields = new StringBuilder[0];
+    private int mFieldCount;
+    private final StringBuilder mLine = new StringBuilder(256);
+    private final StringBuilder mName = new StringBuilder(256);
+
+    // Columns of the CSV fields, or -1 for columns the file does not have
+    private int mNameColumn = 0;
+    private int mNotesColumn = 1;
+    private int mPriorityColumn = 2;
+    private int mStatusColumn = 3;
+    private int mDueAtColumn = 4;
+
+    private long mLineCount;
+    private long mMalformedCount;
+
+    /**
+     * @param timeZone zone of the yyyy-mm-dd due dates, which are set to midnight
+     */
+    TodoItemFileParser(Reader reader, TimeZone timeZone, Listener listener) {
+        mReader = reader;
+        mTimeZone = timeZone;
+        mListener = listener;
+    }
+
+    /** Number of lines read so far */
+    long getLineCount() {
+        return mLineCount;
+    }
+
+    /** Number of records left out so far because they could not be read */
+    long getMalformedCount() {
+        return mMalformedCount;
+    }
+
+    // Next char of the file, or -1 at its end
+    private int read() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mReader.read(mBuffer, 0, BUFFER_SIZE);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition++];
+    }
+
+    /**
+     * Read a CSV file to its end. Returns the number of records passed to the listener.
+     */
+    long parseCsv() throws IOException {
+        long items = 0;
+        boolean firstRecord = true;
+        boolean quoted = false;
+        boolean recordStarted = false;
+        startRecord();
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                if (recordStarted) {
+                    mLineCount++;
+                    if (endCsvRecord(firstRecord)) {
+                        items++;
+                    }
+                }
+                return items;
+            }
+            StringBuilder field = mFields[mFieldCount - 1];
+            if (quoted) {
+                if (c == '"') {
+                    // Either an escaped quote or the end of the quoted part
+                    int next = read();
+                    if (next == '"') {
+                        field.append('"');
+                        continue;
+                    }
+                    quoted = false;
+                    if (next == -1) {
+                        continue;
+                    }
+                    c = next;
+                } else {
+                    if (c == '\n') {
+                        mLineCount++;
+                    }
+                    field.append((char) c);
+                    continue;
+                }
+            }
+            recordStarted = true;
+            if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                addField();
+            } else if (c == '\n') {
+                mLineCount++;
+                if (endCsvRecord(firstRecord)) {
+                    items++;
+                }
+                firstRecord = false;
+                recordStarted = false;
+                startRecord();
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+    }
+
+    private void startRecord() {
+        mFieldCount = 0;
+        addField();
+    }
+
+    private void addField() {
+        if (mFieldCount == mFields.length) {
+            StringBuilder[] fields = new StringBuilder[mFields.length + 8];
+            System.arraycopy(mFields, 0, fields, 0, mFields.length);
+            for (int i = mFields.length; i < fields.length; i++) {
+                fields[i] = new StringBuilder(64);
+            }
+            mFields = fields;
+        }
+        mFields[mFieldCount++].setLength(0);
+    }
+
+    // Pass the record to the listener, unless it is blank, a header or malformed
+    private boolean endCsvRecord(boolean firstRecord) {
+        if (mFieldCount == 1 && isBlank(mFields[0], 0, mFields[0].length())) {
+            return false;
+        }
+        if (firstRecord && readHeader()) {
+            return false;
+        }
+
+        CharSequence name = field(mNameColumn);
+        int priority = parsePriority(field(mPriorityColumn));
+        int status = parseStatus(field(mStatusColumn));
+        long dueAt = parseDueAt(field(mDueAtColumn));
+        if (name == null || isBlank(name, 0, name.length())
+                || priority == INVALID || status == INVALID || dueAt == INVALID_DATE) {
+            mMalformedCount++;
+            return false;
+        }
+        mListener.onItem(name, field(mNotesColumn), priority, status, dueAt);
+        return true;
+    }
+
+    private CharSequence field(int column) {
+        return column >= 0 && column < mFieldCount ? mFields[column] : null;
+    }
+
+    // Take the columns from the record if it names the name column
+    private boolean readHeader() {
+        int nameColumn = -1;
+        for (int i = 0; i < mFieldCount; i++) {
+            if (equalsIgnoreCase(mFields[i], ItemEntry.COLUMN_ITEM_NAME)) {
+                nameColumn = i;
+            }
+        }
+        if (nameColumn == -1) {
+            return false;
+        }
+        mNameColumn = nameColumn;
+        mNotesColumn = mPriorityColumn = mStatusColumn = mDueAtColumn = -1;
+        for (int i = 0; i < mFieldCount; i++) {
+            StringBuilder header = mFields[i];
+            if (equalsIgnoreCase(header, ItemEntry.COLUMN_ITEM_NOTES)) {
+                mNotesColumn = i;
+            } else if (equalsIgnoreCase(header, ItemEntry.COLUMN_ITEM_PRIORITY)) {
+                mPriorityColumn = i;
+            } else if (equalsIgnoreCase(header, ItemEntry.COLUMN_ITEM_STATUS)) {
+                mStatusColumn = i;
+            } else if (equalsIgnoreCase(header, ItemEntry.COLUMN_ITEM_DUE_AT)) {
+                mDueAtColumn = i;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a todo.txt file to its end. Returns the number of lines passed to the listener.
+     */
+    long parseTodoTxt() throws IOException {
+        long items = 0;
+        while (readLine()) {
+            if (endTodoTxtLine()) {
+                items++;
+            }
+        }
+        return items;
+    }
+
+    // Read the next line into mLine, without its line break; false at the end of the file
+    private boolean readLine() throws IOException {
+        mLine.setLength(0);
+        int c = read();
+        if (c == -1) {
+            return false;
+        }
+        while (c != -1 && c != '\n') {
+            if (c != '\r') {
+                mLine.append((char) c);
+            }
+            c = read();
+        }
+        mLineCount++;
+        return true;
+    }
+
+    private boolean endTodoTxtLine() {
+        StringBuilder line = mLine;
+        int length = line.length();
+        int i = skipSpaces(line, 0);
+        if (i == length) {
+            return false;
+        }
+
+        int status = ABSENT;
+        int priority = ABSENT;
+        long dueAt = NO_DUE_AT;
+        if (line.charAt(i) == 'x' && i + 1 < length && line.charAt(i + 1) == ' ') {
+            // "x 2017-03-02 2017-03-01 name": done, with a completion and a creation date
+            status = ItemEntry.STATUS_DONE;
+            i = skipDate(line, skipSpaces(line, i + 2));
+            i = skipDate(line, i);
+        } else if (i + 3 < length && line.charAt(i) == '(' && isPriorityLetter(line.charAt(i + 1))
+                && line.charAt(i + 2) == ')' && line.charAt(i + 3) == ' ') {
+            // "(A) 2017-03-01 name": a priority and a creation date
+            priority = priorityOfLetter(line.charAt(i + 1));
+            i = skipDate(line, skipSpaces(line, i + 4));
+        }
+
+        mName.setLength(0);
+        while (i < length) {
+            int end = i;
+            while (end < length && line.charAt(end) != ' ') {
+                end++;
+            }
+            if (startsWith(line, i, end, "due:")) {
+                dueAt = parseDate(line, i + 4, end);
+                if (dueAt == INVALID_DATE) {
+                    mMalformedCount++;
+                    return false;
+                }
+            } else if (startsWith(line, i, end, "pri:") && end == i + 5 && isPriorityLetter(line.charAt(i + 4))) {
+                priority = priorityOfLetter(line.charAt(i + 4));
+            } else {
+                if (mName.length() > 0) {
+                    mName.append(' ');
+                }
+                mName.append(line, i, end);
+            }
+            i = skipSpaces(line, end);
+        }
+
+        if (mName.length() == 0) {
+            mMalformedCount++;
+            return false;
+        }
+        mListener.onItem(mName, null, priority, status, dueAt);
+        return true;
+    }
+
+    private static boolean isPriorityLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static int priorityOfLetter(char c) {
+        switch (c) {
+            case 'A':
+                return ItemEntry.PRIORITY_HIGH;
+            case 'B':
+                return ItemEntry.PRIORITY_MEDIUM;
+            default:
+                return ItemEntry.PRIORITY_LOW;
+        }
+    }
+
+    // Index past the yyyy-mm-dd date and the spaces after it, or the given index if there is no date
+    private static int skipDate(CharSequence text, int start) {
+        int end = Math.min(start + 10, text.length());
+        if (end - start == 10 && (end == text.length() || text.charAt(end) == ' ')
+                && utcMidnight(text, start, end) != INVALID_DATE) {
+            return skipSpaces(text, end);
+        }
+        return start;
+    }
+
+    private static int skipSpaces(CharSequence text, int start) {
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int parsePriority(CharSequence field) {
+        int start = trimStart(field);
+        int end = trimEnd(field);
+        if (start == end) {
+            return ABSENT;
+        }
+        if (regionEqualsIgnoreCase(field, start, end, "low") || regionEqualsIgnoreCase(field, start, end, "0")) {
+            return ItemEntry.PRIORITY_LOW;
+        }
+        if (regionEqualsIgnoreCase(field, start, end, "medium") || regionEqualsIgnoreCase(field, start, end, "1")) {
+            return ItemEntry.PRIORITY_MEDIUM;
+        }
+        if (regionEqualsIgnoreCase(field, start, end, "high") || regionEqualsIgnoreCase(field, start, end, "2")) {
+            return ItemEntry.PRIORITY_HIGH;
+        }
+        return INVALID;
+    }
+
+    private static int parseStatus(CharSequence field) {
+        int start = trimStart(field);
+        int end = trimEnd(field);
+        if (start == end) {
+            return ABSENT;
+        }
+        if (regionEqualsIgnoreCase(field, start, end, "todo") || regionEqualsIgnoreCase(field, start, end, "0")) {
+            return ItemEntry.STATUS_TODO;
+        }
+        if (regionEqualsIgnoreCase(field, start, end, "in progress")
+                || regionEqualsIgnoreCase(field, start, end, "inprogress")
+                || regionEqualsIgnoreCase(field, start, end, "1")) {
+            return ItemEntry.STATUS_INPROGRESS;
+        }
+        if (regionEqualsIgnoreCase(field, start, end, "done") || regionEqualsIgnoreCase(field, start, end, "2")) {
+            return ItemEntry.STATUS_DONE;
+        }
+        return INVALID;
+    }
+
+    // Milliseconds since the epoch, or a yyyy-mm-dd date
+    private long parseDueAt(CharSequence field) {
+        int start = trimStart(field);
+        int end = trimEnd(field);
+        if (start == end) {
+            return NO_DUE_AT;
+        }
+        if (end - start == 10 && field.charAt(start + 4) == '-') {
+            return parseDate(field, start, end);
+        }
+        long millis = 0;
+        for (int i = start; i < end; i++) {
+            char c = field.charAt(i);
+            if (c < '0' || c > '9' || i - start >= 18) {
+                return INVALID_DATE;
+            }
+            millis = millis * 10 + (c - '0');
+        }
+        return millis;
+    }
+
+    // Midnight of the yyyy-mm-dd date in the time zone of the file, or INVALID_DATE
+    private long parseDate(CharSequence text, int start, int end) {
+        long utcMillis = utcMidnight(text, start, end);
+        if (utcMillis == INVALID_DATE) {
+            return INVALID_DATE;
+        }
+        return utcMillis - mTimeZone.getOffset(utcMillis);
+    }
+
+    /**
+     * Returns midnight UTC of the yyyy-mm-dd date, or INVALID_DATE.
+     */
+    private static long utcMidnight(CharSequence text, int start, int end) {
+        if (end - start != 10 || text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-') {
+            return INVALID_DATE;
+        }
+        int year = parseDigits(text, start, start + 4);
+        int month = parseDigits(text, start + 5, start + 7);
+        int day = parseDigits(text, start + 8, end);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return INVALID_DATE;
+        }
+
+        // Days since 1970-01-01 in the proleptic Gregorian calendar, counting years from March
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return ((long) era * 146097 + dayOfEra - 719468) * MILLIS_PER_DAY;
+    }
+
+    private static int parseDigits(CharSequence text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int trimStart(CharSequence field) {
+        if (field == null) {
+            return 0;
+        }
+        return skipSpaces(field, 0);
+    }
+
+    private static int trimEnd(CharSequence field) {
+        if (field == null) {
+            return 0;
+        }
+        int end = field.length();
+        while (end > 0 && Character.isWhitespace(field.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isBlank(CharSequence text, int start, int end) {
+        return skipSpaces(text, start) >= end;
+    }
+
+    private static boolean startsWith(CharSequence text, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(CharSequence field, String value) {
+        int start = trimStart(field);
+        return regionEqualsIgnoreCase(field, start, Math.max(start, trimEnd(field)), value);
+    }
+
+    private static boolean regionEqualsIgnoreCase(CharSequence text, int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.toLowerCase(text.charAt(start + i)) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,149 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic todoitems for load testing and profiling.
+ *
+ * The generator is seeded, so the same seed always produces the same sequence of items.
+ * Name and notes lengths, status and priority follow skewed distributions that roughly
+ * match a real list: short names, mostly empty or short notes, many finished items and
+ * few high priority ones.
+ */
+public class TodoItemGenerator {
+
+    /** Default number of rows written per transaction */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final String[] VERBS = {
+            "Buy", "Call", "Email", "Fix", "Review", "Write", "Plan", "Book", "Pay", "Clean",
+            "Update", "Send", "Schedule", "Read", "Prepare", "Finish", "Check", "Order", "Return", "Ask"
+    };
+
+    private static final String[] WORDS = {
+            "milk", "report", "dentist", "invoice", "car", "slides", "groceries", "tickets", "rent",
+            "garage", "draft", "meeting", "budget", "passport", "laptop", "taxes", "birthday", "gift",
+            "flight", "hotel", "plumber", "insurance", "notes", "website", "backup", "design", "team",
+            "kitchen", "library", "package", "review", "doctor", "bank", "contract", "photos", "garden"
+    };
+
+    private final Random mRandom;
+
+    /**
+     * Constructs a new {@link TodoItemGenerator}
+     * @param seed seed of the random number generator, for reproducible datasets
+     */
+    public TodoItemGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Returns a name of 1 to 8 words, starting with a verb. Most names are 2-4 words long.
+     */
+    public String nextName() {
+        int words = 1 + Math.min(7, (int) Math.abs(mRandom.nextGaussian() * 1.5 + 1.5));
+        StringBuilder sb = new StringBuilder(words * 8);
+        sb.append(VERBS[mRandom.nextInt(VERBS.length)]);
+        for (int i = 1; i < words; i++) {
+            sb.append(' ').append(WORDS[mRandom.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns notes for an item. About 40% of items have no notes, most of the rest have
+     * a short sentence and a few have a long paragraph (up to ~60 words).
+     */
+    public String nextNotes() {
+        int roll = mRandom.nextInt(100);
+        int words;
+        if (roll < 40) {
+            return "";
+        } else if (roll < 90) {
+            words = 2 + mRandom.nextInt(10);
+        } else {
+            words = 12 + mRandom.nextInt(48);
+        }
+        StringBuilder sb = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[mRandom.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a priority: 60% {@link ItemEntry#PRIORITY_LOW}, 30% {@link ItemEntry#PRIORITY_MEDIUM}
+     * and 10% {@link ItemEntry#PRIORITY_HIGH}.
+     */
+    public int nextPriority() {
+        int roll = mRandom.nextInt(100);
+        if (roll < 60) {
+            return ItemEntry.PRIORITY_LOW;
+        } else if (roll < 90) {
+            return ItemEntry.PRIORITY_MEDIUM;
+        }
+        return ItemEntry.PRIORITY_HIGH;
+    }
+
+    /**
+     * Returns a status: 30% {@link ItemEntry#STATUS_TODO}, 15% {@link ItemEntry#STATUS_INPROGRESS}
+     * and 55% {@link ItemEntry#STATUS_DONE}.
+     */
+    public int nextStatus() {
+        int roll = mRandom.nextInt(100);
+        if (roll < 30) {
+            return ItemEntry.STATUS_TODO;
+        } else if (roll < 45) {
+            return ItemEntry.STATUS_INPROGRESS;
+        }
+        return ItemEntry.STATUS_DONE;
+    }
+
+    /**
+     * Returns the ContentValues for the next generated todoitem.
+     */
+    public ContentValues nextValues() {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, nextName());
+        values.put(ItemEntry.COLUMN_ITEM_NOTES, nextNotes());
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, nextPriority());
+        values.put(ItemEntry.COLUMN_ITEM_STATUS, nextStatus());
+        return values;
+    }
+
+    /**
+     * Inserts count generated todoitems through the provider. Rows are handed to
+     * {@link ContentResolver#bulkInsert} in batches, and each batch is written in one transaction.
+     *
+     * @return the number of rows inserted
+     */
+    public int generate(ContentResolver resolver, int count, int batchSize) {
+        return generate(resolver, ItemEntry.CONTENT_URI, count, batchSize);
+    }
+
+    /**
+     * Inserts count generated todoitems into the given URI, such as the items of a list.
+     *
+     * @return the number of rows inserted
+     */
+    public int generate(ContentResolver resolver, Uri uri, int count, int batchSize) {
+        int inserted = 0;
+        for (int generated = 0; generated < count; generated += batchSize) {
+            int size = Math.min(batchSize, count - generated);
+            ContentValues[] batch = new ContentValues[size];
+            for (int i = 0; i < size; i++) {
+                batch[i] = nextValues();
+            }
+            inserted += resolver.bulkInsert(uri, batch);
+        }
+        return inserted;
+    }
+}
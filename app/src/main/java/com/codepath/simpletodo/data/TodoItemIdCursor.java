@@ -0,0 +1,299 @@
+package com.codepath.simpletodo.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only {@link Cursor} over the rows of a table with the given ids, in the order of the
+ * ids, which loads rows in fixed-size chunks instead of reading the whole result with one query.
+ *
+ * Each chunk is fetched by primary key with "_id IN (?, ...)", its ids bound as arguments, so no
+ * statement grows with the number of ids, and only a few recently used chunks are kept in
+ * memory. The ids usually come from an in-memory index; a row deleted since is dropped when its
+ * chunk is read, and the count is corrected with a data set change notification.
+ */
+public class TodoItemIdCursor extends AbstractCursor {
+
+    /** Default number of rows loaded per chunk, well below the 999 arguments SQLite allows */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    /** Number of chunks kept in memory */
+    private static final int MAX_CACHED_CHUNKS = 4;
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    private final String[] mColumns;
+    private final String[] mQueryColumns;
+    private final int mIdColumnIndex;
+    private final int mChunkSize;
+
+    // Ids of the rows, in the order of the cursor
+    private long[] mIds;
+    private int mCount;
+
+    // Most recently used chunks, keyed by chunk number
+    private final LinkedHashMap<Integer, Object[]> mChunks =
+            new LinkedHashMap<Integer, Object[]>(MAX_CACHED_CHUNKS + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Object[]> eldest) {
+                    return size() > MAX_CACHED_CHUNKS;
+                }
+            };
+
+    // Observers that are told when the row count gets corrected
+    private final DataSetObservable mCountObservable = new DataSetObservable();
+
+    // Row the cursor is currently on
+    private Object[] mCurrentChunk;
+    private int mCurrentOffset;
+
+    /**
+     * Constructs a new {@link TodoItemIdCursor}
+     * @param db         database to read from
+     * @param table      table or view to read, whose {@link ItemEntry#_ID} is its primary key
+     * @param projection columns to return, null for all columns
+     * @param ids        ids of the rows, in the order to return them
+     * @param chunkSize  number of rows loaded at once
+     */
+    public TodoItemIdCursor(SQLiteDatabase db, String table, String[] projection, long[] ids, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        mDb = db;
+        mTable = table;
+        mColumns = projection != null ? projection : readAllColumns(db, table);
+        int idColumnIndex = Arrays.asList(mColumns).indexOf(ItemEntry._ID);
+        if (idColumnIndex < 0) {
+            // Read the id too, to put the rows in order, without returning it
+            idColumnIndex = mColumns.length;
+            mQueryColumns = Arrays.copyOf(mColumns, mColumns.length + 1);
+            mQueryColumns[idColumnIndex] = ItemEntry._ID;
+        } else {
+            mQueryColumns = mColumns;
+        }
+        mIdColumnIndex = idColumnIndex;
+        mChunkSize = chunkSize;
+        mIds = ids;
+        mCount = ids.length;
+    }
+
+    private static String[] readAllColumns(SQLiteDatabase db, String table) {
+        Cursor cursor = db.query(table, null, null, null, null, null, null, "0");
+        try {
+            return cursor.getColumnNames();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return chunk k, reading it from the database if it is not cached. A chunk at the end of
+     * the result is shorter, and empty if every row from its start on was deleted.
+     */
+    private Object[] getChunk(int chunk) {
+        Object[] rows = mChunks.get(chunk);
+        while (rows == null) {
+            rows = readChunk(chunk);
+        }
+        mChunks.put(chunk, rows);
+        return rows;
+    }
+
+    /**
+     * Read the rows of chunk k in the order of their ids. Returns null if some of them were
+     * deleted, once their ids are dropped, so that the chunk gets read again.
+     */
+    private Object[] readChunk(int chunk) {
+        int start = chunk * mChunkSize;
+        int end = Math.min(mCount, start + mChunkSize);
+        int rowCount = end - start;
+        if (rowCount <= 0) {
+            return new Object[0];
+        }
+
+        StringBuilder selection = new StringBuilder(rowCount * 2 + 16);
+        selection.append(ItemEntry._ID).append(" IN (");
+        String[] args = new String[rowCount];
+        Map<Long, Integer> positions = new HashMap<>(rowCount * 2);
+        for (int i = 0; i < rowCount; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            args[i] = String.valueOf(mIds[start + i]);
+            positions.put(mIds[start + i], i);
+        }
+        selection.append(')');
+
+        int columnCount = mColumns.length;
+        Object[] rows = new Object[rowCount * columnCount];
+        boolean[] found = new boolean[rowCount];
+        int foundCount = 0;
+        Cursor cursor = mDb.query(mTable, mQueryColumns, selection.toString(), args, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Integer position = positions.get(cursor.getLong(mIdColumnIndex));
+                if (position == null || found[position]) {
+                    continue;
+                }
+                found[position] = true;
+                foundCount++;
+                for (int column = 0; column < columnCount; column++) {
+                    rows[position * columnCount + column] = TodoItemSnapshot.readValue(cursor, column);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (foundCount < rowCount) {
+            dropIds(start, found);
+            return null;
+        }
+        return rows;
+    }
+
+    // Drop the ids of the chunk starting at the given position whose rows were not found
+    private void dropIds(int start, boolean[] found) {
+        int kept = start;
+        for (int i = 0; i < found.length; i++) {
+            if (found[i]) {
+                mIds[kept++] = mIds[start + i];
+            }
+        }
+        int dropped = found.length - (kept - start);
+        System.arraycopy(mIds, start + found.length, mIds, kept, mCount - start - found.length);
+        mCount -= dropped;
+        // Every later row has moved
+        mChunks.clear();
+        mCountObservable.notifyChanged();
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if (newPosition >= mCount) {
+            mCurrentChunk = null;
+            return false;
+        }
+        Object[] rows = getChunk(newPosition / mChunkSize);
+        if (newPosition >= mCount) {
+            // The rows from here to the end were deleted
+            mCurrentChunk = null;
+            return false;
+        }
+        mCurrentChunk = rows;
+        mCurrentOffset = (newPosition % mChunkSize) * mColumns.length;
+        return true;
+    }
+
+    private Object value(int column) {
+        if (mCurrentChunk == null) {
+            throw new IllegalStateException("Cursor is not on a row");
+        }
+        return mCurrentChunk[mCurrentOffset + column];
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = value(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = value(column);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return value(column) == null;
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        mCountObservable.registerObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        mCountObservable.unregisterObserver(observer);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        mChunks.clear();
+        mCurrentChunk = null;
+    }
+}
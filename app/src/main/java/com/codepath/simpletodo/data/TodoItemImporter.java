@@ -0,0 +1,221 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.TimeZone;
+
+/**
+ * Imports the records of a {@link TodoItemFileParser} as todoitems, without duplicating items
+ * the database already has.
+ *
+ * The content hash of every todoitem is read once, with a single query, into a
+ * {@link LongHashMap} from hash to id. Each record is then hashed from the parser's buffers and
+ * looked up in the map: a known item is skipped (or merged) without a query and without
+ * allocating, and a new one is queued and its hash added, so that repeated lines of the file
+ * are caught too. Queued items and merges are handed to the {@link Writer} in batches, each
+ * written in one transaction.
+ */
+final class TodoItemImporter implements TodoItemFileParser.Listener {
+
+    /**
+     * Writes the batches, through the provider.
+     */
+    interface Writer {
+        /**
+         * Insert the first count values in one transaction, and store the new ids, or -1 for
+         * rows that were not inserted, in the same positions of ids.
+         */
+        void insert(ContentValues[] values, int count, long[] ids);
+
+        /**
+         * Update each of the first count items with the values in the same position, in one
+         * transaction. Returns the number of items updated.
+         */
+        int merge(long[] ids, ContentValues[] values, int count);
+    }
+
+    // Values of the hash map besides item ids: hashes not in the map, of items that failed to
+    // insert, and of items still in the insert batch, at PENDING - index
+    private static final long NONE = 0;
+    private static final long FAILED = -1;
+    private static final long PENDING = -2;
+
+    private final boolean mMerge;
+    private final int mBatchSize;
+    private final Writer mWriter;
+    private final LongHashMap mHashes;
+
+    private final ContentValues[] mInserts;
+    private final long[] mInsertHashes;
+    private final long[] mInsertIds;
+    private int mInsertCount;
+
+    private final ContentValues[] mMerges;
+    private final long[] mMergeIds;
+    private int mMergeCount;
+
+    private long mInserted;
+    private long mMerged;
+    private long mSkipped;
+
+    /**
+     * Reads the content hashes of the items in the database.
+     *
+     * @param merge whether records matching an item update it, rather than being skipped
+     */
+    TodoItemImporter(SQLiteDatabase db, boolean merge, int batchSize, Writer writer) {
+        mMerge = merge;
+        mBatchSize = batchSize;
+        mWriter = writer;
+        mInserts = new ContentValues[batchSize];
+        mInsertHashes = new long[batchSize];
+        mInsertIds = new long[batchSize];
+        mMerges = new ContentValues[batchSize];
+        mMergeIds = new long[batchSize];
+
+        // Room for the file to double the list before the map grows
+        int items = (int) DatabaseUtils.queryNumEntries(db, ItemEntry.TABLE_NAME);
+        mHashes = new LongHashMap(Math.max(items * 2, batchSize));
+
+        // Only the hash index is scanned, which holds the _id too and is far smaller than the table
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME,
+                new String[] { ItemEntry._ID, ItemEntry.COLUMN_ITEM_CONTENT_HASH },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                mHashes.put(cursor.getLong(1), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Import the file, in the format of {@link TodoItemContract#EXTRA_IMPORT_FORMAT}. Batches
+     * written before a read error stay in the database.
+     *
+     * @return the parser, which counts the lines and malformed records
+     */
+    TodoItemFileParser run(Reader reader, String format, TimeZone timeZone) throws IOException {
+        TodoItemFileParser parser = new TodoItemFileParser(reader, timeZone, this);
+        if (TodoItemContract.FORMAT_TODO_TXT.equals(format)) {
+            parser.parseTodoTxt();
+        } else {
+            parser.parseCsv();
+        }
+        flushInserts();
+        flushMerges();
+        return parser;
+    }
+
+    long getInserted() {
+        return mInserted;
+    }
+
+    long getMerged() {
+        return mMerged;
+    }
+
+    long getSkipped() {
+        return mSkipped;
+    }
+
+    @Override
+    public void onItem(CharSequence name, CharSequence notes, int priority, int status, long dueAt) {
+        long hash = TodoItemContentHash.of(name, notes);
+        long found = mHashes.get(hash, NONE);
+        if (found == NONE) {
+            queueInsert(hash, name, notes, priority, status, dueAt);
+            return;
+        }
+        if (!mMerge || found == FAILED) {
+            mSkipped++;
+            return;
+        }
+        if (found <= PENDING) {
+            // A repeated line of the file updates the item still waiting to be inserted
+            putFields(mInserts[(int) (PENDING - found)], priority, status, dueAt);
+            mSkipped++;
+            return;
+        }
+
+        ContentValues values = new ContentValues(3);
+        putFields(values, priority, status, dueAt);
+        if (values.size() == 0) {
+            mSkipped++;
+            return;
+        }
+        mMergeIds[mMergeCount] = found;
+        mMerges[mMergeCount++] = values;
+        if (mMergeCount == mBatchSize) {
+            flushMerges();
+        }
+    }
+
+    private void queueInsert(long hash, CharSequence name, CharSequence notes, int priority, int status,
+                             long dueAt) {
+        ContentValues values = new ContentValues(5);
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name.toString().trim());
+        String trimmedNotes = notes == null ? "" : notes.toString().trim();
+        if (trimmedNotes.length() > 0) {
+            values.put(ItemEntry.COLUMN_ITEM_NOTES, trimmedNotes);
+        }
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, ItemEntry.PRIORITY_LOW);
+        putFields(values, priority, status, dueAt);
+
+        mHashes.put(hash, PENDING - mInsertCount);
+        mInsertHashes[mInsertCount] = hash;
+        mInserts[mInsertCount++] = values;
+        if (mInsertCount == mBatchSize) {
+            flushInserts();
+        }
+    }
+
+    private static void putFields(ContentValues values, int priority, int status, long dueAt) {
+        if (priority != TodoItemFileParser.ABSENT) {
+            values.put(ItemEntry.COLUMN_ITEM_PRIORITY, priority);
+        }
+        if (status != TodoItemFileParser.ABSENT) {
+            values.put(ItemEntry.COLUMN_ITEM_STATUS, status);
+        }
+        if (dueAt != TodoItemFileParser.NO_DUE_AT) {
+            values.put(ItemEntry.COLUMN_ITEM_DUE_AT, dueAt);
+        }
+    }
+
+    private void flushInserts() {
+        if (mInsertCount == 0) {
+            return;
+        }
+        mWriter.insert(mInserts, mInsertCount, mInsertIds);
+        for (int i = 0; i < mInsertCount; i++) {
+            long id = mInsertIds[i];
+            mHashes.put(mInsertHashes[i], id > 0 ? id : FAILED);
+            if (id > 0) {
+                mInserted++;
+            }
+            mInserts[i] = null;
+        }
+        mInsertCount = 0;
+    }
+
+    private void flushMerges() {
+        if (mMergeCount == 0) {
+            return;
+        }
+        int updated = mWriter.merge(mMergeIds, mMerges, mMergeCount);
+        mMerged += updated;
+        mSkipped += mMergeCount - updated;
+        for (int i = 0; i < mMergeCount; i++) {
+            mMerges[i] = null;
+        }
+        mMergeCount = 0;
+    }
+}
@@ -0,0 +1,74 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Releases the memory {@link TodoItemProvider} can do without when the system runs low on it.
+ * The provider forwards its {@link ComponentCallbacks2} callbacks here. The lower memory gets,
+ * the more is dropped, and all of it is rebuilt on next use:
+ * <ul>
+ * <li>at every level, the cached query results, and the memory SQLite holds without using it,
+ * in the page cache of the connection and in its allocator;</li>
+ * <li>from {@link #TRIM_MEMORY_RUNNING_CRITICAL} while running, and from
+ * {@link #TRIM_MEMORY_MODERATE} in the background, the in-memory bitmap and prefix indexes,
+ * whose reload reads the whole todo table.</li>
+ * </ul>
+ *
+ * The callbacks come on the main thread, while freeing the page cache waits for any write in
+ * progress, so the work runs on the given executor.
+ */
+public class TodoItemMemoryGovernor implements ComponentCallbacks2 {
+
+    private final TodoItemDbHelper mDbHelper;
+    private final TodoItemQueryCache mQueryCache;
+    private final TodoItemBitmapIndex mBitmapIndex;
+    private final TodoItemPrefixIndex mPrefixIndex;
+    private final Executor mExecutor;
+
+    TodoItemMemoryGovernor(TodoItemDbHelper dbHelper, TodoItemQueryCache queryCache,
+                           TodoItemBitmapIndex bitmapIndex, TodoItemPrefixIndex prefixIndex, Executor executor) {
+        mDbHelper = dbHelper;
+        mQueryCache = queryCache;
+        mBitmapIndex = bitmapIndex;
+        mPrefixIndex = prefixIndex;
+        mExecutor = executor;
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trim(level);
+            }
+        });
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Release the memory for the trim level, on the calling thread.
+     */
+    void trim(int level) {
+        mQueryCache.clear();
+        if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_MODERATE) {
+            mBitmapIndex.invalidate();
+            mPrefixIndex.invalidate();
+        }
+        // Free pages of the page cache, which otherwise only grows up to cache_size
+        mDbHelper.getWritableDatabase().execSQL("PRAGMA shrink_memory");
+        // Memory SQLite's allocator keeps for every connection of the process
+        SQLiteDatabase.releaseMemory();
+    }
+}
@@ -0,0 +1,175 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory prefix index over the tokens of the todoitem names.
+ *
+ * Every lowercase token maps to a {@link CompressedBitmap} of the item ids whose name contains
+ * it, in a sorted map. A search such as "rev bud" matches items having a token starting with
+ * "rev" and a token starting with "bud": the bitmaps of each prefix range are united, and the
+ * unions intersected. The index is loaded on first use and kept up to date by
+ * {@link TodoItemProvider}; writes it cannot apply incrementally {@link #invalidate()} it.
+ */
+public class TodoItemPrefixIndex {
+
+    private final TreeMap<String, CompressedBitmap> mTerms = new TreeMap<>();
+
+    // Tokens of each indexed item, to remove them when the item changes
+    private final HashMap<Integer, String[]> mItemTokens = new HashMap<>();
+    private boolean mLoaded;
+
+    /**
+     * Split text into lowercase tokens of letters and digits.
+     */
+    public static String[] tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return new String[0];
+        }
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean tokenChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Load the index from the database, if it is not loaded yet.
+     */
+    public synchronized void ensureLoaded(SQLiteDatabase db) {
+        if (mLoaded) {
+            return;
+        }
+        mTerms.clear();
+        mItemTokens.clear();
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME,
+                new String[] { ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                addTokens((int) cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        mLoaded = true;
+    }
+
+    /**
+     * Mark the index as loaded without reading a database, for tests and benchmarks.
+     */
+    synchronized void markLoaded() {
+        mLoaded = true;
+    }
+
+    /**
+     * Drop the index; it is reloaded on next use.
+     */
+    public synchronized void invalidate() {
+        mLoaded = false;
+        mTerms.clear();
+        mItemTokens.clear();
+    }
+
+    /**
+     * Record the name of an inserted or renamed item.
+     */
+    public synchronized void onItemWritten(long id, String name) {
+        if (!mLoaded) {
+            return;
+        }
+        removeTokens((int) id);
+        addTokens((int) id, name);
+    }
+
+    /**
+     * Remove a deleted item from the index.
+     */
+    public synchronized void onItemDeleted(long id) {
+        if (!mLoaded) {
+            return;
+        }
+        removeTokens((int) id);
+    }
+
+    /**
+     * Find the items whose name has, for every token of the query, a token starting with it.
+     *
+     * @param query  text typed by the user
+     * @param signal cancellation signal of the query, checked between tokens; may be null
+     * @return the matching item ids, in ascending order
+     */
+    public synchronized int[] lookup(String query, CancellationSignal signal) {
+        if (!mLoaded) {
+            throw new IllegalStateException("Index is not loaded");
+        }
+        String[] prefixes = tokenize(query);
+        CompressedBitmap result = null;
+        for (String prefix : prefixes) {
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            CompressedBitmap matches = new CompressedBitmap();
+            for (CompressedBitmap termIds : mTerms.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                matches.orInPlace(termIds);
+            }
+            result = result == null ? matches : result.and(matches);
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result == null ? new int[0] : result.toArray();
+    }
+
+    /**
+     * Returns the number of distinct tokens in the index.
+     */
+    public synchronized int termCount() {
+        return mTerms.size();
+    }
+
+    private void addTokens(int id, String name) {
+        String[] tokens = tokenize(name);
+        if (tokens.length == 0) {
+            return;
+        }
+        mItemTokens.put(id, tokens);
+        for (String token : tokens) {
+            CompressedBitmap termIds = mTerms.get(token);
+            if (termIds == null) {
+                termIds = new CompressedBitmap();
+                mTerms.put(token, termIds);
+            }
+            termIds.add(id);
+        }
+    }
+
+    private void removeTokens(int id) {
+        String[] tokens = mItemTokens.remove(id);
+        if (tokens == null) {
+            return;
+        }
+        for (String token : tokens) {
+            CompressedBitmap termIds = mTerms.get(token);
+            if (termIds != null && termIds.remove(id) && termIds.isEmpty()) {
+                mTerms.remove(token);
+            }
+        }
+    }
+}
@@ -1,15 +1,44 @@
 package com.codepath.simpletodo.data;
 
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.codepath.simpletodo.BuildConfig;
+import com.codepath.simpletodo.data.TodoItemContract.AnalyticsEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ArchiveEntry;
+import com.codepath.simpletodo.data.TodoItemContract.DraftEntry;
 import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ItemTagEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+import com.codepath.simpletodo.data.TodoItemContract.RecurrenceEntry;
+import com.codepath.simpletodo.data.TodoItemContract.TagEntry;
+import com.codepath.simpletodo.perf.PerfTrace;
+import com.codepath.simpletodo.reminder.TodoReminders;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * {@link ContentProvider} for Todo app
@@ -26,6 +55,57 @@ public class TodoItemProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single todoitem in the `todo` table */
     private static final int TODOITEM_ID = 101;
 
+    /** URI matcher code for the content URI that filters todoitems by tags */
+    private static final int TODOITEMS_TAG = 102;
+
+    /** URI matcher code for the content URI for one tag of a single todoitem */
+    private static final int TODOITEM_TAG = 103;
+
+    /** URI matcher code for the content URI that searches todoitems by name prefixes */
+    private static final int TODOITEMS_SEARCH = 104;
+
+    /** URI matcher code for the content URI for the archive of old DONE todoitems */
+    private static final int TODOITEMS_ARCHIVE = 105;
+
+    /** URI matcher code for the content URI for a single archived todoitem */
+    private static final int TODOITEM_ARCHIVE_ID = 106;
+
+    /** URI matcher code for the content URI for the status analytics */
+    private static final int ANALYTICS = 107;
+
+    /** URI matcher code for the content URI for a todoitem and its subtasks */
+    private static final int TODOITEM_SUBTREE = 108;
+
+    /** URI matcher code for the content URI for the `tags` table */
+    private static final int TAGS = 200;
+
+    /** URI matcher code for the content URI for the `lists` table */
+    private static final int LISTS = 300;
+
+    /** URI matcher code for the content URI for a single list */
+    private static final int LIST_ID = 301;
+
+    /** URI matcher code for the content URI for the todoitems of a single list */
+    private static final int LIST_TODOITEMS = 302;
+
+    /** URI matcher code for the content URI for the `recurrences` table */
+    private static final int RECURRENCES = 400;
+
+    /** URI matcher code for the content URI for a single recurrence rule */
+    private static final int RECURRENCE_ID = 401;
+
+    /** URI matcher code for the content URI for the `drafts` table */
+    private static final int DRAFTS = 500;
+
+    /** URI matcher code for the content URI for the draft of a single todoitem */
+    private static final int DRAFT_ITEM_ID = 501;
+
+    /** Attempts at reading a snapshot between writes, before leaving it to the caller to retry */
+    private static final int SNAPSHOT_ATTEMPTS = 5;
+
+    /** Number of ids past which rows are read in chunks of ids, rather than with one IN list */
+    private static final int MAX_INLINE_IDS = 500;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -54,24 +134,173 @@ public class TodoItemProvider extends ContentProvider {
         // "content://com.codepath.simpletodo/todo" (without a number at the end) doesn't match.
 
         sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY, TodoItemContract.PATH_TODO + "/#", TODOITEM_ID);
+
+        // "content://com.codepath.simpletodo/todo/tag/work,home" filters todoitems by tags,
+        // "content://com.codepath.simpletodo/todo/3/tag/work" is the "work" tag of item 3 and
+        // "content://com.codepath.simpletodo/tags" is the list of tags.
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY,
+                TodoItemContract.PATH_TODO + "/" + TodoItemContract.PATH_TAG + "/*", TODOITEMS_TAG);
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY,
+                TodoItemContract.PATH_TODO + "/#/" + TodoItemContract.PATH_TAG + "/*", TODOITEM_TAG);
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY, TodoItemContract.PATH_TAGS, TAGS);
+
+        // "content://com.codepath.simpletodo/todo/search/rev%20bud" searches todoitems whose
+        // name has tokens starting with "rev" and "bud".
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY,
+                TodoItemContract.PATH_TODO + "/" + TodoItemContract.PATH_SEARCH + "/*", TODOITEMS_SEARCH);
+
+        // "content://com.codepath.simpletodo/todo/archive" is the archive of old DONE todoitems,
+        // and "content://com.codepath.simpletodo/todo/archive/3" one archived todoitem.
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY,
+                TodoItemContract.PATH_TODO + "/" + TodoItemContract.PATH_ARCHIVE, TODOITEMS_ARCHIVE);
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY,
+                TodoItemContract.PATH_TODO + "/" + TodoItemContract.PATH_ARCHIVE + "/#", TODOITEM_ARCHIVE_ID);
+
+        // "content://com.codepath.simpletodo/todo/analytics" is the time spent in each status.
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY,
+                TodoItemContract.PATH_TODO + "/" + TodoItemContract.PATH_ANALYTICS, ANALYTICS);
+
+        // "content://com.codepath.simpletodo/todo/3/subtree" is item 3 and all of its subtasks.
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY,
+                TodoItemContract.PATH_TODO + "/#/" + TodoItemContract.PATH_SUBTREE, TODOITEM_SUBTREE);
+
+        // "content://com.codepath.simpletodo/lists" is the list of lists,
+        // "content://com.codepath.simpletodo/lists/3" one list and
+        // "content://com.codepath.simpletodo/lists/3/todo" the todoitems of list 3.
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY, TodoItemContract.PATH_LISTS, LISTS);
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY, TodoItemContract.PATH_LISTS + "/#", LIST_ID);
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY,
+                TodoItemContract.PATH_LISTS + "/#/" + TodoItemContract.PATH_TODO, LIST_TODOITEMS);
+
+        // "content://com.codepath.simpletodo/recurrences" is every recurrence rule,
+        // and "content://com.codepath.simpletodo/recurrences/3" one rule.
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY, TodoItemContract.PATH_RECURRENCES, RECURRENCES);
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY, TodoItemContract.PATH_RECURRENCES + "/#",
+                RECURRENCE_ID);
+
+        // "content://com.codepath.simpletodo/drafts" takes the drafts of the editor,
+        // and "content://com.codepath.simpletodo/drafts/3" is the draft of item 3.
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY, TodoItemContract.PATH_DRAFTS, DRAFTS);
+        sUriMatcher.addURI(TodoItemContract.CONTENT_AUTHORITY, TodoItemContract.PATH_DRAFTS + "/#", DRAFT_ITEM_ID);
     }
 
     // Database helper that will provide us access to the database
     private TodoItemDbHelper mDbHelper;
 
+    // In-memory bitmaps answering tag, status and priority filters
+    private final TodoItemBitmapIndex mBitmapIndex = new TodoItemBitmapIndex();
+
+    // In-memory prefix index answering name searches
+    private final TodoItemPrefixIndex mPrefixIndex = new TodoItemPrefixIndex();
+
+    // Recent query results, dropped on every write
+    private final TodoItemQueryCache mQueryCache = new TodoItemQueryCache();
+
+    // Compiled statements behind call(), created on first use
+    private TodoItemFastPaths mFastPaths;
+    private TodoItemRanks mRanks;
+
+    // Renumbers crowded regions of ranks after moves, and releases memory, off the caller's thread
+    private final Executor mBackgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, LOG_TAG + " background");
+        }
+    });
+
+    // Drops caches and indexes when memory runs low, created with the database helper
+    private TodoItemMemoryGovernor mMemoryGovernor;
+
+    public TodoItemProvider() {
+    }
+
+    /**
+     * Constructs a {@link TodoItemProvider} on another database, for tests and benchmarks
+     */
+    TodoItemProvider(TodoItemDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
     // Initialize the provider and the database helper object
     @Override
     public boolean onCreate() {
-        mDbHelper = TodoItemDbHelper.getInstance(getContext());
+        if (mDbHelper == null) {
+            mDbHelper = TodoItemDbHelper.getInstance(getContext());
+        }
+        mMemoryGovernor = new TodoItemMemoryGovernor(mDbHelper, mQueryCache, mBitmapIndex, mPrefixIndex,
+                mBackgroundExecutor);
         return true;
     }
 
+    // The system calls every provider of the process back, as it does activities and services
+    @Override
+    public void onTrimMemory(int level) {
+        mMemoryGovernor.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        mMemoryGovernor.onLowMemory();
+    }
+
+    /**
+     * Returns the governor releasing memory on the system's callbacks, for tests.
+     */
+    TodoItemMemoryGovernor getMemoryGovernor() {
+        return mMemoryGovernor;
+    }
+
+    /**
+     * Returns the prefix index of the names, for tests.
+     */
+    TodoItemPrefixIndex getPrefixIndex() {
+        return mPrefixIndex;
+    }
+
+    /**
+     * Returns the query result cache, whose hit and miss counts can be inspected.
+     */
+    public TodoItemQueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
     /**
      * Perform the query for the given URI.
      * Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI, which can be cancelled through the signal
+     * while it runs (for instance when the search text changes).
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                        CancellationSignal cancellationSignal) {
+        PerfTrace.begin("TodoItemProvider.query");
+        // The cursors opened meanwhile keep the arguments, to log their shapes if they are slow
+        TodoItemSlowQueryLog slowQueryLog = mDbHelper.getSlowQueryLog();
+        String[] outerArgs = slowQueryLog.getCallerArgs();
+        slowQueryLog.setCallerArgs(selectionArgs);
+        try {
+            return doQuery(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        } finally {
+            slowQueryLog.setCallerArgs(outerArgs);
+            PerfTrace.end();
+        }
+    }
+
+    private Cursor doQuery(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                           CancellationSignal cancellationSignal) {
 
         // Get readable database
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
@@ -81,12 +310,38 @@ public class TodoItemProvider extends ContentProvider {
 
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
+
+        Uri notificationUri = watchesTable(match) ? ItemEntry.CONTENT_URI : uri;
+
+        // Serve the query from the cache if no write happened since it last ran.
+        // The generation is read first, so a write racing with the query makes the result stale.
+        String cacheKey = null;
+        long generation = mQueryCache.getGeneration();
+        // Drafts are written without bumping the generation, so they are never cached.
+        if (match != UriMatcher.NO_MATCH && match != DRAFT_ITEM_ID && !isWindowedQuery(uri, sortOrder)) {
+            cacheKey = TodoItemQueryCache.key(uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), notificationUri);
+                return cached;
+            }
+        }
+
         switch (match) {
             case TODOITEMS:
                 // For the TODOITEMS code, query the "todo" table directly with the given
                 // projection, selection, selection arguments, and sort order.
                 // The cursor could contain multiple rows of the "todo" table
-                cursor = db.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                cursor = queryTodoItems(db, uri, projection, selection, selectionArgs, sortOrder, -1,
+                        cancellationSignal);
+                break;
+            case LIST_TODOITEMS:
+                // The same, within the range of the list in the indexes leading on list_id.
+                // A windowed cursor of the whole list takes its exact size from the list's count.
+                long listId = parseListId(uri);
+                int count = TextUtils.isEmpty(selection) ? readItemCount(db, listId) : -1;
+                cursor = queryTodoItems(db, uri, projection, withList(selection), withListArgs(listId, selectionArgs),
+                        sortOrder, count, cancellationSignal);
                 break;
             case TODOITEM_ID:
                 // For the TODOITEM_ID code, extract out the ID from the URI.
@@ -102,187 +357,1946 @@ public class TodoItemProvider extends ContentProvider {
 
                 // This will perform a query on the "todo" table where the _id equals 3 to return a
                 // cursor containing that row of the table.
-                cursor = db.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                cursor = db.query(false, ItemEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
+                break;
+            case TODOITEM_SUBTREE:
+                // One range of the closure table, whatever the depth of the subtree
+                long rootId = Long.parseLong(uri.getPathSegments().get(1));
+                cursor = TodoItemSubtasks.querySubtree(db, rootId, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+                break;
+            case TODOITEMS_TAG:
+                // For the TODOITEMS_TAG code, find the matching ids in the bitmap index, then
+                // read only those rows.
+                cursor = queryByTags(db, uri, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+                break;
+            case TODOITEMS_SEARCH:
+                // For the TODOITEMS_SEARCH code, find the matching ids in the prefix index
+                // without SQLite, then read only those rows.
+                mPrefixIndex.ensureLoaded(db);
+                int[] ids = mPrefixIndex.lookup(uri.getLastPathSegment(), cancellationSignal);
+                if (uri.getBooleanQueryParameter(TodoItemContract.QUERY_PARAMETER_ARCHIVED, false)) {
+                    cursor = searchWithArchive(db, ids, uri.getLastPathSegment(), projection, selection,
+                            selectionArgs, sortOrder, cancellationSignal);
+                } else {
+                    cursor = queryByIds(db, ids, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+                }
+                break;
+            case TODOITEMS_ARCHIVE:
+                // Archived todoitems are only read on demand, straight from their table
+                cursor = db.query(false, ArchiveEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
+                break;
+            case TODOITEM_ARCHIVE_ID:
+                selection = ItemEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = db.query(false, ArchiveEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
+                break;
+            case TAGS:
+                cursor = db.query(TagEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case LISTS:
+                cursor = db.query(ListEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case LIST_ID:
+                selection = ListEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = db.query(ListEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case RECURRENCES:
+                cursor = db.query(RecurrenceEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case RECURRENCE_ID:
+                selection = RecurrenceEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = db.query(RecurrenceEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case DRAFT_ITEM_ID:
+                selection = DraftEntry.COLUMN_DRAFT_ITEM_ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = db.query(DraftEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case ANALYTICS:
+                // Read from the aggregates kept by the database, never from the history
+                if (selection != null || sortOrder != null) {
+                    throw new IllegalArgumentException("Analytics take no selection or sort order " + uri);
+                }
+                cursor = TodoItemAnalytics.query(db, projection);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
+        // Keep a snapshot of the result for the next identical query
+        if (cacheKey != null) {
+            cursor = mQueryCache.put(cacheKey, generation, cursor);
+        }
+
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         // Return the cursor
         return cursor;
     }
 
     /**
-     * Insert new data into the provider with the given ContentValues.
+     * Run a group of queries against one state of the database, and return their results
+     * together, in the order of the queries: counts read by one agree with the rows read by
+     * another, whatever writes land meanwhile.
+     *
+     * The queries run without a transaction, so that they do not hold writers off: with write-ahead
+     * logging, each runs on a reader connection beside the writer. The results are copied in full,
+     * and kept only if the write generation of the query cache was idle and unchanged from before
+     * the first query to after the last, so that no write committed in between. Otherwise the
+     * group is read again after a short backoff. Writers are never held off: if writes keep
+     * landing, no snapshot is returned, and the caller tries again later, for instance on the
+     * change notification those writes send.
+     *
+     * Windowed queries read their rows after they return, so they cannot be part of a group.
+     *
+     * @return the results, or null if writes kept landing during every attempt
      */
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case TODOITEMS:
-                return insertTodoItem(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+    public Cursor[] querySnapshot(CancellationSignal cancellationSignal, TodoItemQuery... queries) {
+        for (TodoItemQuery query : queries) {
+            if (query.isWindowed()) {
+                throw new IllegalArgumentException("Windowed query in a snapshot: " + query.getUri());
+            }
+        }
+
+        TodoItemSnapshot[] snapshots;
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            long generation = mQueryCache.getIdleGeneration();
+            if (generation != TodoItemQueryCache.WRITING) {
+                snapshots = readAll(queries, cancellationSignal);
+                if (mQueryCache.getIdleGeneration() == generation) {
+                    return newCursors(snapshots);
+                }
+            }
+            // Give the write time to finish
+            SystemClock.sleep(1 << attempt);
+        }
+
+        Log.w(LOG_TAG, "Writes kept landing, no snapshot of " + queries.length + " queries after "
+                + SNAPSHOT_ATTEMPTS + " attempts");
+        return null;
+    }
+
+    private TodoItemSnapshot[] readAll(TodoItemQuery[] queries, CancellationSignal cancellationSignal) {
+        TodoItemSnapshot[] snapshots = new TodoItemSnapshot[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            Cursor cursor = queries[i].run(this, cancellationSignal);
+            try {
+                snapshots[i] = TodoItemSnapshot.read(cursor, Integer.MAX_VALUE);
+            } finally {
+                cursor.close();
+            }
+        }
+        return snapshots;
+    }
+
+    private Cursor[] newCursors(TodoItemSnapshot[] snapshots) {
+        ContentResolver resolver = getContext().getContentResolver();
+        Cursor[] cursors = new Cursor[snapshots.length];
+        for (int i = 0; i < snapshots.length; i++) {
+            cursors[i] = snapshots[i].newCursor();
+            cursors[i].setNotificationUri(resolver, ItemEntry.CONTENT_URI);
         }
+        return cursors;
     }
 
     /**
-     * Insert a todoitem into the database with the given content values.
-     * Return the new content URI for that specific row in the database.
+     * Query the todoitems, with a chunked cursor if the URI asks for a windowed query.
+     *
+     * @param count number of rows of a windowed query without groups, if known, or -1
      */
-    private Uri insertTodoItem(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String name = values.getAsString(ItemEntry.COLUMN_ITEM_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("TodoItem requires a name");
+    private static Cursor queryTodoItems(SQLiteDatabase db, Uri uri, String[] projection, String selection,
+                                         String[] selectionArgs, String sortOrder, int count,
+                                         CancellationSignal cancellationSignal) {
+        String groupBy = uri.getQueryParameter(TodoItemContract.QUERY_PARAMETER_GROUP_BY);
+        if (isWindowedQuery(uri, sortOrder) && groupBy != null) {
+            // One chunked cursor per group, sized by a single GROUP BY
+            return TodoItemSectionedCursor.query(db, projection, selection, selectionArgs, groupBy,
+                    isRankOrder(sortOrder), TodoItemWindowedCursor.DEFAULT_CHUNK_SIZE);
+        } else if (isWindowedQuery(uri, sortOrder)) {
+            // The caller opted in to a chunked cursor, which keeps memory flat on large lists
+            return new TodoItemWindowedCursor(db, projection, selection, selectionArgs,
+                    TodoItemWindowedCursor.DEFAULT_CHUNK_SIZE, isRankOrder(sortOrder), count);
         }
-
-        // Check that the priority is valid
-        Integer priority = values.getAsInteger(ItemEntry.COLUMN_ITEM_PRIORITY);
-        if (priority == null || !ItemEntry.isValidPriority(priority)) {
-            throw new IllegalArgumentException("TodoItem requires valid priority");
+        Integer limit = parseIntParameter(uri, TodoItemContract.QUERY_PARAMETER_LIMIT);
+        if (limit != null && limit < 0) {
+            throw new IllegalArgumentException("Invalid limit in " + uri);
         }
+        return db.query(false, ItemEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, limit == null ? null : String.valueOf(limit), cancellationSignal);
+    }
 
-        // Get Writable database
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+    private static long parseListId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
 
-        // Insert the new item with the given values
-        long newRowId = db.insert(ItemEntry.TABLE_NAME, null, values);
+    // The selection of a list URI, which leads with list_id so that SQLite seeks to the list
+    private static String withList(String selection) {
+        String listSelection = ItemEntry.COLUMN_ITEM_LIST_ID + "=?";
+        return TextUtils.isEmpty(selection) ? listSelection : listSelection + " AND (" + selection + ")";
+    }
 
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if(newRowId == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+    private static String[] withListArgs(long listId, String[] selectionArgs) {
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[argCount + 1];
+        args[0] = String.valueOf(listId);
+        if (argCount != 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, argCount);
         }
+        return args;
+    }
 
-        // Notify all listeners that the data has changed for the item content URI
-        getContext().getContentResolver().notifyChange(uri, null);
-
-
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, newRowId);
+    /**
+     * Returns the number of todoitems in the list, kept by the database, or 0 if there is no
+     * such list.
+     */
+    private static int readItemCount(SQLiteDatabase db, long listId) {
+        Cursor cursor = db.query(ListEntry.TABLE_NAME, new String[] { ListEntry.COLUMN_LIST_ITEM_COUNT },
+                ListEntry._ID + "=?", new String[] { String.valueOf(listId) }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
-     * Updates the data at the given selection and selection arguments, with the new ContentValues
+     * Check that the list exists, before an item is written into it.
      */
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case TODOITEMS:
-                return updateTodoItem(uri, contentValues, selection, selectionArgs);
-            case TODOITEM_ID:
-                // For the TODOITEM_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = ItemEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateTodoItem(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+    private static void requireList(SQLiteDatabase db, long listId) {
+        if (DatabaseUtils.queryNumEntries(db, ListEntry.TABLE_NAME, ListEntry._ID + "=?",
+                new String[] { String.valueOf(listId) }) == 0) {
+            throw new IllegalArgumentException("No list with id " + listId);
         }
     }
 
     /**
-     * Update todoitems in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more items).
-     * Return the number of rows that were successfully updated.
+     * Query the todoitems matching a tag filter URI such as
+     * "content://com.codepath.simpletodo/todo/tag/work,home?match=any&status=0".
+     * The tag, status and priority filters are answered by {@link TodoItemBitmapIndex}.
      */
-    private int updateTodoItem(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private Cursor queryByTags(SQLiteDatabase db, Uri uri, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        String[] tagNames = TextUtils.split(uri.getLastPathSegment(), ",");
+        boolean matchAll = !TodoItemContract.MATCH_ANY.equals(
+                uri.getQueryParameter(TodoItemContract.QUERY_PARAMETER_MATCH));
+        Integer status = parseIntParameter(uri, TodoItemContract.QUERY_PARAMETER_STATUS);
+        Integer priority = parseIntParameter(uri, TodoItemContract.QUERY_PARAMETER_PRIORITY);
 
-        // If the {@link ItemEntry#COLUMN_ITEM_NAME} key is present,
-        // check that the name value is not null.
-        if(values.containsKey(ItemEntry.COLUMN_ITEM_NAME)) {
-            String name = values.getAsString(ItemEntry.COLUMN_ITEM_NAME);
-            if(name == null) {
-                throw new IllegalArgumentException("TodoItem requires a name");
-            }
+        mBitmapIndex.ensureLoaded(db);
+        int[] ids = mBitmapIndex.query(tagNames, matchAll, status, priority);
+        return queryByIds(db, ids, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+    }
+
+    /**
+     * Read the todoitems with the given ids, which come from one of the in-memory indexes.
+     *
+     * A few ids are inlined into a single query. Past {@link #MAX_INLINE_IDS}, which a broad
+     * filter reaches on a large table, that statement would outgrow what SQLite compiles, so the
+     * ids the selection keeps are put in order first, reading ids only, and the rows are then
+     * read by a {@link TodoItemIdCursor}, a bounded chunk of ids at a time.
+     */
+    private static Cursor queryByIds(SQLiteDatabase db, int[] ids, String[] projection, String selection,
+                                     String[] selectionArgs, String sortOrder,
+                                     CancellationSignal cancellationSignal) {
+        if (ids.length > MAX_INLINE_IDS) {
+            int[] sortedIds = ids.clone();
+            Arrays.sort(sortedIds);
+            long[] orderedIds = TextUtils.isEmpty(sortOrder)
+                    ? filterIds(db, sortedIds, selection, selectionArgs, cancellationSignal)
+                    : readOrderedIds(db, ItemEntry.TABLE_NAME, sortedIds, false, selection, selectionArgs,
+                            sortOrder, cancellationSignal);
+            return new TodoItemIdCursor(db, ItemEntry.TABLE_NAME, projection, orderedIds,
+                    TodoItemIdCursor.DEFAULT_CHUNK_SIZE);
         }
 
-        // If the {@link ItemEntry#COLUMN_ITEM_PRIORITY} key is present,
-        // check that the priority value is valid.
-        if (values.containsKey(ItemEntry.COLUMN_ITEM_PRIORITY)) {
-            Integer priority = values.getAsInteger(ItemEntry.COLUMN_ITEM_PRIORITY);
-            if (priority == null || !ItemEntry.isValidPriority(priority)) {
-                throw new IllegalArgumentException("Item requires valid priority");
+        // The ids come from the index, not from the caller, so they are safe to inline
+        StringBuilder idSelection = new StringBuilder(ids.length * 7 + 16);
+        idSelection.append(ItemEntry._ID).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                idSelection.append(',');
             }
+            idSelection.append(ids[i]);
         }
-
-        // If there are no values to update, then don't try to update the database
-        if (values.size() == 0) {
-            return 0;
+        idSelection.append(')');
+        if (!TextUtils.isEmpty(selection)) {
+            idSelection.append(" AND (").append(selection).append(')');
         }
+        return db.query(false, ItemEntry.TABLE_NAME, projection, idSelection.toString(), selectionArgs,
+                null, null, sortOrder, null, cancellationSignal);
+    }
 
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+    /**
+     * Returns the sorted ids the selection keeps, checked a chunk of ids at a time through the
+     * primary key. Without a selection, every id is kept.
+     */
+    private static long[] filterIds(SQLiteDatabase db, int[] sortedIds, String selection, String[] selectionArgs,
+                                    CancellationSignal cancellationSignal) {
+        long[] kept = new long[sortedIds.length];
+        if (TextUtils.isEmpty(selection)) {
+            for (int i = 0; i < sortedIds.length; i++) {
+                kept[i] = sortedIds[i];
+            }
+            return kept;
+        }
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = db.update(ItemEntry.TABLE_NAME, values, selection, selectionArgs);
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        int keptCount = 0;
+        for (int start = 0; start < sortedIds.length; start += TodoItemIdCursor.DEFAULT_CHUNK_SIZE) {
+            int end = Math.min(sortedIds.length, start + TodoItemIdCursor.DEFAULT_CHUNK_SIZE);
+            StringBuilder where = new StringBuilder();
+            where.append(ItemEntry._ID).append(" IN (");
+            String[] args = new String[end - start + argCount];
+            for (int i = start; i < end; i++) {
+                where.append(i == start ? "?" : ",?");
+                args[i - start] = String.valueOf(sortedIds[i]);
+            }
+            where.append(") AND (").append(selection).append(')');
+            if (argCount != 0) {
+                System.arraycopy(selectionArgs, 0, args, end - start, argCount);
+            }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            Cursor cursor = db.query(false, ItemEntry.TABLE_NAME, new String[] { ItemEntry._ID },
+                    where.toString(), args, null, null, ItemEntry._ID, null, cancellationSignal);
+            try {
+                while (cursor.moveToNext()) {
+                    kept[keptCount++] = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
         }
+        return Arrays.copyOf(kept, keptCount);
+    }
 
-        // Return the number of rows updated
-        return rowsUpdated;
+    /**
+     * Returns the ids of the rows the selection matches, in the sort order, keeping those among
+     * the sorted ids. Only the ids are read, through the indexes of the selection and the order.
+     *
+     * @param keepArchived whether to keep every archived row too, for a table that has them
+     */
+    private static long[] readOrderedIds(SQLiteDatabase db, String table, int[] sortedIds, boolean keepArchived,
+                                         String selection, String[] selectionArgs, String sortOrder,
+                                         CancellationSignal cancellationSignal) {
+        long[] kept = new long[sortedIds.length];
+        int keptCount = 0;
+        String[] columns = keepArchived
+                ? new String[] { ItemEntry._ID, ItemEntry.COLUMN_ITEM_ARCHIVED }
+                : new String[] { ItemEntry._ID };
+        Cursor cursor = db.query(false, table, columns, selection, selectionArgs, null, null, sortOrder,
+                null, cancellationSignal);
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                if ((keepArchived && cursor.getInt(1) != 0) || Arrays.binarySearch(sortedIds, (int) id) >= 0) {
+                    if (keptCount == kept.length) {
+                        kept = Arrays.copyOf(kept, keptCount * 2 + 16);
+                    }
+                    kept[keptCount++] = id;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return Arrays.copyOf(kept, keptCount);
     }
 
     /**
-     * Delete the data at the given selection and selection arguments.
+     * Search the todoitems and the archive together, through the union view. Hot items are
+     * the ones found by the prefix index; the rarely searched archive has no index, and is
+     * matched with LIKE on the start of each word.
+     *
+     * As in {@link #queryByIds}, a short prefix matching more than {@link #MAX_INLINE_IDS} hot
+     * items is not inlined: the ids of the hot rows the selection keeps and of the archived
+     * matches are put in order first, and a {@link TodoItemIdCursor} reads their rows in chunks.
      */
-    @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writeable database
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+    private static Cursor searchWithArchive(SQLiteDatabase db, int[] hotIds, String text, String[] projection,
+                                            String selection, String[] selectionArgs, String sortOrder,
+                                            CancellationSignal cancellationSignal) {
+        boolean inline = hotIds.length <= MAX_INLINE_IDS;
+        String[] tokens = TodoItemPrefixIndex.tokenize(text);
+        StringBuilder where = new StringBuilder();
+        where.append("((").append(ItemEntry.COLUMN_ITEM_ARCHIVED).append(" = 0");
+        if (inline) {
+            where.append(" AND ").append(ItemEntry._ID).append(" IN (");
+            for (int i = 0; i < hotIds.length; i++) {
+                if (i > 0) {
+                    where.append(',');
+                }
+                where.append(hotIds[i]);
+            }
+            where.append(')');
+        }
+        where.append(") OR (").append(ItemEntry.COLUMN_ITEM_ARCHIVED).append(" = 1");
 
-        // Track the number of rows that were deleted
-        int rowsDeleted;
+        // Tokens are letters and digits only, so they need no escaping in a LIKE pattern
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[tokens.length + argCount];
+        for (int i = 0; i < tokens.length; i++) {
+            where.append(" AND (' ' || ").append(ItemEntry.COLUMN_ITEM_NAME).append(") LIKE ?");
+            args[i] = "% " + tokens[i] + "%";
+        }
+        where.append("))");
+        if (!TextUtils.isEmpty(selection)) {
+            where.append(" AND (").append(selection).append(')');
+        }
+        if (argCount != 0) {
+            System.arraycopy(selectionArgs, 0, args, tokens.length, argCount);
+        }
+        if (!inline) {
+            int[] sortedIds = hotIds.clone();
+            Arrays.sort(sortedIds);
+            long[] orderedIds = readOrderedIds(db, ArchiveEntry.VIEW_ALL_NAME, sortedIds, true, where.toString(),
+                    args, sortOrder, cancellationSignal);
+            return new TodoItemIdCursor(db, ArchiveEntry.VIEW_ALL_NAME, projection, orderedIds,
+                    TodoItemIdCursor.DEFAULT_CHUNK_SIZE);
+        }
+        return db.query(false, ArchiveEntry.VIEW_ALL_NAME, projection, where.toString(), args,
+                null, null, sortOrder, null, cancellationSignal);
+    }
 
-        final int match = sUriMatcher.match(uri);
+    private static Integer parseIntParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (TextUtils.isEmpty(value)) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " in " + uri);
+        }
+    }
+
+    /**
+     * Returns whether queries of the given URI matcher code watch the whole todoitems table
+     * rather than their own URI for changes.
+     */
+    private static boolean watchesTable(int match) {
         switch (match) {
-            case TODOITEMS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = db.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case TODOITEM_ID:
-                // Delete a single row given by the ID in the URI
-                selection = ItemEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = db.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+            case TODOITEMS_TAG:
+            case TODOITEMS_SEARCH:
+            case TODOITEM_SUBTREE:
+            case ANALYTICS:
+                // Filtered queries depend on every row
+                return true;
+            case LISTS:
+            case LIST_ID:
+            case LIST_TODOITEMS:
+                // The counts of lists change with the items, and list writes notify the table
+                return true;
             default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+                return false;
         }
+    }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Returns whether the list query asked for a {@link TodoItemWindowedCursor}.
+     * Windowed cursors are ordered by _id or by rank, so any other sort order falls back
+     * to a regular query.
+     */
+    private static boolean isWindowedQuery(Uri uri, String sortOrder) {
+        if (!uri.getBooleanQueryParameter(TodoItemContract.QUERY_PARAMETER_WINDOWED, false)) {
+            return false;
         }
+        return sortOrder == null
+                || sortOrder.trim().equalsIgnoreCase(ItemEntry._ID)
+                || sortOrder.trim().equalsIgnoreCase(ItemEntry._ID + " ASC")
+                || isRankOrder(sortOrder);
+    }
 
-        // Return the number of rows deleted
-        return rowsDeleted;
+    private static boolean isRankOrder(String sortOrder) {
+        return sortOrder != null
+                && (sortOrder.trim().equalsIgnoreCase(ItemEntry.COLUMN_ITEM_RANK)
+                || sortOrder.trim().equalsIgnoreCase(ItemEntry.COLUMN_ITEM_RANK + " ASC"));
     }
 
     /**
-     * Returns the MIME type of data for the content URI
+     * Insert new data into the provider with the given ContentValues.
      */
     @Override
-    public String getType(Uri uri) {
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        PerfTrace.begin("TodoItemProvider.insert");
+        try {
+            return doInsert(uri, contentValues);
+        } finally {
+            PerfTrace.end();
+        }
+    }
+
+    private Uri doInsert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case TODOITEMS:
-                return ItemEntry.CONTENT_LIST_TYPE;
-            case TODOITEM_ID:
-                return ItemEntry.CONTENT_ITEM_TYPE;
+        // Drafts are saved at every pause in typing: they leave the cache and the observers alone
+        if (match == DRAFTS) {
+            return insertDraft(contentValues);
+        }
+        mQueryCache.onWriteStarted();
+        try {
+            switch (match) {
+                case TODOITEMS:
+                    return insertTodoItem(uri, contentValues);
+                case LIST_TODOITEMS:
+                    // Items of a list URI go to that list, and are notified as items of the table
+                    return insertTodoItem(ItemEntry.CONTENT_URI, withListId(contentValues, parseListId(uri)));
+                case TODOITEM_TAG:
+                    return tagTodoItem(uri);
+                case TAGS:
+                    return insertTag(uri, contentValues);
+                case LISTS:
+                    return insertList(uri, contentValues);
+                case RECURRENCES:
+                    return insertRecurrence(uri, contentValues);
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            mQueryCache.onWriteFinished();
+        }
+    }
+
+    /**
+     * Insert a todoitem into the database with the given content values.
+     * Return the new content URI for that specific row in the database.
+     */
+    private Uri insertTodoItem(Uri uri, ContentValues values) {
+        // Check that the name and priority are valid
+        validateNewTodoItem(values);
+
+        // Get Writable database
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // Insert the new item with the given values, at the end of the list
+        long newRowId;
+        db.beginTransaction();
+        try {
+            values = withParentList(db, values);
+            Long listId = values.getAsLong(ItemEntry.COLUMN_ITEM_LIST_ID);
+            if (listId != null) {
+                requireList(db, listId);
+            }
+            newRowId = db.insert(ItemEntry.TABLE_NAME, null, newItemValues(values, TodoItemRanks.nextRank(db)));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if(newRowId == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Update the reminders and in-memory indexes with the new item
+        onTodoItemInserted(newRowId, values);
+
+        // Notify all listeners that the data has changed, with the URI of the new row, so that
+        // observers of single rows can follow it
+        Uri itemUri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, newRowId);
+        getContext().getContentResolver().notifyChange(itemUri, null);
+
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, newRowId);
+    }
+
+    /**
+     * Returns the values of a new todoitem, in the list of its parent if it is a subtask.
+     */
+    private static ContentValues withParentList(SQLiteDatabase db, ContentValues values) {
+        Long parentId = values.getAsLong(ItemEntry.COLUMN_ITEM_PARENT_ID);
+        if (parentId == null) {
+            return values;
+        }
+        long parentListId = TodoItemSubtasks.requireParent(db, parentId);
+        Long listId = values.getAsLong(ItemEntry.COLUMN_ITEM_LIST_ID);
+        if (listId != null && listId != parentListId) {
+            throw new IllegalArgumentException("A subtask must be in the list of its parent");
+        }
+        return withListId(values, parentListId);
+    }
+
+    /**
+     * Returns a copy of the values of new todoitems, in the given list.
+     */
+    private static ContentValues withListId(ContentValues values, long listId) {
+        ContentValues listValues = new ContentValues(values);
+        listValues.put(ItemEntry.COLUMN_ITEM_LIST_ID, listId);
+        return listValues;
+    }
+
+    /**
+     * Insert a list with the given name. Return the content URI of the list.
+     */
+    private Uri insertList(Uri uri, ContentValues values) {
+        validateList(values);
+        if (!values.containsKey(ListEntry.COLUMN_LIST_NAME)) {
+            throw new IllegalArgumentException("List requires a name");
+        }
+        long listId = mDbHelper.getWritableDatabase().insert(ListEntry.TABLE_NAME, null, values);
+        if (listId == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        return ContentUris.withAppendedId(uri, listId);
+    }
+
+    /**
+     * Check that the given content values are valid for a list: a non-empty name, if any,
+     * and no counts, which are the database's to maintain.
+     */
+    private static void validateList(ContentValues values) {
+        if (values.containsKey(ListEntry.COLUMN_LIST_NAME)
+                && TextUtils.getTrimmedLength(String.valueOf(values.getAsString(ListEntry.COLUMN_LIST_NAME))) == 0) {
+            throw new IllegalArgumentException("List requires a name");
+        }
+        if (values.containsKey(ListEntry.COLUMN_LIST_ITEM_COUNT) || values.containsKey(ListEntry.COLUMN_LIST_DONE_COUNT)) {
+            throw new IllegalArgumentException("The counts of a list cannot be written");
+        }
+    }
+
+    /**
+     * Insert a recurrence rule, and its first instance. Return the content URI of the rule.
+     */
+    private Uri insertRecurrence(Uri uri, ContentValues values) {
+        ContentValues ruleValues = newRecurrenceValues(values);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long recurrenceId;
+        int instancesCreated = 0;
+        ContentValues[] instances = null;
+        long[] instanceIds = null;
+        db.beginTransaction();
+        try {
+            requireList(db, ruleValues.getAsLong(RecurrenceEntry.COLUMN_RECURRENCE_LIST_ID));
+            recurrenceId = db.insert(RecurrenceEntry.TABLE_NAME, null, ruleValues);
+            if (recurrenceId != -1) {
+                ContentValues first = TodoItemRecurrences.nextInstance(db, recurrenceId, Long.MIN_VALUE);
+                if (first != null) {
+                    instances = new ContentValues[] { first };
+                    instanceIds = new long[1];
+                    instancesCreated = insertTodoItems(db, instances, 1, instanceIds);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (recurrenceId == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+        if (instancesCreated != 0) {
+            onTodoItemsInserted(instances, instanceIds, instances.length);
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+        return ContentUris.withAppendedId(uri, recurrenceId);
+    }
+
+    /**
+     * Returns the values of a new recurrence rule, checked, with the rule in its canonical form
+     * and the defaults of the time zone and list. No occurrence has been considered yet.
+     */
+    private static ContentValues newRecurrenceValues(ContentValues values) {
+        if (values.getAsString(RecurrenceEntry.COLUMN_RECURRENCE_NAME) == null) {
+            throw new IllegalArgumentException("Recurrence requires a name");
+        }
+        Integer priority = values.getAsInteger(RecurrenceEntry.COLUMN_RECURRENCE_PRIORITY);
+        if (priority == null || !ItemEntry.isValidPriority(priority)) {
+            throw new IllegalArgumentException("Recurrence requires valid priority");
+        }
+        Long startAt = values.getAsLong(RecurrenceEntry.COLUMN_RECURRENCE_START_AT);
+        if (startAt == null) {
+            throw new IllegalArgumentException("Recurrence requires a start time");
+        }
+        if (values.containsKey(RecurrenceEntry.COLUMN_RECURRENCE_MATERIALIZED_UNTIL)) {
+            throw new IllegalArgumentException("The materialized time of a recurrence cannot be written");
+        }
+        ContentValues ruleValues = new ContentValues(values);
+        ruleValues.put(RecurrenceEntry.COLUMN_RECURRENCE_RULE,
+                RecurrenceRule.parse(values.getAsString(RecurrenceEntry.COLUMN_RECURRENCE_RULE)).toString());
+        if (values.getAsString(RecurrenceEntry.COLUMN_RECURRENCE_TIME_ZONE) == null) {
+            ruleValues.put(RecurrenceEntry.COLUMN_RECURRENCE_TIME_ZONE, TimeZone.getDefault().getID());
+        }
+        if (values.getAsLong(RecurrenceEntry.COLUMN_RECURRENCE_LIST_ID) == null) {
+            ruleValues.put(RecurrenceEntry.COLUMN_RECURRENCE_LIST_ID, ListEntry.DEFAULT_LIST_ID);
+        }
+        ruleValues.put(RecurrenceEntry.COLUMN_RECURRENCE_MATERIALIZED_UNTIL, startAt);
+        return ruleValues;
+    }
+
+    /**
+     * Insert the draft of a todoitem, replacing its previous draft, without notifying anyone.
+     * Return the content URI of the draft.
+     */
+    private Uri insertDraft(ContentValues values) {
+        Long itemId = values.getAsLong(DraftEntry.COLUMN_DRAFT_ITEM_ID);
+        if (itemId == null || itemId < 0) {
+            throw new IllegalArgumentException("Draft requires an item id");
+        }
+        Integer priority = values.getAsInteger(DraftEntry.COLUMN_DRAFT_PRIORITY);
+        if (priority != null && !ItemEntry.isValidPriority(priority)) {
+            throw new IllegalArgumentException("Draft requires valid priority");
+        }
+        ContentValues draftValues = new ContentValues(values);
+        draftValues.put(DraftEntry.COLUMN_DRAFT_UPDATED_AT, System.currentTimeMillis());
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        if (db.insertWithOnConflict(DraftEntry.TABLE_NAME, null, draftValues, SQLiteDatabase.CONFLICT_REPLACE) == -1) {
+            Log.e(LOG_TAG, "Failed to insert draft of " + itemId);
+            return null;
+        }
+        return DraftEntry.buildDraftUri(itemId);
+    }
+
+    /**
+     * Insert the instances of recurring todoitems, in the caller's transaction, and store their
+     * ids in ids. Return the number of instances inserted.
+     */
+    private int insertInstances(SQLiteDatabase db, ContentValues[] instances, long[] ids) {
+        if (instances.length == 0) {
+            return 0;
+        }
+        return insertTodoItems(db, instances, instances.length, ids);
+    }
+
+    /**
+     * Create the next instance of the recurring todoitems finished by the last write, if any.
+     * Cheap when none was: the table the trigger fills is then empty.
+     */
+    private void followUpRecurrences() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        if (!TodoItemRecurrences.hasFinished(db)) {
+            return;
+        }
+        int instancesCreated;
+        ContentValues[] instances;
+        long[] instanceIds;
+        db.beginTransaction();
+        try {
+            instances = toArray(TodoItemRecurrences.followUpFinished(db, System.currentTimeMillis()));
+            instanceIds = new long[instances.length];
+            instancesCreated = insertInstances(db, instances, instanceIds);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (instancesCreated != 0) {
+            onTodoItemsInserted(instances, instanceIds, instances.length);
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * Insert a tag with the given name. Return the content URI of the tag.
+     */
+    private Uri insertTag(Uri uri, ContentValues values) {
+        String name = values.getAsString(TagEntry.COLUMN_TAG_NAME);
+        if (TextUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("Tag requires a name");
+        }
+        long tagId = findOrCreateTag(mDbHelper.getWritableDatabase(), name);
+        getContext().getContentResolver().notifyChange(uri, null);
+        return ContentUris.withAppendedId(uri, tagId);
+    }
+
+    /**
+     * Returns the id of the tag with the given name, creating the tag if needed.
+     */
+    private long findOrCreateTag(SQLiteDatabase db, String name) {
+        Cursor cursor = db.query(TagEntry.TABLE_NAME, new String[] { TagEntry._ID },
+                TagEntry.COLUMN_TAG_NAME + "=?", new String[] { name }, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        ContentValues values = new ContentValues();
+        values.put(TagEntry.COLUMN_TAG_NAME, name);
+        long tagId = db.insertWithOnConflict(TagEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        if (tagId == -1) {
+            // Another thread created the tag in the meantime
+            return findOrCreateTag(db, name);
+        }
+        mBitmapIndex.onTagCreated(tagId, name);
+        return tagId;
+    }
+
+    /**
+     * Add the tag named in a URI such as "content://com.codepath.simpletodo/todo/3/tag/work"
+     * to the todoitem, creating the tag if needed. Return the URI, or null if the item
+     * already had the tag.
+     */
+    private Uri tagTodoItem(Uri uri) {
+        long itemId = Long.parseLong(uri.getPathSegments().get(1));
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long tagId = findOrCreateTag(db, uri.getLastPathSegment());
+
+        ContentValues values = new ContentValues();
+        values.put(ItemTagEntry.COLUMN_ITEM_ID, itemId);
+        values.put(ItemTagEntry.COLUMN_TAG_ID, tagId);
+        if (db.insertWithOnConflict(ItemTagEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE) == -1) {
+            return null;
+        }
+        mBitmapIndex.onItemTagged(itemId, tagId, true);
+        getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        return uri;
+    }
+
+    /**
+     * Remove the tag named in the URI from the todoitem. Return the number of rows deleted.
+     */
+    private int untagTodoItem(Uri uri) {
+        long itemId = Long.parseLong(uri.getPathSegments().get(1));
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        Cursor cursor = db.query(TagEntry.TABLE_NAME, new String[] { TagEntry._ID },
+                TagEntry.COLUMN_TAG_NAME + "=?", new String[] { uri.getLastPathSegment() },
+                null, null, null);
+        long tagId;
+        try {
+            if (!cursor.moveToFirst()) {
+                return 0;
+            }
+            tagId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        int rowsDeleted = db.delete(ItemTagEntry.TABLE_NAME,
+                ItemTagEntry.COLUMN_ITEM_ID + "=? AND " + ItemTagEntry.COLUMN_TAG_ID + "=?",
+                new String[] { String.valueOf(itemId), String.valueOf(tagId) });
+        if (rowsDeleted != 0) {
+            mBitmapIndex.onItemTagged(itemId, tagId, false);
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Check that the given content values describe a valid new todoitem.
+     */
+    private void validateNewTodoItem(ContentValues values) {
+        // Check that the name is not null
+        String name = values.getAsString(ItemEntry.COLUMN_ITEM_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("TodoItem requires a name");
+        }
+
+        // Check that the priority is valid
+        Integer priority = values.getAsInteger(ItemEntry.COLUMN_ITEM_PRIORITY);
+        if (priority == null || !ItemEntry.isValidPriority(priority)) {
+            throw new IllegalArgumentException("TodoItem requires valid priority");
+        }
+    }
+
+    /**
+     * Returns the values of a new todoitem with its content hash, and with the given rank
+     * unless the caller set one.
+     */
+    private static ContentValues newItemValues(ContentValues values, long rank) {
+        ContentValues newValues = new ContentValues(values);
+        if (!values.containsKey(ItemEntry.COLUMN_ITEM_RANK)) {
+            newValues.put(ItemEntry.COLUMN_ITEM_RANK, rank);
+        }
+        newValues.put(ItemEntry.COLUMN_ITEM_CONTENT_HASH, TodoItemContentHash.of(
+                values.getAsString(ItemEntry.COLUMN_ITEM_NAME), values.getAsString(ItemEntry.COLUMN_ITEM_NOTES)));
+        return newValues;
+    }
+
+    /**
+     * Insert many todoitems in a single transaction, and notify listeners only once.
+     * Return the number of rows that were successfully inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        PerfTrace.begin("TodoItemProvider.bulkInsert");
+        try {
+            return doBulkInsert(uri, values);
+        } finally {
+            PerfTrace.end();
+        }
+    }
+
+    private int doBulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match == LIST_TODOITEMS) {
+            long listId = parseListId(uri);
+            ContentValues[] listValues = new ContentValues[values.length];
+            for (int i = 0; i < values.length; i++) {
+                listValues[i] = withListId(values[i], listId);
+            }
+            values = listValues;
+            uri = ItemEntry.CONTENT_URI;
+        } else if (match != TODOITEMS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // The cache is bypassed until the whole batch is written
+        int rowsInserted;
+        long[] ids = new long[values.length];
+        mQueryCache.onWriteStarted();
+        try {
+            rowsInserted = insertTodoItems(mDbHelper.getWritableDatabase(), values, values.length, ids);
+        } finally {
+            mQueryCache.onWriteFinished();
+        }
+        onTodoItemsInserted(values, ids, values.length);
+
+        // Notify all listeners once for the whole batch
+        if (rowsInserted != 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        // Return the number of rows inserted
+        return rowsInserted;
+    }
+
+    /**
+     * Insert the first count values in one transaction, at the end of the list, and store the
+     * new ids, or -1 for rows that were not inserted, in ids. Return the number of rows that
+     * were successfully inserted.
+     *
+     * The transaction may be nested in the caller's, so the caller brings the reminders and
+     * in-memory indexes in line with {@link #onTodoItemsInserted} once the outermost one
+     * committed: a reminder armed for a row that was rolled back would never be cancelled.
+     */
+    private int insertTodoItems(SQLiteDatabase db, ContentValues[] values, int count, long[] ids) {
+        int rowsInserted = 0;
+        db.beginTransaction();
+        try {
+            // The batch is appended in order, at the end of the list
+            long rank = TodoItemRanks.nextRank(db);
+            long checkedListId = ListEntry.DEFAULT_LIST_ID;
+            for (int i = 0; i < count; i++) {
+                ContentValues itemValues = values[i];
+                validateNewTodoItem(itemValues);
+                itemValues = withParentList(db, itemValues);
+                // Batches usually go to a single list, so it is looked up once
+                Long listId = itemValues.getAsLong(ItemEntry.COLUMN_ITEM_LIST_ID);
+                if (listId != null && listId != checkedListId) {
+                    requireList(db, listId);
+                    checkedListId = listId;
+                }
+                long newRowId = db.insert(ItemEntry.TABLE_NAME, null, newItemValues(itemValues, rank));
+                rank += TodoItemRanks.GAP;
+                if (newRowId != -1) {
+                    rowsInserted++;
+                }
+                ids[i] = newRowId;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Updates the data at the given selection and selection arguments, with the new ContentValues
+     */
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        PerfTrace.begin("TodoItemProvider.update");
+        try {
+            return doUpdate(uri, contentValues, selection, selectionArgs);
+        } finally {
+            PerfTrace.end();
+        }
+    }
+
+    private int doUpdate(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        mQueryCache.onWriteStarted();
+        try {
+            switch (match) {
+                case TODOITEMS:
+                    return updateTodoItem(uri, contentValues, selection, selectionArgs);
+                case TODOITEM_ID:
+                    // For the TODOITEM_ID code, extract out the ID from the URI,
+                    // so we know which row to update. Selection will be "_id=?" and selection
+                    // arguments will be a String array containing the actual ID.
+                    selection = ItemEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+
+                    // A compare-and-set update also requires the version the caller last read
+                    String expectedVersion = uri.getQueryParameter(TodoItemContract.QUERY_PARAMETER_EXPECTED_VERSION);
+                    if (expectedVersion != null) {
+                        selection += " AND " + ItemEntry.COLUMN_ITEM_VERSION + "=?";
+                        selectionArgs = new String[] { selectionArgs[0], parseVersion(expectedVersion) };
+                    }
+                    return updateTodoItem(uri, contentValues, selection, selectionArgs);
+                case LIST_TODOITEMS:
+                    return updateTodoItem(ItemEntry.CONTENT_URI, contentValues, withList(selection),
+                            withListArgs(parseListId(uri), selectionArgs));
+                case LIST_ID:
+                    return updateList(uri, contentValues);
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        } finally {
+            mQueryCache.onWriteFinished();
+        }
+    }
+
+    /**
+     * Update todoitems in the database with the given content values. Apply the changes to the rows
+     * specified in the selection and selection arguments (which could be 0 or 1 or more items).
+     * Return the number of rows that were successfully updated.
+     */
+    private int updateTodoItem(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+
+        // If the {@link ItemEntry#COLUMN_ITEM_NAME} key is present,
+        // check that the name value is not null.
+        if(values.containsKey(ItemEntry.COLUMN_ITEM_NAME)) {
+            String name = values.getAsString(ItemEntry.COLUMN_ITEM_NAME);
+            if(name == null) {
+                throw new IllegalArgumentException("TodoItem requires a name");
+            }
+        }
+
+        // If the {@link ItemEntry#COLUMN_ITEM_PRIORITY} key is present,
+        // check that the priority value is valid.
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_PRIORITY)) {
+            Integer priority = values.getAsInteger(ItemEntry.COLUMN_ITEM_PRIORITY);
+            if (priority == null || !ItemEntry.isValidPriority(priority)) {
+                throw new IllegalArgumentException("Item requires valid priority");
+            }
+        }
+
+        // Items can only move to a list that exists
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_LIST_ID)) {
+            Long listId = values.getAsLong(ItemEntry.COLUMN_ITEM_LIST_ID);
+            if (listId == null) {
+                throw new IllegalArgumentException("TodoItem requires a list");
+            }
+            requireList(mDbHelper.getReadableDatabase(), listId);
+        }
+
+        // The version and content hash are the provider's to maintain
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_VERSION)) {
+            throw new IllegalArgumentException("The version of an item cannot be written");
+        }
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_CONTENT_HASH)) {
+            throw new IllegalArgumentException("The content hash of an item cannot be written");
+        }
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_RECURRENCE_ID)) {
+            throw new IllegalArgumentException("The recurrence of an item cannot be written");
+        }
+
+        // A parent must exist, and must not be below the items given to it
+        Long parentId = values.getAsLong(ItemEntry.COLUMN_ITEM_PARENT_ID);
+        if (parentId != null) {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            TodoItemSubtasks.requireParent(db, parentId);
+            TodoItemSubtasks.requireNoCycle(db, parentId, selection, selectionArgs);
+        }
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Otherwise, get writeable database to update the data
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // Perform the update on the database and get the number of rows affected.
+        // On a version mismatch no row matches, so nothing is written or notified.
+        int rowsUpdated;
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_NAME) || values.containsKey(ItemEntry.COLUMN_ITEM_NOTES)) {
+            rowsUpdated = updateWithContentHash(db, values, selection, selectionArgs);
+        } else {
+            rowsUpdated = updateWithVersion(db, values, selection, selectionArgs);
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsUpdated != 0) {
+            // The status and list of an item cascade to its subtasks, which changed too then
+            if (sUriMatcher.match(uri) == TODOITEM_ID && cascadesToSubtasks(values)
+                    && TodoItemSubtasks.hasSubtasks(db, ContentUris.parseId(uri))) {
+                uri = ItemEntry.CONTENT_URI;
+            }
+            onTodoItemsUpdated(uri, values);
+            getContext().getContentResolver().notifyChange(uri, null);
+            if (values.containsKey(ItemEntry.COLUMN_ITEM_STATUS)) {
+                followUpRecurrences();
+            }
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    private static boolean cascadesToSubtasks(ContentValues values) {
+        return values.containsKey(ItemEntry.COLUMN_ITEM_STATUS) || values.containsKey(ItemEntry.COLUMN_ITEM_LIST_ID)
+                || values.containsKey(ItemEntry.COLUMN_ITEM_PARENT_ID);
+    }
+
+    /**
+     * Rename a list. Return the number of lists updated.
+     */
+    private int updateList(Uri uri, ContentValues values) {
+        validateList(values);
+        if (values.size() == 0) {
+            return 0;
+        }
+        int rowsUpdated = mDbHelper.getWritableDatabase().update(ListEntry.TABLE_NAME, values,
+                ListEntry._ID + "=?", new String[] { String.valueOf(ContentUris.parseId(uri)) });
+        if (rowsUpdated != 0) {
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Update the rows like {@link SQLiteDatabase#update}, and bump their version in the
+     * same statement.
+     */
+    private static int updateWithVersion(SQLiteDatabase db, ContentValues values, String selection,
+                                         String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("UPDATE ").append(ItemEntry.TABLE_NAME).append(" SET ");
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        Object[] bindArgs = new Object[values.size() + argCount];
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(column).append("=?, ");
+            bindArgs[i++] = values.get(column);
+        }
+        sql.append(ItemEntry.COLUMN_ITEM_VERSION).append('=').append(ItemEntry.COLUMN_ITEM_VERSION).append(" + 1");
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE ").append(selection);
+        }
+        for (int j = 0; j < argCount; j++) {
+            bindArgs[i++] = selectionArgs[j];
+        }
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            for (int j = 0; j < bindArgs.length; j++) {
+                DatabaseUtils.bindObjectToProgram(statement, j + 1, bindArgs[j]);
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Update rows whose name or notes change, and their content hash in the same transaction.
+     * With both fields given, the hash is written along with them; otherwise the ids of the
+     * matching rows are read first, since the selection may not match them after the update,
+     * and their hash is recomputed from the updated rows.
+     *
+     * SQLite cannot run the hash, so the rows are hashed one by one. They are updated a bounded
+     * chunk of ids at a time, the ids bound as arguments, so that no statement grows with the
+     * number of rows; the ids are read and every chunk written in one transaction, so that the
+     * update is all or nothing, and applies to exactly the rows the selection matched.
+     */
+    private static int updateWithContentHash(SQLiteDatabase db, ContentValues values, String selection,
+                                             String[] selectionArgs) {
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_NAME) && values.containsKey(ItemEntry.COLUMN_ITEM_NOTES)) {
+            ContentValues hashedValues = new ContentValues(values);
+            hashedValues.put(ItemEntry.COLUMN_ITEM_CONTENT_HASH, TodoItemContentHash.of(
+                    values.getAsString(ItemEntry.COLUMN_ITEM_NAME), values.getAsString(ItemEntry.COLUMN_ITEM_NOTES)));
+            return updateWithVersion(db, hashedValues, selection, selectionArgs);
+        }
+
+        db.beginTransaction();
+        try {
+            long[] ids = new long[16];
+            int idCount = 0;
+            Cursor cursor = db.query(ItemEntry.TABLE_NAME, new String[] { ItemEntry._ID },
+                    selection, selectionArgs, null, null, ItemEntry._ID);
+            try {
+                while (cursor.moveToNext()) {
+                    if (idCount == ids.length) {
+                        ids = Arrays.copyOf(ids, idCount * 2);
+                    }
+                    ids[idCount++] = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            int rowsUpdated = 0;
+            for (int start = 0; start < idCount; start += TodoItemIdCursor.DEFAULT_CHUNK_SIZE) {
+                int end = Math.min(idCount, start + TodoItemIdCursor.DEFAULT_CHUNK_SIZE);
+                StringBuilder idSelection = new StringBuilder();
+                idSelection.append(ItemEntry._ID).append(" IN (");
+                String[] idArgs = new String[end - start];
+                for (int i = start; i < end; i++) {
+                    idSelection.append(i == start ? "?" : ",?");
+                    idArgs[i - start] = String.valueOf(ids[i]);
+                }
+                idSelection.append(')');
+
+                rowsUpdated += updateWithVersion(db, values, idSelection.toString(), idArgs);
+                TodoItemDbHelper.updateContentHashes(db, idSelection.toString(), idArgs);
+            }
+            db.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static String parseVersion(String version) {
+        try {
+            return String.valueOf(Long.parseLong(version));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid version " + version);
+        }
+    }
+
+    /**
+     * Bring the reminders and in-memory indexes in line with the first count todoitems of a
+     * committed batch, skipping the rows whose id is -1.
+     */
+    private void onTodoItemsInserted(ContentValues[] values, long[] ids, int count) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] != -1) {
+                onTodoItemInserted(ids[i], values[i]);
+            }
+        }
+    }
+
+    private static ContentValues[] toArray(List<ContentValues> values) {
+        return values.toArray(new ContentValues[values.size()]);
+    }
+
+    /**
+     * Bring the reminders and in-memory indexes in line with a newly inserted todoitem.
+     */
+    private void onTodoItemInserted(long id, ContentValues values) {
+        Integer status = values.getAsInteger(ItemEntry.COLUMN_ITEM_STATUS);
+        if (status == null) {
+            status = ItemEntry.STATUS_TODO;
+        }
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_DUE_AT)) {
+            TodoReminders.getInstance(getContext()).onItemChanged(id,
+                    values.getAsLong(ItemEntry.COLUMN_ITEM_DUE_AT), status);
+        }
+        mBitmapIndex.onItemWritten(id, status, values.getAsInteger(ItemEntry.COLUMN_ITEM_PRIORITY));
+        mPrefixIndex.onItemWritten(id, values.getAsString(ItemEntry.COLUMN_ITEM_NAME));
+    }
+
+    /**
+     * Bring the reminders and in-memory indexes in line with an update.
+     * A single item is re-read by _id; updates of many rows rebuild the reminder schedule
+     * with a range query on the due date index, and drop the bitmap index.
+     */
+    private void onTodoItemsUpdated(Uri uri, ContentValues values) {
+        boolean remindersChanged = values.containsKey(ItemEntry.COLUMN_ITEM_DUE_AT)
+                || values.containsKey(ItemEntry.COLUMN_ITEM_STATUS);
+        boolean indexChanged = values.containsKey(ItemEntry.COLUMN_ITEM_STATUS)
+                || values.containsKey(ItemEntry.COLUMN_ITEM_PRIORITY);
+        boolean nameChanged = values.containsKey(ItemEntry.COLUMN_ITEM_NAME);
+        if (!remindersChanged && !indexChanged && !nameChanged) {
+            return;
+        }
+
+        TodoReminders reminders = TodoReminders.getInstance(getContext());
+        if (sUriMatcher.match(uri) != TODOITEM_ID) {
+            if (remindersChanged) {
+                reminders.rebuild();
+            }
+            if (indexChanged) {
+                mBitmapIndex.invalidate();
+            }
+            if (nameChanged) {
+                mPrefixIndex.invalidate();
+            }
+            return;
+        }
+
+        long id = ContentUris.parseId(uri);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME, new String[] {
+                ItemEntry.COLUMN_ITEM_DUE_AT, ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.COLUMN_ITEM_PRIORITY },
+                ItemEntry._ID + "=?", new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                if (remindersChanged) {
+                    reminders.onItemChanged(id, cursor.isNull(0) ? null : cursor.getLong(0), cursor.getInt(1));
+                }
+                mBitmapIndex.onItemWritten(id, cursor.getInt(1), cursor.getInt(2));
+                if (nameChanged) {
+                    mPrefixIndex.onItemWritten(id, values.getAsString(ItemEntry.COLUMN_ITEM_NAME));
+                }
+            } else {
+                reminders.onItemDeleted(id);
+                mBitmapIndex.onItemDeleted(id);
+                mPrefixIndex.onItemDeleted(id);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Bring the reminders and in-memory indexes in line with a delete.
+     */
+    private void onTodoItemsDeleted(Uri uri, int match) {
+        if (match == TODOITEM_ID) {
+            long id = ContentUris.parseId(uri);
+            TodoReminders.getInstance(getContext()).onItemDeleted(id);
+            mBitmapIndex.onItemDeleted(id);
+            mPrefixIndex.onItemDeleted(id);
+        } else {
+            TodoReminders.getInstance(getContext()).rebuild();
+            mBitmapIndex.invalidate();
+            mPrefixIndex.invalidate();
+        }
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments.
+     */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        PerfTrace.begin("TodoItemProvider.delete");
+        try {
+            return doDelete(uri, selection, selectionArgs);
+        } finally {
+            PerfTrace.end();
+        }
+    }
+
+    private int doDelete(Uri uri, String selection, String[] selectionArgs) {
+        // Like their inserts, deletes of drafts leave the cache and the observers alone
+        if (sUriMatcher.match(uri) == DRAFT_ITEM_ID) {
+            return mDbHelper.getWritableDatabase().delete(DraftEntry.TABLE_NAME, DraftEntry.COLUMN_DRAFT_ITEM_ID + "=?",
+                    new String[] { String.valueOf(ContentUris.parseId(uri)) });
+        }
+        mQueryCache.onWriteStarted();
+        try {
+            return deleteRows(uri, selection, selectionArgs);
+        } finally {
+            mQueryCache.onWriteFinished();
+        }
+    }
+
+    private int deleteRows(Uri uri, String selection, String[] selectionArgs) {
+        // Get writeable database
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // Track the number of rows that were deleted
+        int rowsDeleted;
+
+        int match = sUriMatcher.match(uri);
+        switch (match) {
+            case TODOITEM_TAG:
+                // Remove one tag from one item; the item itself stays
+                return untagTodoItem(uri);
+            case TODOITEMS:
+                // Delete all rows that match the selection and selection args
+                rowsDeleted = db.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case TODOITEM_ID:
+                // Delete a single row given by the ID in the URI, and its subtasks with it
+                long id = ContentUris.parseId(uri);
+                boolean withSubtasks = TodoItemSubtasks.hasSubtasks(db, id);
+                selection = ItemEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(id) };
+                rowsDeleted = db.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
+                if (withSubtasks) {
+                    match = TODOITEMS;
+                    uri = ItemEntry.CONTENT_URI;
+                }
+                break;
+            case LIST_TODOITEMS:
+                // Delete the rows of the list that match the selection
+                rowsDeleted = db.delete(ItemEntry.TABLE_NAME, withList(selection),
+                        withListArgs(parseListId(uri), selectionArgs));
+                uri = ItemEntry.CONTENT_URI;
+                break;
+            case LIST_ID:
+                return deleteList(db, uri);
+            case RECURRENCE_ID:
+                return deleteRecurrence(db, uri);
+            case TODOITEMS_ARCHIVE:
+                // Archived items are not in the reminders or the in-memory indexes
+                rowsDeleted = db.delete(ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+                return rowsDeleted;
+            case TODOITEM_ARCHIVE_ID:
+                selection = ItemEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = db.delete(ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+                return rowsDeleted;
+            default:
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        }
+
+        // If 1 or more rows were deleted, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsDeleted != 0) {
+            onTodoItemsDeleted(uri, match);
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        // Return the number of rows deleted
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete a list, with its todoitems and archived todoitems. Return the number of lists
+     * deleted.
+     */
+    private int deleteList(SQLiteDatabase db, Uri uri) {
+        long listId = ContentUris.parseId(uri);
+        if (listId == ListEntry.DEFAULT_LIST_ID) {
+            throw new IllegalArgumentException("The default list cannot be deleted");
+        }
+        String[] listArgs = new String[] { String.valueOf(listId) };
+        int itemsDeleted;
+        int rowsDeleted;
+        db.beginTransaction();
+        try {
+            itemsDeleted = db.delete(ItemEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_LIST_ID + "=?", listArgs);
+            db.delete(ArchiveEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_LIST_ID + "=?", listArgs);
+            db.delete(RecurrenceEntry.TABLE_NAME, RecurrenceEntry.COLUMN_RECURRENCE_LIST_ID + "=?", listArgs);
+            rowsDeleted = db.delete(ListEntry.TABLE_NAME, ListEntry._ID + "=?", listArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (itemsDeleted != 0) {
+            onTodoItemsDeleted(uri, LIST_ID);
+        }
+        if (rowsDeleted != 0) {
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete a recurrence rule, with its open instances. Its DONE instances stay, as plain
+     * todoitems. Return the number of rules deleted.
+     */
+    private int deleteRecurrence(SQLiteDatabase db, Uri uri) {
+        String[] recurrenceArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+        int itemsDeleted;
+        int rowsDeleted;
+        db.beginTransaction();
+        try {
+            itemsDeleted = db.delete(ItemEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_RECURRENCE_ID + "=? AND "
+                    + ItemEntry.COLUMN_ITEM_STATUS + "!=" + ItemEntry.STATUS_DONE, recurrenceArgs);
+            ContentValues detach = new ContentValues();
+            detach.putNull(ItemEntry.COLUMN_ITEM_RECURRENCE_ID);
+            db.update(ItemEntry.TABLE_NAME, detach, ItemEntry.COLUMN_ITEM_RECURRENCE_ID + "=?", recurrenceArgs);
+            db.delete(TodoItemRecurrences.PENDING_TABLE, TodoItemRecurrences.COLUMN_RECURRENCE_ID + "=?",
+                    recurrenceArgs);
+            rowsDeleted = db.delete(RecurrenceEntry.TABLE_NAME, RecurrenceEntry._ID + "=?", recurrenceArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (itemsDeleted != 0) {
+            onTodoItemsDeleted(uri, RECURRENCE_ID);
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+        if (rowsDeleted != 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Change one field of one todoitem through a compiled statement, see
+     * {@link TodoItemContract#METHOD_TOGGLE_STATUS}. Return the new state of the item,
+     * or null if there is no such item.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        PerfTrace.begin("TodoItemProvider.call");
+        try {
+            return doCall(method, arg, extras);
+        } finally {
+            PerfTrace.end();
+        }
+    }
+
+    private Bundle doCall(String method, String arg, Bundle extras) {
+        if (TodoItemContract.METHOD_ARCHIVE_DONE.equals(method)) {
+            return archiveDoneItems(arg, extras);
+        }
+        if (TodoItemContract.METHOD_IMPORT.equals(method)) {
+            return importTodoItems(arg, extras);
+        }
+        if (TodoItemContract.METHOD_MATERIALIZE.equals(method)) {
+            return materializeRecurrences(arg, extras);
+        }
+        if (TodoItemContract.METHOD_SLOW_LOG.equals(method)) {
+            return readSlowQueryLog(arg, extras);
+        }
+
+        long id;
+        try {
+            id = Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid todoitem id " + arg);
+        }
+        if (TodoItemContract.METHOD_SUBTREE_PROGRESS.equals(method)) {
+            return subtreeProgress(id);
+        }
+
+        mQueryCache.onWriteStarted();
+        try {
+            if (TodoItemContract.METHOD_MOVE_ITEM.equals(method)) {
+                return moveTodoItem(id, extras);
+            }
+            TodoItemFastPaths fastPaths = getFastPaths();
+            long state;
+            switch (method) {
+                case TodoItemContract.METHOD_TOGGLE_STATUS:
+                    state = fastPaths.toggleStatus(id);
+                    break;
+                case TodoItemContract.METHOD_CYCLE_STATUS:
+                    state = fastPaths.cycleStatus(id);
+                    break;
+                case TodoItemContract.METHOD_SET_PRIORITY:
+                    int priority = extras == null ? -1 : extras.getInt(ItemEntry.COLUMN_ITEM_PRIORITY, -1);
+                    if (!ItemEntry.isValidPriority(priority)) {
+                        throw new IllegalArgumentException("Item requires valid priority");
+                    }
+                    state = fastPaths.setPriority(id, priority);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown method " + method);
+            }
+            if (state == TodoItemFastPaths.NO_ITEM) {
+                return null;
+            }
+            Bundle result = onTodoItemFieldChanged(id, method, state);
+            if (TodoItemFastPaths.statusOf(state) == ItemEntry.STATUS_DONE) {
+                followUpRecurrences();
+            }
+            return result;
+        } finally {
+            mQueryCache.onWriteFinished();
+        }
+    }
+
+    /**
+     * Count the subtasks of the todoitem, see {@link TodoItemContract#METHOD_SUBTREE_PROGRESS}.
+     */
+    private Bundle subtreeProgress(long id) {
+        long[] progress = TodoItemSubtasks.progress(mDbHelper.getReadableDatabase(), id);
+        if (progress == null) {
+            return null;
+        }
+        Bundle result = new Bundle();
+        result.putLong(TodoItemContract.EXTRA_SUBTASK_COUNT, progress[0]);
+        result.putLong(TodoItemContract.EXTRA_SUBTASK_DONE_COUNT, progress[1]);
+        return result;
+    }
+
+    /**
+     * Configure the slow query log from the extras, then return its entries, see
+     * {@link TodoItemContract#METHOD_SLOW_LOG}.
+     */
+    private Bundle readSlowQueryLog(String arg, Bundle extras) {
+        TodoItemSlowQueryLog log = mDbHelper.getSlowQueryLog();
+        if (arg != null && !TodoItemContract.SLOW_LOG_CLEAR.equals(arg)) {
+            throw new IllegalArgumentException("Unknown slow log argument " + arg);
+        }
+        if (extras != null && extras.containsKey(TodoItemContract.EXTRA_SLOW_THRESHOLD_MILLIS)) {
+            long thresholdMillis = extras.getLong(TodoItemContract.EXTRA_SLOW_THRESHOLD_MILLIS, -1);
+            if (thresholdMillis < 0) {
+                throw new IllegalArgumentException("Invalid slow query threshold " + thresholdMillis);
+            }
+            log.setThresholdNanos(thresholdMillis * 1000000L);
+        }
+        if (extras != null && extras.containsKey(TodoItemContract.EXTRA_SLOW_STRICT)) {
+            boolean strict = extras.getBoolean(TodoItemContract.EXTRA_SLOW_STRICT);
+            // Failing queries are for developers, never for users
+            if (strict && !BuildConfig.DEBUG) {
+                throw new IllegalArgumentException("Strict slow query mode needs a debug build");
+            }
+            log.setStrict(strict);
+        }
+
+        List<TodoItemSlowQueryLog.Entry> entries = log.getEntries();
+        if (TodoItemContract.SLOW_LOG_CLEAR.equals(arg)) {
+            log.clear();
+        }
+        int size = entries.size();
+        long[] times = new long[size];
+        String[] sql = new String[size];
+        String[] argShapes = new String[size];
+        int[] rowCounts = new int[size];
+        double[] millis = new double[size];
+        String[] plans = new String[size];
+        for (int i = 0; i < size; i++) {
+            TodoItemSlowQueryLog.Entry entry = entries.get(i);
+            times[i] = entry.mTimeMillis;
+            sql[i] = entry.mSql;
+            argShapes[i] = entry.mArgShapes;
+            rowCounts[i] = entry.mRowCount;
+            millis[i] = entry.mNanos / 1e6;
+            plans[i] = entry.mPlan;
+        }
+        Bundle result = new Bundle();
+        result.putLong(TodoItemContract.EXTRA_SLOW_THRESHOLD_MILLIS, log.getThresholdNanos() / 1000000L);
+        result.putBoolean(TodoItemContract.EXTRA_SLOW_STRICT, log.isStrict());
+        result.putLongArray(TodoItemContract.EXTRA_SLOW_TIMES, times);
+        result.putStringArray(TodoItemContract.EXTRA_SLOW_SQL, sql);
+        result.putStringArray(TodoItemContract.EXTRA_SLOW_ARG_SHAPES, argShapes);
+        result.putIntArray(TodoItemContract.EXTRA_SLOW_ROW_COUNTS, rowCounts);
+        result.putDoubleArray(TodoItemContract.EXTRA_SLOW_MILLIS, millis);
+        result.putStringArray(TodoItemContract.EXTRA_SLOW_PLANS, plans);
+        return result;
+    }
+
+    /**
+     * Move DONE todoitems older than the age in the arg to the archive, one bounded batch per
+     * transaction. Return the number of items moved.
+     */
+    private Bundle archiveDoneItems(String arg, Bundle extras) {
+        long maxAgeMillis;
+        try {
+            maxAgeMillis = Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid archive age " + arg);
+        }
+        int batchSize = extras == null ? TodoItemContract.DEFAULT_ARCHIVE_BATCH_SIZE
+                : extras.getInt(TodoItemContract.EXTRA_BATCH_SIZE, TodoItemContract.DEFAULT_ARCHIVE_BATCH_SIZE);
+        if (maxAgeMillis < 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Archiving requires a valid age and batch size");
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        int archived = 0;
+        long[] ids;
+        do {
+            mQueryCache.onWriteStarted();
+            try {
+                ids = TodoItemArchive.archiveBatch(db, now - maxAgeMillis, batchSize, now);
+                // DONE items have no reminders, so only the in-memory indexes need to drop them
+                for (long id : ids) {
+                    mBitmapIndex.onItemDeleted(id);
+                    mPrefixIndex.onItemDeleted(id);
+                }
+            } finally {
+                mQueryCache.onWriteFinished();
+            }
+            archived += ids.length;
+        } while (ids.length == batchSize);
+
+        // Notify all listeners once; the archive URI is under the todoitems URI
+        if (archived != 0) {
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+        Bundle result = new Bundle();
+        result.putInt(TodoItemContract.EXTRA_ARCHIVED_COUNT, archived);
+        return result;
+    }
+
+    /**
+     * Create the instances of the recurring todoitems due in the window, see
+     * {@link TodoItemContract#METHOD_MATERIALIZE}, and the follow-ups of finished instances.
+     * Return the number of instances created.
+     */
+    private Bundle materializeRecurrences(String arg, Bundle extras) {
+        long windowEnd;
+        try {
+            windowEnd = Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid window end " + arg);
+        }
+        long windowStart = extras == null ? Long.MIN_VALUE
+                : extras.getLong(TodoItemContract.EXTRA_WINDOW_START, Long.MIN_VALUE);
+        if (windowStart >= windowEnd) {
+            throw new IllegalArgumentException("The window must end after it starts");
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int instancesCreated;
+        ContentValues[] instances;
+        long[] instanceIds;
+        mQueryCache.onWriteStarted();
+        try {
+            db.beginTransaction();
+            try {
+                List<ContentValues> newInstances = TodoItemRecurrences.followUpFinished(db, System.currentTimeMillis());
+                newInstances.addAll(TodoItemRecurrences.materializeWindow(db, windowStart, windowEnd));
+                instances = toArray(newInstances);
+                instanceIds = new long[instances.length];
+                instancesCreated = insertInstances(db, instances, instanceIds);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            mQueryCache.onWriteFinished();
+        }
+
+        if (instancesCreated != 0) {
+            onTodoItemsInserted(instances, instanceIds, instances.length);
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+        Bundle result = new Bundle();
+        result.putInt(TodoItemContract.EXTRA_MATERIALIZED_COUNT, instancesCreated);
+        return result;
+    }
+
+    /**
+     * Import the todoitems of the file at the URI in the arg, see
+     * {@link TodoItemContract#METHOD_IMPORT}. Each batch is one transaction, and listeners
+     * are notified once at the end.
+     */
+    private Bundle importTodoItems(String arg, Bundle extras) {
+        String format = TodoItemContract.FORMAT_CSV;
+        String policy = TodoItemContract.POLICY_SKIP;
+        int batchSize = TodoItemContract.DEFAULT_IMPORT_BATCH_SIZE;
+        if (extras != null) {
+            format = extras.getString(TodoItemContract.EXTRA_IMPORT_FORMAT, format);
+            policy = extras.getString(TodoItemContract.EXTRA_IMPORT_POLICY, policy);
+            batchSize = extras.getInt(TodoItemContract.EXTRA_BATCH_SIZE, batchSize);
+        }
+        if (!TodoItemContract.FORMAT_CSV.equals(format) && !TodoItemContract.FORMAT_TODO_TXT.equals(format)) {
+            throw new IllegalArgumentException("Unknown import format " + format);
+        }
+        if (!TodoItemContract.POLICY_SKIP.equals(policy) && !TodoItemContract.POLICY_MERGE.equals(policy)) {
+            throw new IllegalArgumentException("Unknown import policy " + policy);
+        }
+        if (arg == null || batchSize <= 0) {
+            throw new IllegalArgumentException("Import requires a file and a valid batch size");
+        }
+
+        InputStream in;
+        try {
+            in = getContext().getContentResolver().openInputStream(Uri.parse(arg));
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("Cannot open " + arg, e);
+        }
+        if (in == null) {
+            throw new IllegalArgumentException("Cannot open " + arg);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        TodoItemImporter importer = new TodoItemImporter(db, TodoItemContract.POLICY_MERGE.equals(policy),
+                batchSize, new TodoItemImporter.Writer() {
+            @Override
+            public void insert(ContentValues[] values, int count, long[] ids) {
+                mQueryCache.onWriteStarted();
+                try {
+                    insertTodoItems(db, values, count, ids);
+                } finally {
+                    mQueryCache.onWriteFinished();
+                }
+                onTodoItemsInserted(values, ids, count);
+            }
+
+            @Override
+            public int merge(long[] ids, ContentValues[] values, int count) {
+                mQueryCache.onWriteStarted();
+                try {
+                    return mergeTodoItems(db, ids, values, count);
+                } finally {
+                    mQueryCache.onWriteFinished();
+                }
+            }
+        });
+        TodoItemFileParser parser;
+        try {
+            parser = importer.run(new InputStreamReader(in, "UTF-8"), format, TimeZone.getDefault());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read " + arg, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Cannot close " + arg, e);
+            }
+        }
+
+        // Merges may change the status, priority and due date of any item
+        if (importer.getMerged() != 0) {
+            TodoReminders.getInstance(getContext()).rebuild();
+            mBitmapIndex.invalidate();
+        }
+        if (importer.getInserted() != 0 || importer.getMerged() != 0) {
+            getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(TodoItemContract.EXTRA_LINE_COUNT, parser.getLineCount());
+        result.putLong(TodoItemContract.EXTRA_INSERTED_COUNT, importer.getInserted());
+        result.putLong(TodoItemContract.EXTRA_MERGED_COUNT, importer.getMerged());
+        result.putLong(TodoItemContract.EXTRA_SKIPPED_COUNT, importer.getSkipped());
+        result.putLong(TodoItemContract.EXTRA_MALFORMED_COUNT, parser.getMalformedCount());
+        result.putLong(TodoItemContract.EXTRA_ELAPSED_MILLIS, SystemClock.elapsedRealtime() - start);
+        return result;
+    }
+
+    /**
+     * Update each todoitem with the values in the same position, in one transaction.
+     * The name and notes are left alone, so the content hashes stay valid.
+     */
+    private static int mergeTodoItems(SQLiteDatabase db, long[] ids, ContentValues[] values, int count) {
+        int rowsUpdated = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                rowsUpdated += updateWithVersion(db, values[i], ItemEntry._ID + "=?",
+                        new String[] { String.valueOf(ids[i]) });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Move a todoitem after the one in the extras, rewriting only its rank. Return the new
+     * rank, or null if either item does not exist.
+     */
+    private Bundle moveTodoItem(final long id, Bundle extras) {
+        long afterId = extras == null ? TodoItemRanks.NO_ITEM
+                : extras.getLong(TodoItemContract.EXTRA_AFTER_ID, TodoItemRanks.NO_ITEM);
+        final TodoItemRanks ranks = getRanks();
+        long gap = ranks.move(id, afterId);
+        if (gap == TodoItemRanks.NO_ITEM) {
+            return null;
+        }
+        if (gap < TodoItemRanks.MIN_GAP) {
+            // Spread the region out before its gaps run out. The order stays the same, but the
+            // ranks change, and cursors paging by rank and the widget hold ranks, so listeners
+            // are notified once the new ranks are committed.
+            mBackgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int renumbered;
+                    mQueryCache.onWriteStarted();
+                    try {
+                        renumbered = ranks.rebalance(id);
+                    } finally {
+                        mQueryCache.onWriteFinished();
+                    }
+                    if (renumbered != 0) {
+                        getContext().getContentResolver().notifyChange(ItemEntry.CONTENT_URI, null);
+                    }
+                }
+            });
+        }
+
+        Uri uri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id);
+        getContext().getContentResolver().notifyChange(uri, null);
+
+        Long rank = ranks.getRank(id);
+        if (rank == null) {
+            return null;
+        }
+        Bundle result = new Bundle();
+        result.putLong(ItemEntry._ID, id);
+        result.putLong(ItemEntry.COLUMN_ITEM_RANK, rank);
+        return result;
+    }
+
+    private synchronized TodoItemRanks getRanks() {
+        if (mRanks == null) {
+            mRanks = new TodoItemRanks(mDbHelper.getWritableDatabase());
+        }
+        return mRanks;
+    }
+
+    private synchronized TodoItemFastPaths getFastPaths() {
+        if (mFastPaths == null) {
+            mFastPaths = new TodoItemFastPaths(mDbHelper.getWritableDatabase());
+        }
+        return mFastPaths;
+    }
+
+    /**
+     * Bring the reminders and in-memory indexes in line with a call() that changed one item,
+     * notify listeners, and return the new state of the item.
+     */
+    private Bundle onTodoItemFieldChanged(long id, String method, long state) {
+        int status = TodoItemFastPaths.statusOf(state);
+        int priority = TodoItemFastPaths.priorityOf(state);
+        if (!TodoItemContract.METHOD_SET_PRIORITY.equals(method)) {
+            TodoReminders.getInstance(getContext()).onItemChanged(id, getFastPaths().readDueAt(id), status);
+        }
+        mBitmapIndex.onItemWritten(id, status, priority);
+
+        // Finishing an item finishes its subtasks too
+        Uri uri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id);
+        if (status == ItemEntry.STATUS_DONE && !TodoItemContract.METHOD_SET_PRIORITY.equals(method)
+                && TodoItemSubtasks.hasSubtasks(mDbHelper.getReadableDatabase(), id)) {
+            TodoReminders.getInstance(getContext()).rebuild();
+            mBitmapIndex.invalidate();
+            uri = ItemEntry.CONTENT_URI;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+
+        Bundle result = new Bundle();
+        result.putLong(ItemEntry._ID, id);
+        result.putInt(ItemEntry.COLUMN_ITEM_STATUS, status);
+        result.putInt(ItemEntry.COLUMN_ITEM_PRIORITY, priority);
+        return result;
+    }
+
+    /**
+     * Returns the MIME type of data for the content URI
+     */
+    @Override
+    public String getType(Uri uri) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case TODOITEMS:
+                return ItemEntry.CONTENT_LIST_TYPE;
+            case TODOITEM_ID:
+                return ItemEntry.CONTENT_ITEM_TYPE;
+            case TODOITEMS_TAG:
+            case TODOITEMS_SEARCH:
+            case TODOITEM_SUBTREE:
+                return ItemEntry.CONTENT_LIST_TYPE;
+            case TODOITEMS_ARCHIVE:
+                return ArchiveEntry.CONTENT_LIST_TYPE;
+            case TODOITEM_ARCHIVE_ID:
+                return ArchiveEntry.CONTENT_ITEM_TYPE;
+            case TAGS:
+                return TagEntry.CONTENT_LIST_TYPE;
+            case ANALYTICS:
+                return AnalyticsEntry.CONTENT_LIST_TYPE;
+            case LISTS:
+                return ListEntry.CONTENT_LIST_TYPE;
+            case LIST_ID:
+                return ListEntry.CONTENT_ITEM_TYPE;
+            case LIST_TODOITEMS:
+                return ItemEntry.CONTENT_LIST_TYPE;
+            case RECURRENCES:
+                return RecurrenceEntry.CONTENT_LIST_TYPE;
+            case RECURRENCE_ID:
+                return RecurrenceEntry.CONTENT_ITEM_TYPE;
+            case DRAFTS:
+                return DraftEntry.CONTENT_LIST_TYPE;
+            case DRAFT_ITEM_ID:
+                return DraftEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,143 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.ListEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable description of a query on {@link TodoItemProvider}: the content URI, projection,
+ * selection, selection arguments and sort order.
+ */
+public final class TodoItemQuery {
+
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+
+    public TodoItemQuery(Uri uri, String[] projection) {
+        this(uri, projection, null, null, null);
+    }
+
+    public TodoItemQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder) {
+        if (uri == null) {
+            throw new IllegalArgumentException("Query requires a content URI");
+        }
+        mUri = uri;
+        mProjection = projection == null ? null : projection.clone();
+        mSelection = selection;
+        mSelectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+        mSortOrder = sortOrder;
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * Returns the URI to watch for changes to the result. Writes notify either the URI of one
+     * item or the URI of the whole table, so every query other than a single item watches the
+     * table and the items under it.
+     */
+    public Uri getObservedUri() {
+        List<String> segments = mUri.getPathSegments();
+        boolean isItemUri = segments.size() == 2 && TextUtils.isDigitsOnly(segments.get(1));
+        if (!isItemUri && mUri.toString().startsWith(ItemEntry.CONTENT_URI.toString())) {
+            return ItemEntry.CONTENT_URI;
+        }
+        // Lists and their items are notified through the table too
+        if (mUri.toString().startsWith(ListEntry.CONTENT_URI.toString())) {
+            return ItemEntry.CONTENT_URI;
+        }
+        return mUri;
+    }
+
+    /**
+     * Returns whether the query asks for a windowed cursor, which reads its rows lazily.
+     */
+    public boolean isWindowed() {
+        return mUri.getBooleanQueryParameter(TodoItemContract.QUERY_PARAMETER_WINDOWED, false);
+    }
+
+    /**
+     * Run the query on the given resolver.
+     */
+    public Cursor run(ContentResolver resolver, CancellationSignal cancellationSignal) {
+        return resolver.query(mUri, mProjection, mSelection, mSelectionArgs, mSortOrder, cancellationSignal);
+    }
+
+    /**
+     * Run the query on the given provider, directly.
+     */
+    Cursor run(TodoItemProvider provider, CancellationSignal cancellationSignal) {
+        return provider.query(mUri, mProjection, mSelection, mSelectionArgs, mSortOrder, cancellationSignal);
+    }
+
+    /**
+     * Run the queries against one state of the database, as {@link TodoItemProvider#querySnapshot}
+     * does. The provider must run in this process.
+     *
+     * @return the results, in the order of the queries, or null if writes kept landing and the
+     * queries should be run again later
+     */
+    public static Cursor[] runSnapshot(ContentResolver resolver, CancellationSignal cancellationSignal,
+                                       TodoItemQuery... queries) {
+        ContentProviderClient client = resolver.acquireContentProviderClient(TodoItemContract.CONTENT_AUTHORITY);
+        if (client == null) {
+            throw new IllegalArgumentException("No provider for " + TodoItemContract.CONTENT_AUTHORITY);
+        }
+        try {
+            ContentProvider provider = client.getLocalContentProvider();
+            if (!(provider instanceof TodoItemProvider)) {
+                throw new IllegalArgumentException("Snapshots need the provider in this process");
+            }
+            return ((TodoItemProvider) provider).querySnapshot(cancellationSignal, queries);
+        } finally {
+            client.release();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TodoItemQuery)) {
+            return false;
+        }
+        TodoItemQuery other = (TodoItemQuery) o;
+        return mUri.equals(other.mUri)
+                && Arrays.equals(mProjection, other.mProjection)
+                && TextUtils.equals(mSelection, other.mSelection)
+                && Arrays.equals(mSelectionArgs, other.mSelectionArgs)
+                && TextUtils.equals(mSortOrder, other.mSortOrder);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mUri.hashCode();
+        result = 31 * result + Arrays.hashCode(mProjection);
+        result = 31 * result + (mSelection == null ? 0 : mSelection.hashCode());
+        result = 31 * result + Arrays.hashCode(mSelectionArgs);
+        result = 31 * result + (mSortOrder == null ? 0 : mSortOrder.hashCode());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return mUri + " " + Arrays.toString(mProjection) + " WHERE " + mSelection
+                + " " + Arrays.toString(mSelectionArgs) + " ORDER BY " + mSortOrder;
+    }
+}
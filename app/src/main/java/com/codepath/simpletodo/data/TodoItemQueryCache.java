@@ -0,0 +1,194 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of query results, kept by {@link TodoItemProvider}.
+ *
+ * Results are stored as {@link TodoItemSnapshot}s, keyed by the normalized query and stamped
+ * with the write generation current when the query started. Every write is bracketed by
+ * {@link #onWriteStarted()} and {@link #onWriteFinished()}, which both bump the generation:
+ * nothing is served or stored while a write is in progress, and a result read before a write
+ * is never served after it. A query racing with a write can at worst miss the cache.
+ */
+public class TodoItemQueryCache {
+
+    /** Default number of results kept */
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    /** Default largest number of rows of a cached result; larger results are not cached */
+    public static final int DEFAULT_MAX_ROWS = 2000;
+
+    /** Returned by {@link #getIdleGeneration()} while a write is in progress */
+    public static final long WRITING = -1;
+
+    private static class Entry {
+        final long mGeneration;
+        final TodoItemSnapshot mSnapshot;
+
+        Entry(long generation, TodoItemSnapshot snapshot) {
+            mGeneration = generation;
+            mSnapshot = snapshot;
+        }
+    }
+
+    private final int mMaxRows;
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    private long mGeneration;
+    private int mWritesInProgress;
+    private long mHitCount;
+    private long mMissCount;
+
+    public TodoItemQueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_ROWS);
+    }
+
+    /**
+     * Constructs a new {@link TodoItemQueryCache}
+     * @param maxEntries number of results kept, least recently used first out
+     * @param maxRows    largest number of rows of a cached result
+     */
+    public TodoItemQueryCache(final int maxEntries, int maxRows) {
+        if (maxEntries <= 0 || maxRows < 0) {
+            throw new IllegalArgumentException("Invalid cache size " + maxEntries + ", " + maxRows);
+        }
+        mMaxRows = maxRows;
+        mEntries = new LinkedHashMap<String, Entry>(maxEntries + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache key of a query. Whitespace in the selection and sort order is
+     * collapsed, so that queries differing only in formatting share an entry.
+     */
+    public static String key(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                             String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.toString());
+        appendArray(key.append('\u0000'), projection);
+        key.append('\u0000').append(normalize(selection));
+        appendArray(key.append('\u0000'), selectionArgs);
+        key.append('\u0000').append(normalize(sortOrder));
+        return key.toString();
+    }
+
+    private static void appendArray(StringBuilder key, String[] values) {
+        if (values == null) {
+            key.append('*');
+            return;
+        }
+        for (String value : values) {
+            key.append(value).append('\u0001');
+        }
+    }
+
+    private static String normalize(String clause) {
+        return clause == null ? "" : clause.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Returns the current write generation. Read it before running a query, and store the
+     * result under it with {@link #put}.
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the current write generation if no write is in progress, or {@link #WRITING}.
+     * Reads that all ran between two equal idle generations saw the same committed data.
+     */
+    public synchronized long getIdleGeneration() {
+        return mWritesInProgress == 0 ? mGeneration : WRITING;
+    }
+
+    /**
+     * Record the start of a write: every result cached so far becomes stale, and the cache is
+     * bypassed until the matching {@link #onWriteFinished()}.
+     */
+    public synchronized void onWriteStarted() {
+        mWritesInProgress++;
+        mGeneration++;
+        mEntries.clear();
+    }
+
+    /**
+     * Record the end of a write, whether it succeeded or not. Results of queries that ran
+     * during the write may or may not include it, so they become stale as well.
+     */
+    public synchronized void onWriteFinished() {
+        if (mWritesInProgress == 0) {
+            throw new IllegalStateException("No write in progress");
+        }
+        mWritesInProgress--;
+        mGeneration++;
+        mEntries.clear();
+    }
+
+    /**
+     * Returns a new cursor over the cached result of the query, or null if there is no
+     * result for the current generation.
+     */
+    public synchronized Cursor get(String key) {
+        Entry entry = mWritesInProgress == 0 ? mEntries.get(key) : null;
+        if (entry == null || entry.mGeneration != mGeneration) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry.mSnapshot.newCursor();
+    }
+
+    /**
+     * Cache the result of a query that started at the given generation.
+     *
+     * @return a cursor over the cached snapshot, which replaces (and closes) the given cursor,
+     * or the given cursor itself if the result is too large to cache
+     */
+    public Cursor put(String key, long generation, Cursor cursor) {
+        // Copy the rows outside the lock, so that other queries are not held up
+        TodoItemSnapshot snapshot = TodoItemSnapshot.read(cursor, mMaxRows);
+        if (snapshot == null) {
+            cursor.moveToPosition(-1);
+            return cursor;
+        }
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration && mWritesInProgress == 0) {
+                mEntries.put(key, new Entry(generation, snapshot));
+            }
+        }
+        return snapshot.newCursor();
+    }
+
+    /**
+     * Drop every cached result, to release their memory. Unlike a write, this leaves the
+     * generation alone, so queries running meanwhile can still store their results.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the number of results currently cached.
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+}
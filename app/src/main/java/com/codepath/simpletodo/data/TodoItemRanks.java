@@ -0,0 +1,251 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+/**
+ * Manual order of the todoitems, kept in the sparse {@link ItemEntry#COLUMN_ITEM_RANK} column.
+ *
+ * New items are appended {@link #GAP} after the last one, so there is room between any two
+ * neighbours. Moving an item gives it the rank halfway between its new neighbours, which
+ * updates exactly that one row. Only when a gap runs out does {@link #rebalance} renumber the
+ * smallest region around it that can be spread out evenly again.
+ *
+ * Rows are ordered by (rank, _id), so rows with equal ranks, such as ones written straight to
+ * the database, still have a stable order; the first move next to them spreads them out.
+ */
+class TodoItemRanks {
+
+    /** Distance between the ranks of items appended to the list */
+    static final long GAP = 1L << 16;
+
+    /** A move leaving a gap smaller than this should be followed by a rebalance */
+    static final long MIN_GAP = 64;
+
+    /** Returned when the item to move, or its new neighbour, does not exist */
+    static final long NO_ITEM = -1;
+
+    // Largest half width of a region; past it, the region holds every row
+    private static final long MAX_HALF_WIDTH = 1L << 52;
+
+    private static final String RANK = ItemEntry.COLUMN_ITEM_RANK;
+
+    private static final String SQL_NEXT_RANK = "SELECT IFNULL(MAX(" + RANK + "), 0) + " + GAP
+            + " FROM " + ItemEntry.TABLE_NAME;
+
+    private static final String SQL_READ_RANK = "SELECT " + RANK + " FROM " + ItemEntry.TABLE_NAME
+            + " WHERE " + ItemEntry._ID + " = ?";
+
+    private static final String SQL_SET_RANK = "UPDATE " + ItemEntry.TABLE_NAME + " SET " + RANK + " = ?"
+            + " WHERE " + ItemEntry._ID + " = ?";
+
+    // Rows in (rank, _id) order; the rank bound lets SQLite seek in the rank index
+    private static final String ORDER = RANK + ", " + ItemEntry._ID;
+    private static final String AFTER = RANK + " >= ? AND (" + RANK + " > ? OR " + ItemEntry._ID + " > ?)";
+    private static final String BEFORE = RANK + " <= ? AND (" + RANK + " < ? OR " + ItemEntry._ID + " < ?)";
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mReadRank;
+    private final SQLiteStatement mSetRank;
+
+    TodoItemRanks(SQLiteDatabase db) {
+        mDb = db;
+        mReadRank = db.compileStatement(SQL_READ_RANK);
+        mSetRank = db.compileStatement(SQL_SET_RANK);
+    }
+
+    /**
+     * Returns the rank that puts a new item at the end of the list, from the rank index.
+     */
+    static long nextRank(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, SQL_NEXT_RANK, null);
+    }
+
+    /**
+     * Move an item to just after another one, or to the top of the list.
+     *
+     * @param id      item to move
+     * @param afterId item that should come right before it, or {@link #NO_ITEM} for the top
+     * @return the smaller of the gaps left around the item, or {@link #NO_ITEM}
+     *         if either item does not exist
+     */
+    synchronized long move(long id, long afterId) {
+        if (id == afterId) {
+            throw new IllegalArgumentException("Cannot move item " + id + " after itself");
+        }
+        mDb.beginTransaction();
+        try {
+            Long rank = readRank(id);
+            Long afterRank = afterId == NO_ITEM ? null : readRank(afterId);
+            if (rank == null || (afterId != NO_ITEM && afterRank == null)) {
+                return NO_ITEM;
+            }
+
+            long previous = afterRank == null ? Long.MIN_VALUE : afterRank;
+            long next = findNext(id, afterId, afterRank);
+            if (!hasRoom(previous, next)) {
+                // The gap ran out before a background rebalance got to it, so spread it now
+                spread(previous);
+                previous = readRank(afterId);
+                next = findNext(id, afterId, previous);
+            }
+
+            long newRank;
+            if (previous == Long.MIN_VALUE && next == Long.MAX_VALUE) {
+                newRank = GAP;
+            } else if (previous == Long.MIN_VALUE) {
+                newRank = next - GAP;
+            } else if (next == Long.MAX_VALUE) {
+                newRank = previous + GAP;
+            } else {
+                newRank = previous + (next - previous) / 2;
+            }
+            mSetRank.bindLong(1, newRank);
+            mSetRank.bindLong(2, id);
+            mSetRank.executeUpdateDelete();
+            mDb.setTransactionSuccessful();
+
+            long gap = GAP;
+            if (previous != Long.MIN_VALUE) {
+                gap = Math.min(gap, newRank - previous);
+            }
+            if (next != Long.MAX_VALUE) {
+                gap = Math.min(gap, next - newRank);
+            }
+            return gap;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Renumber the region around an item if the gaps next to it are smaller than
+     * {@link #MIN_GAP}; meant to run in the background after a move.
+     *
+     * @return the number of rows renumbered
+     */
+    synchronized int rebalance(long id) {
+        mDb.beginTransaction();
+        try {
+            Long rank = readRank(id);
+            if (rank == null) {
+                return 0;
+            }
+            long previous = findPrevious(id, rank);
+            long next = findNext(id, id, rank);
+            boolean crowded = previous != Long.MIN_VALUE && rank - previous < MIN_GAP
+                    || next != Long.MAX_VALUE && next - rank < MIN_GAP;
+            int renumbered = crowded ? spread(rank) : 0;
+            mDb.setTransactionSuccessful();
+            return renumbered;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the rank of an item, or null if it does not exist.
+     */
+    synchronized Long getRank(long id) {
+        return readRank(id);
+    }
+
+    private Long readRank(long id) {
+        mReadRank.bindLong(1, id);
+        try {
+            return mReadRank.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the rank of the first row after the given one in (rank, _id) order, other than
+     * the excluded item, or Long.MAX_VALUE if there is none. Without a row to follow
+     * ({@link #NO_ITEM}), returns the rank of the first row.
+     */
+    private long findNext(long excludedId, long afterId, Long afterRank) {
+        String selection = ItemEntry._ID + " != ?";
+        String[] selectionArgs = { String.valueOf(excludedId) };
+        if (afterId != NO_ITEM) {
+            selection += " AND " + AFTER;
+            selectionArgs = new String[] { String.valueOf(excludedId), String.valueOf(afterRank),
+                    String.valueOf(afterRank), String.valueOf(afterId) };
+        }
+        Cursor cursor = mDb.query(ItemEntry.TABLE_NAME, new String[] { RANK }, selection, selectionArgs,
+                null, null, ORDER, "1");
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : Long.MAX_VALUE;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Rank of the last row before the given one in (rank, _id) order, or Long.MIN_VALUE
+    private long findPrevious(long id, long rank) {
+        Cursor cursor = mDb.query(ItemEntry.TABLE_NAME, new String[] { RANK }, BEFORE,
+                new String[] { String.valueOf(rank), String.valueOf(rank), String.valueOf(id) },
+                null, null, RANK + " DESC, " + ItemEntry._ID + " DESC", "1");
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : Long.MIN_VALUE;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean hasRoom(long previous, long next) {
+        return previous == Long.MIN_VALUE || next == Long.MAX_VALUE || next - previous >= 2;
+    }
+
+    /**
+     * Spread out the rows of the smallest region around the given rank, doubling in width,
+     * whose rows can be renumbered at least GAP / 4 apart. Rows outside the region keep their
+     * rank, and rows inside keep their order.
+     *
+     * @return the number of rows renumbered
+     */
+    private int spread(long center) {
+        long halfWidth = GAP;
+        long low;
+        long high;
+        int count;
+        while (true) {
+            low = center - halfWidth;
+            high = center + halfWidth;
+            count = (int) DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + ItemEntry.TABLE_NAME
+                    + " WHERE " + RANK + " BETWEEN ? AND ?",
+                    new String[] { String.valueOf(low), String.valueOf(high) });
+            if ((high - low) / (count + 1) >= GAP / 4) {
+                break;
+            }
+            if (halfWidth >= MAX_HALF_WIDTH) {
+                // The region holds every row, and nothing lies past its end
+                high = low + (count + 1) * GAP;
+                break;
+            }
+            halfWidth *= 2;
+        }
+
+        long step = (high - low) / (count + 1);
+        Cursor cursor = mDb.query(ItemEntry.TABLE_NAME, new String[] { ItemEntry._ID },
+                RANK + " BETWEEN ? AND ?", new String[] { String.valueOf(low), String.valueOf(center + halfWidth) },
+                null, null, ORDER);
+        try {
+            long rank = low;
+            while (cursor.moveToNext()) {
+                rank += step;
+                mSetRank.bindLong(1, rank);
+                mSetRank.bindLong(2, cursor.getLong(0));
+                mSetRank.executeUpdateDelete();
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemContract.RecurrenceEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Creates the instances of recurring todoitems lazily. A rule is stored once, with the time
+ * up to which its occurrences have been considered; instances are only created in the todo
+ * table for the window the catalog shows, and for the next occurrence once an instance is
+ * DONE. Each occurrence is considered once, so deleted instances stay deleted.
+ *
+ * Both only read the rules they concern: the window through the index on
+ * {@link RecurrenceEntry#COLUMN_RECURRENCE_MATERIALIZED_UNTIL}, and the follow-ups through the
+ * table the todo_recurrence_done trigger fills on every write path. The callers insert the
+ * returned values, in the same transaction.
+ */
+final class TodoItemRecurrences {
+
+    private TodoItemRecurrences() {}
+
+    /** Table of the rules whose instance was just finished, and its only column */
+    static final String PENDING_TABLE = "recurrence_pending";
+    static final String COLUMN_RECURRENCE_ID = "recurrence_id";
+
+    private static final String[] RULE_COLUMNS = {
+            RecurrenceEntry._ID,
+            RecurrenceEntry.COLUMN_RECURRENCE_RULE,
+            RecurrenceEntry.COLUMN_RECURRENCE_START_AT,
+            RecurrenceEntry.COLUMN_RECURRENCE_TIME_ZONE,
+            RecurrenceEntry.COLUMN_RECURRENCE_MATERIALIZED_UNTIL,
+            RecurrenceEntry.COLUMN_RECURRENCE_NAME,
+            RecurrenceEntry.COLUMN_RECURRENCE_NOTES,
+            RecurrenceEntry.COLUMN_RECURRENCE_PRIORITY,
+            RecurrenceEntry.COLUMN_RECURRENCE_LIST_ID };
+
+    private static final String SQL_SET_MATERIALIZED_UNTIL = "UPDATE " + RecurrenceEntry.TABLE_NAME + " SET "
+            + RecurrenceEntry.COLUMN_RECURRENCE_MATERIALIZED_UNTIL + " = ? WHERE " + RecurrenceEntry._ID + " = ?";
+
+    private static final String SELECTION_OPEN_INSTANCE = ItemEntry.COLUMN_ITEM_RECURRENCE_ID + " = ? AND "
+            + ItemEntry.COLUMN_ITEM_STATUS + " != " + ItemEntry.STATUS_DONE;
+
+    /**
+     * Returns the values of the instances due in the window, and marks the occurrences before
+     * its end as considered. Occurrences not considered yet but before the window start are
+     * passed over.
+     */
+    static List<ContentValues> materializeWindow(SQLiteDatabase db, long windowStart, long windowEnd) {
+        List<ContentValues> instances = new ArrayList<>();
+        Map<String, TimeZone> zones = new HashMap<>();
+        SQLiteStatement setMaterializedUntil = db.compileStatement(SQL_SET_MATERIALIZED_UNTIL);
+        Cursor cursor = db.query(RecurrenceEntry.TABLE_NAME, RULE_COLUMNS,
+                RecurrenceEntry.COLUMN_RECURRENCE_MATERIALIZED_UNTIL + " < ?",
+                new String[] { String.valueOf(windowEnd) }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                RecurrenceRule rule = RecurrenceRule.parse(cursor.getString(1));
+                long startAt = cursor.getLong(2);
+                TimeZone zone = zoneOf(zones, cursor.getString(3));
+                long from = Math.max(cursor.getLong(4), windowStart);
+                for (long occurrence : rule.expand(startAt, zone, from, windowEnd, Integer.MAX_VALUE)) {
+                    instances.add(instanceValues(cursor, occurrence));
+                }
+                // Rules with no occurrence left are never read again
+                long materializedUntil = rule.next(startAt, zone, windowEnd) == RecurrenceRule.END
+                        ? RecurrenceRule.END : windowEnd;
+                setMaterializedUntil.bindLong(1, materializedUntil);
+                setMaterializedUntil.bindLong(2, cursor.getLong(0));
+                setMaterializedUntil.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            setMaterializedUntil.close();
+        }
+        return instances;
+    }
+
+    /**
+     * Returns the values of the next instance of the rule, at or after notBefore and after
+     * every occurrence considered so far, and marks it as considered. Returns null if the rule
+     * does not exist or has no occurrence left.
+     */
+    static ContentValues nextInstance(SQLiteDatabase db, long recurrenceId, long notBefore) {
+        Cursor cursor = db.query(RecurrenceEntry.TABLE_NAME, RULE_COLUMNS, RecurrenceEntry._ID + " = ?",
+                new String[] { String.valueOf(recurrenceId) }, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            RecurrenceRule rule = RecurrenceRule.parse(cursor.getString(1));
+            long next = rule.next(cursor.getLong(2), TimeZone.getTimeZone(cursor.getString(3)),
+                    Math.max(cursor.getLong(4), notBefore));
+            SQLiteStatement setMaterializedUntil = db.compileStatement(SQL_SET_MATERIALIZED_UNTIL);
+            try {
+                setMaterializedUntil.bindLong(1, next == RecurrenceRule.END ? next : next + 1);
+                setMaterializedUntil.bindLong(2, recurrenceId);
+                setMaterializedUntil.executeUpdateDelete();
+            } finally {
+                setMaterializedUntil.close();
+            }
+            return next == RecurrenceRule.END ? null : instanceValues(cursor, next);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the values of the next instance of each rule whose instance was finished since
+     * the last call, unless the rule still has an open one. Occurrences before now are passed
+     * over, so an instance finished late is followed by one still to come.
+     */
+    static List<ContentValues> followUpFinished(SQLiteDatabase db, long now) {
+        List<ContentValues> instances = new ArrayList<>();
+        long[] ids;
+        Cursor cursor = db.query(PENDING_TABLE, new String[] { COLUMN_RECURRENCE_ID }, null, null, null, null, null);
+        try {
+            ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i++] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (long id : ids) {
+            if (DatabaseUtils.queryNumEntries(db, ItemEntry.TABLE_NAME, SELECTION_OPEN_INSTANCE,
+                    new String[] { String.valueOf(id) }) == 0) {
+                ContentValues instance = nextInstance(db, id, now);
+                if (instance != null) {
+                    instances.add(instance);
+                }
+            }
+        }
+        if (ids.length != 0) {
+            db.delete(PENDING_TABLE, null, null);
+        }
+        return instances;
+    }
+
+    /**
+     * Whether an instance was finished since the last {@link #followUpFinished}.
+     */
+    static boolean hasFinished(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, PENDING_TABLE) != 0;
+    }
+
+    // Values of the instance at the occurrence, from a row of RULE_COLUMNS
+    private static ContentValues instanceValues(Cursor rule, long occurrence) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, rule.getString(5));
+        values.put(ItemEntry.COLUMN_ITEM_NOTES, rule.getString(6));
+        values.put(ItemEntry.COLUMN_ITEM_PRIORITY, rule.getInt(7));
+        values.put(ItemEntry.COLUMN_ITEM_LIST_ID, rule.getLong(8));
+        values.put(ItemEntry.COLUMN_ITEM_DUE_AT, occurrence);
+        values.put(ItemEntry.COLUMN_ITEM_RECURRENCE_ID, rule.getLong(0));
+        return values;
+    }
+
+    private static TimeZone zoneOf(Map<String, TimeZone> zones, String id) {
+        TimeZone zone = zones.get(id);
+        if (zone == null) {
+            zone = TimeZone.getTimeZone(id);
+            zones.put(id, zone);
+        }
+        return zone;
+    }
+}
@@ -0,0 +1,86 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import java.util.Arrays;
+
+/**
+ * A read-only {@link Cursor} over the `todo` table grouped by status or priority: one
+ * {@link TodoItemWindowedCursor} per group, one after the other.
+ *
+ * The groups and their sizes come from a single GROUP BY query, answered from the
+ * (group, rank) index without reading any row. They are returned in the extras of the cursor,
+ * so that a list can place section headers and jump to any section without walking the rows;
+ * the rows of a section are only read once the list gets to them.
+ */
+class TodoItemSectionedCursor extends MergeCursor {
+
+    private final Bundle mExtras;
+
+    private TodoItemSectionedCursor(Cursor[] sections, int[] values, int[] counts) {
+        super(sections);
+        mExtras = new Bundle();
+        mExtras.putIntArray(TodoItemContract.EXTRA_SECTION_VALUES, values);
+        mExtras.putIntArray(TodoItemContract.EXTRA_SECTION_COUNTS, counts);
+    }
+
+    /**
+     * Returns whether the rows can be grouped by the given column.
+     */
+    static boolean isGroupColumn(String column) {
+        return ItemEntry.COLUMN_ITEM_STATUS.equals(column) || ItemEntry.COLUMN_ITEM_PRIORITY.equals(column);
+    }
+
+    /**
+     * Query the rows grouped by the given column, in ascending order of its values.
+     *
+     * @param groupColumn {@link ItemEntry#COLUMN_ITEM_STATUS} or {@link ItemEntry#COLUMN_ITEM_PRIORITY}
+     * @param orderByRank whether the rows of a group are ordered by (rank, _id) rather than by _id
+     */
+    static TodoItemSectionedCursor query(SQLiteDatabase db, String[] projection, String selection,
+                                         String[] selectionArgs, String groupColumn, boolean orderByRank,
+                                         int chunkSize) {
+        if (!isGroupColumn(groupColumn)) {
+            throw new IllegalArgumentException("Cannot group todoitems by " + groupColumn);
+        }
+        String where = TextUtils.isEmpty(selection) ? null : selection;
+        int[] values;
+        int[] counts;
+        Cursor groups = db.query(ItemEntry.TABLE_NAME, new String[] { groupColumn, "COUNT(*)" }, where,
+                selectionArgs, groupColumn, null, groupColumn);
+        try {
+            values = new int[groups.getCount()];
+            counts = new int[values.length];
+            int i = 0;
+            while (groups.moveToNext()) {
+                values[i] = groups.getInt(0);
+                counts[i++] = groups.getInt(1);
+            }
+        } finally {
+            groups.close();
+        }
+
+        // Each section is the same query restricted to one value of the column
+        String sectionSelection = where == null ? groupColumn + "=?" : "(" + where + ") AND " + groupColumn + "=?";
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        Cursor[] sections = new Cursor[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String[] args = selectionArgs == null ? new String[1] : Arrays.copyOf(selectionArgs, argCount + 1);
+            args[argCount] = String.valueOf(values[i]);
+            sections[i] = new TodoItemWindowedCursor(db, projection, sectionSelection, args, chunkSize,
+                    orderByRank, counts[i]);
+        }
+        return new TodoItemSectionedCursor(sections, values, counts);
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return mExtras;
+    }
+}
@@ -0,0 +1,208 @@
+package com.codepath.simpletodo.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded log of the queries of the database that took longer than a threshold, kept by
+ * {@link TodoItemDbHelper} and read through {@link TodoItemContract#METHOD_SLOW_LOG}.
+ *
+ * Each entry holds the SQL, the shapes of the arguments the caller bound (their types and
+ * lengths, never their values), the number of rows and the query plan. Once the log is full,
+ * every new entry replaces the oldest one.
+ *
+ * In strict mode, meant for debug builds, every query is planned first, and one that scans the
+ * todo table rather than searching an index fails with an {@link IllegalStateException}.
+ */
+public class TodoItemSlowQueryLog {
+
+    /** Default time past which a query is logged: 50 ms */
+    public static final long DEFAULT_THRESHOLD_NANOS = 50000000L;
+
+    /** Default number of entries kept */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    // A plan step reading every row of the todo table, in the format of SQLite before and after 3.36
+    private static final Pattern TODO_SCAN = Pattern.compile(
+            "^SCAN (TABLE )?" + TodoItemContract.ItemEntry.TABLE_NAME + "\\b");
+
+    private static final Pattern INTEGER = Pattern.compile("-?\\d+");
+    private static final Pattern REAL = Pattern.compile("-?\\d*\\.\\d+([eE][-+]?\\d+)?");
+
+    /**
+     * One slow query.
+     */
+    public static class Entry {
+        public final long mTimeMillis;
+        public final String mSql;
+        public final String mArgShapes;
+        public final int mRowCount;
+        public final long mNanos;
+        public final String mPlan;
+
+        Entry(long timeMillis, String sql, String argShapes, int rowCount, long nanos, String plan) {
+            mTimeMillis = timeMillis;
+            mSql = sql;
+            mArgShapes = argShapes;
+            mRowCount = rowCount;
+            mNanos = nanos;
+            mPlan = plan;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1f ms, %d rows: %s [%s]\n%s", mNanos / 1e6, mRowCount, mSql,
+                    mArgShapes, mPlan);
+        }
+    }
+
+    // Arguments of the query in progress on each thread, see setCallerArgs
+    private final ThreadLocal<String[]> mCallerArgs = new ThreadLocal<>();
+
+    private final Entry[] mEntries;
+    private int mNext;
+    private int mSize;
+    private long mLoggedCount;
+
+    private volatile long mThresholdNanos = DEFAULT_THRESHOLD_NANOS;
+    private volatile boolean mStrict;
+
+    public TodoItemSlowQueryLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new {@link TodoItemSlowQueryLog}
+     * @param capacity number of entries kept, oldest first out
+     */
+    public TodoItemSlowQueryLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid slow query log capacity " + capacity);
+        }
+        mEntries = new Entry[capacity];
+    }
+
+    public long getThresholdNanos() {
+        return mThresholdNanos;
+    }
+
+    /**
+     * Set the time past which a query is logged; 0 logs every query.
+     */
+    public void setThresholdNanos(long thresholdNanos) {
+        if (thresholdNanos < 0) {
+            throw new IllegalArgumentException("Invalid slow query threshold " + thresholdNanos);
+        }
+        mThresholdNanos = thresholdNanos;
+    }
+
+    public boolean isStrict() {
+        return mStrict;
+    }
+
+    public void setStrict(boolean strict) {
+        mStrict = strict;
+    }
+
+    boolean isSlow(long nanos) {
+        return nanos >= mThresholdNanos;
+    }
+
+    /**
+     * Set the arguments the caller bound to the queries started on this thread, until the next
+     * call; null clears them.
+     */
+    void setCallerArgs(String[] args) {
+        if (args == null) {
+            mCallerArgs.remove();
+        } else {
+            mCallerArgs.set(args);
+        }
+    }
+
+    String[] getCallerArgs() {
+        return mCallerArgs.get();
+    }
+
+    /**
+     * Log a slow query.
+     *
+     * @param args arguments bound by the caller, of which only the shapes are kept
+     */
+    public synchronized void add(long timeMillis, String sql, String[] args, int rowCount, long nanos, String plan) {
+        mEntries[mNext] = new Entry(timeMillis, sql, argShapes(args), rowCount, nanos, plan);
+        mNext = (mNext + 1) % mEntries.length;
+        mSize = Math.min(mSize + 1, mEntries.length);
+        mLoggedCount++;
+    }
+
+    /**
+     * Returns the entries kept, oldest first.
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            entries.add(mEntries[(mNext - mSize + i + mEntries.length) % mEntries.length]);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the number of queries logged, including those no longer kept.
+     */
+    public synchronized long getLoggedCount() {
+        return mLoggedCount;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < mEntries.length; i++) {
+            mEntries[i] = null;
+        }
+        mNext = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Fail if the plan scans the todo table.
+     *
+     * @param plan one step of the output of EXPLAIN QUERY PLAN per line
+     * @throws IllegalStateException if a step reads every row of the todo table
+     */
+    static void checkPlan(String sql, String plan) {
+        for (String step : plan.split("\n")) {
+            if (TODO_SCAN.matcher(step.trim()).find()) {
+                throw new IllegalStateException("Query scans the " + TodoItemContract.ItemEntry.TABLE_NAME
+                        + " table (" + step.trim() + "): " + sql);
+            }
+        }
+    }
+
+    /**
+     * Returns the shapes of the arguments, in order and separated by commas: null, int, real or
+     * text with its length.
+     */
+    static String argShapes(String[] args) {
+        if (args == null) {
+            return "";
+        }
+        StringBuilder shapes = new StringBuilder();
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                shapes.append(", ");
+            }
+            String arg = args[i];
+            if (arg == null) {
+                shapes.append("null");
+            } else if (INTEGER.matcher(arg).matches()) {
+                shapes.append("int");
+            } else if (REAL.matcher(arg).matches()) {
+                shapes.append("real");
+            } else {
+                shapes.append("text(").append(arg.length()).append(')');
+            }
+        }
+        return shapes.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+
+/**
+ * An immutable copy of a query result: the column names and the values of every row.
+ *
+ * A snapshot is read once and can then be shared by any number of threads, each reading it
+ * through its own cheap {@link TodoItemSnapshotCursor}.
+ */
+public final class TodoItemSnapshot {
+
+    private final String[] mColumns;
+
+    // Values of row r are at [r * mColumns.length, (r + 1) * mColumns.length)
+    private final Object[] mValues;
+    private final int mRowCount;
+
+    private TodoItemSnapshot(String[] columns, Object[] values, int rowCount) {
+        mColumns = columns;
+        mValues = values;
+        mRowCount = rowCount;
+    }
+
+    /**
+     * Copy the rows of a cursor, from its first row, into a snapshot.
+     *
+     * @param cursor  cursor to read; it is left open
+     * @param maxRows largest number of rows worth copying
+     * @return the snapshot, or null if the cursor has more than maxRows rows
+     */
+    public static TodoItemSnapshot read(Cursor cursor, int maxRows) {
+        int rowCount = cursor.getCount();
+        if (rowCount > maxRows) {
+            return null;
+        }
+        String[] columns = cursor.getColumnNames().clone();
+        int columnCount = columns.length;
+        Object[] values = new Object[rowCount * columnCount];
+        int i = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            for (int column = 0; column < columnCount; column++) {
+                values[i++] = readValue(cursor, column);
+            }
+        }
+        return new TodoItemSnapshot(columns, values, rowCount);
+    }
+
+    /**
+     * Returns the value of a column of the current row as a Long, Double, String, byte[] or null.
+     */
+    static Object readValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    /**
+     * Returns a new cursor over this snapshot.
+     */
+    public TodoItemSnapshotCursor newCursor() {
+        return new TodoItemSnapshotCursor(this);
+    }
+
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Returns the value at the given row and column.
+     */
+    public Object getValue(int row, int column) {
+        return mValues[row * mColumns.length + column];
+    }
+
+    /**
+     * Returns the index of the named column, or -1 if the snapshot does not have it.
+     */
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < mColumns.length; i++) {
+            if (mColumns[i].equals(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getString(int row, int column) {
+        Object value = getValue(row, column);
+        return value == null ? null : value.toString();
+    }
+
+    public long getLong(int row, int column) {
+        Object value = getValue(row, column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    public int getInt(int row, int column) {
+        return (int) getLong(row, column);
+    }
+
+    public boolean isNull(int row, int column) {
+        return getValue(row, column) == null;
+    }
+}
@@ -0,0 +1,106 @@
+package com.codepath.simpletodo.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * A read-only {@link Cursor} over a {@link TodoItemSnapshot}.
+ *
+ * Creating one copies nothing, so a cached result can be handed to every caller as its
+ * own cursor.
+ */
+public class TodoItemSnapshotCursor extends AbstractCursor {
+
+    private final TodoItemSnapshot mSnapshot;
+
+    public TodoItemSnapshotCursor(TodoItemSnapshot snapshot) {
+        mSnapshot = snapshot;
+    }
+
+    private Object value(int column) {
+        int position = getPosition();
+        if (position < 0 || position >= mSnapshot.getRowCount()) {
+            throw new IllegalStateException("Cursor is not on a row");
+        }
+        return mSnapshot.getValue(position, column);
+    }
+
+    @Override
+    public int getCount() {
+        return mSnapshot.getRowCount();
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mSnapshot.getColumnNames();
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = value(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = value(column);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return value(column) == null;
+    }
+}
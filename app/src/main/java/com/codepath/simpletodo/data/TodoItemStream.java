@@ -0,0 +1,418 @@
+package com.codepath.simpletodo.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An observable stream of the results of a {@link TodoItemQuery}, replacing CursorLoader.
+ *
+ * The query runs on a small shared background executor, and its result is delivered to the
+ * {@link Listener} on the main thread. Change notifications are conflated: at most one query is
+ * in flight per stream, and any number of changes arriving meanwhile cause a single re-query
+ * once it is done. When the query is replaced with {@link #setQuery}, the running one is
+ * cancelled and its result dropped, so a listener never sees a result older than one it got.
+ *
+ * All methods must be called on the main thread.
+ *
+ * @param <T> type of the delivered results
+ */
+public abstract class TodoItemStream<T> {
+
+    private static final String LOG_TAG = TodoItemStream.class.getSimpleName();
+
+    /** Number of threads running queries, shared by all streams */
+    private static final int THREAD_COUNT = 2;
+
+    /** Number of queries that can wait for a thread; each stream queues at most one */
+    private static final int MAX_QUEUED_QUERIES = 32;
+
+    /** Delay before a query the executor rejected is tried again */
+    private static final long REJECTED_RETRY_MILLIS = 100;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_QUERIES),
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, LOG_TAG + " #" + mCount.incrementAndGet());
+                }
+            });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Receives the results of a stream, on the main thread.
+     */
+    public interface Listener<T> {
+        /**
+         * Called with each new result, or with null when the stream is closed and the last
+         * result must no longer be used.
+         */
+        void onQueryResult(T result);
+    }
+
+    private final ContentResolver mResolver;
+    private final Listener<T> mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onDataChanged();
+        }
+    };
+
+    // Tries a rejected query again, once the queue had time to drain
+    private final Runnable mRetry = new Runnable() {
+        @Override
+        public void run() {
+            if (mStarted) {
+                requery();
+            }
+        }
+    };
+
+    private TodoItemQuery mQuery;
+    private boolean mStarted;
+
+    // URI the observer is registered on, or null while stopped
+    private Uri mObservedUri;
+
+    // Bumped by setQuery, so that results of a replaced query are recognized and dropped
+    private int mQueryGeneration;
+
+    // State of the query in flight, if any, and whether the data changed since it started
+    private boolean mLoading;
+    private boolean mDirty;
+    private CancellationSignal mCancellationSignal;
+
+    // Last delivered result, released once replaced
+    private T mDelivered;
+
+    private int mLoadCount;
+    private int mDroppedCount;
+
+    protected TodoItemStream(Context context, TodoItemQuery query, Listener<T> listener) {
+        mResolver = context.getApplicationContext().getContentResolver();
+        mQuery = query;
+        mListener = listener;
+    }
+
+    /**
+     * Observe a query, delivering each result as an immutable {@link TodoItemSnapshot}.
+     * The returned stream is not started yet.
+     */
+    public static TodoItemStream<TodoItemSnapshot> observe(Context context, TodoItemQuery query,
+                                                           Listener<TodoItemSnapshot> listener) {
+        return new TodoItemStream<TodoItemSnapshot>(context, query, listener) {
+            @Override
+            protected TodoItemSnapshot load(ContentResolver resolver, TodoItemQuery query,
+                                            CancellationSignal signal) {
+                Cursor cursor = query.run(resolver, signal);
+                if (cursor == null) {
+                    return null;
+                }
+                try {
+                    return TodoItemSnapshot.read(cursor, Integer.MAX_VALUE);
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Observe a query, delivering each result as a cursor, which is closed once replaced.
+     * For results too large to copy, such as windowed lists; prefer {@link #observe} otherwise.
+     * The returned stream is not started yet.
+     */
+    public static TodoItemStream<Cursor> observeCursors(Context context, TodoItemQuery query,
+                                                        Listener<Cursor> listener) {
+        return new TodoItemStream<Cursor>(context, query, listener) {
+            @Override
+            protected Cursor load(ContentResolver resolver, TodoItemQuery query, CancellationSignal signal) {
+                Cursor cursor = query.run(resolver, signal);
+                if (cursor != null) {
+                    // Fill the cursor here rather than on the main thread
+                    cursor.getCount();
+                }
+                return cursor;
+            }
+
+            @Override
+            protected void release(Cursor result) {
+                result.close();
+            }
+        };
+    }
+
+    /**
+     * Observe a query together with others, delivering their results in one array, the query's
+     * first, each cursor closed once replaced. The queries are read against one state of the
+     * database through {@link TodoItemQuery#runSnapshot}, so that counts read by one agree with
+     * the rows of another. A windowed query reads its rows lazily, so it runs on its own, and
+     * the others in a snapshot of their own.
+     *
+     * When writes keep the snapshot from being read, no result is delivered: those writes send
+     * change notifications, which run the queries again. The returned stream is not started yet.
+     */
+    public static TodoItemStream<Cursor[]> observeWith(Context context, TodoItemQuery query,
+                                                       final TodoItemQuery[] others,
+                                                       Listener<Cursor[]> listener) {
+        return new TodoItemStream<Cursor[]>(context, query, listener) {
+            @Override
+            protected Cursor[] load(ContentResolver resolver, TodoItemQuery query, CancellationSignal signal) {
+                if (!query.isWindowed()) {
+                    TodoItemQuery[] group = new TodoItemQuery[others.length + 1];
+                    group[0] = query;
+                    System.arraycopy(others, 0, group, 1, others.length);
+                    return TodoItemQuery.runSnapshot(resolver, signal, group);
+                }
+
+                Cursor[] othersResults = TodoItemQuery.runSnapshot(resolver, signal, others);
+                if (othersResults == null) {
+                    return null;
+                }
+                Cursor cursor = null;
+                try {
+                    cursor = query.run(resolver, signal);
+                } finally {
+                    if (cursor == null) {
+                        release(othersResults);
+                    }
+                }
+                if (cursor == null) {
+                    return null;
+                }
+                // Fill the cursor here rather than on the main thread
+                cursor.getCount();
+                Cursor[] results = new Cursor[others.length + 1];
+                results[0] = cursor;
+                System.arraycopy(othersResults, 0, results, 1, others.length);
+                return results;
+            }
+
+            @Override
+            protected void release(Cursor[] results) {
+                for (Cursor cursor : results) {
+                    cursor.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Run the query, on a background thread.
+     *
+     * @return the result, or null if there is none
+     * @throws OperationCanceledException if the signal was cancelled
+     */
+    protected abstract T load(ContentResolver resolver, TodoItemQuery query, CancellationSignal signal);
+
+    /**
+     * Release a result that will no longer be used: one that was replaced or dropped.
+     */
+    protected void release(T result) {
+    }
+
+    public TodoItemQuery getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Start watching for changes, and deliver a first result.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        registerObserver();
+        requery();
+    }
+
+    /**
+     * Stop watching for changes. The last result stays valid until {@link #close()}.
+     */
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mResolver.unregisterContentObserver(mObserver);
+        mObservedUri = null;
+        mHandler.removeCallbacks(mRetry);
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+        }
+    }
+
+    /**
+     * Stop the stream, and release the last result after telling the listener.
+     */
+    public void close() {
+        stop();
+        if (mDelivered != null) {
+            T delivered = mDelivered;
+            mDelivered = null;
+            mListener.onQueryResult(null);
+            release(delivered);
+        }
+    }
+
+    /**
+     * Replace the query. A query still running for the previous one is cancelled, and its
+     * result is never delivered.
+     */
+    public void setQuery(TodoItemQuery query) {
+        if (query.equals(mQuery)) {
+            return;
+        }
+        mQuery = query;
+        mQueryGeneration++;
+        if (!mStarted) {
+            return;
+        }
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+        }
+        registerObserver();
+        requery();
+    }
+
+    // Watch the URI the current query depends on, if not watching it already
+    private void registerObserver() {
+        Uri observedUri = mQuery.getObservedUri();
+        if (observedUri.equals(mObservedUri)) {
+            return;
+        }
+        if (mObservedUri != null) {
+            mResolver.unregisterContentObserver(mObserver);
+        }
+        mResolver.registerContentObserver(observedUri, true, mObserver);
+        mObservedUri = observedUri;
+    }
+
+    /**
+     * Called when the observed data changed.
+     */
+    void onDataChanged() {
+        if (mStarted) {
+            requery();
+        }
+    }
+
+    // Run the query now, or once the one in flight is done
+    private void requery() {
+        if (mLoading) {
+            mDirty = true;
+            return;
+        }
+        mHandler.removeCallbacks(mRetry);
+        mLoading = true;
+        mDirty = false;
+        mLoadCount++;
+        final int generation = mQueryGeneration;
+        final TodoItemQuery query = mQuery;
+        final CancellationSignal signal = new CancellationSignal();
+        mCancellationSignal = signal;
+        try {
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    T result = null;
+                    try {
+                        signal.throwIfCanceled();
+                        result = load(mResolver, query, signal);
+                    } catch (OperationCanceledException e) {
+                        // Superseded by a newer query, or the stream was stopped
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Query failed: " + query, e);
+                    }
+                    final T loaded = result;
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onLoadFinished(generation, loaded);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Too many streams are waiting. No change notification may come to requery, which
+            // would leave the stream without a result, so try again after a delay.
+            Log.w(LOG_TAG, "Query rejected, retrying: " + query, e);
+            mLoading = false;
+            mCancellationSignal = null;
+            mHandler.postDelayed(mRetry, REJECTED_RETRY_MILLIS);
+        }
+    }
+
+    private void onLoadFinished(int generation, T result) {
+        mLoading = false;
+        mCancellationSignal = null;
+        boolean superseded = generation != mQueryGeneration;
+        if (result != null) {
+            if (superseded || !mStarted) {
+                mDroppedCount++;
+                release(result);
+            } else {
+                T previous = mDelivered;
+                mDelivered = result;
+                mListener.onQueryResult(result);
+                if (previous != null && previous != result) {
+                    release(previous);
+                }
+            }
+        }
+        if (mStarted && (mDirty || superseded)) {
+            requery();
+        }
+    }
+
+    /**
+     * Returns whether a query is running, for tests.
+     */
+    boolean isLoading() {
+        return mLoading;
+    }
+
+    /**
+     * Returns the number of queries run, for tests.
+     */
+    int getLoadCount() {
+        return mLoadCount;
+    }
+
+    /**
+     * Returns the number of results dropped because they were superseded, for tests.
+     */
+    int getDroppedCount() {
+        return mDroppedCount;
+    }
+}
@@ -0,0 +1,110 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+/**
+ * Queries of the subtask hierarchy through its closure table, which holds a row for every
+ * item and each of its ancestors, the item itself included at depth 0. A subtree, its progress
+ * and the ancestors of an item are then one range of the table's primary key or index, at any
+ * depth, rather than a lookup per level.
+ *
+ * The table is kept by triggers on the todo table, see {@link TodoItemDbHelper}, which also
+ * cascade deletes, completions and list moves to the subtree, so every write path keeps the
+ * hierarchy whole.
+ */
+final class TodoItemSubtasks {
+
+    private TodoItemSubtasks() {}
+
+    /** Table of the ancestor and descendant pairs, and its columns */
+    static final String CLOSURE_TABLE = "todo_closure";
+    static final String COLUMN_ANCESTOR_ID = "ancestor_id";
+    static final String COLUMN_DESCENDANT_ID = "descendant_id";
+    static final String COLUMN_DEPTH = ItemEntry.COLUMN_ITEM_DEPTH;
+
+    private static final String SUBTREE_TABLES = CLOSURE_TABLE + " JOIN " + ItemEntry.TABLE_NAME + " ON "
+            + ItemEntry.TABLE_NAME + "." + ItemEntry._ID + " = " + COLUMN_DESCENDANT_ID;
+
+    private static final String DEFAULT_SUBTREE_ORDER = COLUMN_DEPTH + ", " + ItemEntry.COLUMN_ITEM_RANK;
+
+    private static final String SQL_PROGRESS = "SELECT count(*) - 1, total(" + COLUMN_DEPTH + " > 0 AND "
+            + ItemEntry.COLUMN_ITEM_STATUS + " = " + ItemEntry.STATUS_DONE + ") FROM " + SUBTREE_TABLES
+            + " WHERE " + COLUMN_ANCESTOR_ID + " = ?";
+
+    private static final String SQL_HAS_SUBTASKS = "SELECT EXISTS (SELECT 1 FROM " + CLOSURE_TABLE
+            + " WHERE " + COLUMN_ANCESTOR_ID + " = ? AND " + COLUMN_DEPTH + " > 0)";
+
+    /**
+     * Query the item and its subtasks at any depth. Rows have the columns of the todo table
+     * and {@link ItemEntry#COLUMN_ITEM_DEPTH}, and are ordered by depth, then rank, by default.
+     */
+    static Cursor querySubtree(SQLiteDatabase db, long id, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        String subtreeSelection = COLUMN_ANCESTOR_ID + " = " + id;
+        if (!TextUtils.isEmpty(selection)) {
+            subtreeSelection += " AND (" + selection + ")";
+        }
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SUBTREE_TABLES);
+        return builder.query(db, projection, subtreeSelection, selectionArgs, null, null,
+                TextUtils.isEmpty(sortOrder) ? DEFAULT_SUBTREE_ORDER : sortOrder, null, cancellationSignal);
+    }
+
+    /**
+     * Returns the number of subtasks of the item, at any depth, and the number of DONE ones,
+     * or null if there is no such item.
+     */
+    static long[] progress(SQLiteDatabase db, long id) {
+        Cursor cursor = db.rawQuery(SQL_PROGRESS, new String[] { String.valueOf(id) });
+        try {
+            cursor.moveToFirst();
+            long subtasks = cursor.getLong(0);
+            return subtasks < 0 ? null : new long[] { subtasks, cursor.getLong(1) };
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Whether the item has any subtask, which a write of the item may have changed too.
+     */
+    static boolean hasSubtasks(SQLiteDatabase db, long id) {
+        return DatabaseUtils.longForQuery(db, SQL_HAS_SUBTASKS, new String[] { String.valueOf(id) }) != 0;
+    }
+
+    /**
+     * Returns the list of the item a new subtask goes under, and checks that it exists.
+     */
+    static long requireParent(SQLiteDatabase db, long parentId) {
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME, new String[] { ItemEntry.COLUMN_ITEM_LIST_ID },
+                ItemEntry._ID + "=?", new String[] { String.valueOf(parentId) }, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new IllegalArgumentException("No todoitem with id " + parentId);
+            }
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check that making the items matching the selection subtasks of the parent creates no
+     * cycle, that is that none of them is the parent or one of its ancestors.
+     */
+    static void requireNoCycle(SQLiteDatabase db, long parentId, String selection, String[] selectionArgs) {
+        String sql = "SELECT EXISTS (SELECT 1 FROM " + CLOSURE_TABLE + " WHERE " + COLUMN_DESCENDANT_ID
+                + " = " + parentId + " AND " + COLUMN_ANCESTOR_ID + " IN (SELECT " + ItemEntry._ID + " FROM "
+                + ItemEntry.TABLE_NAME + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) + "))";
+        if (DatabaseUtils.longForQuery(db, sql, selectionArgs) != 0) {
+            throw new IllegalArgumentException("A todoitem cannot be a subtask of itself or of its subtasks");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.codepath.simpletodo.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Cursor factory of the database that times every query into a {@link TodoItemSlowQueryLog}.
+ *
+ * A query runs when its cursor is first filled, which counts all the rows, so its cursor times
+ * that first fill: the time of a windowed cursor is that of its first window. A slow query is
+ * logged with the plan SQLite gives for it, read from EXPLAIN QUERY PLAN after the query ran.
+ */
+class TodoItemTimedCursorFactory implements SQLiteDatabase.CursorFactory {
+
+    private static final String LOG_TAG = TodoItemTimedCursorFactory.class.getSimpleName();
+
+    // SQLiteQuery describes itself with its SQL after this prefix
+    private static final String QUERY_PREFIX = "SQLiteQuery: ";
+
+    // Plain cursors, for the plans themselves
+    private static final SQLiteDatabase.CursorFactory PLAIN_FACTORY = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+                                SQLiteQuery query) {
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+    };
+
+    private final TodoItemSlowQueryLog mLog;
+
+    TodoItemTimedCursorFactory(TodoItemSlowQueryLog log) {
+        mLog = log;
+    }
+
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+        return new TimedCursor(db, masterQuery, editTable, query, mLog.getCallerArgs());
+    }
+
+    private class TimedCursor extends SQLiteCursor {
+        private final SQLiteDatabase mDb;
+        private final String mSql;
+        private final String[] mCallerArgs;
+        private boolean mTimed;
+
+        TimedCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable, SQLiteQuery query,
+                    String[] callerArgs) {
+            super(driver, editTable, query);
+            mDb = db;
+            String description = query.toString();
+            mSql = description.startsWith(QUERY_PREFIX) ? description.substring(QUERY_PREFIX.length()) : description;
+            mCallerArgs = callerArgs;
+        }
+
+        @Override
+        public int getCount() {
+            if (mTimed) {
+                return super.getCount();
+            }
+            mTimed = true;
+
+            String plan = null;
+            if (mLog.isStrict() && isSelect(mSql)) {
+                plan = explain(mDb, mSql);
+                TodoItemSlowQueryLog.checkPlan(mSql, plan);
+            }
+            long start = System.nanoTime();
+            int count = super.getCount();
+            long nanos = System.nanoTime() - start;
+            if (mLog.isSlow(nanos)) {
+                if (plan == null && isSelect(mSql)) {
+                    plan = explain(mDb, mSql);
+                }
+                mLog.add(System.currentTimeMillis(), mSql, mCallerArgs, count, nanos, plan == null ? "" : plan);
+                Log.w(LOG_TAG, String.format(Locale.US, "Slow query, %.1f ms for %d rows: %s", nanos / 1e6,
+                        count, mSql));
+            }
+            return count;
+        }
+    }
+
+    // Only queries have a plan worth reading; pragmas go through cursors too
+    private static boolean isSelect(String sql) {
+        String start = sql.trim();
+        return start.regionMatches(true, 0, "SELECT", 0, 6) || start.regionMatches(true, 0, "WITH", 0, 4);
+    }
+
+    /**
+     * Returns the plan of the query, one step per line. Its arguments are left unbound, as the
+     * plan does not depend on them.
+     */
+    static String explain(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQueryWithFactory(PLAIN_FACTORY, "EXPLAIN QUERY PLAN " + sql, null, null);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailIndex));
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
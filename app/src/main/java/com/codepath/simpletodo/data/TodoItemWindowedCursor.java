@@ -0,0 +1,367 @@
+package com.codepath.simpletodo.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only {@link Cursor} over the `todo` table ordered by _id or by (rank, _id), which loads
+ * rows in fixed-size chunks instead of filling a CursorWindow with the whole result.
+ *
+ * Each chunk is fetched by keyset ("_id > last id of the previous chunk LIMIT n", or the same
+ * on (rank, _id) through the rank index), and only a
+ * few recently used chunks are kept in memory, so scrolling a very large list uses a constant
+ * amount of memory. {@link #getCount()} is exact from the start, as adapters fail on a position
+ * the cursor cannot move to; it is only corrected (with a data set change notification) if rows
+ * were inserted or deleted after they were counted, once the real end of the result is read.
+ */
+public class TodoItemWindowedCursor extends AbstractCursor {
+
+    /** Default number of rows loaded per chunk */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    /** Number of chunks kept in memory */
+    private static final int MAX_CACHED_CHUNKS = 4;
+
+    private final SQLiteDatabase mDb;
+    private final String[] mColumns;
+    private final int mIdColumnIndex;
+    private final boolean mOrderByRank;
+    private final int mRankColumnIndex;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final int mChunkSize;
+
+    // Number of rows, and whether the end of the result has been read to check it
+    private int mCount;
+    private boolean mEndRead;
+
+    // mBoundaries[k] is the _id of the last row before chunk k, and mBoundaryRanks[k] its rank
+    private long[] mBoundaries = new long[16];
+    private long[] mBoundaryRanks = new long[16];
+    private int mKnownBoundaries;
+
+    // Most recently used chunks, keyed by chunk number
+    private final LinkedHashMap<Integer, Object[]> mChunks =
+            new LinkedHashMap<Integer, Object[]>(MAX_CACHED_CHUNKS + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Object[]> eldest) {
+                    return size() > MAX_CACHED_CHUNKS;
+                }
+            };
+
+    // Observers that are told when the row count gets corrected
+    private final DataSetObservable mCountObservable = new DataSetObservable();
+
+    // Row the cursor is currently on
+    private Object[] mCurrentChunk;
+    private int mCurrentOffset;
+
+    /**
+     * Constructs a new {@link TodoItemWindowedCursor}
+     * @param db            database to read from
+     * @param projection    columns to return, which must include {@link ItemEntry#_ID}.
+     *                      Null returns all columns.
+     * @param selection     optional selection
+     * @param selectionArgs arguments of the selection
+     * @param chunkSize     number of rows loaded at once
+     */
+    public TodoItemWindowedCursor(SQLiteDatabase db, String[] projection, String selection,
+                                  String[] selectionArgs, int chunkSize) {
+        this(db, projection, selection, selectionArgs, chunkSize, false);
+    }
+
+    /**
+     * Constructs a new {@link TodoItemWindowedCursor}
+     * @param orderByRank   whether the rows are ordered by (rank, _id) rather than by _id
+     */
+    public TodoItemWindowedCursor(SQLiteDatabase db, String[] projection, String selection,
+                                  String[] selectionArgs, int chunkSize, boolean orderByRank) {
+        this(db, projection, selection, selectionArgs, chunkSize, orderByRank, -1);
+    }
+
+    /**
+     * Constructs a new {@link TodoItemWindowedCursor} whose row count is already known,
+     * for instance from a GROUP BY query, so that it need not be counted again
+     * @param count         number of rows of the result, or -1 to count them
+     */
+    TodoItemWindowedCursor(SQLiteDatabase db, String[] projection, String selection,
+                           String[] selectionArgs, int chunkSize, boolean orderByRank, int count) {
+        mDb = db;
+        mColumns = projection != null ? projection : readAllColumns(db);
+        mIdColumnIndex = Arrays.asList(mColumns).indexOf(ItemEntry._ID);
+        if (mIdColumnIndex < 0) {
+            throw new IllegalArgumentException("Windowed queries require the " + ItemEntry._ID + " column");
+        }
+        mOrderByRank = orderByRank;
+        mRankColumnIndex = Arrays.asList(mColumns).indexOf(ItemEntry.COLUMN_ITEM_RANK);
+        mSelection = TextUtils.isEmpty(selection) ? null : selection;
+        mSelectionArgs = selectionArgs != null ? selectionArgs : new String[0];
+        mChunkSize = chunkSize;
+        mBoundaries[0] = Long.MIN_VALUE;
+        mBoundaryRanks[0] = Long.MIN_VALUE;
+        mKnownBoundaries = 1;
+        mCount = count >= 0 ? count : countRows();
+    }
+
+    private static String[] readAllColumns(SQLiteDatabase db) {
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME, null, null, null, null, null, null, "0");
+        try {
+            return cursor.getColumnNames();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Count the rows of the result. The count reads an index or the table, but no rows are
+     * materialized; an estimate from the _id range would be cheaper, but too high once rows
+     * were deleted or archived, and positions past the real end cannot be served.
+     */
+    private int countRows() {
+        return (int) DatabaseUtils.queryNumEntries(mDb, ItemEntry.TABLE_NAME, mSelection, mSelectionArgs);
+    }
+
+    private String keysetWhere() {
+        // The leading rank bound lets SQLite seek in the rank index
+        String keyset = mOrderByRank
+                ? ItemEntry.COLUMN_ITEM_RANK + ">=? AND (" + ItemEntry.COLUMN_ITEM_RANK + ">? OR "
+                        + ItemEntry._ID + ">?)"
+                : ItemEntry._ID + ">?";
+        return mSelection == null ? keyset : "(" + mSelection + ") AND " + keyset;
+    }
+
+    private String[] keysetArgs(int chunk) {
+        int n = mSelectionArgs.length;
+        String[] args = Arrays.copyOf(mSelectionArgs, n + (mOrderByRank ? 3 : 1));
+        if (mOrderByRank) {
+            args[n++] = String.valueOf(mBoundaryRanks[chunk]);
+            args[n++] = String.valueOf(mBoundaryRanks[chunk]);
+        }
+        args[n] = String.valueOf(mBoundaries[chunk]);
+        return args;
+    }
+
+    private String keysetOrder() {
+        return mOrderByRank
+                ? ItemEntry.COLUMN_ITEM_RANK + " ASC, " + ItemEntry._ID + " ASC"
+                : ItemEntry._ID + " ASC";
+    }
+
+    /**
+     * Find the boundary of chunk k by stepping forward from the closest known boundary.
+     * Each step reads a single key from an index, so no rows are materialized.
+     * Returns false if chunk k lies past the end of the result.
+     */
+    private boolean resolveBoundary(int chunk) {
+        while (mKnownBoundaries <= chunk) {
+            Cursor cursor = mDb.query(ItemEntry.TABLE_NAME,
+                    new String[] { ItemEntry._ID, ItemEntry.COLUMN_ITEM_RANK },
+                    keysetWhere(), keysetArgs(mKnownBoundaries - 1), null, null,
+                    keysetOrder(), (mChunkSize - 1) + ",1");
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                addBoundary(cursor.getLong(0), cursor.getLong(1));
+            } finally {
+                cursor.close();
+            }
+        }
+        return true;
+    }
+
+    private void addBoundary(long id, long rank) {
+        if (mBoundaries.length == mKnownBoundaries) {
+            mBoundaries = Arrays.copyOf(mBoundaries, mKnownBoundaries * 2);
+            mBoundaryRanks = Arrays.copyOf(mBoundaryRanks, mKnownBoundaries * 2);
+        }
+        mBoundaryRanks[mKnownBoundaries] = rank;
+        mBoundaries[mKnownBoundaries++] = id;
+    }
+
+    /**
+     * Return chunk k, reading it from the database if it is not cached.
+     * Returns null if chunk k lies past the end of the result.
+     */
+    private Object[] getChunk(int chunk) {
+        Object[] rows = mChunks.get(chunk);
+        if (rows != null) {
+            return rows;
+        }
+        if (!resolveBoundary(chunk)) {
+            return null;
+        }
+
+        Cursor cursor = mDb.query(ItemEntry.TABLE_NAME, mColumns, keysetWhere(),
+                keysetArgs(chunk), null, null, keysetOrder(), String.valueOf(mChunkSize));
+        try {
+            int columnCount = mColumns.length;
+            int rowCount = cursor.getCount();
+            rows = new Object[rowCount * columnCount];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columnCount; column++) {
+                    rows[i++] = TodoItemSnapshot.readValue(cursor, column);
+                }
+            }
+            // The next boundary is the last row, if its rank was read too
+            if (rowCount == mChunkSize && mKnownBoundaries == chunk + 1
+                    && (!mOrderByRank || mRankColumnIndex >= 0)) {
+                int last = (rowCount - 1) * columnCount;
+                long rank = mOrderByRank ? (Long) rows[last + mRankColumnIndex] : 0;
+                addBoundary((Long) rows[last + mIdColumnIndex], rank);
+            }
+            if (rowCount < mChunkSize) {
+                correctCount(chunk * mChunkSize + rowCount);
+            }
+        } finally {
+            cursor.close();
+        }
+        mChunks.put(chunk, rows);
+        return rows;
+    }
+
+    // The end of the result has been read, so the count is now checked against the rows
+    private void correctCount(int count) {
+        mEndRead = true;
+        if (count != mCount) {
+            mCount = count;
+            mCountObservable.notifyChanged();
+        }
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int chunk = newPosition / mChunkSize;
+        Object[] rows = getChunk(chunk);
+        int offset = (newPosition % mChunkSize) * mColumns.length;
+        if (rows == null || offset >= rows.length) {
+            // Past the real end of the result, which means rows were deleted since they were
+            // counted. Read the last chunk so that the count gets corrected.
+            while (!mEndRead) {
+                getChunk(mKnownBoundaries - 1);
+            }
+            mCurrentChunk = null;
+            return false;
+        }
+        mCurrentChunk = rows;
+        mCurrentOffset = offset;
+        return true;
+    }
+
+    private Object value(int column) {
+        if (mCurrentChunk == null) {
+            throw new IllegalStateException("Cursor is not on a row");
+        }
+        return mCurrentChunk[mCurrentOffset + column];
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = value(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = value(column);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = value(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return value(column) == null;
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        mCountObservable.registerObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        mCountObservable.unregisterObserver(observer);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        mChunks.clear();
+        mCurrentChunk = null;
+    }
+}
@@ -0,0 +1,86 @@
+package com.codepath.simpletodo.perf;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+/**
+ * Debug overlay over the content of an activity, showing the frames recorded so far and the
+ * sections charged with the most jank, refreshed twice a second. Whether it shows is a
+ * preference, so that it follows the user from one activity to the next.
+ */
+public class PerfOverlay {
+
+    private static final String PREF_ENABLED = "perf_overlay_enabled";
+
+    private static final long UPDATE_MILLIS = 500;
+
+    private static final int SECTIONS_SHOWN = 3;
+
+    private final Activity mActivity;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mUpdate = new Runnable() {
+        @Override
+        public void run() {
+            mView.setText(PerfTrace.getRecorder().summary(SECTIONS_SHOWN));
+            mHandler.postDelayed(this, UPDATE_MILLIS);
+        }
+    };
+    private TextView mView;
+
+    public PerfOverlay(Activity activity) {
+        mActivity = activity;
+    }
+
+    public static boolean isEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PREF_ENABLED, false);
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit().putBoolean(PREF_ENABLED, enabled).apply();
+    }
+
+    /**
+     * Show the overlay if it is enabled; call from onResume.
+     */
+    public void show() {
+        if (mView != null || !isEnabled(mActivity)) {
+            return;
+        }
+        mView = new TextView(mActivity);
+        mView.setBackgroundColor(0xB0000000);
+        mView.setTextColor(Color.WHITE);
+        mView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10);
+        int padding = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 4,
+                mActivity.getResources().getDisplayMetrics()));
+        mView.setPadding(padding, padding, padding, padding);
+        // Touches go through to the views below
+        mView.setClickable(false);
+        mView.setFocusable(false);
+
+        ViewGroup content = (ViewGroup) mActivity.findViewById(android.R.id.content);
+        content.addView(mView, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.BOTTOM | Gravity.START));
+        mUpdate.run();
+    }
+
+    /**
+     * Remove the overlay; call from onPause.
+     */
+    public void hide() {
+        if (mView == null) {
+            return;
+        }
+        mHandler.removeCallbacks(mUpdate);
+        ((ViewGroup) mView.getParent()).removeView(mView);
+        mView = null;
+    }
+}
@@ -0,0 +1,263 @@
+package com.codepath.simpletodo.perf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long named sections of code take, on any thread, and the intervals between the
+ * frames of the main thread, into histograms.
+ *
+ * Sections nest on each thread. Besides its duration, a section run on the frame thread adds
+ * its self time (its duration less that of the sections inside it) to the work of the current
+ * frame. When a frame comes late, that work is charged to the sections as jank, so a report
+ * can tell which methods made frames late rather than only how many were.
+ *
+ * This class does not depend on the Android framework, so that it can be driven by a simulated
+ * clock in tests.
+ */
+public class PerfRecorder {
+
+    /**
+     * Source of the current time, in nanoseconds.
+     */
+    public interface Clock {
+        long nanoTime();
+    }
+
+    /** Frame interval past which the frame is janky: one and a half frames at 60 Hz */
+    public static final long JANK_NANOS = 25000000L;
+
+    // Sections open on a thread, innermost last
+    private static class Stack {
+        final ArrayList<String> mNames = new ArrayList<>();
+        long[] mStarts = new long[8];
+        long[] mChildNanos = new long[8];
+    }
+
+    // Statistics of one section
+    private static class Section {
+        final String mName;
+        final SectionHistogram mDurations = new SectionHistogram();
+        final AtomicLong mJankNanos = new AtomicLong();
+
+        Section(String name) {
+            mName = name;
+        }
+    }
+
+    private final Clock mClock;
+    private final Thread mFrameThread;
+    private final ThreadLocal<Stack> mStacks = new ThreadLocal<Stack>() {
+        @Override
+        protected Stack initialValue() {
+            return new Stack();
+        }
+    };
+    private final ConcurrentHashMap<String, Section> mSections = new ConcurrentHashMap<>();
+
+    // Self time of the sections run on the frame thread since the last frame; only used there
+    private final HashMap<String, long[]> mFrameWork = new HashMap<>();
+
+    private final SectionHistogram mFrames = new SectionHistogram();
+    private final AtomicLong mJankyFrames = new AtomicLong();
+    private final AtomicLong mJankNanos = new AtomicLong();
+
+    /**
+     * Constructs a new {@link PerfRecorder}
+     * @param clock       source of the current time
+     * @param frameThread thread whose frames are recorded with {@link #onFrame}
+     */
+    public PerfRecorder(Clock clock, Thread frameThread) {
+        mClock = clock;
+        mFrameThread = frameThread;
+    }
+
+    /**
+     * Start a section on the calling thread. Every call must be matched by an {@link #end()} on
+     * the same thread, in a finally block if the section can throw.
+     */
+    public void begin(String name) {
+        Stack stack = mStacks.get();
+        int depth = stack.mNames.size();
+        if (depth == stack.mStarts.length) {
+            stack.mStarts = Arrays.copyOf(stack.mStarts, depth * 2);
+            stack.mChildNanos = Arrays.copyOf(stack.mChildNanos, depth * 2);
+        }
+        stack.mNames.add(name);
+        stack.mChildNanos[depth] = 0;
+        stack.mStarts[depth] = mClock.nanoTime();
+    }
+
+    /**
+     * End the innermost section open on the calling thread.
+     */
+    public void end() {
+        long now = mClock.nanoTime();
+        Stack stack = mStacks.get();
+        int depth = stack.mNames.size() - 1;
+        if (depth < 0) {
+            throw new IllegalStateException("No section to end");
+        }
+        String name = stack.mNames.remove(depth);
+        long nanos = now - stack.mStarts[depth];
+        if (depth > 0) {
+            stack.mChildNanos[depth - 1] += nanos;
+        }
+        getSection(name).mDurations.record(nanos);
+
+        if (Thread.currentThread() == mFrameThread) {
+            long[] work = mFrameWork.get(name);
+            if (work == null) {
+                work = new long[1];
+                mFrameWork.put(name, work);
+            }
+            work[0] += nanos - stack.mChildNanos[depth];
+        }
+    }
+
+    private Section getSection(String name) {
+        Section section = mSections.get(name);
+        if (section == null) {
+            Section created = new Section(name);
+            section = mSections.putIfAbsent(name, created);
+            if (section == null) {
+                section = created;
+            }
+        }
+        return section;
+    }
+
+    /**
+     * Record a frame, on the frame thread: the work of the sections since the previous frame is
+     * charged to them if the frame is janky.
+     *
+     * @param intervalNanos time since the previous frame, or a negative value if it is not known,
+     *                      as for the first frame recorded, which then only drops the work
+     */
+    public void onFrame(long intervalNanos) {
+        if (intervalNanos >= 0) {
+            mFrames.record(intervalNanos);
+            if (intervalNanos > JANK_NANOS) {
+                mJankyFrames.incrementAndGet();
+                mJankNanos.addAndGet(intervalNanos);
+                for (Map.Entry<String, long[]> work : mFrameWork.entrySet()) {
+                    getSection(work.getKey()).mJankNanos.addAndGet(work.getValue()[0]);
+                }
+            }
+        }
+        mFrameWork.clear();
+    }
+
+    /**
+     * Returns the number of frames recorded.
+     */
+    public long getFrameCount() {
+        return mFrames.getCount();
+    }
+
+    /**
+     * Returns the number of janky frames recorded.
+     */
+    public long getJankyFrameCount() {
+        return mJankyFrames.get();
+    }
+
+    /**
+     * Returns the number of times the section ended.
+     */
+    public long getSectionCount(String name) {
+        Section section = mSections.get(name);
+        return section == null ? 0 : section.mDurations.getCount();
+    }
+
+    /**
+     * Returns the time of janky frames charged to the section, in nanoseconds.
+     */
+    public long getSectionJankNanos(String name) {
+        Section section = mSections.get(name);
+        return section == null ? 0 : section.mJankNanos.get();
+    }
+
+    // Sections with the most jank charged first, then the longest in total. The order is taken
+    // from a copy of the counters, which other threads keep changing.
+    private List<Section> sortedSections() {
+        final Map<Section, long[]> keys = new HashMap<>();
+        for (Section section : mSections.values()) {
+            keys.put(section, new long[] { section.mJankNanos.get(), section.mDurations.getTotalNanos() });
+        }
+        List<Section> sections = new ArrayList<>(keys.keySet());
+        Collections.sort(sections, new Comparator<Section>() {
+            @Override
+            public int compare(Section a, Section b) {
+                long[] keyA = keys.get(a);
+                long[] keyB = keys.get(b);
+                for (int i = 0; i < keyA.length; i++) {
+                    if (keyA[i] != keyB[i]) {
+                        return keyA[i] > keyB[i] ? -1 : 1;
+                    }
+                }
+                return a.mName.compareTo(b.mName);
+            }
+        });
+        return sections;
+    }
+
+    /**
+     * Returns a few lines on the frames and the sections charged with the most jank.
+     */
+    public String summary(int sectionCount) {
+        StringBuilder summary = new StringBuilder();
+        appendFrames(summary);
+        List<Section> sections = sortedSections();
+        for (int i = 0; i < Math.min(sectionCount, sections.size()); i++) {
+            Section section = sections.get(i);
+            summary.append('\n').append(String.format(Locale.US, "%s: jank %s, p90 %s", section.mName,
+                    millis(section.mJankNanos.get()), millis(section.mDurations.percentileNanos(0.9))));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Returns the full report: the frames, then every section with its percentiles, total time
+     * and jank, the most to blame first. Times are in milliseconds.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        appendFrames(report);
+        report.append("\n\nsection\tcount\tp50\tp90\tp99\tmax\ttotal\tjank\n");
+        for (Section section : sortedSections()) {
+            SectionHistogram durations = section.mDurations;
+            report.append(section.mName)
+                    .append('\t').append(durations.getCount())
+                    .append('\t').append(millis(durations.percentileNanos(0.5)))
+                    .append('\t').append(millis(durations.percentileNanos(0.9)))
+                    .append('\t').append(millis(durations.percentileNanos(0.99)))
+                    .append('\t').append(millis(durations.getMaxNanos()))
+                    .append('\t').append(millis(durations.getTotalNanos()))
+                    .append('\t').append(millis(section.mJankNanos.get()))
+                    .append('\n');
+        }
+        return report.toString();
+    }
+
+    private void appendFrames(StringBuilder out) {
+        long frames = mFrames.getCount();
+        long janky = mJankyFrames.get();
+        out.append(String.format(Locale.US, "frames %d, janky %d (%.1f%%), p50 %s, p90 %s, p99 %s, janky time %s",
+                frames, janky, frames == 0 ? 0.0 : 100.0 * janky / frames,
+                millis(mFrames.percentileNanos(0.5)), millis(mFrames.percentileNanos(0.9)),
+                millis(mFrames.percentileNanos(0.99)), millis(mJankNanos.get())));
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,95 @@
+package com.codepath.simpletodo.perf;
+
+import android.os.Build;
+import android.os.Looper;
+import android.os.Trace;
+import android.view.Choreographer;
+
+/**
+ * Sections of code traced both for systrace, through {@link Trace}, and for the app's own
+ * {@link PerfRecorder}, which keeps their durations in production builds too. The recorder
+ * also gets the frames of the main thread while an activity calls {@link #startFrames()} from
+ * its onResume, so that late frames are charged to the sections that ran in them.
+ *
+ * Wrap a section in begin and end on the same thread, with end in a finally block if the
+ * section can throw:
+ * <pre>
+ * PerfTrace.begin("TodoItemProvider.query");
+ * try {
+ *     ...
+ * } finally {
+ *     PerfTrace.end();
+ * }
+ * </pre>
+ */
+public final class PerfTrace {
+
+    private PerfTrace() {}
+
+    private static final PerfRecorder sRecorder = new PerfRecorder(new PerfRecorder.Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    }, Looper.getMainLooper().getThread());
+
+    // Posts itself on every frame while started; only used on the main thread
+    private static final Choreographer.FrameCallback sFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (sFramesStarted == 0) {
+                return;
+            }
+            sRecorder.onFrame(sLastFrameNanos == 0 ? -1 : frameTimeNanos - sLastFrameNanos);
+            sLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+    private static int sFramesStarted;
+    private static long sLastFrameNanos;
+
+    /**
+     * Start a section on the calling thread.
+     */
+    public static void begin(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+        sRecorder.begin(name);
+    }
+
+    /**
+     * End the innermost section open on the calling thread.
+     */
+    public static void end() {
+        sRecorder.end();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Start recording the frames, on the main thread. Calls nest, so that the next activity can
+     * start before the previous one stops.
+     */
+    public static void startFrames() {
+        if (sFramesStarted++ == 0) {
+            sLastFrameNanos = 0;
+            Choreographer.getInstance().postFrameCallback(sFrameCallback);
+        }
+    }
+
+    /**
+     * Stop recording the frames, on the main thread, once every start is matched. The frame
+     * callback asks for every vsync, so it only runs while an activity is in front.
+     */
+    public static void stopFrames() {
+        if (sFramesStarted > 0 && --sFramesStarted == 0) {
+            Choreographer.getInstance().removeFrameCallback(sFrameCallback);
+        }
+    }
+
+    public static PerfRecorder getRecorder() {
+        return sRecorder;
+    }
+}
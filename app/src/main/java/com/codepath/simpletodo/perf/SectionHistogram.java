@@ -0,0 +1,107 @@
+package com.codepath.simpletodo.perf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with log-spaced buckets, each about sqrt(2) times as wide as the one
+ * before, from 1 us to about an hour: the same scheme as the status durations of the analytics,
+ * at the resolution of code sections.
+ *
+ * Recording only increments atomic counters, so any thread can record without locking, and the
+ * histogram takes constant space whatever the number of durations. Percentiles are estimated by
+ * interpolating geometrically inside the bucket holding the wanted rank.
+ */
+final class SectionHistogram {
+
+    // Exclusive upper bounds of every bucket but the last, in microseconds
+    private static final long[] BOUNDS;
+
+    static {
+        ArrayList<Long> bounds = new ArrayList<>();
+        long last = 0;
+        for (double bound = 1; bound <= (1L << 32); bound *= Math.sqrt(2)) {
+            long rounded = Math.round(bound);
+            if (rounded > last) {
+                bounds.add(rounded);
+                last = rounded;
+            }
+        }
+        BOUNDS = new long[bounds.size()];
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUNDS[i] = bounds.get(i);
+        }
+    }
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    /**
+     * Record a duration; negative durations count as 0.
+     */
+    void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        int index = Arrays.binarySearch(BOUNDS, nanos / 1000);
+        // An exact match is the lower bound of the next bucket
+        mCounts.incrementAndGet(index >= 0 ? index + 1 : -index - 1);
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    long getTotalNanos() {
+        return mTotalNanos.get();
+    }
+
+    long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Estimate a percentile of the recorded durations.
+     *
+     * @param quantile wanted quantile, between 0 and 1
+     * @return the estimated duration in nanoseconds, or 0 if nothing was recorded
+     */
+    long percentileNanos(double quantile) {
+        long[] counts = new long[mCounts.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        long max = mMaxNanos.get();
+        if (total == 0) {
+            return 0;
+        }
+        if (quantile >= 1) {
+            return max;
+        }
+
+        // Nearest rank, 1-based, found in the cumulative counts
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long before = 0;
+        int bucket = 0;
+        while (before + counts[bucket] < rank) {
+            before += counts[bucket++];
+        }
+
+        // Assume the durations of the bucket are spread evenly on a log scale
+        double fraction = (rank - before - 0.5) / counts[bucket];
+        double lower = bucket == 0 ? 0 : BOUNDS[bucket - 1] * 1000.0;
+        double upper = bucket < BOUNDS.length ? BOUNDS[bucket] * 1000.0 : Math.max(max, lower);
+        double estimate = lower <= 0 ? upper * fraction : lower * Math.pow(upper / lower, fraction);
+        return Math.min(max, Math.round(estimate));
+    }
+}
@@ -0,0 +1,107 @@
+package com.codepath.simpletodo.reminder;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Process;
+import android.support.v4.app.NotificationCompat;
+
+import com.codepath.simpletodo.EditorActivity;
+import com.codepath.simpletodo.R;
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+/**
+ * Receives the single reminder alarm and the boot broadcast.
+ *
+ * On a reminder, every item that is due gets a notification and the alarm is re-armed for the
+ * next reminder. On boot, the scheduler is rebuilt from the database, which re-arms the alarm.
+ * Both read the database, so they run on a background thread while the broadcast is kept pending.
+ */
+public class ReminderReceiver extends BroadcastReceiver {
+
+    /** Identifier of the notification channel for reminders */
+    private static final String CHANNEL_ID = "reminders";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final String action = intent.getAction();
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(action) && !TodoReminders.ACTION_REMINDER.equals(action)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pendingResult = goAsync();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    // Creating the instance rebuilds the scheduler and arms the earliest reminder,
+                    // reminders that came due while the process was dead included
+                    TodoReminders reminders = TodoReminders.getInstance(appContext);
+                    if (TodoReminders.ACTION_REMINDER.equals(action)) {
+                        for (long id : reminders.popDue()) {
+                            notifyDue(appContext, reminders, id);
+                        }
+                    }
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        }, "ReminderReceiver");
+        thread.start();
+    }
+
+    // Post a notification for the due item, which opens it in the editor, unless it was
+    // already posted for its due date or the item is no longer due
+    private void notifyDue(Context context, TodoReminders reminders, long id) {
+        Uri itemUri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id);
+        Cursor cursor = context.getContentResolver().query(itemUri, new String[] { ItemEntry.COLUMN_ITEM_NAME,
+                ItemEntry.COLUMN_ITEM_DUE_AT, ItemEntry.COLUMN_ITEM_STATUS, ItemEntry.COLUMN_ITEM_REMINDED_DUE_AT },
+                null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        String name;
+        long dueAt;
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(1) || cursor.getInt(2) == ItemEntry.STATUS_DONE) {
+                return;
+            }
+            name = cursor.getString(0);
+            dueAt = cursor.getLong(1);
+            if (dueAt > System.currentTimeMillis() || (!cursor.isNull(3) && cursor.getLong(3) == dueAt)) {
+                return;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    context.getString(R.string.reminder_channel_name), NotificationManager.IMPORTANCE_DEFAULT));
+        }
+
+        Intent editIntent = new Intent(context, EditorActivity.class);
+        editIntent.setData(itemUri);
+        PendingIntent contentIntent = PendingIntent.getActivity(context, (int) id, editIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_done)
+                .setContentTitle(context.getString(R.string.reminder_title))
+                .setContentText(name)
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true);
+        notificationManager.notify((int) id, builder.build());
+        reminders.markReminded(id, dueAt);
+    }
+}
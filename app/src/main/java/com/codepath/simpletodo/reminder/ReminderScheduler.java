@@ -0,0 +1,237 @@
+package com.codepath.simpletodo.reminder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Keeps every pending reminder in an indexed min-heap ordered by due time, and arms
+ * exactly one wake-up: the one for the earliest reminder.
+ *
+ * Scheduling, rescheduling and cancelling a reminder are O(log n), and the wake-up is only
+ * re-armed when the earliest due time actually changes. This class does not depend on the
+ * Android framework, so that it can be driven by a simulated clock in tests.
+ */
+public class ReminderScheduler {
+
+    /**
+     * Source of the current time, in milliseconds.
+     */
+    public interface Clock {
+        long now();
+    }
+
+    /**
+     * Arms the single wake-up of the scheduler.
+     */
+    public interface Wakeup {
+        /** Arm the wake-up at the given time, replacing any previously armed one */
+        void arm(long atMillis);
+
+        /** Cancel the armed wake-up */
+        void cancel();
+    }
+
+    /** Value of {@link #getArmedAt()} when no wake-up is armed */
+    public static final long NOT_ARMED = Long.MAX_VALUE;
+
+    private final Clock mClock;
+    private final Wakeup mWakeup;
+
+    // Heap of (due time, item id) pairs, stored in two parallel arrays
+    private long[] mDueAt = new long[16];
+    private long[] mIds = new long[16];
+    private int mSize;
+
+    // Position of each item id in the heap
+    private final HashMap<Long, Integer> mPositions = new HashMap<>();
+
+    // Time the wake-up is armed at
+    private long mArmedAt = NOT_ARMED;
+
+    /**
+     * Constructs a new {@link ReminderScheduler}
+     * @param clock  source of the current time
+     * @param wakeup arms the single wake-up
+     */
+    public ReminderScheduler(Clock clock, Wakeup wakeup) {
+        mClock = clock;
+        mWakeup = wakeup;
+    }
+
+    /**
+     * Schedule (or reschedule) the reminder of the given item.
+     */
+    public synchronized void schedule(long id, long dueAt) {
+        Integer position = mPositions.get(id);
+        if (position == null) {
+            ensureCapacity(mSize + 1);
+            mDueAt[mSize] = dueAt;
+            mIds[mSize] = id;
+            mPositions.put(id, mSize);
+            siftUp(mSize++);
+        } else {
+            long previous = mDueAt[position];
+            mDueAt[position] = dueAt;
+            if (dueAt < previous) {
+                siftUp(position);
+            } else {
+                siftDown(position);
+            }
+        }
+        rearm();
+    }
+
+    /**
+     * Cancel the reminder of the given item, if it has one.
+     */
+    public synchronized void cancel(long id) {
+        Integer position = mPositions.get(id);
+        if (position == null) {
+            return;
+        }
+        removeAt(position);
+        rearm();
+    }
+
+    /**
+     * Replace all pending reminders with the given ones, and arm a single wake-up.
+     * Building the heap this way is O(n).
+     */
+    public synchronized void reset(long[] ids, long[] dueAt, int count) {
+        mPositions.clear();
+        mSize = 0;
+        ensureCapacity(count);
+        System.arraycopy(ids, 0, mIds, 0, count);
+        System.arraycopy(dueAt, 0, mDueAt, 0, count);
+        mSize = count;
+        for (int i = 0; i < count; i++) {
+            mPositions.put(mIds[i], i);
+        }
+        for (int i = (count >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        rearm();
+    }
+
+    /**
+     * Remove every reminder that is due at the current time, and re-arm the wake-up
+     * for the next one.
+     *
+     * @return ids of the due items, earliest first
+     */
+    public synchronized long[] popDue() {
+        long now = mClock.now();
+        long[] due = new long[4];
+        int count = 0;
+        while (mSize > 0 && mDueAt[0] <= now) {
+            if (count == due.length) {
+                due = Arrays.copyOf(due, count * 2);
+            }
+            due[count++] = mIds[0];
+            removeAt(0);
+        }
+        rearm();
+        return Arrays.copyOf(due, count);
+    }
+
+    /**
+     * Returns the due time of the earliest reminder, or {@link #NOT_ARMED} if there is none.
+     */
+    public synchronized long peekDueAt() {
+        return mSize == 0 ? NOT_ARMED : mDueAt[0];
+    }
+
+    /**
+     * Returns the time the wake-up is currently armed at, or {@link #NOT_ARMED}.
+     */
+    public synchronized long getArmedAt() {
+        return mArmedAt;
+    }
+
+    /**
+     * Returns the number of pending reminders.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    // Arm the wake-up for the earliest reminder, only if that changed
+    private void rearm() {
+        long next = mSize == 0 ? NOT_ARMED : mDueAt[0];
+        if (next == mArmedAt) {
+            return;
+        }
+        mArmedAt = next;
+        if (next == NOT_ARMED) {
+            mWakeup.cancel();
+        } else {
+            mWakeup.arm(next);
+        }
+    }
+
+    private void removeAt(int position) {
+        mPositions.remove(mIds[position]);
+        int last = --mSize;
+        if (position == last) {
+            return;
+        }
+        long removedDueAt = mDueAt[position];
+        move(last, position);
+        if (mDueAt[position] < removedDueAt) {
+            siftUp(position);
+        } else {
+            siftDown(position);
+        }
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (mDueAt[parent] <= mDueAt[position]) {
+                break;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= mSize) {
+                break;
+            }
+            if (child + 1 < mSize && mDueAt[child + 1] < mDueAt[child]) {
+                child++;
+            }
+            if (mDueAt[position] <= mDueAt[child]) {
+                break;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long dueAt = mDueAt[a];
+        long id = mIds[a];
+        move(b, a);
+        mDueAt[b] = dueAt;
+        mIds[b] = id;
+        mPositions.put(id, b);
+    }
+
+    private void move(int from, int to) {
+        mDueAt[to] = mDueAt[from];
+        mIds[to] = mIds[from];
+        mPositions.put(mIds[to], to);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mDueAt.length < capacity) {
+            int newLength = Math.max(capacity, mDueAt.length * 2);
+            mDueAt = Arrays.copyOf(mDueAt, newLength);
+            mIds = Arrays.copyOf(mIds, newLength);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.codepath.simpletodo.reminder;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+import com.codepath.simpletodo.data.TodoItemDbHelper;
+
+/**
+ * Process-wide holder of the {@link ReminderScheduler} for todoitem due dates.
+ *
+ * The scheduler is rebuilt from the database when the process starts (or after a reboot), and
+ * is kept up to date by {@link com.codepath.simpletodo.data.TodoItemProvider} as due dates change.
+ * Only the earliest pending reminder is registered with the {@link AlarmManager}.
+ *
+ * A reminder stays pending until its notification is posted and recorded in
+ * {@link ItemEntry#COLUMN_ITEM_REMINDED_DUE_AT}, so a rebuild keeps the items that came due
+ * meanwhile: when the alarm starts a dead process, after a reboot, or when a write rebuilds the
+ * schedule while the alarm is on its way. Their wake-up is then in the past, and fires at once.
+ */
+public class TodoReminders {
+
+    /** Action of the broadcast sent when the earliest reminder is due */
+    public static final String ACTION_REMINDER = "com.codepath.simpletodo.action.REMINDER";
+
+    /** Age past which a reminder that was never posted is dropped rather than posted late: 7 days */
+    public static final long MAX_OVERDUE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    // Pending reminders: not posted for the current due date, nor too old, of items not DONE.
+    // The lower bound keeps the query a range of the due date index.
+    private static final String SELECTION_PENDING = ItemEntry.COLUMN_ITEM_DUE_AT + ">? AND "
+            + ItemEntry.COLUMN_ITEM_STATUS + "!=? AND " + ItemEntry.COLUMN_ITEM_REMINDED_DUE_AT + " IS NOT "
+            + ItemEntry.COLUMN_ITEM_DUE_AT;
+
+    private static final String SQL_SET_REMINDED = "UPDATE " + ItemEntry.TABLE_NAME + " SET "
+            + ItemEntry.COLUMN_ITEM_REMINDED_DUE_AT + "=" + ItemEntry.COLUMN_ITEM_DUE_AT + " WHERE "
+            + ItemEntry._ID + "=? AND " + ItemEntry.COLUMN_ITEM_DUE_AT + "=?";
+
+    private static TodoReminders mInstance = null;
+
+    private final Context mContext;
+    private final ReminderScheduler mScheduler;
+
+    public static synchronized TodoReminders getInstance(Context ctx) {
+        // Use the application context, which will ensure that you
+        // don't accidentally leak an Activity's context.
+        if (mInstance == null) {
+            mInstance = new TodoReminders(ctx.getApplicationContext());
+            mInstance.rebuild();
+        }
+        return mInstance;
+    }
+
+    private TodoReminders(Context context) {
+        mContext = context;
+        mScheduler = new ReminderScheduler(new ReminderScheduler.Clock() {
+            @Override
+            public long now() {
+                return System.currentTimeMillis();
+            }
+        }, new AlarmWakeup(context));
+    }
+
+    /**
+     * Reload every pending reminder, overdue ones included, with a range query on the due date
+     * index. Call it off the main thread.
+     */
+    public void rebuild() {
+        SQLiteDatabase db = TodoItemDbHelper.getInstance(mContext).getReadableDatabase();
+        Cursor cursor = db.query(ItemEntry.TABLE_NAME,
+                new String[] { ItemEntry._ID, ItemEntry.COLUMN_ITEM_DUE_AT }, SELECTION_PENDING,
+                new String[] { String.valueOf(System.currentTimeMillis() - MAX_OVERDUE_MILLIS),
+                        String.valueOf(ItemEntry.STATUS_DONE) },
+                null, null, null);
+        try {
+            int count = cursor.getCount();
+            long[] ids = new long[count];
+            long[] dueAt = new long[count];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i] = cursor.getLong(0);
+                dueAt[i] = cursor.getLong(1);
+                i++;
+            }
+            mScheduler.reset(ids, dueAt, i);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Update the reminder of an item after its due date or status changed.
+     *
+     * @param dueAt due date of the item, or null if it has none
+     */
+    public void onItemChanged(long id, Long dueAt, int status) {
+        if (dueAt == null || status == ItemEntry.STATUS_DONE) {
+            mScheduler.cancel(id);
+        } else {
+            mScheduler.schedule(id, dueAt);
+        }
+    }
+
+    /**
+     * Drop the reminder of a deleted item.
+     */
+    public void onItemDeleted(long id) {
+        mScheduler.cancel(id);
+    }
+
+    /**
+     * Remove and return the ids of the items whose reminders are due, then arm
+     * the wake-up for the next one. Each must be passed to {@link #markReminded} once its
+     * notification is posted, or it comes back with the next rebuild.
+     */
+    public long[] popDue() {
+        return mScheduler.popDue();
+    }
+
+    /**
+     * Record that the reminder of the item for the given due date was posted. Nothing is
+     * recorded if the due date changed since, so that the new one is reminded.
+     *
+     * The column is bookkeeping of the reminders, which no screen shows, so it is written
+     * without going through the provider, whose observers have nothing to refresh.
+     */
+    public void markReminded(long id, long dueAt) {
+        SQLiteStatement statement = TodoItemDbHelper.getInstance(mContext).getWritableDatabase()
+                .compileStatement(SQL_SET_REMINDED);
+        try {
+            statement.bindLong(1, id);
+            statement.bindLong(2, dueAt);
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TodoReminders{pending=" + mScheduler.size() + ", armedAt=" + mScheduler.getArmedAt() + "}";
+    }
+
+    /**
+     * {@link ReminderScheduler.Wakeup} backed by a single {@link AlarmManager} alarm.
+     */
+    private static class AlarmWakeup implements ReminderScheduler.Wakeup {
+
+        private final Context mContext;
+
+        AlarmWakeup(Context context) {
+            mContext = context;
+        }
+
+        private PendingIntent pendingIntent() {
+            Intent intent = new Intent(mContext, ReminderReceiver.class);
+            intent.setAction(ACTION_REMINDER);
+            return PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+
+        @Override
+        public void arm(long atMillis) {
+            AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                alarmManager.setExact(AlarmManager.RTC_WAKEUP, atMillis, pendingIntent());
+            } else {
+                alarmManager.set(AlarmManager.RTC_WAKEUP, atMillis, pendingIntent());
+            }
+        }
+
+        @Override
+        public void cancel() {
+            AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+            alarmManager.cancel(pendingIntent());
+        }
+    }
+}
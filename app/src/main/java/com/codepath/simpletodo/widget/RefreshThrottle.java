@@ -0,0 +1,88 @@
+package com.codepath.simpletodo.widget;
+
+/**
+ * Limits the refreshes of the widget to one every {@link #MIN_INTERVAL_MILLIS}. The first change
+ * after a quiet period refreshes at once; changes arriving within the interval are coalesced
+ * into one refresh at its end, so a burst of writes costs two refreshes rather than one each.
+ *
+ * This class does not depend on the Android framework, so that it can be driven by a simulated
+ * clock in tests. All methods must be called on one thread.
+ */
+class RefreshThrottle {
+
+    /**
+     * Source of the current time, in milliseconds.
+     */
+    interface Clock {
+        long now();
+    }
+
+    /**
+     * Calls {@link #onTimer()} back at the armed time, on the thread changes are reported on.
+     */
+    interface Timer {
+        void arm(long atMillis);
+    }
+
+    /** Shortest time between two refreshes */
+    static final long MIN_INTERVAL_MILLIS = 1000;
+
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final Clock mClock;
+    private final Timer mTimer;
+    private final Runnable mRefresh;
+
+    private long mLastRefreshAt = NEVER;
+    private boolean mArmed;
+    private int mRefreshCount;
+
+    /**
+     * Constructs a new {@link RefreshThrottle}
+     * @param clock   source of the current time
+     * @param timer   calls back when a coalesced refresh is due
+     * @param refresh refreshes the widget
+     */
+    RefreshThrottle(Clock clock, Timer timer, Runnable refresh) {
+        mClock = clock;
+        mTimer = timer;
+        mRefresh = refresh;
+    }
+
+    /**
+     * Record a change, refreshing now or at the end of the interval.
+     */
+    void onChanged() {
+        if (mArmed) {
+            return;
+        }
+        long now = mClock.now();
+        if (mLastRefreshAt == NEVER || now - mLastRefreshAt >= MIN_INTERVAL_MILLIS) {
+            refresh(now);
+        } else {
+            mArmed = true;
+            mTimer.arm(mLastRefreshAt + MIN_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Called by the timer when the coalesced refresh is due.
+     */
+    void onTimer() {
+        mArmed = false;
+        refresh(mClock.now());
+    }
+
+    /**
+     * Returns the number of refreshes made.
+     */
+    int getRefreshCount() {
+        return mRefreshCount;
+    }
+
+    private void refresh(long now) {
+        mLastRefreshAt = now;
+        mRefreshCount++;
+        mRefresh.run();
+    }
+}
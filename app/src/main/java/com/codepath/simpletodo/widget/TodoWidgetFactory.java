@@ -0,0 +1,175 @@
+package com.codepath.simpletodo.widget;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.widget.RemoteViews;
+import android.widget.RemoteViewsService;
+
+import com.codepath.simpletodo.R;
+import com.codepath.simpletodo.data.TodoItemContract;
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rows of the widget: the top pending todoitems, kept by a {@link TopItemsFeed} rather than
+ * queried again in full on every change.
+ *
+ * Change notifications are received on a thread of their own. The URI of a single item is
+ * recorded as a row change; any other URI as a change of the table. Either asks the widget for
+ * a refresh, at most once per {@link RefreshThrottle#MIN_INTERVAL_MILLIS}, and the refresh
+ * applies the changes collected meanwhile in {@link #onDataSetChanged()}.
+ */
+class TodoWidgetFactory implements RemoteViewsService.RemoteViewsFactory {
+
+    /** Number of items the widget shows */
+    static final int TOP_ITEMS = 10;
+
+    private final Context mContext;
+    private final TopItemsFeed mFeed;
+
+    // Thread of the change notifications and of the throttle
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private RefreshThrottle mThrottle;
+    private ContentObserver mObserver;
+
+    // Written on the binder thread of the widget host, and read there too
+    private List<TopItems.Item> mItems = Collections.emptyList();
+
+    TodoWidgetFactory(Context context) {
+        mContext = context;
+        mFeed = new TopItemsFeed(TOP_ITEMS, TopItemsSource.of(context.getContentResolver()));
+    }
+
+    @Override
+    public void onCreate() {
+        mThread = new HandlerThread(TodoWidgetFactory.class.getSimpleName());
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        mThrottle = new RefreshThrottle(new RefreshThrottle.Clock() {
+            @Override
+            public long now() {
+                return SystemClock.uptimeMillis();
+            }
+        }, new RefreshThrottle.Timer() {
+            @Override
+            public void arm(long atMillis) {
+                mHandler.postAtTime(new Runnable() {
+                    @Override
+                    public void run() {
+                        mThrottle.onTimer();
+                    }
+                }, atMillis);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                // The widget host then calls onDataSetChanged()
+                AppWidgetManager manager = AppWidgetManager.getInstance(mContext);
+                int[] ids = manager.getAppWidgetIds(new ComponentName(mContext, TodoWidgetProvider.class));
+                manager.notifyAppWidgetViewDataChanged(ids, R.id.widget_list);
+            }
+        });
+
+        mObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                long id = parseItemId(uri);
+                if (id != -1) {
+                    mFeed.onRowChanged(id);
+                } else {
+                    mFeed.onTableChanged();
+                }
+                mThrottle.onChanged();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(ItemEntry.CONTENT_URI, true, mObserver);
+    }
+
+    /**
+     * Returns the id of the item of a single item URI, or -1 for any other URI.
+     */
+    static long parseItemId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !TodoItemContract.PATH_TODO.equals(segments.get(0))
+                || !TextUtils.isDigitsOnly(segments.get(1))) {
+            return -1;
+        }
+        return ContentUris.parseId(uri);
+    }
+
+    @Override
+    public void onDataSetChanged() {
+        // Query the provider as this app, not as the widget host calling in
+        long token = Binder.clearCallingIdentity();
+        try {
+            mItems = mFeed.refresh();
+        } finally {
+            Binder.restoreCallingIdentity(token);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mThread.quit();
+    }
+
+    @Override
+    public int getCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public RemoteViews getViewAt(int position) {
+        TopItems.Item item = mItems.get(position);
+        RemoteViews views = new RemoteViews(mContext.getPackageName(), R.layout.widget_item);
+        views.setTextViewText(R.id.widget_item_name, item.mName);
+        String[] priorities = mContext.getResources().getStringArray(R.array.array_priority_options);
+        views.setTextViewText(R.id.widget_item_priority, priorities[item.mPriority]);
+        views.setOnClickFillInIntent(R.id.widget_item,
+                new Intent().setData(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, item.mId)));
+        return views;
+    }
+
+    @Override
+    public RemoteViews getLoadingView() {
+        return null;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 1;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).mId;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+}
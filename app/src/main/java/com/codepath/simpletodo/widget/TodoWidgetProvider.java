@@ -0,0 +1,40 @@
+package com.codepath.simpletodo.widget;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.Context;
+import android.content.Intent;
+import android.widget.RemoteViews;
+
+import com.codepath.simpletodo.CatalogActivity;
+import com.codepath.simpletodo.EditorActivity;
+import com.codepath.simpletodo.R;
+
+/**
+ * Home-screen widget listing the top pending todoitems by priority. The rows come from
+ * {@link TodoWidgetService}, which keeps them up to date by itself; this provider only sets the
+ * views up. Tapping the title opens the list, and tapping a row opens the item in the editor.
+ */
+public class TodoWidgetProvider extends AppWidgetProvider {
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        for (int appWidgetId : appWidgetIds) {
+            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_todo);
+
+            views.setRemoteAdapter(R.id.widget_list, new Intent(context, TodoWidgetService.class));
+            views.setEmptyView(R.id.widget_list, R.id.widget_empty);
+
+            Intent catalog = new Intent(context, CatalogActivity.class);
+            views.setOnClickPendingIntent(R.id.widget_title, PendingIntent.getActivity(context, 0, catalog, 0));
+
+            // Each row fills in the URI of its item
+            Intent editor = new Intent(context, EditorActivity.class);
+            views.setPendingIntentTemplate(R.id.widget_list, PendingIntent.getActivity(context, 0, editor,
+                    PendingIntent.FLAG_UPDATE_CURRENT));
+
+            appWidgetManager.updateAppWidget(appWidgetId, views);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.codepath.simpletodo.widget;
+
+import android.content.Intent;
+import android.widget.RemoteViewsService;
+
+/**
+ * Serves the rows of {@link TodoWidgetProvider}.
+ */
+public class TodoWidgetService extends RemoteViewsService {
+
+    @Override
+    public RemoteViewsFactory onGetViewFactory(Intent intent) {
+        return new TodoWidgetFactory(getApplicationContext());
+    }
+}
@@ -0,0 +1,188 @@
+package com.codepath.simpletodo.widget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The best K pending todoitems, by priority, then rank, then id, kept up to date from the
+ * changes of single rows.
+ *
+ * The items are kept in a heap whose root is the worst of them, so a changed row that beats it
+ * takes its place in O(log K). A change that can let an item which is not kept into the top,
+ * which is not known here, invalidates the structure instead: a kept item leaving or getting
+ * worse while other pending items exist. The caller then resets it from a query of the top K.
+ *
+ * This class does not depend on the Android framework, and is not thread-safe.
+ */
+class TopItems {
+
+    /**
+     * A pending todoitem, as the widget shows it.
+     */
+    static final class Item {
+        final long mId;
+        final String mName;
+        final int mPriority;
+        final long mRank;
+
+        Item(long id, String name, int priority, long rank) {
+            mId = id;
+            mName = name;
+            mPriority = priority;
+            mRank = rank;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Item)) {
+                return false;
+            }
+            Item other = (Item) o;
+            return mId == other.mId && mPriority == other.mPriority && mRank == other.mRank
+                    && (mName == null ? other.mName == null : mName.equals(other.mName));
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mId ^ (mId >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return mId + ":" + mName + " p" + mPriority + " r" + mRank;
+        }
+    }
+
+    /** Order of the items: highest priority first, then the user's order, then the oldest */
+    static final Comparator<Item> ORDER = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            if (a.mPriority != b.mPriority) {
+                return a.mPriority > b.mPriority ? -1 : 1;
+            }
+            if (a.mRank != b.mRank) {
+                return a.mRank < b.mRank ? -1 : 1;
+            }
+            return a.mId < b.mId ? -1 : (a.mId == b.mId ? 0 : 1);
+        }
+    };
+
+    private final int mCapacity;
+
+    // Heap of the kept items, whose root is the worst one, and the kept items by id
+    private final PriorityQueue<Item> mHeap;
+    private final HashMap<Long, Item> mById = new HashMap<>();
+
+    // Whether the kept items are all the pending ones, and whether they are known at all
+    private boolean mComplete;
+    private boolean mValid;
+
+    /**
+     * Constructs a new {@link TopItems}, invalid until the first {@link #reset}
+     * @param capacity number of items kept
+     */
+    TopItems(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        mCapacity = capacity;
+        mHeap = new PriorityQueue<>(capacity, Collections.reverseOrder(ORDER));
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Replace the kept items with the result of a query of the best pending items, limited to
+     * the capacity.
+     */
+    void reset(List<Item> top) {
+        if (top.size() > mCapacity) {
+            throw new IllegalArgumentException(top.size() + " items for a capacity of " + mCapacity);
+        }
+        mHeap.clear();
+        mById.clear();
+        for (Item item : top) {
+            add(item);
+        }
+        mComplete = top.size() < mCapacity;
+        mValid = true;
+    }
+
+    /**
+     * Apply the current state of a row.
+     *
+     * @param id   id of the row
+     * @param item the row, or null if it is gone or no longer pending
+     * @return whether the kept items are still known; if not, {@link #reset} must be called
+     */
+    boolean apply(long id, Item item) {
+        if (!mValid) {
+            return false;
+        }
+        Item kept = mById.get(id);
+        if (kept != null) {
+            remove(kept);
+            if (item == null || ORDER.compare(item, kept) > 0) {
+                // Its place may belong to an item that is not kept
+                if (!mComplete) {
+                    invalidate();
+                    return false;
+                }
+                if (item == null) {
+                    return true;
+                }
+            }
+            add(item);
+        } else if (item != null) {
+            if (mHeap.size() < mCapacity) {
+                add(item);
+            } else {
+                // From now on there is a pending item that is not kept
+                mComplete = false;
+                if (ORDER.compare(item, mHeap.peek()) < 0) {
+                    remove(mHeap.peek());
+                    add(item);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget the kept items, until the next {@link #reset}.
+     */
+    void invalidate() {
+        mValid = false;
+        mHeap.clear();
+        mById.clear();
+    }
+
+    boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * Returns the kept items, best first.
+     */
+    List<Item> getItems() {
+        List<Item> items = new ArrayList<>(mHeap);
+        Collections.sort(items, ORDER);
+        return items;
+    }
+
+    private void add(Item item) {
+        mHeap.add(item);
+        mById.put(item.mId, item);
+    }
+
+    private void remove(Item item) {
+        mHeap.remove(item);
+        mById.remove(item.mId);
+    }
+}
@@ -0,0 +1,107 @@
+package com.codepath.simpletodo.widget;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Feeds {@link TopItems} from the change notifications of the provider. Changes of single rows
+ * are collected, and applied on the next {@link #refresh} by reading just those rows; any other
+ * change, or too many rows changed at once, makes the next refresh query the top again.
+ *
+ * Changes can be reported on any thread; refreshes must all run on one thread at a time.
+ */
+class TopItemsFeed {
+
+    /**
+     * Reads the todoitems.
+     */
+    interface Source {
+        /** Returns the best pending items, best first, at most limit of them */
+        List<TopItems.Item> queryTop(int limit);
+
+        /** Returns the item with the given id, or null if it is gone or no longer pending */
+        TopItems.Item queryItem(long id);
+    }
+
+    /** Changed rows beyond which one query of the top costs less than reading each row */
+    static final int MAX_CHANGED_ROWS = 32;
+
+    private final TopItems mTop;
+    private final Source mSource;
+
+    // Rows changed since the last refresh, and whether anything else changed (guarded by this)
+    private final LinkedHashSet<Long> mChangedIds = new LinkedHashSet<>();
+    private boolean mTableChanged = true;
+
+    // Reads of the source, for the benchmark
+    private int mTopQueryCount;
+    private int mItemQueryCount;
+
+    /**
+     * Constructs a new {@link TopItemsFeed}, whose first refresh queries the top
+     * @param capacity number of items kept
+     * @param source   reads the todoitems
+     */
+    TopItemsFeed(int capacity, Source source) {
+        mTop = new TopItems(capacity);
+        mSource = source;
+    }
+
+    /**
+     * Record a change of the row with the given id.
+     */
+    synchronized void onRowChanged(long id) {
+        if (mTableChanged) {
+            return;
+        }
+        mChangedIds.add(id);
+        if (mChangedIds.size() > MAX_CHANGED_ROWS) {
+            onTableChanged();
+        }
+    }
+
+    /**
+     * Record a change that may have touched any row.
+     */
+    synchronized void onTableChanged() {
+        mTableChanged = true;
+        mChangedIds.clear();
+    }
+
+    /**
+     * Apply the changes recorded so far, and return the items to show, best first.
+     */
+    List<TopItems.Item> refresh() {
+        Long[] changedIds;
+        boolean tableChanged;
+        synchronized (this) {
+            tableChanged = mTableChanged;
+            changedIds = mChangedIds.toArray(new Long[mChangedIds.size()]);
+            mTableChanged = false;
+            mChangedIds.clear();
+        }
+
+        // A row is read after its change was reported, so applying it again later is harmless
+        if (!tableChanged) {
+            for (Long id : changedIds) {
+                mItemQueryCount++;
+                if (!mTop.apply(id, mSource.queryItem(id))) {
+                    break;
+                }
+            }
+        }
+        if (tableChanged || !mTop.isValid()) {
+            mTopQueryCount++;
+            mTop.reset(mSource.queryTop(mTop.getCapacity()));
+        }
+        return mTop.getItems();
+    }
+
+    int getTopQueryCount() {
+        return mTopQueryCount;
+    }
+
+    int getItemQueryCount() {
+        return mItemQueryCount;
+    }
+}
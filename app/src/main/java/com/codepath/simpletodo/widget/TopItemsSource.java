@@ -0,0 +1,86 @@
+package com.codepath.simpletodo.widget;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.codepath.simpletodo.data.TodoItemContract;
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the pending todoitems of the widget from {@link com.codepath.simpletodo.data.TodoItemProvider}:
+ * the top through a limited query in the order of {@link TopItems#ORDER}, and single items by URI.
+ */
+abstract class TopItemsSource implements TopItemsFeed.Source {
+
+    private static final String[] PROJECTION = {
+            ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_PRIORITY,
+            ItemEntry.COLUMN_ITEM_RANK, ItemEntry.COLUMN_ITEM_STATUS };
+
+    private static final String SORT_ORDER = ItemEntry.COLUMN_ITEM_PRIORITY + " DESC, "
+            + ItemEntry.COLUMN_ITEM_RANK + ", " + ItemEntry._ID;
+
+    /**
+     * Returns a source reading through the given resolver.
+     */
+    static TopItemsSource of(final ContentResolver resolver) {
+        return new TopItemsSource() {
+            @Override
+            protected Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                   String sortOrder) {
+                return resolver.query(uri, projection, selection, selectionArgs, sortOrder);
+            }
+        };
+    }
+
+    /**
+     * Run a query on the provider.
+     */
+    protected abstract Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                    String sortOrder);
+
+    @Override
+    public List<TopItems.Item> queryTop(int limit) {
+        Uri uri = ItemEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(TodoItemContract.QUERY_PARAMETER_LIMIT, String.valueOf(limit)).build();
+        Cursor cursor = query(uri, PROJECTION, ItemEntry.COLUMN_ITEM_STATUS + "!=?",
+                new String[] { String.valueOf(ItemEntry.STATUS_DONE) }, SORT_ORDER);
+        List<TopItems.Item> items = new ArrayList<>(limit);
+        if (cursor == null) {
+            return items;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                items.add(readItem(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return items;
+    }
+
+    @Override
+    public TopItems.Item queryItem(long id) {
+        // Queries of one item ignore the selection, so the status is checked here
+        Cursor cursor = query(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), PROJECTION, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst() || cursor.getInt(4) == ItemEntry.STATUS_DONE) {
+                return null;
+            }
+            return readItem(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static TopItems.Item readItem(Cursor cursor) {
+        return new TopItems.Item(cursor.getLong(0), cursor.getString(1), cursor.getInt(2), cursor.getLong(3));
+    }
+}
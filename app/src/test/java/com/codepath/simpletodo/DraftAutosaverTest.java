@@ -0,0 +1,176 @@
+package com.codepath.simpletodo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DraftAutosaver}, driven by a simulated clock.
+ */
+public class DraftAutosaverTest {
+
+    private static final long NOT_ARMED = Long.MAX_VALUE;
+
+    /** Clock whose time only moves when the test says so */
+    private static class SimulatedClock implements DraftAutosaver.Clock {
+        long now;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    /** Timer that records the armed time */
+    private static class RecordingTimer implements DraftAutosaver.Timer {
+        long armedAt = NOT_ARMED;
+
+        @Override
+        public void arm(long atMillis) {
+            armedAt = atMillis;
+        }
+
+        @Override
+        public void cancel() {
+            armedAt = NOT_ARMED;
+        }
+    }
+
+    /** Writer that keeps every draft written, with its time */
+    private class RecordingWriter implements DraftAutosaver.Writer {
+        final List<Map<String, Object>> drafts = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+
+        @Override
+        public void write(Map<String, Object> fields) {
+            drafts.add(fields);
+            times.add(mClock.now);
+        }
+    }
+
+    private SimulatedClock mClock;
+    private RecordingTimer mTimer;
+    private RecordingWriter mWriter;
+    private DraftAutosaver mSaver;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new SimulatedClock();
+        mTimer = new RecordingTimer();
+        mWriter = new RecordingWriter();
+        mSaver = new DraftAutosaver(mClock, mTimer, mWriter);
+    }
+
+    private static Map<String, Object> draft(String name, String notes) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("name", name);
+        fields.put("notes", notes);
+        return fields;
+    }
+
+    // Move the clock to the given time, firing the timer on the way if it is due
+    private void advanceTo(long time) {
+        if (mTimer.armedAt <= time) {
+            mClock.now = mTimer.armedAt;
+            mSaver.onTimer();
+        }
+        mClock.now = time;
+    }
+
+    @Test
+    public void burstOfChanges_isWrittenOnceAfterThePause() throws Exception {
+        StringBuilder name = new StringBuilder();
+        for (char c : "Call the plumber".toCharArray()) {
+            advanceTo(mClock.now + 150);
+            name.append(c);
+            mSaver.onChanged(draft(name.toString(), ""));
+        }
+        assertTrue(mWriter.drafts.isEmpty());
+        assertEquals(mClock.now + DraftAutosaver.QUIET_MILLIS, mTimer.armedAt);
+
+        advanceTo(mClock.now + DraftAutosaver.QUIET_MILLIS);
+        assertEquals(1, mWriter.drafts.size());
+        assertEquals(draft("Call the plumber", ""), mWriter.drafts.get(0));
+        assertFalse(mSaver.hasPending());
+        assertEquals(NOT_ARMED, mTimer.armedAt);
+    }
+
+    @Test
+    public void continuousTyping_isWrittenAtTheLongestDelay() throws Exception {
+        StringBuilder notes = new StringBuilder();
+        for (int i = 0; i < 650; i++) {
+            advanceTo(mClock.now + 100);
+            notes.append('x');
+            mSaver.onChanged(draft("Notes", notes.toString()));
+        }
+        // 65 seconds of typing without a pause
+        assertEquals(2, mWriter.drafts.size());
+        assertEquals(100 + DraftAutosaver.MAX_DELAY_MILLIS, (long) mWriter.times.get(0));
+        assertTrue(mWriter.times.get(1) - mWriter.times.get(0) <= DraftAutosaver.MAX_DELAY_MILLIS + 100);
+    }
+
+    @Test
+    public void unchangedDraft_isNotWrittenAgain() throws Exception {
+        mSaver.onRestored(draft("Pay rent", ""));
+        mSaver.onChanged(draft("Pay rent!", ""));
+        mSaver.onChanged(draft("Pay rent", ""));
+        mSaver.flush();
+        assertTrue(mWriter.drafts.isEmpty());
+
+        mSaver.onChanged(draft("Pay rent", "Before the 5th"));
+        mSaver.flush();
+        mSaver.flush();
+        assertEquals(1, mWriter.drafts.size());
+    }
+
+    @Test
+    public void discard_dropsThePendingChanges() throws Exception {
+        mSaver.onChanged(draft("Pay rent", ""));
+        mSaver.discard();
+        assertEquals(NOT_ARMED, mTimer.armedAt);
+        mSaver.flush();
+        assertTrue(mWriter.drafts.isEmpty());
+    }
+
+    @Test
+    public void editingSession_ofTwoThousandKeystrokes_makesAHandfulOfWrites() throws Exception {
+        Random random = new Random(46L);
+        StringBuilder notes = new StringBuilder();
+        for (int key = 0; key < 2000; key++) {
+            // Typing speed varies, with short pauses between sentences and a few longer ones
+            long delay = 80 + random.nextInt(220);
+            if (key % 40 == 39) {
+                delay += 500 + random.nextInt(1000);
+            }
+            if (key % 400 == 399) {
+                delay += 3000 + random.nextInt(5000);
+            }
+            advanceTo(mClock.now + delay);
+            // One keystroke in ten is a backspace
+            if (notes.length() > 0 && random.nextInt(10) == 0) {
+                notes.setLength(notes.length() - 1);
+            } else {
+                notes.append((char) ('a' + random.nextInt(26)));
+            }
+            mSaver.onChanged(draft("Trip plan", notes.toString()));
+        }
+        // The editor pauses
+        mSaver.flush();
+
+        int writes = mWriter.drafts.size();
+        assertTrue("2000 keystrokes over " + mClock.now / 1000 + " s made " + writes + " draft writes",
+                writes > 0 && writes <= 20);
+        assertEquals(writes, mSaver.getWriteCount());
+        assertEquals(draft("Trip plan", notes.toString()), mWriter.drafts.get(writes - 1));
+        for (int i = 1; i < writes; i++) {
+            assertTrue(mWriter.times.get(i) - mWriter.times.get(i - 1) >= DraftAutosaver.QUIET_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.codepath.simpletodo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ListSections}.
+ */
+public class ListSectionsTest {
+
+    @Test
+    public void positions_mapToTheirSections() throws Exception {
+        ListSections sections = new ListSections(new int[] { 0, 1, 2 }, new int[] { 3, 1, 4 });
+        int[] expected = { 0, 0, 0, 1, 2, 2, 2, 2 };
+        for (int position = 0; position < expected.length; position++) {
+            assertEquals(expected[position], sections.getSectionForPosition(position));
+        }
+        assertEquals(0, sections.getPositionForSection(0));
+        assertEquals(3, sections.getPositionForSection(1));
+        assertEquals(4, sections.getPositionForSection(2));
+    }
+
+    @Test
+    public void onlyTheFirstRowOfASection_carriesTheHeader() throws Exception {
+        ListSections sections = new ListSections(new int[] { 0, 2 }, new int[] { 2, 2 });
+        assertTrue(sections.isSectionStart(0));
+        assertFalse(sections.isSectionStart(1));
+        assertTrue(sections.isSectionStart(2));
+        assertFalse(sections.isSectionStart(3));
+        assertEquals(2, sections.getValue(1));
+    }
+
+    @Test
+    public void emptySections_doNotOwnRows() throws Exception {
+        ListSections sections = new ListSections(new int[] { 0, 1, 2 }, new int[] { 2, 0, 2 });
+        assertEquals(2, sections.getSectionForPosition(2));
+        assertTrue(sections.isSectionStart(2));
+        assertEquals(2, sections.getPositionForSection(1));
+    }
+
+    @Test
+    public void outOfRangeArguments_areClamped() throws Exception {
+        ListSections sections = new ListSections(new int[] { 0, 1 }, new int[] { 5, 5 });
+        assertEquals(0, sections.getPositionForSection(-1));
+        assertEquals(5, sections.getPositionForSection(7));
+        assertEquals(1, sections.getSectionForPosition(100));
+        assertEquals(0, ListSections.NONE.getSectionForPosition(3));
+        assertFalse(ListSections.NONE.isSectionStart(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedArrays_areRejected() throws Exception {
+        new ListSections(new int[] { 0 }, new int[] { 1, 2 });
+    }
+}
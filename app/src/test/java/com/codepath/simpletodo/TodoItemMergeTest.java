@@ -0,0 +1,92 @@
+package com.codepath.simpletodo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TodoItemMerge}.
+ */
+public class TodoItemMergeTest {
+
+    private static Map<String, Object> item(String name, String notes, long priority, long status, Long dueAt) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("name", name);
+        fields.put("notes", notes);
+        fields.put("priority", priority);
+        fields.put("status", status);
+        fields.put("due_at", dueAt);
+        return fields;
+    }
+
+    @Test
+    public void changesToDifferentFields_areBothKept() throws Exception {
+        Map<String, Object> base = item("Pay rent", "", 0, 0, null);
+        Map<String, Object> mine = item("Pay rent", "Before the 5th", 0, 0, null);
+        Map<String, Object> theirs = item("Pay rent", "", 0, 2, null);
+
+        TodoItemMerge merge = new TodoItemMerge(base, mine, theirs);
+        assertTrue(merge.getConflicts().isEmpty());
+        assertEquals(item("Pay rent", "Before the 5th", 0, 2, null), merge.getMerged());
+    }
+
+    @Test
+    public void sameChangeOnBothSides_isNotAConflict() throws Exception {
+        Map<String, Object> base = item("Pay rent", "", 0, 0, null);
+        Map<String, Object> mine = item("Pay rent", "", 2, 0, 1000L);
+        Map<String, Object> theirs = item("Pay rent", "", 2, 0, null);
+
+        TodoItemMerge merge = new TodoItemMerge(base, mine, theirs);
+        assertTrue(merge.getConflicts().isEmpty());
+        assertEquals(item("Pay rent", "", 2, 0, 1000L), merge.getMerged());
+    }
+
+    @Test
+    public void differentChangesToOneField_conflict() throws Exception {
+        Map<String, Object> base = item("Pay rent", "", 0, 0, null);
+        Map<String, Object> mine = item("Pay the rent", "", 1, 0, null);
+        Map<String, Object> theirs = item("Rent", "", 0, 1, 500L);
+
+        TodoItemMerge merge = new TodoItemMerge(base, mine, theirs);
+        assertEquals(Collections.singletonList("name"), merge.getConflicts());
+        assertEquals(item("Pay the rent", "", 1, 1, 500L), merge.getMerged());
+        assertEquals(item("Rent", "", 1, 1, 500L), merge.getMergedKeepingTheirs(theirs));
+    }
+
+    @Test
+    public void clearedFields_conflictWithEdits() throws Exception {
+        Map<String, Object> base = item("Pay rent", "", 0, 0, 1000L);
+        Map<String, Object> mine = item("Pay rent", "", 0, 0, null);
+        Map<String, Object> theirs = item("Pay rent", "", 0, 0, 2000L);
+
+        TodoItemMerge merge = new TodoItemMerge(base, mine, theirs);
+        assertEquals(Arrays.asList("due_at"), merge.getConflicts());
+        assertNull(merge.getMerged().get("due_at"));
+    }
+
+    @Test
+    public void secondRound_mergesAgainstTheFirstWrite() throws Exception {
+        Map<String, Object> base = item("Pay rent", "", 0, 0, null);
+        Map<String, Object> mine = item("Pay rent", "Before the 5th", 0, 0, null);
+        Map<String, Object> theirs = item("Pay rent", "", 0, 2, null);
+        TodoItemMerge first = new TodoItemMerge(base, mine, theirs);
+        assertTrue(first.getConflicts().isEmpty());
+
+        // Another write lands before the merged fields are saved: their first write is the base
+        // now, so their status is not taken for an edit of the user's
+        Map<String, Object> merged = first.getMerged();
+        TodoItemMerge changedAgain = new TodoItemMerge(theirs, merged, item("Pay rent", "", 0, 1, null));
+        assertTrue(changedAgain.getConflicts().isEmpty());
+        assertEquals(item("Pay rent", "Before the 5th", 0, 1, null), changedAgain.getMerged());
+
+        // Setting the status back to where the user started from is kept too
+        TodoItemMerge setBack = new TodoItemMerge(theirs, merged, item("Pay rent", "", 0, 0, null));
+        assertTrue(setBack.getConflicts().isEmpty());
+        assertEquals(item("Pay rent", "Before the 5th", 0, 0, null), setBack.getMerged());
+    }
+}
@@ -0,0 +1,94 @@
+package com.codepath.simpletodo.data;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CompressedBitmap}, checked against {@link BitSet}.
+ */
+public class CompressedBitmapTest {
+
+    private static final int UNIVERSE = 1 << 20;
+
+    private static int[] toArray(BitSet bits) {
+        int[] result = new int[bits.cardinality()];
+        int n = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            result[n++] = i;
+        }
+        return result;
+    }
+
+    // Fill both sets with count random values; a small count gives array containers
+    private static CompressedBitmap fill(Random random, int count, BitSet expected) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int i = 0; i < count; i++) {
+            int value = random.nextInt(UNIVERSE);
+            assertEquals(!expected.get(value), bitmap.add(value));
+            expected.set(value);
+        }
+        return bitmap;
+    }
+
+    @Test
+    public void addRemoveContains_matchBitSet() throws Exception {
+        Random random = new Random(1L);
+        BitSet expected = new BitSet();
+        CompressedBitmap bitmap = fill(random, 200000, expected);
+        for (int i = 0; i < 150000; i++) {
+            int value = random.nextInt(UNIVERSE);
+            assertEquals(expected.get(value), bitmap.remove(value));
+            expected.clear(value);
+        }
+        for (int i = 0; i < 10000; i++) {
+            int value = random.nextInt(UNIVERSE);
+            assertEquals(expected.get(value), bitmap.contains(value));
+        }
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+        assertArrayEquals(toArray(expected), bitmap.toArray());
+    }
+
+    @Test
+    public void andOr_matchBitSet_forEveryContainerMix() throws Exception {
+        Random random = new Random(2L);
+        int[] sizes = { 100, 50000, 400000 };
+        for (int aSize : sizes) {
+            for (int bSize : sizes) {
+                BitSet aBits = new BitSet();
+                BitSet bBits = new BitSet();
+                CompressedBitmap a = fill(random, aSize, aBits);
+                CompressedBitmap b = fill(random, bSize, bBits);
+
+                BitSet and = (BitSet) aBits.clone();
+                and.and(bBits);
+                assertArrayEquals(toArray(and), a.and(b).toArray());
+
+                BitSet or = (BitSet) aBits.clone();
+                or.or(bBits);
+                assertArrayEquals(toArray(or), a.or(b).toArray());
+
+                CompressedBitmap inPlace = a.copy();
+                inPlace.orInPlace(b);
+                assertArrayEquals(toArray(or), inPlace.toArray());
+                assertArrayEquals(toArray(aBits), a.toArray());
+            }
+        }
+    }
+
+    @Test
+    public void emptyBitmap() throws Exception {
+        CompressedBitmap empty = new CompressedBitmap();
+        CompressedBitmap one = new CompressedBitmap();
+        one.add(70000);
+        assertTrue(empty.isEmpty());
+        assertTrue(empty.and(one).isEmpty());
+        assertArrayEquals(new int[] { 70000 }, empty.or(one).toArray());
+        assertTrue(one.remove(70000));
+        assertTrue(one.isEmpty());
+        assertFalse(one.remove(70000));
+    }
+}
@@ -0,0 +1,71 @@
+package com.codepath.simpletodo.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DurationSketch}, checked against exact percentiles of 1M
+ * durations spread like the time items sit in a status: minutes to weeks.
+ */
+public class DurationSketchTest {
+
+    private static final int SAMPLES = 1000000;
+
+    private static final double[] QUANTILES = { 0.01, 0.5, 0.9, 0.99, 0.999 };
+
+    @Test
+    public void bucketOf_matchesTheBounds() throws Exception {
+        assertEquals(0, DurationSketch.bucketOf(-5));
+        assertEquals(0, DurationSketch.bucketOf(0));
+        assertEquals(1, DurationSketch.bucketOf(1));
+        int previous = 0;
+        for (long millis = 1; millis < (1L << 40); millis = millis * 5 / 4 + 1) {
+            int bucket = DurationSketch.bucketOf(millis);
+            assertTrue(bucket >= previous);
+            assertTrue(bucket < DurationSketch.BUCKET_COUNT);
+            previous = bucket;
+        }
+        assertEquals(DurationSketch.BUCKET_COUNT - 1, DurationSketch.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_areWithinAFewPercent() throws Exception {
+        Random random = new Random(5L);
+        long[] durations = new long[SAMPLES];
+        long[] counts = new long[DurationSketch.BUCKET_COUNT];
+        for (int i = 0; i < SAMPLES; i++) {
+            // Log-normal around two hours
+            durations[i] = (long) Math.exp(Math.log(2 * 3600 * 1000L) + 2 * random.nextGaussian());
+            counts[DurationSketch.bucketOf(durations[i])]++;
+        }
+        Arrays.sort(durations);
+
+        for (double quantile : QUANTILES) {
+            long exact = durations[(int) Math.ceil(quantile * SAMPLES) - 1];
+            long estimate = DurationSketch.percentile(counts, quantile, durations[0], durations[SAMPLES - 1]);
+            double error = Math.abs(estimate - exact) / (double) exact;
+            assertTrue("p" + quantile * 100 + ": " + estimate + " for " + exact, error < 0.05);
+        }
+        assertEquals(durations[0], DurationSketch.percentile(counts, 0, durations[0], durations[SAMPLES - 1]));
+        assertEquals(durations[SAMPLES - 1], DurationSketch.percentile(counts, 1, durations[0], durations[SAMPLES - 1]));
+    }
+
+    @Test
+    public void singleDuration_isExact() throws Exception {
+        long[] counts = new long[DurationSketch.BUCKET_COUNT];
+        counts[DurationSketch.bucketOf(12345)] = 3;
+        assertEquals(12345, DurationSketch.percentile(counts, 0.5, 12345, 12345));
+        assertEquals(0, DurationSketch.percentile(new long[DurationSketch.BUCKET_COUNT], 0.5, 0, 0));
+    }
+
+    @Test
+    public void sqlBucketOf_hasEveryBound() throws Exception {
+        String sql = DurationSketch.sqlBucketOf("d");
+        assertTrue(sql.startsWith("CASE WHEN d < 1 THEN 0 WHEN d < 2 THEN 1 "));
+        assertTrue(sql.endsWith(" ELSE " + (DurationSketch.BUCKET_COUNT - 1) + " END"));
+    }
+}
@@ -0,0 +1,194 @@
+package com.codepath.simpletodo.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RecurrenceRule}: hand-checked expansions, windows checked
+ * against the expansion from the start, and the expansion of 10k rules over a year.
+ */
+public class RecurrenceRuleTest {
+
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private static final int RULES = 10000;
+
+    private static final String[] RULE_TEXTS = {
+            "FREQ=DAILY",
+            "FREQ=DAILY;INTERVAL=3",
+            "FREQ=DAILY;COUNT=40",
+            "FREQ=WEEKLY",
+            "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE,FR",
+            "FREQ=WEEKLY;BYDAY=TU,TH;COUNT=25",
+            "FREQ=MONTHLY",
+            "FREQ=MONTHLY;BYMONTHDAY=-1,1,15",
+            "FREQ=MONTHLY;BYMONTHDAY=31;COUNT=12",
+            "FREQ=MONTHLY;INTERVAL=3;BYMONTHDAY=10",
+            "FREQ=YEARLY",
+            "FREQ=YEARLY;INTERVAL=2;COUNT=5",
+            "FREQ=DAILY;UNTIL=20270301T000000Z" };
+
+    private static long at(TimeZone zone, int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void parse_readsBackItsCanonicalForm() throws Exception {
+        for (String text : RULE_TEXTS) {
+            assertEquals(text, RecurrenceRule.parse(text).toString());
+        }
+        assertEquals("FREQ=WEEKLY;BYDAY=MO,FR", RecurrenceRule.parse("RRULE:freq=weekly;byday=FR,MO").toString());
+
+        String[] invalid = { "", "FREQ=HOURLY", "INTERVAL=2", "FREQ=DAILY;INTERVAL=0", "FREQ=DAILY;BYDAY=MO",
+                "FREQ=WEEKLY;BYDAY=1MO", "FREQ=MONTHLY;BYMONTHDAY=32", "FREQ=DAILY;COUNT=2;UNTIL=20270101T000000Z",
+                "FREQ=DAILY;UNTIL=20270101", "FREQ=DAILY;WKST=SU" };
+        for (String text : invalid) {
+            try {
+                RecurrenceRule.parse(text);
+                fail("Parsed " + text);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void civilDays_roundTrip() throws Exception {
+        assertEquals(0, RecurrenceRule.daysFromCivil(1970, 1, 1));
+        assertEquals(-1, RecurrenceRule.daysFromCivil(1969, 12, 31));
+        for (long day = -800000; day < 800000; day += 37) {
+            long civil = RecurrenceRule.civilFromDays(day);
+            assertEquals(day, RecurrenceRule.daysFromCivil((int) (civil >> 9), (int) (civil >> 5) & 0xf,
+                    (int) civil & 0x1f));
+        }
+    }
+
+    @Test
+    public void daily_keepsTheLocalTimeAcrossDaylightSaving() throws Exception {
+        long start = at(NEW_YORK, 2026, 3, 1, 9, 30);
+        long[] occurrences = RecurrenceRule.parse("FREQ=DAILY;INTERVAL=2").expand(start, NEW_YORK, start,
+                at(NEW_YORK, 2026, 12, 1, 0, 0), 1000);
+
+        Calendar calendar = Calendar.getInstance(NEW_YORK);
+        calendar.setTimeInMillis(start);
+        for (long occurrence : occurrences) {
+            assertEquals(calendar.getTimeInMillis(), occurrence);
+            calendar.add(Calendar.DATE, 2);
+        }
+        assertEquals(138, occurrences.length);
+    }
+
+    @Test
+    public void weekly_byDayWithCount() throws Exception {
+        // Wednesday 7 January 2026, every other week
+        long start = at(UTC, 2026, 1, 7, 8, 0);
+        long[] occurrences = RecurrenceRule.parse("FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE,FR;COUNT=10")
+                .expand(start, UTC, start, RecurrenceRule.END, 100);
+        long[] expected = {
+                at(UTC, 2026, 1, 7, 8, 0), at(UTC, 2026, 1, 9, 8, 0),
+                at(UTC, 2026, 1, 19, 8, 0), at(UTC, 2026, 1, 21, 8, 0), at(UTC, 2026, 1, 23, 8, 0),
+                at(UTC, 2026, 2, 2, 8, 0), at(UTC, 2026, 2, 4, 8, 0), at(UTC, 2026, 2, 6, 8, 0),
+                at(UTC, 2026, 2, 16, 8, 0), at(UTC, 2026, 2, 18, 8, 0) };
+        assertArrayEquals(expected, occurrences);
+    }
+
+    @Test
+    public void monthly_skipsMonthsWithoutTheDay() throws Exception {
+        long start = at(UTC, 2026, 1, 31, 12, 0);
+        long[] occurrences = RecurrenceRule.parse("FREQ=MONTHLY").expand(start, UTC, start,
+                at(UTC, 2027, 1, 1, 0, 0), 100);
+        int[] months = { 1, 3, 5, 7, 8, 10, 12 };
+        assertEquals(months.length, occurrences.length);
+        for (int i = 0; i < months.length; i++) {
+            assertEquals(at(UTC, 2026, months[i], 31, 12, 0), occurrences[i]);
+        }
+
+        // The last day, named twice, occurs once
+        occurrences = RecurrenceRule.parse("FREQ=MONTHLY;BYMONTHDAY=-1,31").expand(start, UTC, start,
+                at(UTC, 2026, 5, 1, 0, 0), 100);
+        assertArrayEquals(new long[] { start, at(UTC, 2026, 2, 28, 12, 0), at(UTC, 2026, 3, 31, 12, 0),
+                at(UTC, 2026, 4, 30, 12, 0) }, occurrences);
+    }
+
+    @Test
+    public void yearly_onTheTwentyNinthOfFebruary_onlyInLeapYears() throws Exception {
+        long start = at(UTC, 2024, 2, 29, 0, 0);
+        long[] occurrences = RecurrenceRule.parse("FREQ=YEARLY;COUNT=3").expand(start, UTC, start,
+                RecurrenceRule.END, 100);
+        assertArrayEquals(new long[] { start, at(UTC, 2028, 2, 29, 0, 0), at(UTC, 2032, 2, 29, 0, 0) }, occurrences);
+        assertEquals(at(UTC, 2032, 2, 29, 0, 0), RecurrenceRule.parse("FREQ=YEARLY;COUNT=3")
+                .next(start, UTC, at(UTC, 2029, 1, 1, 0, 0)));
+        assertEquals(RecurrenceRule.END, RecurrenceRule.parse("FREQ=YEARLY;COUNT=3")
+                .next(start, UTC, at(UTC, 2032, 3, 1, 0, 0)));
+    }
+
+    @Test
+    public void windows_matchTheExpansionFromTheStart() throws Exception {
+        Random random = new Random(43L);
+        long base = at(NEW_YORK, 2026, 1, 1, 0, 0);
+        for (String text : RULE_TEXTS) {
+            RecurrenceRule rule = RecurrenceRule.parse(text);
+            for (int run = 0; run < 50; run++) {
+                long start = base + (long) (random.nextDouble() * 400 * DAY);
+                long end = start + 3 * 365 * DAY;
+                long[] all = rule.expand(start, NEW_YORK, start, end, Integer.MAX_VALUE);
+
+                long from = start + (long) (random.nextDouble() * 2 * 365 * DAY);
+                long to = from + (long) (random.nextDouble() * 120 * DAY);
+                long[] window = rule.expand(start, NEW_YORK, from, to, Integer.MAX_VALUE);
+                int first = 0;
+                while (first < all.length && all[first] < from) {
+                    first++;
+                }
+                int last = first;
+                while (last < all.length && all[last] < to) {
+                    last++;
+                }
+                assertArrayEquals(text + " from " + from, Arrays.copyOfRange(all, first, last), window);
+                if (first < all.length) {
+                    assertEquals(all[first], rule.next(start, NEW_YORK, from));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tenThousandRules_overAYear() throws Exception {
+        Random random = new Random(44L);
+        RecurrenceRule[] rules = new RecurrenceRule[RULES];
+        long[] starts = new long[RULES];
+        long base = at(NEW_YORK, 2025, 1, 1, 0, 0);
+        for (int i = 0; i < RULES; i++) {
+            rules[i] = RecurrenceRule.parse(RULE_TEXTS[random.nextInt(RULE_TEXTS.length)]);
+            starts[i] = base + (long) (random.nextDouble() * 365 * DAY);
+        }
+
+        // A year well after every start, so each rule jumps over its earlier periods
+        long from = at(NEW_YORK, 2026, 6, 1, 0, 0);
+        long to = at(NEW_YORK, 2027, 6, 1, 0, 0);
+        long start = System.nanoTime();
+        long occurrences = 0;
+        for (int i = 0; i < RULES; i++) {
+            long[] expanded = rules[i].expand(starts[i], NEW_YORK, from, to, Integer.MAX_VALUE);
+            for (long occurrence : expanded) {
+                assertTrue(occurrence >= from && occurrence < to);
+            }
+            occurrences += expanded.length;
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        assertTrue(occurrences > RULES * 50);
+        assertTrue(RULES + " rules, " + occurrences + " occurrences over a year in " + elapsedNanos / 1000000
+                + " ms, " + elapsedNanos / Math.max(1, occurrences) + " ns each", elapsedNanos < 5000000000L);
+    }
+}
@@ -0,0 +1,125 @@
+package com.codepath.simpletodo.data;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TodoItemFileParser}, {@link TodoItemContentHash} and
+ * {@link LongHashMap}, the parts of the import that need no database.
+ */
+public class TodoItemFileParserTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    // 2017-03-15 at midnight UTC
+    private static final long MARCH_15 = 1489536000000L;
+
+    // Records as "name|notes|priority|status|dueAt", copied out of the reused buffers
+    private static class Recorder implements TodoItemFileParser.Listener {
+        final List<String> records = new ArrayList<>();
+
+        @Override
+        public void onItem(CharSequence name, CharSequence notes, int priority, int status, long dueAt) {
+            records.add(name + "|" + notes + "|" + priority + "|" + status + "|"
+                    + (dueAt == TodoItemFileParser.NO_DUE_AT ? "-" : String.valueOf(dueAt)));
+        }
+    }
+
+    private static List<String> parse(String text, boolean csv, long[] malformed) throws IOException {
+        Recorder recorder = new Recorder();
+        TodoItemFileParser parser = new TodoItemFileParser(new StringReader(text), UTC, recorder);
+        long items = csv ? parser.parseCsv() : parser.parseTodoTxt();
+        assertEquals(recorder.records.size(), items);
+        if (malformed != null) {
+            malformed[0] = parser.getMalformedCount();
+        }
+        return recorder.records;
+    }
+
+    @Test
+    public void csv_readsQuotedFieldsAndNamedValues() throws Exception {
+        List<String> records = parse("Buy milk,\"2 litres, skimmed\",high,in progress,2017-03-15\r\n"
+                + "\"Say \"\"hi\"\"\",\"line one\nline two\",0,DONE,1489536000000\n"
+                + "\n"
+                + "Call mom", true, null);
+        assertEquals(3, records.size());
+        assertEquals("Buy milk|2 litres, skimmed|" + ItemEntry.PRIORITY_HIGH + "|"
+                + ItemEntry.STATUS_INPROGRESS + "|" + MARCH_15, records.get(0));
+        assertEquals("Say \"hi\"|line one\nline two|" + ItemEntry.PRIORITY_LOW + "|"
+                + ItemEntry.STATUS_DONE + "|" + MARCH_15, records.get(1));
+        assertEquals("Call mom|null|-1|-1|-", records.get(2));
+    }
+
+    @Test
+    public void csvHeader_choosesTheColumns() throws Exception {
+        List<String> records = parse("status,Name,extra,priority\n"
+                + "done,Water plants,x,medium\n", true, null);
+        assertEquals(1, records.size());
+        assertEquals("Water plants|null|" + ItemEntry.PRIORITY_MEDIUM + "|" + ItemEntry.STATUS_DONE + "|-",
+                records.get(0));
+    }
+
+    @Test
+    public void malformedRecords_areCounted() throws Exception {
+        long[] malformed = new long[1];
+        List<String> records = parse("Fine\n,no name\nBad priority,,urgent\nBad date,,,,2017-13-01\n",
+                true, malformed);
+        assertEquals(1, records.size());
+        assertEquals(3, malformed[0]);
+    }
+
+    @Test
+    public void todoTxt_readsMarkersAndKeys() throws Exception {
+        long[] malformed = new long[1];
+        List<String> records = parse("(A) 2017-03-01 Call mom +family due:2017-03-15\n"
+                + "x 2017-03-02 2017-03-01 Pay   rent pri:B\n"
+                + "(D) Read a book @home\r\n"
+                + "   \n"
+                + "x 2017-03-02\n", false, malformed);
+        assertEquals(3, records.size());
+        assertEquals("Call mom +family|null|" + ItemEntry.PRIORITY_HIGH + "|-1|" + MARCH_15, records.get(0));
+        assertEquals("Pay rent|null|" + ItemEntry.PRIORITY_MEDIUM + "|" + ItemEntry.STATUS_DONE + "|-",
+                records.get(1));
+        assertEquals("Read a book @home|null|" + ItemEntry.PRIORITY_LOW + "|-1|-", records.get(2));
+        assertEquals(1, malformed[0]);
+    }
+
+    @Test
+    public void contentHash_ignoresCaseAndWhitespace() throws Exception {
+        long hash = TodoItemContentHash.of("Buy milk", "Skimmed");
+        assertEquals(hash, TodoItemContentHash.of("  buy   MILK ", "skimmed\n"));
+        assertEquals(TodoItemContentHash.of("Buy milk", null), TodoItemContentHash.of("Buy milk", " "));
+        assertNotEquals(hash, TodoItemContentHash.of("Buy milk", "Whole"));
+        assertNotEquals(TodoItemContentHash.of("a b", ""), TodoItemContentHash.of("a", "b"));
+        assertNotEquals(TodoItemContentHash.of("ab", ""), TodoItemContentHash.of("a b", ""));
+    }
+
+    @Test
+    public void longHashMap_matchesAllPuts() throws Exception {
+        LongHashMap map = new LongHashMap(4);
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            map.put(TodoItemContentHash.of("Item " + i, null), i);
+        }
+        map.put(0, -5);
+        assertEquals(count + 1, map.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, map.get(TodoItemContentHash.of("Item " + i, null), -1));
+        }
+        assertEquals(-5, map.get(0, -1));
+        assertEquals(-1, map.get(TodoItemContentHash.of("Item " + count, null), -1));
+
+        map.put(TodoItemContentHash.of("Item 7", null), 70);
+        assertEquals(70, map.get(TodoItemContentHash.of("Item 7", null), -1));
+        assertEquals(count + 1, map.size());
+    }
+}
@@ -0,0 +1,49 @@
+package com.codepath.simpletodo.data;
+
+import com.codepath.simpletodo.data.TodoItemContract.ItemEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TodoItemGenerator}.
+ */
+public class TodoItemGeneratorTest {
+
+    private static final int SAMPLES = 100000;
+
+    @Test
+    public void sameSeed_producesSameItems() throws Exception {
+        TodoItemGenerator first = new TodoItemGenerator(7L);
+        TodoItemGenerator second = new TodoItemGenerator(7L);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(first.nextName(), second.nextName());
+            assertEquals(first.nextNotes(), second.nextNotes());
+            assertEquals(first.nextPriority(), second.nextPriority());
+            assertEquals(first.nextStatus(), second.nextStatus());
+        }
+    }
+
+    @Test
+    public void distributions_areSkewed() throws Exception {
+        TodoItemGenerator generator = new TodoItemGenerator(1L);
+        int[] priorities = new int[3];
+        int[] statuses = new int[3];
+        int emptyNotes = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            priorities[generator.nextPriority()]++;
+            statuses[generator.nextStatus()]++;
+            if (generator.nextNotes().isEmpty()) {
+                emptyNotes++;
+            }
+            String name = generator.nextName();
+            assertFalse(name.isEmpty());
+            assertTrue(name.split(" ").length <= 8);
+        }
+        assertTrue(priorities[ItemEntry.PRIORITY_LOW] > priorities[ItemEntry.PRIORITY_MEDIUM]);
+        assertTrue(priorities[ItemEntry.PRIORITY_MEDIUM] > priorities[ItemEntry.PRIORITY_HIGH]);
+        assertTrue(statuses[ItemEntry.STATUS_DONE] > statuses[ItemEntry.STATUS_TODO]);
+        assertEquals(0.4, emptyNotes / (double) SAMPLES, 0.02);
+    }
+}
@@ -0,0 +1,110 @@
+package com.codepath.simpletodo.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TodoItemPrefixIndex}, checked against a brute-force scan
+ * of 100k generated names.
+ */
+public class TodoItemPrefixIndexTest {
+
+    private static final int ITEMS = 100000;
+
+    private String[] mNames;
+    private TodoItemPrefixIndex mIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        TodoItemGenerator generator = new TodoItemGenerator(3L);
+        mNames = new String[ITEMS + 1];
+        mIndex = new TodoItemPrefixIndex();
+        mIndex.markLoaded();
+        for (int id = 1; id <= ITEMS; id++) {
+            mNames[id] = generator.nextName();
+            mIndex.onItemWritten(id, mNames[id]);
+        }
+    }
+
+    // Ids whose name has, for every query token, a token starting with it
+    private int[] bruteForce(String query) {
+        String[] prefixes = TodoItemPrefixIndex.tokenize(query);
+        ArrayList<Integer> matches = new ArrayList<>();
+        for (int id = 1; id < mNames.length; id++) {
+            if (mNames[id] != null && prefixes.length > 0 && matchesAll(mNames[id], prefixes)) {
+                matches.add(id);
+            }
+        }
+        int[] result = new int[matches.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = matches.get(i);
+        }
+        return result;
+    }
+
+    private static boolean matchesAll(String name, String[] prefixes) {
+        String[] tokens = TodoItemPrefixIndex.tokenize(name);
+        for (String prefix : prefixes) {
+            boolean found = false;
+            for (String token : tokens) {
+                if (token.startsWith(prefix)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void tokenize_splitsOnNonLetters() throws Exception {
+        assertArrayEquals(new String[] { "call", "bob", "re", "2pm" },
+                TodoItemPrefixIndex.tokenize("  Call Bob: re 2pm!"));
+        assertEquals(0, TodoItemPrefixIndex.tokenize(" ,.").length);
+        assertEquals(0, TodoItemPrefixIndex.tokenize(null).length);
+    }
+
+    @Test
+    public void typingKeystrokes_matchesBruteForce() throws Exception {
+        // Timed, with the SQLite read of the rows, by TodoItemSearchBenchmark on a device
+        String[] queries = { mNames[1], mNames[500], mNames[ITEMS], "re bu", "x" };
+        for (String query : queries) {
+            for (int length = 1; length <= query.length(); length++) {
+                String typed = query.substring(0, length);
+                assertArrayEquals(typed, bruteForce(typed), mIndex.lookup(typed, null));
+            }
+        }
+    }
+
+    @Test
+    public void renameAndDelete_updateTheIndex() throws Exception {
+        mNames[7] = "Zebra crossing";
+        mIndex.onItemWritten(7, mNames[7]);
+        mNames[8] = null;
+        mIndex.onItemDeleted(8);
+
+        assertArrayEquals(new int[] { 7 }, mIndex.lookup("zeb cro", null));
+        String[] oldTokens = TodoItemPrefixIndex.tokenize(new TodoItemGenerator(3L).nextName());
+        for (String query : oldTokens) {
+            assertArrayEquals(query, bruteForce(query), mIndex.lookup(query, null));
+        }
+    }
+
+    @Test
+    public void invalidate_requiresReload() throws Exception {
+        mIndex.invalidate();
+        assertEquals(0, mIndex.termCount());
+        try {
+            mIndex.lookup("a", null);
+            fail("Lookup on an unloaded index should fail");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.codepath.simpletodo.data;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TodoItemSlowQueryLog}: the ring of entries, the shapes of the
+ * arguments, and the plans that strict mode rejects.
+ */
+public class TodoItemSlowQueryLogTest {
+
+    @Test
+    public void entries_keepTheNewestInOrder() throws Exception {
+        TodoItemSlowQueryLog log = new TodoItemSlowQueryLog(4);
+        for (int i = 0; i < 10; i++) {
+            log.add(i, "SELECT " + i, null, i, i * 1000000L, "");
+        }
+
+        List<TodoItemSlowQueryLog.Entry> entries = log.getEntries();
+        assertEquals(4, entries.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("SELECT " + (6 + i), entries.get(i).mSql);
+        }
+        assertEquals(10, log.getLoggedCount());
+
+        log.clear();
+        assertTrue(log.getEntries().isEmpty());
+        log.add(10, "SELECT 10", null, 0, 0, "");
+        assertEquals(1, log.getEntries().size());
+    }
+
+    @Test
+    public void threshold_decidesWhatIsSlow() throws Exception {
+        TodoItemSlowQueryLog log = new TodoItemSlowQueryLog();
+        assertFalse(log.isSlow(TodoItemSlowQueryLog.DEFAULT_THRESHOLD_NANOS - 1));
+        assertTrue(log.isSlow(TodoItemSlowQueryLog.DEFAULT_THRESHOLD_NANOS));
+        log.setThresholdNanos(0);
+        assertTrue(log.isSlow(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeThreshold_isRejected() throws Exception {
+        new TodoItemSlowQueryLog().setThresholdNanos(-1);
+    }
+
+    @Test
+    public void argShapes_hideTheValues() throws Exception {
+        assertEquals("", TodoItemSlowQueryLog.argShapes(null));
+        assertEquals("int, real, text(6), null, text(0), text(2)", TodoItemSlowQueryLog.argShapes(
+                new String[] { "-42", "3.5", "secret", null, "", "1." }));
+    }
+
+    @Test
+    public void callerArgs_arePerThread() throws Exception {
+        final TodoItemSlowQueryLog log = new TodoItemSlowQueryLog();
+        String[] args = { "1" };
+        log.setCallerArgs(args);
+        final String[][] otherThreadArgs = new String[1][];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                otherThreadArgs[0] = log.getCallerArgs();
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertSame(args, log.getCallerArgs());
+        assertNull(otherThreadArgs[0]);
+        log.setCallerArgs(null);
+        assertNull(log.getCallerArgs());
+    }
+
+    @Test
+    public void checkPlan_acceptsSearches() throws Exception {
+        TodoItemSlowQueryLog.checkPlan("q", "SEARCH TABLE todo USING INTEGER PRIMARY KEY (rowid=?)");
+        TodoItemSlowQueryLog.checkPlan("q", "SEARCH todo USING INDEX todo_list_rank_index (list_id=?)");
+        TodoItemSlowQueryLog.checkPlan("q", "SCAN TABLE todo_closure\nSCAN lists");
+        TodoItemSlowQueryLog.checkPlan("q", "");
+    }
+
+    @Test
+    public void checkPlan_rejectsScansOfTodo() throws Exception {
+        String[] plans = {
+                "SCAN TABLE todo",
+                "SCAN todo",
+                "SEARCH TABLE lists USING INTEGER PRIMARY KEY (rowid=?)\nSCAN TABLE todo AS t USING INDEX todo_rank_index",
+                "  SCAN todo USING COVERING INDEX todo_status_rank_index",
+        };
+        for (String plan : plans) {
+            try {
+                TodoItemSlowQueryLog.checkPlan("q", plan);
+                fail(plan);
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage(), e.getMessage().endsWith(": q"));
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.codepath.simpletodo.perf;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PerfRecorder}, driven by a simulated clock, with the test's own
+ * thread as the frame thread.
+ */
+public class PerfRecorderTest {
+
+    private static final long MS = 1000000L;
+
+    /** Clock whose time only moves when the test says so */
+    private static class SimulatedClock implements PerfRecorder.Clock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    private SimulatedClock mClock;
+    private PerfRecorder mRecorder;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new SimulatedClock();
+        mRecorder = new PerfRecorder(mClock, Thread.currentThread());
+        // Frames before the first one are not known
+        mRecorder.onFrame(-1);
+    }
+
+    // Run a section of the given duration, with nothing inside it
+    private void section(String name, long nanos) {
+        mRecorder.begin(name);
+        mClock.now += nanos;
+        mRecorder.end();
+    }
+
+    @Test
+    public void nestedSections_chargeSelfTimeOnly() throws Exception {
+        mRecorder.begin("outer");
+        mClock.now += 2 * MS;
+        section("inner", 30 * MS);
+        mClock.now += 3 * MS;
+        mRecorder.end();
+        mRecorder.onFrame(40 * MS);
+
+        assertEquals(1, mRecorder.getSectionCount("outer"));
+        assertEquals(1, mRecorder.getSectionCount("inner"));
+        assertEquals(1, mRecorder.getJankyFrameCount());
+        assertEquals(5 * MS, mRecorder.getSectionJankNanos("outer"));
+        assertEquals(30 * MS, mRecorder.getSectionJankNanos("inner"));
+    }
+
+    @Test
+    public void smoothFrames_chargeNoJank() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            section("bind", 5 * MS);
+            mRecorder.onFrame(16 * MS);
+        }
+
+        assertEquals(10, mRecorder.getFrameCount());
+        assertEquals(0, mRecorder.getJankyFrameCount());
+        assertEquals(10, mRecorder.getSectionCount("bind"));
+        assertEquals(0, mRecorder.getSectionJankNanos("bind"));
+    }
+
+    @Test
+    public void jank_isChargedToTheWorkOfItsFrameOnly() throws Exception {
+        section("bind", 5 * MS);
+        mRecorder.onFrame(16 * MS);
+        section("query", 40 * MS);
+        mRecorder.onFrame(50 * MS);
+        section("bind", 5 * MS);
+        mRecorder.onFrame(16 * MS);
+
+        assertEquals(3, mRecorder.getFrameCount());
+        assertEquals(1, mRecorder.getJankyFrameCount());
+        assertEquals(40 * MS, mRecorder.getSectionJankNanos("query"));
+        assertEquals(0, mRecorder.getSectionJankNanos("bind"));
+    }
+
+    @Test
+    public void unknownInterval_dropsTheWork() throws Exception {
+        section("onCreate", 100 * MS);
+        mRecorder.onFrame(-1);
+        mRecorder.onFrame(100 * MS);
+
+        assertEquals(1, mRecorder.getFrameCount());
+        assertEquals(1, mRecorder.getJankyFrameCount());
+        assertEquals(0, mRecorder.getSectionJankNanos("onCreate"));
+    }
+
+    @Test
+    public void sectionsOfOtherThreads_areNotCharged() throws Exception {
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                section("TodoItemProvider.query", 50 * MS);
+            }
+        });
+        worker.start();
+        worker.join();
+        mRecorder.onFrame(60 * MS);
+
+        assertEquals(1, mRecorder.getSectionCount("TodoItemProvider.query"));
+        assertEquals(1, mRecorder.getJankyFrameCount());
+        assertEquals(0, mRecorder.getSectionJankNanos("TodoItemProvider.query"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void end_withoutBegin_throws() throws Exception {
+        mRecorder.end();
+    }
+
+    @Test
+    public void percentiles_areWithinABucket() throws Exception {
+        SectionHistogram histogram = new SectionHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * MS / 10);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(100 * MS, histogram.getMaxNanos());
+        assertEquals(100 * MS, histogram.percentileNanos(1));
+        assertEquals(50 * MS, histogram.percentileNanos(0.5), 50 * MS * 0.2);
+        assertEquals(90 * MS, histogram.percentileNanos(0.9), 90 * MS * 0.2);
+        assertEquals(99 * MS, histogram.percentileNanos(0.99), 99 * MS * 0.2);
+        assertEquals(0, new SectionHistogram().percentileNanos(0.5));
+    }
+
+    @Test
+    public void report_listsTheMostToBlameFirst() throws Exception {
+        section("bind", 2 * MS);
+        section("bind", 2 * MS);
+        section("query", 30 * MS);
+        mRecorder.onFrame(40 * MS);
+        section("idle", 50 * MS);
+        mRecorder.onFrame(-1);
+
+        String report = mRecorder.report();
+        assertTrue(report, report.startsWith("frames 1, janky 1 (100.0%)"));
+        int query = report.indexOf("\nquery\t1\t");
+        int bind = report.indexOf("\nbind\t2\t");
+        int idle = report.indexOf("\nidle\t1\t");
+        assertTrue(report, query > 0 && bind > query && idle > bind);
+
+        String summary = mRecorder.summary(1);
+        assertEquals(2, summary.split("\n").length);
+        assertTrue(summary, summary.contains("\nquery: jank 30.00, p90 "));
+    }
+}
@@ -0,0 +1,136 @@
+package com.codepath.simpletodo.reminder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ReminderScheduler}, driven by a simulated clock.
+ */
+public class ReminderSchedulerTest {
+
+    private static final int ITEMS = 100000;
+
+    /** Clock whose time only moves when the test says so */
+    private static class SimulatedClock implements ReminderScheduler.Clock {
+        long now;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    /** Wake-up that records the armed time and how many times it was armed */
+    private static class RecordingWakeup implements ReminderScheduler.Wakeup {
+        long armedAt = ReminderScheduler.NOT_ARMED;
+        int armCount;
+
+        @Override
+        public void arm(long atMillis) {
+            armedAt = atMillis;
+            armCount++;
+        }
+
+        @Override
+        public void cancel() {
+            armedAt = ReminderScheduler.NOT_ARMED;
+        }
+    }
+
+    private SimulatedClock mClock;
+    private RecordingWakeup mWakeup;
+    private ReminderScheduler mScheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new SimulatedClock();
+        mWakeup = new RecordingWakeup();
+        mScheduler = new ReminderScheduler(mClock, mWakeup);
+    }
+
+    @Test
+    public void armsOnlyTheEarliestReminder() throws Exception {
+        mScheduler.schedule(1, 5000);
+        mScheduler.schedule(2, 3000);
+        mScheduler.schedule(3, 9000);
+        assertEquals(3000, mWakeup.armedAt);
+        assertEquals(2, mWakeup.armCount);
+
+        mScheduler.cancel(2);
+        assertEquals(5000, mWakeup.armedAt);
+
+        mScheduler.schedule(3, 1000);
+        assertEquals(1000, mWakeup.armedAt);
+
+        mScheduler.cancel(1);
+        mScheduler.cancel(3);
+        assertEquals(ReminderScheduler.NOT_ARMED, mWakeup.armedAt);
+    }
+
+    @Test
+    public void firesHundredThousandRemindersInOrder() throws Exception {
+        Random random = new Random(11L);
+        long[] dueAt = new long[ITEMS + 1];
+        for (int id = 1; id <= ITEMS; id++) {
+            dueAt[id] = 1 + random.nextInt(30 * 24 * 3600) * 1000L;
+            mScheduler.schedule(id, dueAt[id]);
+        }
+
+        // Reschedule a tenth of the items and cancel another tenth
+        for (int id = 1; id <= ITEMS; id += 10) {
+            dueAt[id] = 1 + random.nextInt(30 * 24 * 3600) * 1000L;
+            mScheduler.schedule(id, dueAt[id]);
+        }
+        for (int id = 2; id <= ITEMS; id += 10) {
+            mScheduler.cancel(id);
+            dueAt[id] = 0;
+        }
+        int expected = ITEMS - ITEMS / 10;
+        assertEquals(expected, mScheduler.size());
+
+        // Advance the clock to each armed wake-up, as the alarm would
+        int fired = 0;
+        long last = 0;
+        int wakeups = 0;
+        while (mWakeup.armedAt != ReminderScheduler.NOT_ARMED) {
+            assertEquals(mScheduler.peekDueAt(), mWakeup.armedAt);
+            mClock.now = mWakeup.armedAt;
+            wakeups++;
+            for (long id : mScheduler.popDue()) {
+                assertEquals(mClock.now, dueAt[(int) id]);
+                assertTrue(dueAt[(int) id] >= last);
+                last = dueAt[(int) id];
+                fired++;
+            }
+        }
+        assertEquals(expected, fired);
+        assertEquals(0, mScheduler.size());
+        assertTrue(wakeups <= expected);
+    }
+
+    @Test
+    public void resetBuildsHeapFromQueryResult() throws Exception {
+        Random random = new Random(5L);
+        long[] ids = new long[ITEMS];
+        long[] dueAt = new long[ITEMS];
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < ITEMS; i++) {
+            ids[i] = i + 1;
+            dueAt[i] = 1000 + random.nextInt(1000000);
+            earliest = Math.min(earliest, dueAt[i]);
+        }
+        mScheduler.reset(ids, dueAt, ITEMS);
+        assertEquals(ITEMS, mScheduler.size());
+        assertEquals(earliest, mWakeup.armedAt);
+        assertEquals(1, mWakeup.armCount);
+
+        // Everything is due once the clock passes the latest reminder
+        mClock.now = Long.MAX_VALUE - 1;
+        assertEquals(ITEMS, mScheduler.popDue().length);
+        assertEquals(ReminderScheduler.NOT_ARMED, mWakeup.armedAt);
+    }
+}
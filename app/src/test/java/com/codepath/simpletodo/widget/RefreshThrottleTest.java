@@ -0,0 +1,100 @@
+package com.codepath.simpletodo.widget;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RefreshThrottle}, driven by a simulated clock.
+ */
+public class RefreshThrottleTest {
+
+    private static final long NOT_ARMED = Long.MAX_VALUE;
+
+    /** Clock whose time only moves when the test says so */
+    private static class SimulatedClock implements RefreshThrottle.Clock {
+        long now;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    /** Timer that records the armed time */
+    private static class RecordingTimer implements RefreshThrottle.Timer {
+        long armedAt = NOT_ARMED;
+
+        @Override
+        public void arm(long atMillis) {
+            assertEquals("Armed twice", NOT_ARMED, armedAt);
+            armedAt = atMillis;
+        }
+    }
+
+    private SimulatedClock mClock;
+    private RecordingTimer mTimer;
+    private RefreshThrottle mThrottle;
+    private int mRefreshes;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new SimulatedClock();
+        mTimer = new RecordingTimer();
+        mThrottle = new RefreshThrottle(mClock, mTimer, new Runnable() {
+            @Override
+            public void run() {
+                mRefreshes++;
+            }
+        });
+    }
+
+    // Move the clock to the given time, firing the timer on the way if it is due
+    private void advanceTo(long time) {
+        if (mTimer.armedAt <= time) {
+            mClock.now = mTimer.armedAt;
+            mTimer.armedAt = NOT_ARMED;
+            mThrottle.onTimer();
+        }
+        mClock.now = time;
+    }
+
+    @Test
+    public void changeAfterAQuietPeriod_refreshesAtOnce() throws Exception {
+        mClock.now = 5000;
+        mThrottle.onChanged();
+        assertEquals(1, mRefreshes);
+        advanceTo(5000 + RefreshThrottle.MIN_INTERVAL_MILLIS);
+        mThrottle.onChanged();
+        assertEquals(2, mRefreshes);
+        assertEquals(NOT_ARMED, mTimer.armedAt);
+    }
+
+    @Test
+    public void burstOfThousandWrites_refreshesTwice() throws Exception {
+        // 1k writes within 200 ms
+        for (int i = 0; i < 1000; i++) {
+            advanceTo(i / 5);
+            mThrottle.onChanged();
+        }
+        assertEquals(1, mRefreshes);
+        assertEquals(RefreshThrottle.MIN_INTERVAL_MILLIS, mTimer.armedAt);
+
+        // The rest of the burst is refreshed once, at the end of the interval
+        advanceTo(10 * RefreshThrottle.MIN_INTERVAL_MILLIS);
+        assertEquals(2, mRefreshes);
+        assertEquals(mRefreshes, mThrottle.getRefreshCount());
+    }
+
+    @Test
+    public void steadyWrites_refreshAtMostOncePerInterval() throws Exception {
+        // A write every 50 ms for a minute
+        for (long time = 0; time < 60000; time += 50) {
+            advanceTo(time);
+            mThrottle.onChanged();
+        }
+        advanceTo(61000);
+        assertTrue(mRefreshes + " refreshes", mRefreshes <= 60000 / RefreshThrottle.MIN_INTERVAL_MILLIS + 1);
+    }
+}
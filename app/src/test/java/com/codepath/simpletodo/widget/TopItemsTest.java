@@ -0,0 +1,154 @@
+package com.codepath.simpletodo.widget;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TopItems} and {@link TopItemsFeed}, against a simulated table of
+ * pending items whose top is found by sorting it.
+ */
+public class TopItemsTest {
+
+    private static final int CAPACITY = 10;
+
+    /** Table of pending items, read as the provider would */
+    private static class SimulatedTable implements TopItemsFeed.Source {
+        final Map<Long, TopItems.Item> pending = new HashMap<>();
+
+        @Override
+        public List<TopItems.Item> queryTop(int limit) {
+            List<TopItems.Item> items = new ArrayList<>(pending.values());
+            Collections.sort(items, TopItems.ORDER);
+            return new ArrayList<>(items.subList(0, Math.min(limit, items.size())));
+        }
+
+        @Override
+        public TopItems.Item queryItem(long id) {
+            return pending.get(id);
+        }
+    }
+
+    private SimulatedTable mTable;
+    private Random mRandom;
+    private long mNextId;
+
+    @Before
+    public void setUp() throws Exception {
+        mTable = new SimulatedTable();
+        mRandom = new Random(48L);
+        mNextId = 1;
+    }
+
+    private static TopItems.Item item(long id, int priority, long rank) {
+        return new TopItems.Item(id, "Item " + id, priority, rank);
+    }
+
+    // Make one random write to the table, and return the id of the row it changed
+    private long randomWrite() {
+        int size = mTable.pending.size();
+        int op = mRandom.nextInt(10);
+        if (size == 0 || op < 3) {
+            long id = mNextId++;
+            mTable.pending.put(id, item(id, mRandom.nextInt(3), mRandom.nextInt(1000)));
+            return id;
+        }
+        List<Long> ids = new ArrayList<>(mTable.pending.keySet());
+        long id = ids.get(mRandom.nextInt(ids.size()));
+        if (op < 5) {
+            // Done or deleted
+            mTable.pending.remove(id);
+        } else if (op < 8) {
+            mTable.pending.put(id, item(id, mRandom.nextInt(3), mTable.pending.get(id).mRank));
+        } else {
+            mTable.pending.put(id, item(id, mTable.pending.get(id).mPriority, mRandom.nextInt(1000)));
+        }
+        return id;
+    }
+
+    @Test
+    public void keptItems_matchTheTopAfterEveryChange() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            randomWrite();
+        }
+        TopItems top = new TopItems(CAPACITY);
+        top.reset(mTable.queryTop(CAPACITY));
+
+        int resets = 0;
+        int changes = 5000;
+        for (int i = 0; i < changes; i++) {
+            long id = randomWrite();
+            if (!top.apply(id, mTable.queryItem(id))) {
+                resets++;
+                top.reset(mTable.queryTop(CAPACITY));
+            }
+            assertEquals(mTable.queryTop(CAPACITY), top.getItems());
+        }
+        // Most changes touch items outside the top, or improve the ones in it
+        assertTrue(resets + " resets", resets < changes / 4);
+    }
+
+    @Test
+    public void fewerItemsThanTheCapacity_neverNeedAReset() throws Exception {
+        TopItems top = new TopItems(CAPACITY);
+        top.reset(mTable.queryTop(CAPACITY));
+        assertTrue(top.apply(1, item(1, 2, 0)));
+        assertTrue(top.apply(2, item(2, 0, 0)));
+        assertTrue(top.apply(1, item(1, 0, 5)));
+        assertTrue(top.apply(2, null));
+        assertEquals(Collections.singletonList(item(1, 0, 5)), top.getItems());
+    }
+
+    @Test
+    public void leavingAFullTop_invalidates() throws Exception {
+        TopItems top = new TopItems(2);
+        List<TopItems.Item> full = new ArrayList<>();
+        full.add(item(1, 2, 0));
+        full.add(item(2, 1, 0));
+        top.reset(full);
+
+        // A better item evicts the worst one, a worse one is not kept
+        assertTrue(top.apply(3, item(3, 2, 1)));
+        assertTrue(top.apply(4, item(4, 0, 0)));
+        assertEquals(item(3, 2, 1), top.getItems().get(1));
+
+        // Item 2, or 4, may now take the place of item 1
+        assertFalse(top.apply(1, null));
+        assertFalse(top.isValid());
+    }
+
+    @Test
+    public void burstOfWrites_isAppliedWithOneQueryOfTheTop() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            randomWrite();
+        }
+        TopItemsFeed feed = new TopItemsFeed(CAPACITY, mTable);
+        assertEquals(mTable.queryTop(CAPACITY), feed.refresh());
+        assertEquals(1, feed.getTopQueryCount());
+
+        // A few writes are read row by row
+        for (int i = 0; i < 5; i++) {
+            feed.onRowChanged(randomWrite());
+        }
+        assertEquals(mTable.queryTop(CAPACITY), feed.refresh());
+        assertTrue(feed.getItemQueryCount() <= 5);
+
+        // 1k writes between two refreshes are too many to read one by one
+        int itemQueries = feed.getItemQueryCount();
+        int topQueries = feed.getTopQueryCount();
+        for (int i = 0; i < 1000; i++) {
+            feed.onRowChanged(randomWrite());
+        }
+        assertEquals(mTable.queryTop(CAPACITY), feed.refresh());
+        assertEquals(itemQueries, feed.getItemQueryCount());
+        assertEquals(topQueries + 1, feed.getTopQueryCount());
+    }
+}